@@ -27,6 +27,10 @@ package org.sakaiproject.chat2.model.impl;
 import java.io.Reader;
 import java.io.StringReader;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
@@ -45,6 +49,7 @@ import org.sakaiproject.entity.api.Reference;
 import org.sakaiproject.event.api.Event;
 import org.sakaiproject.exception.IdUnusedException;
 import org.sakaiproject.exception.PermissionException;
+import org.sakaiproject.search.api.BatchReadContentProducer;
 import org.sakaiproject.search.api.EntityContentProducer;
 import org.sakaiproject.search.api.SearchIndexBuilder;
 import org.sakaiproject.search.api.SearchService;
@@ -60,7 +65,7 @@ import org.sakaiproject.util.ResourceLoader;
  * @author chrismaurer
  *
  */
-public class ChatContentProducer implements EntityContentProducer {
+public class ChatContentProducer implements EntityContentProducer, BatchReadContentProducer {
 
    protected final Logger logger = LoggerFactory.getLogger(getClass());
    private SearchService searchService = null;
@@ -140,21 +145,47 @@ protected void init() throws Exception {
     */
    public boolean canRead(String reference)
    {
-      Reference ref = getReference(reference);
-      EntityProducer ep = getProducer(ref);
-      if (ep instanceof ChatEntityProducer)
+      return !canRead(getSiteId(reference), Collections.singleton(reference)).isEmpty();
+   }
+
+   /**
+    * {@inheritDoc}
+    * Messages are readable by anyone with chat.read in the context of their channel,
+    * so the permission is checked once for each context rather than once per message.
+    */
+   public Set<String> canRead(String siteId, Collection<String> references)
+   {
+      Set<String> readable = new HashSet<String>();
+      Map<String, Boolean> contexts = new HashMap<String, Boolean>();
+      for (String reference : references)
       {
-         try
-         {
-            ChatEntityProducer cep = (ChatEntityProducer) ep;
-            cep.getMessage(ref);
-            return true;
-         }
-         catch (Exception ex)
+         Reference ref = getReference(reference);
+         EntityProducer ep = ref == null ? null : getProducer(ref);
+         if (ep instanceof ChatEntityProducer)
          {
+            try
+            {
+               ChatEntityProducer cep = (ChatEntityProducer) ep;
+               ChatMessage m = cep.getMessage(ref);
+               if (m == null || m.getChatChannel() == null) continue;
+               String context = m.getChatChannel().getContext();
+               Boolean allowed = contexts.get(context);
+               if (allowed == null)
+               {
+                  allowed = getChatManager().getCanReadMessage(m.getChatChannel());
+                  contexts.put(context, allowed);
+               }
+               if (allowed)
+               {
+                  readable.add(reference);
+               }
+            }
+            catch (Exception ex)
+            {
+            }
          }
       }
-      return false;
+      return readable;
    }
 
    /**
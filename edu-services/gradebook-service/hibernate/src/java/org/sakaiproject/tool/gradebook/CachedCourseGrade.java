@@ -0,0 +1,152 @@
+/*******************************************************************************
+ * Copyright (c) 2003-2014 The Apereo Foundation
+ *
+ * Licensed under the Educational Community License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://opensource.org/licenses/ecl2
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+
+package org.sakaiproject.tool.gradebook;
+
+import java.io.Serializable;
+import java.util.Collections;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.apache.commons.lang3.StringUtils;
+import org.apache.commons.lang3.builder.ToStringBuilder;
+
+/**
+ * The calculated course grade and category scores of a student, kept so the gradebook doesn't have to
+ * recalculate them from every grade record each time they are read. A cached grade is marked stale
+ * (and its version bumped) when anything it was calculated from changes, and is recalculated on the next read.
+ * The entered (overridden) course grade is not cached, that is always read from the {@link CourseGradeRecord}.
+ */
+public class CachedCourseGrade implements Serializable {
+
+	private static final long serialVersionUID = 1L;
+
+	private Long id;
+	private int version;
+	private Long gradebookId;
+	private String studentId;
+	private boolean stale;
+	private Double calculatedGrade;
+	private Double pointsEarned;
+	private Double totalPointsPossible;
+	private String categoryScores;
+	private Date dateCalculated;
+
+	public CachedCourseGrade() {
+	}
+
+	public CachedCourseGrade(Long gradebookId, String studentId) {
+		this.gradebookId = gradebookId;
+		this.studentId = studentId;
+		this.stale = true;
+		this.dateCalculated = new Date();
+	}
+
+	/**
+	 * @return the category scores by category id, a category without a score isn't included
+	 */
+	public Map<Long, Double> getCategoryScoreMap() {
+		if (StringUtils.isEmpty(categoryScores)) {
+			return Collections.emptyMap();
+		}
+		Map<Long, Double> scores = new LinkedHashMap<>();
+		for (String score : StringUtils.split(categoryScores, ';')) {
+			int split = score.indexOf('=');
+			scores.put(Long.valueOf(score.substring(0, split)), Double.valueOf(score.substring(split + 1)));
+		}
+		return scores;
+	}
+
+	public void setCategoryScoreMap(Map<Long, Double> scores) {
+		StringBuilder encoded = new StringBuilder();
+		for (Map.Entry<Long, Double> score : scores.entrySet()) {
+			if (score.getValue() != null) {
+				if (encoded.length() > 0) {
+					encoded.append(';');
+				}
+				encoded.append(score.getKey()).append('=').append(score.getValue());
+			}
+		}
+		this.categoryScores = encoded.toString();
+	}
+
+	public Long getId() {
+		return id;
+	}
+	public void setId(Long id) {
+		this.id = id;
+	}
+	public int getVersion() {
+		return version;
+	}
+	public void setVersion(int version) {
+		this.version = version;
+	}
+	public Long getGradebookId() {
+		return gradebookId;
+	}
+	public void setGradebookId(Long gradebookId) {
+		this.gradebookId = gradebookId;
+	}
+	public String getStudentId() {
+		return studentId;
+	}
+	public void setStudentId(String studentId) {
+		this.studentId = studentId;
+	}
+	public boolean isStale() {
+		return stale;
+	}
+	public void setStale(boolean stale) {
+		this.stale = stale;
+	}
+	public Double getCalculatedGrade() {
+		return calculatedGrade;
+	}
+	public void setCalculatedGrade(Double calculatedGrade) {
+		this.calculatedGrade = calculatedGrade;
+	}
+	public Double getPointsEarned() {
+		return pointsEarned;
+	}
+	public void setPointsEarned(Double pointsEarned) {
+		this.pointsEarned = pointsEarned;
+	}
+	public Double getTotalPointsPossible() {
+		return totalPointsPossible;
+	}
+	public void setTotalPointsPossible(Double totalPointsPossible) {
+		this.totalPointsPossible = totalPointsPossible;
+	}
+	public String getCategoryScores() {
+		return categoryScores;
+	}
+	public void setCategoryScores(String categoryScores) {
+		this.categoryScores = categoryScores;
+	}
+	public Date getDateCalculated() {
+		return dateCalculated;
+	}
+	public void setDateCalculated(Date dateCalculated) {
+		this.dateCalculated = dateCalculated;
+	}
+
+	@Override
+	public String toString() {
+		return new ToStringBuilder(this).append(gradebookId).append(studentId).append(stale).append(calculatedGrade).toString();
+	}
+}
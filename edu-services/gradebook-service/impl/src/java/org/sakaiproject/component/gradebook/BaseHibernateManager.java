@@ -90,6 +90,39 @@ public abstract class BaseHibernateManager extends HibernateDaoSupport {
     // Local cache of static-between-deployment properties.
     protected Map propertiesMap = new HashMap();
 
+    /** Whether the calculated course grades are kept in the db, rather than calculated each time they are read */
+    public static final String COURSE_GRADE_CACHE_PROP = "gradebook.courseGradeCache.enabled";
+
+    private CourseGradeCache courseGradeCache;
+
+    @Override
+    protected void initDao() throws Exception {
+        courseGradeCache = new CourseGradeCache(getSessionFactory());
+    }
+
+    /**
+     * @return the calculated course grades kept in the db, or null if they are to be calculated every time
+     */
+    protected CourseGradeCache getCourseGradeCache() {
+        return org.sakaiproject.component.cover.ServerConfigurationService.getBoolean(COURSE_GRADE_CACHE_PROP, true) ? courseGradeCache : null;
+    }
+
+    /**
+     * Mark the cached course grades of the gradebook stale, when a change to the gradebook, its categories or items
+     * could change any student's course grade. The grades are recalculated the next time they are read.
+     * (A new item or category has no grades yet, so doesn't change any.)
+     */
+    protected void invalidateCourseGrades(Long gradebookId) {
+        courseGradeCache.invalidate(gradebookId);
+    }
+
+    /**
+     * Mark the cached course grades of the students stale, when their grades change.
+     */
+    protected void invalidateCourseGrades(Long gradebookId, Collection<String> studentUids) {
+        courseGradeCache.invalidate(gradebookId, studentUids);
+    }
+
     public Gradebook getGradebook(String uid) throws GradebookNotFoundException {
     	List list = getHibernateTemplate().findByNamedParam("from Gradebook as gb where gb.uid = :uid", "uid", uid);
 		if (list.size() == 1) {
@@ -240,6 +273,7 @@ public abstract class BaseHibernateManager extends HibernateDaoSupport {
 
 		session.evict(asnFromDb);
 		session.update(assignment);
+		invalidateCourseGrades(assignment.getGradebook().getId());
 	}
 
     protected AssignmentGradeRecord getAssignmentGradeRecord(Assignment assignment, String studentUid) throws HibernateException {
@@ -364,6 +398,7 @@ public abstract class BaseHibernateManager extends HibernateDaoSupport {
             } catch (StaleObjectStateException e) {
                 throw new StaleObjectModificationException(e);
             }
+            invalidateCourseGrades(gradebook.getId());
 
             return null;
         };
@@ -549,6 +584,7 @@ public abstract class BaseHibernateManager extends HibernateDaoSupport {
             }
             session.evict(persistentCat);
             session.update(category);
+            invalidateCourseGrades(category.getGradebook().getId());
             return null;
         };
         try {
@@ -572,6 +608,7 @@ public abstract class BaseHibernateManager extends HibernateDaoSupport {
 
             persistentCat.setRemoved(true);
             session.update(persistentCat);
+            invalidateCourseGrades(persistentCat.getGradebook().getId());
             return null;
         };
     	try {
@@ -1283,6 +1320,7 @@ public abstract class BaseHibernateManager extends HibernateDaoSupport {
                     session.save(new GradingEvent(assignment, graderId, studentUid, gradeRecord.getPointsEarned()));
                 }
             }
+            invalidateCourseGrades(gradebook.getId());
             return null;
         });
     }
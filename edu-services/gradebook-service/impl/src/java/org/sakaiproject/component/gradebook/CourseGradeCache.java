@@ -0,0 +1,308 @@
+/*******************************************************************************
+ * Copyright (c) 2003-2014 The Apereo Foundation
+ *
+ * Licensed under the Educational Community License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://opensource.org/licenses/ecl2
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+
+package org.sakaiproject.component.gradebook;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Function;
+
+import org.hibernate.HibernateException;
+import org.hibernate.Session;
+import org.hibernate.SessionFactory;
+import org.hibernate.Transaction;
+import org.hibernate.type.DoubleType;
+import org.hibernate.type.StringType;
+import org.sakaiproject.tool.gradebook.CachedCourseGrade;
+import org.springframework.transaction.support.TransactionSynchronizationAdapter;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Keeps the calculated course grades in GB_CACHED_COURSE_GRADE_T so reading the course grades of a gradebook
+ * only reads a row per student, and only the students whose grades changed since are recalculated.
+ * <p>
+ * Anything that changes what a course grade is calculated from marks the cached grades it affects stale, once
+ * the change is committed. A read recalculates the stale (or missing) grades and stores them if they weren't
+ * marked stale again meanwhile: before recalculating, it makes sure there is a row for each of the students and
+ * takes the row versions, and stores the recalculated grades only where the version hasn't changed. So a
+ * change committed during the recalculation is never lost (with the read committed isolation Sakai runs with).
+ * <p>
+ * The rows are read and written in their own sessions, so a clash with another server's write is just a
+ * grade left stale and never fails the caller's transaction.
+ */
+@Slf4j
+public class CourseGradeCache {
+
+	/** The most students in the "in" list of one statement */
+	private static final int IN_LIMIT = 500;
+
+	private final SessionFactory sessionFactory;
+
+	public CourseGradeCache(SessionFactory sessionFactory) {
+		this.sessionFactory = sessionFactory;
+	}
+
+	/**
+	 * Get the course grades of the students, recalculating the ones that are stale.
+	 *
+	 * @param gradebookId the gradebook
+	 * @param studentUids the students
+	 * @param calculator calculates the course grades of the students it is given (in the caller's transaction)
+	 * @return the course grades by student uid
+	 */
+	public Map<String, CachedCourseGrade> getCourseGrades(Long gradebookId, Collection<String> studentUids,
+			Function<Collection<String>, Map<String, CachedCourseGrade>> calculator) {
+		Map<String, CachedCourseGrade> grades = new HashMap<>();
+		if (studentUids.isEmpty()) {
+			return grades;
+		}
+
+		Map<String, CachedCourseGrade> cached;
+		try {
+			cached = read(gradebookId, studentUids);
+		} catch (HibernateException e) {
+			log.warn("Could not read the cached course grades for gradebook {}: {}", gradebookId, e.toString());
+			return calculator.apply(studentUids);
+		}
+
+		Set<String> stale = new HashSet<>();
+		for (String studentUid : studentUids) {
+			CachedCourseGrade grade = cached.get(studentUid);
+			if (grade == null || grade.isStale()) {
+				stale.add(studentUid);
+			} else {
+				grades.put(studentUid, grade);
+			}
+		}
+		if (stale.isEmpty()) {
+			return grades;
+		}
+
+		// the versions from before the recalculation reads any grades
+		Map<String, CachedCourseGrade> before = null;
+		try {
+			before = prepare(gradebookId, stale, cached);
+		} catch (HibernateException e) {
+			// another read is recalculating them, the grades are still calculated but not stored this time
+			log.debug("Could not prepare the cached course grades for gradebook {}: {}", gradebookId, e.toString());
+		}
+
+		Map<String, CachedCourseGrade> calculated = calculator.apply(stale);
+		grades.putAll(calculated);
+
+		if (before != null) {
+			try {
+				int stored = store(before, calculated);
+				log.debug("Recalculated {} course grades for gradebook {}, stored {}", calculated.size(), gradebookId, stored);
+			} catch (HibernateException e) {
+				log.warn("Could not store the course grades for gradebook {}: {}", gradebookId, e.toString());
+			}
+		}
+		return grades;
+	}
+
+	/**
+	 * Mark the cached course grades of the whole gradebook stale once the current transaction commits.
+	 */
+	public void invalidate(Long gradebookId) {
+		if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+			markStale(gradebookId, null);
+			return;
+		}
+		pending().put(gradebookId, null);
+	}
+
+	/**
+	 * Mark the cached course grades of the students stale once the current transaction commits.
+	 */
+	public void invalidate(Long gradebookId, Collection<String> studentUids) {
+		if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+			markStale(gradebookId, new HashSet<>(studentUids));
+			return;
+		}
+		Map<Long, Set<String>> pending = pending();
+		if (pending.containsKey(gradebookId)) {
+			Set<String> students = pending.get(gradebookId);
+			if (students != null) {
+				students.addAll(studentUids);
+			}
+		} else {
+			pending.put(gradebookId, new HashSet<>(studentUids));
+		}
+	}
+
+	/**
+	 * The invalidations to make when the current transaction commits. They have to wait for the commit, a grade
+	 * recalculated before then would still be calculated from the old values.
+	 */
+	@SuppressWarnings("unchecked")
+	private Map<Long, Set<String>> pending() {
+		Map<Long, Set<String>> pending = (Map<Long, Set<String>>) TransactionSynchronizationManager.getResource(this);
+		if (pending == null) {
+			Map<Long, Set<String>> invalidations = new HashMap<>();
+			TransactionSynchronizationManager.bindResource(this, invalidations);
+			TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronizationAdapter() {
+				@Override
+				public void afterCommit() {
+					for (Map.Entry<Long, Set<String>> invalidation : invalidations.entrySet()) {
+						markStale(invalidation.getKey(), invalidation.getValue());
+					}
+				}
+
+				@Override
+				public void afterCompletion(int status) {
+					TransactionSynchronizationManager.unbindResourceIfPossible(CourseGradeCache.this);
+				}
+			});
+			pending = invalidations;
+		}
+		return pending;
+	}
+
+	/**
+	 * @param studentUids the students, or null for all the students in the gradebook
+	 */
+	private void markStale(Long gradebookId, Set<String> studentUids) {
+		try {
+			inTransaction(session -> {
+				if (studentUids == null) {
+					return session.createQuery("update CachedCourseGrade set stale = true, version = version + 1 where gradebookId = :gradebookId")
+							.setLong("gradebookId", gradebookId).executeUpdate();
+				}
+				int updated = 0;
+				for (List<String> students : partition(studentUids)) {
+					updated += session.createQuery("update CachedCourseGrade set stale = true, version = version + 1 where gradebookId = :gradebookId and studentId in (:studentIds)")
+							.setLong("gradebookId", gradebookId).setParameterList("studentIds", students).executeUpdate();
+				}
+				return updated;
+			});
+		} catch (HibernateException e) {
+			// a grade left fresh would be wrong until the next change, so make sure this is seen
+			log.error("Could not mark the cached course grades of gradebook {} stale for {}", gradebookId,
+					studentUids == null ? "all students" : studentUids, e);
+		}
+	}
+
+	@SuppressWarnings("unchecked")
+	private Map<String, CachedCourseGrade> read(Long gradebookId, Collection<String> studentUids) {
+		Map<String, CachedCourseGrade> cached = new HashMap<>();
+		inSession(session -> {
+			for (List<String> students : partition(studentUids)) {
+				List<CachedCourseGrade> rows = session.createQuery("from CachedCourseGrade where gradebookId = :gradebookId and studentId in (:studentIds)")
+						.setLong("gradebookId", gradebookId).setParameterList("studentIds", students).list();
+				for (CachedCourseGrade row : rows) {
+					cached.put(row.getStudentId(), row);
+				}
+			}
+			return null;
+		});
+		return cached;
+	}
+
+	/**
+	 * Make sure each of the stale students has a row, committed before their grades are read for the recalculation.
+	 *
+	 * @return the rows as they were before the recalculation
+	 */
+	private Map<String, CachedCourseGrade> prepare(Long gradebookId, Set<String> stale, Map<String, CachedCourseGrade> cached) {
+		List<String> missing = new ArrayList<>();
+		for (String studentUid : stale) {
+			if (!cached.containsKey(studentUid)) {
+				missing.add(studentUid);
+			}
+		}
+		if (!missing.isEmpty()) {
+			inTransaction(session -> {
+				for (String studentUid : missing) {
+					session.save(new CachedCourseGrade(gradebookId, studentUid));
+				}
+				return missing.size();
+			});
+		}
+		return read(gradebookId, stale);
+	}
+
+	/**
+	 * Store the recalculated grades where the row wasn't marked stale during the recalculation.
+	 *
+	 * @return the number stored
+	 */
+	private int store(Map<String, CachedCourseGrade> before, Map<String, CachedCourseGrade> calculated) {
+		Date now = new Date();
+		return inTransaction(session -> {
+			int stored = 0;
+			for (Map.Entry<String, CachedCourseGrade> grade : calculated.entrySet()) {
+				CachedCourseGrade row = before.get(grade.getKey());
+				if (row == null) {
+					continue;
+				}
+				CachedCourseGrade value = grade.getValue();
+				stored += session.createQuery("update CachedCourseGrade set stale = false, version = version + 1, calculatedGrade = :calculatedGrade,"
+						+ " pointsEarned = :pointsEarned, totalPointsPossible = :totalPointsPossible, categoryScores = :categoryScores,"
+						+ " dateCalculated = :dateCalculated where id = :id and version = :version")
+						.setParameter("calculatedGrade", value.getCalculatedGrade(), DoubleType.INSTANCE)
+						.setParameter("pointsEarned", value.getPointsEarned(), DoubleType.INSTANCE)
+						.setParameter("totalPointsPossible", value.getTotalPointsPossible(), DoubleType.INSTANCE)
+						.setParameter("categoryScores", value.getCategoryScores(), StringType.INSTANCE)
+						.setTimestamp("dateCalculated", now)
+						.setLong("id", row.getId())
+						.setInteger("version", row.getVersion())
+						.executeUpdate();
+			}
+			return stored;
+		});
+	}
+
+	private static List<List<String>> partition(Collection<String> studentUids) {
+		List<String> students = new ArrayList<>(studentUids);
+		List<List<String>> partitions = new ArrayList<>();
+		for (int i = 0; i < students.size(); i += IN_LIMIT) {
+			partitions.add(students.subList(i, Math.min(i + IN_LIMIT, students.size())));
+		}
+		return partitions;
+	}
+
+	private <T> T inSession(Function<Session, T> work) {
+		Session session = sessionFactory.openSession();
+		try {
+			return work.apply(session);
+		} finally {
+			session.close();
+		}
+	}
+
+	private <T> T inTransaction(Function<Session, T> work) {
+		return inSession(session -> {
+			Transaction transaction = session.beginTransaction();
+			try {
+				T result = work.apply(session);
+				transaction.commit();
+				return result;
+			} catch (RuntimeException e) {
+				transaction.rollback();
+				throw e;
+			}
+		});
+	}
+}
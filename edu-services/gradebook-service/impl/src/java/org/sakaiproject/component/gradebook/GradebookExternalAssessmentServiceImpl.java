@@ -27,6 +27,7 @@ import java.text.NumberFormat;
 import java.text.ParseException;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.Date;
 import java.util.HashMap;
 import java.util.HashSet;
@@ -251,6 +252,7 @@ public class GradebookExternalAssessmentServiceImpl extends BaseHibernateManager
                 asn.setReleased(true);
                 asn.setPointsPossible(Double.valueOf(points));
                 session.update(asn);
+                invalidateCourseGrades(asn.getGradebook().getId());
                 log.info("External assessment updated in gradebookUid={}, externalId={} by userUid={}", gradebookUid, externalId, getUserUid());
                 return null;
             }
@@ -284,6 +286,7 @@ public class GradebookExternalAssessmentServiceImpl extends BaseHibernateManager
 
             numDeleted = session.createQuery("delete Comment where gradableObject=:go").setParameter("go", asn).executeUpdate();
             log.info("Deleted {} externally defined comments", numDeleted);
+            invalidateCourseGrades(asn.getGradebook().getId());
             return null;
         });
 
@@ -411,6 +414,7 @@ public class GradebookExternalAssessmentServiceImpl extends BaseHibernateManager
             }
 
             log.debug("updateExternalAssessmentScores sent {} records, actually changed {}", studentIds.size() ,changedStudents.size());
+            invalidateCourseGrades(assignment.getGradebook().getId(), changedStudents);
 
             // Sync database.
             session.flush();
@@ -484,6 +488,7 @@ public class GradebookExternalAssessmentServiceImpl extends BaseHibernateManager
             }
 
             log.debug("updateExternalAssessmentScores sent {} records, actually changed {}", studentIds.size(), changedStudents.size());
+            invalidateCourseGrades(assignment.getGradebook().getId(), changedStudents);
 
             // Sync database.
             session.flush();
@@ -677,6 +682,7 @@ public class GradebookExternalAssessmentServiceImpl extends BaseHibernateManager
         assignment.setExternallyMaintained(false);
 		getHibernateTemplate().execute((HibernateCallback<?>) session -> {
 			session.update(assignment);
+			invalidateCourseGrades(assignment.getGradebook().getId());
 			log.info("Externally-managed assignment {} moved to Gradebook management in gradebookUid={} by userUid={}", externalId, gradebookUid, getUserUid());
 			return null;
 		});
@@ -812,6 +818,7 @@ public class GradebookExternalAssessmentServiceImpl extends BaseHibernateManager
                 else
                     asn.setUngraded(false);
         session.update(asn);
+        invalidateCourseGrades(asn.getGradebook().getId());
         log.info("External assessment updated in gradebookUid={}, externalId={} by userUid={}", gradebookUid, externalId, getUserUid());
         return null;
 
@@ -895,6 +902,7 @@ public class GradebookExternalAssessmentServiceImpl extends BaseHibernateManager
 				agr.setGraderId(getUserUid());
 				log.debug("About to save AssignmentGradeRecord id={}, version={}, studenttId={}, pointsEarned={}", agr.getId(), agr.getVersion(), agr.getStudentId(), agr.getPointsEarned());
 				session.saveOrUpdate(agr);
+				invalidateCourseGrades(asn.getGradebook().getId(), Collections.singleton(studentUid));
 
 				// Sync database.
 				session.flush();
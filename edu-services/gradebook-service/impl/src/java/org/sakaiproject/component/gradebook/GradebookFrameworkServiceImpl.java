@@ -338,6 +338,11 @@ public class GradebookFrameworkServiceImpl extends BaseHibernateManager implemen
         hibTempl.deleteAll(toBeDeleted);
         if (log.isDebugEnabled()) log.debug("Deleted " + numberDeleted + " grade records");
 
+        toBeDeleted = hibTempl.findByNamedParam("from CachedCourseGrade as cg where cg.gradebookId = :gradebookid", "gradebookid", gradebookId);
+        numberDeleted = toBeDeleted.size();
+        hibTempl.deleteAll(toBeDeleted);
+        if (log.isDebugEnabled()) log.debug("Deleted " + numberDeleted + " cached course grades");
+
         toBeDeleted = hibTempl.findByNamedParam("from GradableObject as go where go.gradebook.id = :gradebookid", "gradebookid", gradebookId);
         numberDeleted = toBeDeleted.size();
         hibTempl.deleteAll(toBeDeleted);
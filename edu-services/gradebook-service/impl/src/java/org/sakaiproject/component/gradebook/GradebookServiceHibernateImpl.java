@@ -75,6 +75,7 @@ import org.sakaiproject.site.api.Site;
 import org.sakaiproject.site.api.SiteService;
 import org.sakaiproject.tool.gradebook.Assignment;
 import org.sakaiproject.tool.gradebook.AssignmentGradeRecord;
+import org.sakaiproject.tool.gradebook.CachedCourseGrade;
 import org.sakaiproject.tool.gradebook.Category;
 import org.sakaiproject.tool.gradebook.Comment;
 import org.sakaiproject.tool.gradebook.CourseGrade;
@@ -734,6 +735,7 @@ public class GradebookServiceHibernateImpl extends BaseHibernateManager implemen
                 Gradebook gradebook = asn.getGradebook();
                 asn.setRemoved(true);
                 session.update(asn);
+                invalidateCourseGrades(gradebook.getId());
                 
                 if(log.isInfoEnabled()) log.info("Assignment " + asn.getName() + " has been removed from " + gradebook);
                 return null;
@@ -1016,6 +1018,71 @@ public class GradebookServiceHibernateImpl extends BaseHibernateManager implemen
 		return filteredRecords;
 	}
 	
+	/**
+	 * Get the course grade records of the students, as stored: with the entered grades but not the calculated ones.
+	 * Students without a record get a new (unsaved) one.
+	 */
+	@SuppressWarnings("unchecked")
+	private List<CourseGradeRecord> getCourseGradeRecords(final CourseGrade courseGrade, final Collection<String> studentUids) {
+		if(studentUids == null || studentUids.isEmpty()) {
+			return new ArrayList<>();
+		}
+		List<CourseGradeRecord> records = (List<CourseGradeRecord>) getHibernateTemplate().findByNamedParam(
+				"from CourseGradeRecord as cgr where cgr.gradableObject.id = :gradableObjectId", "gradableObjectId", courseGrade.getId());
+		return filterAndPopulateCourseGradeRecordsByStudents(courseGrade, records, new HashSet<>(studentUids));
+	}
+
+	/**
+	 * Get the calculated course grades of the students, from the course grade cache unless it's turned off.
+	 */
+	private Map<String, CachedCourseGrade> getCalculatedCourseGrades(final CourseGrade courseGrade, final Collection<String> studentUids) {
+		CourseGradeCache cache = getCourseGradeCache();
+		if(cache == null) {
+			return calculateCourseGrades(courseGrade, studentUids);
+		}
+		return cache.getCourseGrades(courseGrade.getGradebook().getId(), studentUids, students -> calculateCourseGrades(courseGrade, students));
+	}
+
+	/**
+	 * Calculate the course grades of the students, and their score in each category if the gradebook has categories.
+	 */
+	@SuppressWarnings("unchecked")
+	private Map<String, CachedCourseGrade> calculateCourseGrades(final CourseGrade courseGrade, final Collection<String> studentUids) {
+		Map<String, CachedCourseGrade> calculated = new HashMap<>();
+		if(studentUids.isEmpty()) {
+			return calculated;
+		}
+		Long gradebookId = courseGrade.getGradebook().getId();
+
+		List<CourseGradeRecord> records = getPointsEarnedCourseGradeRecords(courseGrade, studentUids);
+
+		List<Category> categories = Collections.emptyList();
+		Map<String, List<AssignmentGradeRecord>> gradeRecMap = Collections.emptyMap();
+		if(getGradebook(gradebookId).getCategory_type() != GradebookService.CATEGORY_TYPE_NO_CATEGORY) {
+			categories = getCategories(gradebookId);
+			gradeRecMap = getHibernateTemplate().execute(session -> getGradeRecordMapForStudents(gradebookId, studentUids));
+		}
+
+		for(CourseGradeRecord cgr : records) {
+			CachedCourseGrade grade = new CachedCourseGrade(gradebookId, cgr.getStudentId());
+			grade.setCalculatedGrade(cgr.getAutoCalculatedGrade());
+			grade.setPointsEarned(cgr.getPointsEarned());
+			grade.setTotalPointsPossible(cgr.getTotalPointsPossible());
+
+			List<AssignmentGradeRecord> studentGradeRecs = gradeRecMap.get(cgr.getStudentId());
+			if(studentGradeRecs != null) {
+				Map<Long, Double> categoryScores = new HashMap<>();
+				for(Category category : categories) {
+					//the calculation filters the list it is given
+					categoryScores.put(category.getId(), calculateCategoryScore(cgr.getStudentId(), category.getId(), new ArrayList<>(studentGradeRecs)));
+				}
+				grade.setCategoryScoreMap(categoryScores);
+			}
+			calculated.put(cgr.getStudentId(), grade);
+		}
+		return calculated;
+	}
+
 	@SuppressWarnings({ "rawtypes", "unchecked" })
 	private double getTotalPointsInternal(final Gradebook gradebook, final List categories, final String studentId, List<AssignmentGradeRecord> studentGradeRecs, List<Assignment> countedAssigns, boolean literalTotal)
         {
@@ -2227,6 +2294,9 @@ public class GradebookServiceHibernateImpl extends BaseHibernateManager implemen
 			for (GradingEvent gradingEvent : eventsToAdd) {
 				getHibernateTemplate().saveOrUpdate(gradingEvent);
 			}
+			if (!agrToUpdate.isEmpty()) {
+				invalidateCourseGrades(gradebook.getId(), agrToUpdate.stream().map(AssignmentGradeRecord::getStudentId).collect(Collectors.toSet()));
+			}
 		  }	catch (HibernateOptimisticLockingFailureException holfe) {
 			  if(log.isInfoEnabled()) log.info("An optimistic locking failure occurred while attempting to save scores and comments for gb Item " + gradableObjectId);
 			  throw new StaleObjectModificationException(holfe);
@@ -2480,6 +2550,7 @@ public class GradebookServiceHibernateImpl extends BaseHibernateManager implemen
 				session.saveOrUpdate(gradeRecord);
 				
 				session.save(new GradingEvent(assignment, graderId, studentUid, score));
+				invalidateCourseGrades(assignment.getGradebook().getId(), Collections.singleton(studentUid));
 				
 				// Sync database.
 				session.flush();
@@ -3083,6 +3154,13 @@ public class GradebookServiceHibernateImpl extends BaseHibernateManager implemen
 	
 	@Override
 	public Double calculateCategoryScore(Long gradebookId, String studentUuid, Long categoryId) {
+
+		CourseGradeCache cache = getCourseGradeCache();
+		if(cache != null) {
+			CachedCourseGrade calculated = cache.getCourseGrades(gradebookId, Collections.singleton(studentUuid),
+					students -> calculateCourseGrades(getCourseGrade(gradebookId), students)).get(studentUuid);
+			return calculated == null ? null : calculated.getCategoryScoreMap().get(categoryId);
+		}
 			
 		//get all grade records for the student
 		@SuppressWarnings({ "unchecked", "rawtypes"})
@@ -3217,10 +3295,14 @@ public class GradebookServiceHibernateImpl extends BaseHibernateManager implemen
 			
 			List<Assignment> assignments = getAssignmentsCounted(gradebook.getId());
 			GradeMapping gradeMap = gradebook.getSelectedGradeMapping();
-						
+			CourseGrade courseGrade = getCourseGrade(gradebook.getId());
+
+			//the entered grades, and a record for each student without one
+			List<CourseGradeRecord> gradeRecords = getCourseGradeRecords(courseGrade, userUuids);
+
 			//this takes care of drop/keep scores
-			List<CourseGradeRecord> gradeRecords = getPointsEarnedCourseGradeRecords(getCourseGrade(gradebook.getId()), userUuids);
-			
+			Map<String, CachedCourseGrade> calculatedGrades = getCalculatedCourseGrades(courseGrade, userUuids);
+
 			gradeRecords.forEach(gr -> {
 				
 				org.sakaiproject.service.gradebook.shared.CourseGrade cg = new org.sakaiproject.service.gradebook.shared.CourseGrade();
@@ -3234,11 +3316,12 @@ public class GradebookServiceHibernateImpl extends BaseHibernateManager implemen
 				//set date recorded
 				cg.setDateRecorded(gr.getDateRecorded());
 				
-				if(!assignments.isEmpty()) {
+				CachedCourseGrade calculated = calculatedGrades.get(gr.getStudentId());
+				if(!assignments.isEmpty() && calculated != null) {
 					
 					//calculated grade
 					//may be null if no grade entries to calculate
-					Double calculatedGrade = gr.getAutoCalculatedGrade();
+					Double calculatedGrade = calculated.getCalculatedGrade();
 					if(calculatedGrade != null) {
 						cg.setCalculatedGrade(calculatedGrade.toString());
 					}
@@ -3249,8 +3332,8 @@ public class GradebookServiceHibernateImpl extends BaseHibernateManager implemen
 					cg.setMappedGrade(mappedGrade);
 					
 					//points
-					cg.setPointsEarned(gr.getPointsEarned()); //synonymous with gradeRecord.getCalculatedPointsEarned()
-					cg.setTotalPointsPossible(gr.getTotalPointsPossible());
+					cg.setPointsEarned(calculated.getPointsEarned()); //synonymous with gradeRecord.getCalculatedPointsEarned()
+					cg.setTotalPointsPossible(calculated.getTotalPointsPossible());
 					
 				}
 				rval.put(gr.getStudentId(), cg);
@@ -0,0 +1,176 @@
+/*******************************************************************************
+ * Copyright (c) 2003-2014 The Apereo Foundation
+ *
+ * Licensed under the Educational Community License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://opensource.org/licenses/ecl2
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+
+package org.sakaiproject.component.gradebook;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Function;
+
+import org.hibernate.SessionFactory;
+import org.hibernate.cfg.Configuration;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.sakaiproject.tool.gradebook.CachedCourseGrade;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+public class CourseGradeCacheTest {
+
+	private static final Long GRADEBOOK_ID = 1L;
+
+	private SessionFactory sessionFactory;
+	private CourseGradeCache cache;
+	private List<Collection<String>> calculated;
+	private double grade;
+
+	@Before
+	public void setUp() {
+		sessionFactory = new Configuration()
+				.addResource("org/sakaiproject/tool/gradebook/CachedCourseGrade.hbm.xml")
+				.setProperty("hibernate.dialect", "org.hibernate.dialect.HSQLDialect")
+				.setProperty("hibernate.connection.driver_class", "org.hsqldb.jdbcDriver")
+				.setProperty("hibernate.connection.url", "jdbc:hsqldb:mem:CourseGradeCacheTest")
+				.setProperty("hibernate.connection.username", "sa")
+				.setProperty("hibernate.hbm2ddl.auto", "create-drop")
+				.buildSessionFactory();
+		cache = new CourseGradeCache(sessionFactory);
+		calculated = new ArrayList<>();
+		grade = 50;
+	}
+
+	@After
+	public void tearDown() {
+		if (TransactionSynchronizationManager.isSynchronizationActive()) {
+			TransactionSynchronizationManager.clearSynchronization();
+		}
+		sessionFactory.close();
+	}
+
+	@Test
+	public void testGradesAreCalculatedOnce() {
+		Map<String, CachedCourseGrade> grades = cache.getCourseGrades(GRADEBOOK_ID, Arrays.asList("s1", "s2"), calculator(null));
+		Assert.assertEquals(Double.valueOf(50), grades.get("s1").getCalculatedGrade());
+		Assert.assertEquals(1, calculated.size());
+
+		grade = 60;
+		grades = cache.getCourseGrades(GRADEBOOK_ID, Arrays.asList("s1", "s2"), calculator(null));
+		Assert.assertEquals(Double.valueOf(50), grades.get("s2").getCalculatedGrade());
+		Assert.assertEquals(1, calculated.size());
+
+		// only the stale student is recalculated
+		cache.invalidate(GRADEBOOK_ID, Collections.singleton("s2"));
+		grades = cache.getCourseGrades(GRADEBOOK_ID, Arrays.asList("s1", "s2"), calculator(null));
+		Assert.assertEquals(Double.valueOf(50), grades.get("s1").getCalculatedGrade());
+		Assert.assertEquals(Double.valueOf(60), grades.get("s2").getCalculatedGrade());
+		Assert.assertEquals(Collections.singleton("s2"), calculated.get(1));
+
+		cache.invalidate(GRADEBOOK_ID);
+		cache.getCourseGrades(GRADEBOOK_ID, Arrays.asList("s1", "s2"), calculator(null));
+		Assert.assertEquals(2, calculated.get(2).size());
+	}
+
+	@Test
+	public void testGradeChangedDuringRecalculationIsNotStored() {
+		// the grade changes while it is being recalculated, so the recalculated grade is returned but not kept
+		Map<String, CachedCourseGrade> grades = cache.getCourseGrades(GRADEBOOK_ID, Collections.singleton("s1"),
+				calculator(() -> cache.invalidate(GRADEBOOK_ID, Collections.singleton("s1"))));
+		Assert.assertEquals(Double.valueOf(50), grades.get("s1").getCalculatedGrade());
+
+		grade = 60;
+		grades = cache.getCourseGrades(GRADEBOOK_ID, Collections.singleton("s1"), calculator(null));
+		Assert.assertEquals(Double.valueOf(60), grades.get("s1").getCalculatedGrade());
+		Assert.assertEquals(2, calculated.size());
+
+		// the whole gradebook invalidated during a recalculation as well
+		cache.getCourseGrades(GRADEBOOK_ID, Collections.singleton("s2"), calculator(() -> cache.invalidate(GRADEBOOK_ID)));
+		cache.getCourseGrades(GRADEBOOK_ID, Arrays.asList("s1", "s2"), calculator(null));
+		Assert.assertEquals(4, calculated.size());
+		Assert.assertEquals(2, calculated.get(3).size());
+	}
+
+	@Test
+	public void testInvalidationWaitsForCommit() {
+		cache.getCourseGrades(GRADEBOOK_ID, Arrays.asList("s1", "s2"), calculator(null));
+
+		TransactionSynchronizationManager.initSynchronization();
+		cache.invalidate(GRADEBOOK_ID, Collections.singleton("s1"));
+		cache.invalidate(GRADEBOOK_ID, Collections.singleton("s2"));
+
+		// not stale until the commit
+		grade = 60;
+		Assert.assertEquals(Double.valueOf(50), cache.getCourseGrades(GRADEBOOK_ID, Collections.singleton("s1"), calculator(null)).get("s1").getCalculatedGrade());
+		Assert.assertEquals(1, calculated.size());
+
+		complete(TransactionSynchronization.STATUS_COMMITTED);
+		Map<String, CachedCourseGrade> grades = cache.getCourseGrades(GRADEBOOK_ID, Arrays.asList("s1", "s2"), calculator(null));
+		Assert.assertEquals(Double.valueOf(60), grades.get("s1").getCalculatedGrade());
+		Assert.assertEquals(Double.valueOf(60), grades.get("s2").getCalculatedGrade());
+		Assert.assertEquals(2, calculated.size());
+		Assert.assertNull(TransactionSynchronizationManager.getResource(cache));
+	}
+
+	@Test
+	public void testInvalidationIsDroppedOnRollback() {
+		cache.getCourseGrades(GRADEBOOK_ID, Collections.singleton("s1"), calculator(null));
+
+		TransactionSynchronizationManager.initSynchronization();
+		cache.invalidate(GRADEBOOK_ID);
+		complete(TransactionSynchronization.STATUS_ROLLED_BACK);
+
+		grade = 60;
+		Assert.assertEquals(Double.valueOf(50), cache.getCourseGrades(GRADEBOOK_ID, Collections.singleton("s1"), calculator(null)).get("s1").getCalculatedGrade());
+		Assert.assertEquals(1, calculated.size());
+		Assert.assertNull(TransactionSynchronizationManager.getResource(cache));
+	}
+
+	/**
+	 * @param during run while the grades are being calculated, or null
+	 */
+	private Function<Collection<String>, Map<String, CachedCourseGrade>> calculator(Runnable during) {
+		return students -> {
+			calculated.add(students);
+			if (during != null) {
+				during.run();
+			}
+			Map<String, CachedCourseGrade> grades = new HashMap<>();
+			for (String student : students) {
+				CachedCourseGrade calculatedGrade = new CachedCourseGrade(GRADEBOOK_ID, student);
+				calculatedGrade.setCalculatedGrade(grade);
+				grades.put(student, calculatedGrade);
+			}
+			return grades;
+		};
+	}
+
+	private void complete(int status) {
+		List<TransactionSynchronization> synchronizations = TransactionSynchronizationManager.getSynchronizations();
+		TransactionSynchronizationManager.clearSynchronization();
+		for (TransactionSynchronization synchronization : synchronizations) {
+			if (status == TransactionSynchronization.STATUS_COMMITTED) {
+				synchronization.afterCommit();
+			}
+			synchronization.afterCompletion(status);
+		}
+	}
+}
@@ -100,6 +100,7 @@ public abstract class GradebookManagerHibernateImpl extends GradebookServiceHibe
                 Gradebook gradebook = asn.getGradebook();
                 asn.setRemoved(true);
                 session.update(asn);
+                invalidateCourseGrades(gradebook.getId());
                 /** synchronize from external application*/
                 if ( (synchronizer != null) && (!synchronizer.isProjectSite()))
                 {
@@ -482,6 +483,7 @@ public abstract class GradebookManagerHibernateImpl extends GradebookServiceHibe
                 	}
                 }
                 if (logData.isDebugEnabled()) logData.debug("Updated " + studentsWithUpdatedAssignmentGradeRecords.size() + " assignment score records");
+                invalidateCourseGrades(assignment.getGradebook().getId(), studentsWithUpdatedAssignmentGradeRecords);
 
                 return studentsWithExcessiveScores;
             }
@@ -517,6 +519,7 @@ public abstract class GradebookManagerHibernateImpl extends GradebookServiceHibe
 
                 Set studentsWithUpdatedAssignmentGradeRecords = new HashSet();
                 Set assignmentsWithExcessiveScores = new HashSet();
+                Long gradebookId = null;
                 
                 /** synchronize from external application*/
                 if(synchronizer != null)
@@ -610,6 +613,7 @@ public abstract class GradebookManagerHibernateImpl extends GradebookServiceHibe
                 			logAssignmentGradingEvent(gradeRecordFromCall, graderId, assignment, session);
                 			
                 			studentsWithUpdatedAssignmentGradeRecords.add(gradeRecordFromCall.getStudentId());
+                			gradebookId = assignment.getGradebook().getId();
                 		}
 
                 		/** synchronize external records */
@@ -652,9 +656,14 @@ public abstract class GradebookManagerHibernateImpl extends GradebookServiceHibe
 	                	logAssignmentGradingEvent(gradeRecordFromCall, graderId, assignment, session);
 	                	
 	                	studentsWithUpdatedAssignmentGradeRecords.add(gradeRecordFromCall.getStudentId());
+	                	gradebookId = assignment.getGradebook().getId();
 	                }
                 }
 				if (logData.isDebugEnabled()) logData.debug("Updated " + studentsWithUpdatedAssignmentGradeRecords.size() + " assignment score records");
+				// the records are all from the gradebook of the student's page, none of them may have been saved though
+				if (gradebookId != null) {
+					invalidateCourseGrades(gradebookId, studentsWithUpdatedAssignmentGradeRecords);
+				}
 
                 return assignmentsWithExcessiveScores;
             }
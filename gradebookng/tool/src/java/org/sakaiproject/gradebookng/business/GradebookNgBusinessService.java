@@ -684,17 +684,7 @@ public class GradebookNgBusinessService {
 		// sort method
 		final List<User> students = getUsers(studentUuids);
 		stopwatch.timeWithContext("buildGradeMatrix", "getUsers", stopwatch.getTime());
-		if (settings.getStudentSortOrder() != null) {
-
-			Comparator<User> comp = GbStudentNameSortOrder.FIRST_NAME == settings.getNameSortOrder() ?
-					new FirstNameComparator() : new LastNameComparator();
-
-			if (SortDirection.DESCENDING == settings.getStudentSortOrder()) {
-
-				comp = Collections.reverseOrder(comp);
-			}
-			Collections.sort(students, comp);
-		}
+		sortUsers(students, settings);
 		stopwatch.timeWithContext("buildGradeMatrix", "sortUsers", stopwatch.getTime());
 
 		// get course grades
@@ -1029,6 +1019,69 @@ public class GradebookNgBusinessService {
 		return items;
 	}
 
+	/**
+	 * Get the students of the grade matrix in its sort order, without building the whole matrix. Only the column being
+	 * sorted by is loaded: nothing for a name sort, the grades of one item or category or the course grades. The page of
+	 * the matrix being shown can then be built with {@link #buildGradeMatrix(List, List, GradebookUiSettings)}.
+	 *
+	 * @param assignments list of assignments
+	 * @param uiSettings the UI settings. Wraps sort order and group filter
+	 * @return the student uuids in sort order
+	 */
+	public List<String> getGradeMatrixStudentOrder(final List<Assignment> assignments,
+			final GradebookUiSettings uiSettings) throws GbException {
+
+		final GradebookUiSettings settings = (uiSettings != null) ? uiSettings : new GradebookUiSettings();
+
+		final List<String> studentUuids = this.getGradeableUsers(settings.getGroupFilter());
+		if (studentUuids == null || studentUuids.isEmpty()) {
+			return new ArrayList<>();
+		}
+
+		// sorted by name (or not at all), the grades aren't needed
+		if (settings.getAssignmentSortOrder() == null && settings.getCategorySortOrder() == null
+				&& settings.getCourseGradeSortOrder() == null) {
+			final List<User> students = getUsers(studentUuids);
+			sortUsers(students, settings);
+			return students.stream().map(User::getId).collect(Collectors.toList());
+		}
+
+		// just the column being sorted by, the course grades come with every matrix
+		final List<Assignment> sortColumns = new ArrayList<>();
+		if (settings.getAssignmentSortOrder() != null) {
+			final long assignmentId = settings.getAssignmentSortOrder().getAssignmentId();
+			assignments.stream().filter(a -> a.getId() == assignmentId).forEach(sortColumns::add);
+		} else if (settings.getCategorySortOrder() != null) {
+			final long categoryId = settings.getCategorySortOrder().getCategoryId();
+			assignments.stream().filter(a -> a.getCategoryId() != null && a.getCategoryId() == categoryId)
+					.forEach(sortColumns::add);
+		}
+
+		return this.buildGradeMatrix(sortColumns, studentUuids, settings).stream()
+				.map(GbStudentGradeInfo::getStudentUuid)
+				.collect(Collectors.toList());
+	}
+
+	/**
+	 * Sort the users by name if the settings ask for it
+	 *
+	 * @param students the users, already sorted by last name
+	 * @param settings the UI settings
+	 */
+	private void sortUsers(final List<User> students, final GradebookUiSettings settings) {
+		if (settings.getStudentSortOrder() != null) {
+
+			Comparator<User> comp = GbStudentNameSortOrder.FIRST_NAME == settings.getNameSortOrder() ?
+					new FirstNameComparator() : new LastNameComparator();
+
+			if (SortDirection.DESCENDING == settings.getStudentSortOrder()) {
+
+				comp = Collections.reverseOrder(comp);
+			}
+			Collections.sort(students, comp);
+		}
+	}
+
 	/**
 	 * Get a list of sections and groups in a site
 	 *
@@ -0,0 +1,109 @@
+/**********************************************************************************
+ * $URL$
+ * $Id$
+ ***********************************************************************************
+ *
+ * Copyright (c) 2018 Sakai Foundation
+ *
+ * Licensed under the Educational Community License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.opensource.org/licenses/ECL-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ **********************************************************************************/
+
+package org.sakaiproject.gradebookng.tool.model;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.wicket.markup.repeater.data.IDataProvider;
+import org.apache.wicket.model.IModel;
+import org.apache.wicket.model.Model;
+import org.sakaiproject.gradebookng.business.GradebookNgBusinessService;
+import org.sakaiproject.gradebookng.business.model.GbStudentGradeInfo;
+import org.sakaiproject.service.gradebook.shared.Assignment;
+
+/**
+ * Provides the grade matrix a page at a time. The students are put in the sort order up front (which only needs the
+ * column being sorted by), then only the rows of the page being shown are built.
+ */
+public class GbGradeMatrixDataProvider implements IDataProvider<GbStudentGradeInfo> {
+
+	private static final long serialVersionUID = 1L;
+
+	private final GradebookNgBusinessService businessService;
+	private final List<Assignment> assignments;
+	private final GradebookUiSettings settings;
+
+	/**
+	 * The students in sort order
+	 */
+	private final List<String> studentUuids;
+
+	// the rows of the page last built, until detached
+	private transient List<GbStudentGradeInfo> rows;
+	private transient long rowsFirst;
+	private transient long rowsCount;
+
+	public GbGradeMatrixDataProvider(final GradebookNgBusinessService businessService, final List<Assignment> assignments,
+			final GradebookUiSettings settings) {
+		this.businessService = businessService;
+		this.assignments = assignments;
+		this.settings = settings;
+		this.studentUuids = businessService.getGradeMatrixStudentOrder(assignments, settings);
+	}
+
+	@Override
+	public Iterator<? extends GbStudentGradeInfo> iterator(final long first, final long count) {
+		if (this.rows == null || this.rowsFirst != first || this.rowsCount != count) {
+			this.rows = buildRows((int) first, (int) Math.min(first + count, this.studentUuids.size()));
+			this.rowsFirst = first;
+			this.rowsCount = count;
+		}
+		return this.rows.iterator();
+	}
+
+	@Override
+	public long size() {
+		return this.studentUuids.size();
+	}
+
+	@Override
+	public IModel<GbStudentGradeInfo> model(final GbStudentGradeInfo object) {
+		return Model.of(object);
+	}
+
+	@Override
+	public void detach() {
+		this.rows = null;
+	}
+
+	private List<GbStudentGradeInfo> buildRows(final int from, final int to) {
+		if (from >= to) {
+			return new ArrayList<>();
+		}
+		final List<String> page = this.studentUuids.subList(from, to);
+		final List<GbStudentGradeInfo> rows = this.businessService.buildGradeMatrix(this.assignments, new ArrayList<>(page),
+				this.settings);
+
+		// keep the order of the whole matrix, rather than the order the page sorts into on its own
+		final Map<String, Integer> positions = new HashMap<>();
+		for (int i = 0; i < page.size(); i++) {
+			positions.put(page.get(i), i);
+		}
+		rows.sort(Comparator.comparing(row -> positions.getOrDefault(row.getStudentUuid(), Integer.MAX_VALUE)));
+		return rows;
+	}
+}
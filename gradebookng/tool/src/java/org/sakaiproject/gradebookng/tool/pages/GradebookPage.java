@@ -34,7 +34,6 @@ import org.apache.wicket.markup.html.form.DropDownChoice;
 import org.apache.wicket.markup.html.form.Form;
 import org.apache.wicket.markup.html.panel.EmptyPanel;
 import org.apache.wicket.markup.repeater.Item;
-import org.apache.wicket.markup.repeater.data.ListDataProvider;
 import org.apache.wicket.model.IModel;
 import org.apache.wicket.model.Model;
 import org.apache.wicket.model.StringResourceModel;
@@ -48,6 +47,7 @@ import org.sakaiproject.gradebookng.business.util.GbStopWatch;
 import org.sakaiproject.gradebookng.business.util.MessageHelper;
 import org.sakaiproject.gradebookng.tool.component.GbAjaxButton;
 import org.sakaiproject.gradebookng.tool.component.GbHeadersToolbar;
+import org.sakaiproject.gradebookng.tool.model.GbGradeMatrixDataProvider;
 import org.sakaiproject.gradebookng.tool.model.GbModalWindow;
 import org.sakaiproject.gradebookng.tool.model.GradebookUiSettings;
 import org.sakaiproject.gradebookng.tool.panels.AddOrEditGradeItemPanel;
@@ -208,10 +208,11 @@ public class GradebookPage extends BasePage {
 		final List<Assignment> assignments = this.businessService.getGradebookAssignments(sortBy);
 		stopwatch.time("getGradebookAssignments", stopwatch.getTime());
 
-		// get the grade matrix. It should be sorted if we have that info
-		final List<GbStudentGradeInfo> grades = this.businessService.buildGradeMatrix(assignments, settings);
+		// get the grade matrix. It is sorted up front but only the rows of the page being shown are built
+		final GbGradeMatrixDataProvider studentGradeMatrix = new GbGradeMatrixDataProvider(this.businessService, assignments,
+				settings);
 
-		this.hasAssignmentsAndGrades = !assignments.isEmpty() && !grades.isEmpty();
+		this.hasAssignmentsAndGrades = !assignments.isEmpty() && studentGradeMatrix.size() > 0;
 
 		// mark the current timestamp so we can use this date to check for any changes since now
 		final Date gradesTimestamp = new Date();
@@ -224,8 +225,6 @@ public class GradebookPage extends BasePage {
 		// grading type?
 		final GradingType gradingType = GradingType.valueOf(gradebook.getGrade_type());
 
-		// this could potentially be a sortable data provider
-		final ListDataProvider<GbStudentGradeInfo> studentGradeMatrix = new ListDataProvider<GbStudentGradeInfo>(grades);
 		final List<IColumn> cols = new ArrayList<IColumn>();
 
 		// add an empty column that we can use as a handle for selecting the row
@@ -670,14 +669,14 @@ public class GradebookPage extends BasePage {
 
 		// no visible students, show table, show message
 		// don't want two messages though, hence the else
-		else if (grades.size() == 0) {
+		else if (studentGradeMatrix.size() == 0) {
 			noStudents.setVisible(true);
 		}
 
 		toolbar.setVisible(this.hasAssignmentsAndGrades);
 
 		//#3755 if group selected but it is empty, bring the groupfilter back into view so they can choose something else
-		if (settings.getGroupFilter() != null && grades.size() == 0) {
+		if (settings.getGroupFilter() != null && studentGradeMatrix.size() == 0) {
 			toolbar.setVisible(true);
 			groupFilter.setVisible(true);
 		}
@@ -31,6 +31,9 @@ public class ExportPanel extends BasePanel {
 	private static final String IGNORE_COLUMN_PREFIX = "#";
 	private static final String COMMENTS_COLUMN_PREFIX = "*";
 
+	// the number of students whose grades are held at a time
+	private static final int EXPORT_BLOCK_SIZE = 100;
+
 	enum ExportFormat {
 		CSV
 	}
@@ -229,66 +232,70 @@ public class ExportPanel extends BasePanel {
 
 			csvWriter.writeNext(header.toArray(new String[] {}));
 
-			// get the grade matrix
-			final List<GbStudentGradeInfo> grades = this.businessService.buildGradeMatrix(assignments);
-
-			//add grades
-			grades.forEach(studentGradeInfo -> {
-				final List<String> line = new ArrayList<String>();
-				if (!isCustomExport || this.includeStudentId) {
-					line.add(studentGradeInfo.getStudentEid());
-				}
-				if (!isCustomExport ||this.includeStudentName) {
-					line.add(studentGradeInfo.getStudentLastName() + ", " + studentGradeInfo.getStudentFirstName());
-				}
-				if (!isCustomExport || this.includeGradeItemScores || this.includeGradeItemComments) {
-					assignments.forEach(assignment -> {
-						final GbGradeInfo gradeInfo = studentGradeInfo.getGrades().get(assignment.getId());
-						if (gradeInfo != null) {
-							if (!isCustomExport || this.includeGradeItemScores) {
-								line.add(StringUtils.removeEnd(gradeInfo.getGrade(), ".0"));
-							}
-							if (!isCustomExport || this.includeGradeItemComments) {
-								line.add(gradeInfo.getGradeComment());
-							}
-						} else {
-							// Need to account for no grades
-							if (!isCustomExport || this.includeGradeItemScores) {
-								line.add(null);
-							}
-							if (!isCustomExport || this.includeGradeItemComments) {
-								line.add(null);
+			// build the grade matrix a block of students at a time and write each block out, rather than holding all of it
+			final List<String> studentUuids = this.businessService.getGradeMatrixStudentOrder(assignments, null);
+			for (int from = 0; from < studentUuids.size(); from += EXPORT_BLOCK_SIZE) {
+				final List<String> block = new ArrayList<>(studentUuids.subList(from, Math.min(from + EXPORT_BLOCK_SIZE, studentUuids.size())));
+				final List<GbStudentGradeInfo> grades = this.businessService.buildGradeMatrix(assignments, block);
+
+				//add grades
+				grades.forEach(studentGradeInfo -> {
+					final List<String> line = new ArrayList<String>();
+					if (!isCustomExport || this.includeStudentId) {
+						line.add(studentGradeInfo.getStudentEid());
+					}
+					if (!isCustomExport ||this.includeStudentName) {
+						line.add(studentGradeInfo.getStudentLastName() + ", " + studentGradeInfo.getStudentFirstName());
+					}
+					if (!isCustomExport || this.includeGradeItemScores || this.includeGradeItemComments) {
+						assignments.forEach(assignment -> {
+							final GbGradeInfo gradeInfo = studentGradeInfo.getGrades().get(assignment.getId());
+							if (gradeInfo != null) {
+								if (!isCustomExport || this.includeGradeItemScores) {
+									line.add(StringUtils.removeEnd(gradeInfo.getGrade(), ".0"));
+								}
+								if (!isCustomExport || this.includeGradeItemComments) {
+									line.add(gradeInfo.getGradeComment());
+								}
+							} else {
+								// Need to account for no grades
+								if (!isCustomExport || this.includeGradeItemScores) {
+									line.add(null);
+								}
+								if (!isCustomExport || this.includeGradeItemComments) {
+									line.add(null);
+								}
 							}
-						}
-					});
-				}
+						});
+					}
 
-				final GbCourseGrade gbCourseGrade = studentGradeInfo.getCourseGrade();
-				final CourseGrade courseGrade = gbCourseGrade.getCourseGrade();
+					final GbCourseGrade gbCourseGrade = studentGradeInfo.getCourseGrade();
+					final CourseGrade courseGrade = gbCourseGrade.getCourseGrade();
 
-				if (isCustomExport && this.includePoints) {
-					line.add(FormatHelper.formatDoubleToDecimal(courseGrade.getPointsEarned()));
-				}
-				if (isCustomExport && this.includeCalculatedGrade) {
-					line.add(courseGrade.getCalculatedGrade());
-				}
-				if (isCustomExport && this.includeCourseGrade) {
-					line.add(courseGrade.getMappedGrade());
-				}
-				if (isCustomExport && this.includeGradeOverride) {
-					line.add(courseGrade.getEnteredGrade());
-				}
-				if (isCustomExport && this.includeLastLogDate) {
-					if (courseGrade.getDateRecorded() == null) {
-						line.add(null);
-					} else {
-						line.add(FormatHelper.formatDateTime(courseGrade.getDateRecorded()));
+					if (isCustomExport && this.includePoints) {
+						line.add(FormatHelper.formatDoubleToDecimal(courseGrade.getPointsEarned()));
+					}
+					if (isCustomExport && this.includeCalculatedGrade) {
+						line.add(courseGrade.getCalculatedGrade());
+					}
+					if (isCustomExport && this.includeCourseGrade) {
+						line.add(courseGrade.getMappedGrade());
+					}
+					if (isCustomExport && this.includeGradeOverride) {
+						line.add(courseGrade.getEnteredGrade());
+					}
+					if (isCustomExport && this.includeLastLogDate) {
+						if (courseGrade.getDateRecorded() == null) {
+							line.add(null);
+						} else {
+							line.add(FormatHelper.formatDateTime(courseGrade.getDateRecorded()));
+						}
 					}
-				}
 
-				csvWriter.writeNext(line.toArray(new String[] {}));
+					csvWriter.writeNext(line.toArray(new String[] {}));
 
-			});
+				});
+			}
 
 			csvWriter.close();
 			fw.close();
@@ -0,0 +1,50 @@
+/**********************************************************************************
+ * $URL$
+ * $Id$
+ ***********************************************************************************
+ *
+ * Copyright (c) 2018 Sakai Foundation
+ *
+ * Licensed under the Educational Community License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.opensource.org/licenses/ECL-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ **********************************************************************************/
+
+package org.sakaiproject.component.app.scheduler.jobs;
+
+import org.quartz.Job;
+import org.quartz.JobExecutionContext;
+import org.quartz.JobExecutionException;
+import org.sakaiproject.content.api.ContentHostingService;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Rebuilds the stored per-site content size totals used for quota checks from the resources themselves.
+ * Normally the totals are kept up to date as files are added and removed, this corrects any drift
+ * (for example after resources were changed directly in the database).
+ */
+public class ContentQuotaLedgerJob implements Job {
+
+	private final static Logger log = LoggerFactory.getLogger(ContentQuotaLedgerJob.class);
+
+	private ContentHostingService chs;
+
+	public void setChs(ContentHostingService chs) {
+		this.chs = chs;
+	}
+
+	public void execute(JobExecutionContext jobExecutionContext) throws JobExecutionException {
+		log.info("Reconciling the content quota ledger");
+		chs.reconcileQuotaLedger();
+	}
+}
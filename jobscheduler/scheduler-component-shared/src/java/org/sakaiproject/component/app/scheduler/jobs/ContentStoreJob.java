@@ -0,0 +1,93 @@
+/**********************************************************************************
+ * $URL$
+ * $Id$
+ ***********************************************************************************
+ *
+ * Copyright (c) 2018 Sakai Foundation
+ *
+ * Licensed under the Educational Community License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.opensource.org/licenses/ECL-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ **********************************************************************************/
+
+package org.sakaiproject.component.app.scheduler.jobs;
+
+import java.io.IOException;
+
+import org.quartz.Job;
+import org.quartz.JobExecutionContext;
+import org.quartz.JobExecutionException;
+import org.sakaiproject.component.api.ServerConfigurationService;
+import org.sakaiproject.content.api.ContentAddressedFileSystemHandler;
+import org.sakaiproject.content.api.FileSystemHandler;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Maintains the shared body store used when content hosting is configured with a ContentAddressedFileSystemHandler.
+ * Depending on how it is configured it either moves the files written before the store was in use into it,
+ * or removes the stored bodies no resource uses any more. Both the body path and the deleted body path are processed.
+ */
+public class ContentStoreJob implements Job {
+
+	private final static Logger log = LoggerFactory.getLogger(ContentStoreJob.class);
+
+	private static final String[] ROOTS = {
+			"bodyPath@org.sakaiproject.content.api.ContentHostingService",
+			"bodyPathDeleted@org.sakaiproject.content.api.ContentHostingService"
+	};
+
+	private FileSystemHandler fileSystemHandler;
+	private ServerConfigurationService serverConfigurationService;
+	private boolean migrate = false;
+
+	public void setFileSystemHandler(FileSystemHandler fileSystemHandler) {
+		this.fileSystemHandler = fileSystemHandler;
+	}
+
+	public void setServerConfigurationService(ServerConfigurationService serverConfigurationService) {
+		this.serverConfigurationService = serverConfigurationService;
+	}
+
+	/**
+	 * If true existing files are moved into the store, otherwise unused bodies are removed.
+	 */
+	public void setMigrate(boolean migrate) {
+		this.migrate = migrate;
+	}
+
+	public void execute(JobExecutionContext jobExecutionContext) throws JobExecutionException {
+		if (!(fileSystemHandler instanceof ContentAddressedFileSystemHandler)) {
+			log.warn("Content hosting is not using a ContentAddressedFileSystemHandler, nothing to do.");
+			return;
+		}
+		ContentAddressedFileSystemHandler handler = (ContentAddressedFileSystemHandler) fileSystemHandler;
+		for (String name : ROOTS) {
+			String root = serverConfigurationService.getString(name, null);
+			if (root == null || root.isEmpty()) {
+				continue;
+			}
+			long start = System.currentTimeMillis();
+			try {
+				if (migrate) {
+					long converted = handler.migrate(root);
+					log.info(String.format("Moved %d files in %s to the store in %d ms.", converted, root, System.currentTimeMillis() - start));
+				} else {
+					long reclaimed = handler.collectGarbage(root);
+					log.info(String.format("Reclaimed %d bytes in %s in %d ms.", reclaimed, root, System.currentTimeMillis() - start));
+				}
+			} catch (IOException e) {
+				throw new JobExecutionException("Failed to process the store in " + root, e, false);
+			}
+		}
+	}
+}
@@ -403,6 +403,18 @@ public interface AuthzGroupService extends EntityProducer
 	 */
 	Set<String> getAuthzGroupsIsAllowed(String userId, String function, Collection<String> azGroups);
 
+	/**
+	 * Get the functions, out of those given, that each user is allowed to perform in that user's AuthzGroups, all in one lookup.
+	 * Each answer matches {@link #isAllowed(String, String, Collection)} for the user, but role swap and delegated access are not considered.
+	 * 
+	 * @param azGroupsByUser
+	 *        A Map (user id -> Collection of AuthzGroup ids) of the users to check and the AuthzGroups to consult for each.
+	 * @param functions
+	 *        The functions to check.
+	 * @return A Map (user id -> Set of functions) of the functions each user is allowed to perform, users allowed none are not included.
+	 */
+	Map<String, Set<String>> getUsersAllowedFunctions(Map<String, Collection<String>> azGroupsByUser, Collection<String> functions);
+
 	/**
 	 * Get the set of functions that users with this role in these AuthzGroups are allowed to perform.
 	 * 
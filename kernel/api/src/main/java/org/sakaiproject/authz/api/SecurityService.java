@@ -23,6 +23,8 @@ package org.sakaiproject.authz.api;
 
 import java.util.Collection;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 
 import org.sakaiproject.user.api.User;
 
@@ -99,6 +101,22 @@ public interface SecurityService
 	 */
 	List<User> unlockUsers(String lock, String reference);
 
+	/**
+	 * Check which of these users can unlock each of these locks for use with each of these resources, for pages
+	 * that would otherwise call unlock() in a loop. Each resource's AuthzGroups are resolved once and each distinct
+	 * set of AuthzGroups is answered with a single lookup, the answers are also added to the unlock cache.
+	 * 
+	 * @param userIds
+	 *        The user ids to check.
+	 * @param locks
+	 *        The lock id strings to check.
+	 * @param references
+	 *        The resource reference strings to check.
+	 * @return A Map (reference -> Map (lock -> Set of user ids)) of the users who can unlock each lock on each resource,
+	 *         every requested reference and lock is present (the Set may be empty).
+	 */
+	Map<String, Map<String, Set<String>>> unlockUsers(Collection<String> userIds, Collection<String> locks, Collection<String> references);
+
 	/**
 	 * Is this a super special super (admin) user?
 	 * 
@@ -0,0 +1,61 @@
+/**********************************************************************************
+ * $URL$
+ * $Id$
+ ***********************************************************************************
+ *
+ * Copyright (c) 2018 Sakai Foundation
+ *
+ * Licensed under the Educational Community License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.opensource.org/licenses/ECL-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ **********************************************************************************/
+
+package org.sakaiproject.content.api;
+
+import java.io.IOException;
+
+/**
+ * A FileSystemHandler that stores each distinct body once, keyed by its SHA-256 digest,
+ * and shares it between all the resources with the same content.
+ *
+ */
+public interface ContentAddressedFileSystemHandler extends FileSystemHandler {
+
+    /**
+     * Remove the stored bodies that are no longer used by any resource.
+     * 
+     * @param root The root of the storage. Will not be null or empty.
+     * @return The number of bytes reclaimed.
+     * @throws IOException If the store could not be read.
+     */
+    public long collectGarbage(String root) throws IOException;
+
+    /**
+     * Move the files written before the store was in use into it, so that duplicates share one body.
+     * This is safe to run while content is being read and written.
+     * 
+     * @param root The root of the storage. Will not be null or empty.
+     * @return The number of files converted.
+     * @throws IOException If the storage could not be read.
+     */
+    public long migrate(String root) throws IOException;
+
+    /**
+     * Get the number of resources sharing a stored body.
+     * 
+     * @param root The root of the storage. Could be null or empty.
+     * @param digest The hex encoded SHA-256 digest of the body.
+     * @return The number of resources using the body, 0 if it is not stored.
+     * @throws IOException If the body could not be read.
+     */
+    public int getReferenceCount(String root, String digest) throws IOException;
+}
@@ -1978,6 +1978,13 @@ public interface ContentHostingService extends EntityProducer
     * @return the quota in kb
     */
     public long getQuota(org.sakaiproject.content.api.ContentCollection collection);
+
+    /**
+     * Recompute the stored size totals used for quota checks from the resources themselves,
+     * correcting any drift. Sites are processed in parallel; this is intended to be run as a
+     * scheduled job and does nothing if the storage does not keep such totals.
+     */
+    public void reconcileQuotaLedger();
     
     /**
      * Access flag indicating whether ContentHostingHandlers are enabled in this content hosting service.
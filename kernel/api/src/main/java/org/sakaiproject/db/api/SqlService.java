@@ -26,6 +26,7 @@ import java.sql.Connection;
 import java.sql.SQLException;
 import java.util.GregorianCalendar;
 import java.util.List;
+import java.util.stream.Stream;
 
 import org.sakaiproject.exception.ServerOverloadException;
 
@@ -121,6 +122,41 @@ public interface SqlService
 	 */
 	<T> List<T> dbRead(Connection conn, String sql, Object[] fields, SqlReader<T> reader);
 
+	/**
+	 * Process a query, filling in with fields, and return the results as a Stream, one per record read, without holding all the records in memory.
+	 * The records are fetched from the db as the stream is consumed, and the connection is held until the stream is closed (or all records
+	 * have been read), so use it in a try-with-resources block. If a reader is provided, it will be called for each record to prepare the Object
+	 * in the stream. Otherwise, the first field of each record, as a String, will be in the stream.
+	 * 
+	 * @param sql
+	 *        The sql statement.
+	 * @param fields
+	 *        The array of fields for parameters.
+	 * @param reader
+	 *        The reader object to read each record.
+	 * @param <T>
+	 *        The type of objects being returned by the SqlReader.
+	 * @return The Stream of things read, one per record, to be closed when done.
+	 */
+	<T> Stream<T> dbReadStream(String sql, Object[] fields, SqlReader<T> reader);
+
+	/**
+	 * Process a query as {@link #dbReadStream(String, Object[], SqlReader)}, fetching fetchSize records from the db at a time.
+	 * 
+	 * @param sql
+	 *        The sql statement.
+	 * @param fields
+	 *        The array of fields for parameters.
+	 * @param fetchSize
+	 *        The number of records to fetch from the db at a time, a hint which some databases ignore.
+	 * @param reader
+	 *        The reader object to read each record.
+	 * @param <T>
+	 *        The type of objects being returned by the SqlReader.
+	 * @return The Stream of things read, one per record, to be closed when done.
+	 */
+	<T> Stream<T> dbReadStream(String sql, Object[] fields, int fetchSize, SqlReader<T> reader);
+
 	/**
 	 * Read a single field from the db, from multiple record - concatenating the binary values into value.
 	 * 
@@ -282,6 +318,32 @@ public interface SqlService
 	 */
 	boolean dbWrite(String sql, Object[] fields, String lastField);
 
+	/**
+	 * Execute the "write" sql once for each array of fields, sending them to the db in batches rather than one at a time. Unless in a transaction
+	 * (or given a connection) they are all committed together, and all written again if the db fails them due to a deadlock. As with
+	 * {@link #dbWrite(String, Object[])}, a record which already exists is not written and does not fail the others.
+	 * 
+	 * @param sql
+	 *        The sql statement.
+	 * @param fieldsList
+	 *        The arrays of fields for parameters, one for each time the sql is run.
+	 * @return The number of records written, counting 1 for each execution the db does not report a count for.
+	 */
+	int dbWriteBatch(String sql, List<Object[]> fieldsList);
+
+	/**
+	 * Execute the "write" sql once for each array of fields as {@link #dbWriteBatch(String, List)}, using this connection.
+	 * 
+	 * @param connection
+	 *        The connection to use, left uncommitted.
+	 * @param sql
+	 *        The sql statement.
+	 * @param fieldsList
+	 *        The arrays of fields for parameters, one for each time the sql is run.
+	 * @return The number of records written, counting 1 for each execution the db does not report a count for.
+	 */
+	int dbWriteBatch(Connection connection, String sql, List<Object[]> fieldsList);
+
 	/**
 	 * Read a single field BLOB from the db from one record, and update it's bytes with content.
 	 * 
@@ -79,6 +79,21 @@ public interface Cache <K, V> { // Cache<K, V> extends Iterable<Cache.Entry<K, V
      */
     Map<K, V> getAll(Set<? extends K> keys);
 
+    /**
+     * Gets a collection of entries from the {@link Cache}, loading the ones which are missing
+     * with a single {@link CacheLoader#loadAll(Iterable)} call to the given loader and adding
+     * them to the cache. This lets callers who look up many keys at once (eg. the members of a site)
+     * fetch all the misses from the backend in one go without attaching a loader to the cache.
+     *
+     * @param keys The keys whose associated values are to be returned.
+     * @param loader loads the values for the missing keys, if null this is the same as {@link #getAll(Set)}
+     * @return A map of entries that were found or loaded for the given keys. Keys which could not be
+     *         loaded are not in the returned map.
+     * @throws NullPointerException  if keys is null or if keys contains a null
+     * @throws RuntimeException      if there is a problem fetching or loading the values
+     */
+    Map<K, V> getAll(Set<? extends K> keys, CacheLoader<K, V> loader);
+
     /**
      * Test if an entry exists in the cache for a key,
      * this allows us to differentiate between not found and stored null
@@ -93,9 +93,26 @@ public class Cache implements org.sakaiproject.memory.api.Cache<String,Object> {
 
     @Override
     public Map<String, Object> getAll(Set<? extends String> keys) {
-        Map<String, Object> m = new HashMap<String, Object>(this.map);
+        Map<String, Object> m = new HashMap<String, Object>();
         for (String key : keys) {
-            m.remove(key);
+            if (map.containsKey(key)) {
+                m.put(key, map.get(key));
+            }
+        }
+        return m;
+    }
+
+    @Override
+    public Map<String, Object> getAll(Set<? extends String> keys, CacheLoader<String, Object> loader) {
+        Map<String, Object> m = getAll(keys);
+        if (loader != null && m.size() < keys.size()) {
+            Set<String> missing = new HashSet<String>(keys);
+            missing.removeAll(m.keySet());
+            Map<String, Object> loaded = loader.loadAll(missing);
+            if (loaded != null) {
+                putAll(loaded);
+                m.putAll(loaded);
+            }
         }
         return m;
     }
@@ -23,6 +23,7 @@ package org.sakaiproject.util;
 
 import java.util.List;
 import java.util.Map;
+import java.util.function.Consumer;
 
 import org.sakaiproject.entity.api.Edit;
 import org.sakaiproject.entity.api.Entity;
@@ -104,6 +105,18 @@ public interface DbSingleStorage
 	 */
 	List getSelectedResources(final Filter filter);
 
+	/**
+	 * Stream selected Resources, filtered by a test on the id field, to a consumer.
+	 * Each Resource is handed over while the result set is still open, so nothing beyond
+	 * the current row is held in memory; rows rejected by the filter are never parsed.
+	 * 
+	 * @param filter
+	 *        A filter to select what gets returned.
+	 * @param consumer
+	 *        Receives each selected Resource, in result set order.
+	 */
+	void forEachSelectedResource(final Filter filter, Consumer<Entity> consumer);
+
 	/**
 	 * Get selected Resources, using a supplied where clause
 	 * 
@@ -144,8 +157,10 @@ public interface DbSingleStorage
 	 * 
 	 * @param user
 	 *        The Edit to commit.
+	 * @return false if the change could not be written. A change to a resource locked in the database is
+	 *         written and committed on the lock's own connection, and is taken to be written.
 	 */
-	void commitResource(Edit edit);
+	boolean commitResource(Edit edit);
 
 	/**
 	 * Cancel the changes and release the lock.
@@ -160,8 +175,10 @@ public interface DbSingleStorage
 	 * 
 	 * @param user
 	 *        The Edit to remove.
+	 * @return false if the change could not be written. A change to a resource locked in the database is
+	 *         written and committed on the lock's own connection, and is taken to be written.
 	 */
-	void removeResource(Edit edit);
+	boolean removeResource(Edit edit);
 	
 	/**
 	 * Get a limited number of Resources a given field matches a given value, returned in ascending order 
@@ -994,6 +994,14 @@ public abstract class BaseAuthzGroupService implements AuthzGroupService
 		return m_storage.getAuthzGroupsIsAllowed(userId, function, azGroups);
 	}
 
+	/**
+	 * {@inheritDoc}
+	 */
+	public Map<String, Set<String>> getUsersAllowedFunctions(Map<String, Collection<String>> azGroupsByUser, Collection<String> functions)
+	{
+		return m_storage.getUsersAllowedFunctions(azGroupsByUser, functions);
+	}
+
 	/**
 	 * {@inheritDoc}
 	 */
@@ -1529,6 +1537,17 @@ public abstract class BaseAuthzGroupService implements AuthzGroupService
 		 */
 		Set getAuthzGroupsIsAllowed(String userId, String function, Collection azGroups);
 
+		/**
+		 * Get the functions, out of those given, that each user is allowed to perform in that user's AuthzGroups.
+		 * 
+		 * @param azGroupsByUser
+		 *        A Map (user id -> Collection of AuthzGroup ids) of the users to check and the AuthzGroups to consult for each.
+		 * @param functions
+		 *        The functions to check.
+		 * @return A Map (user id -> Set of functions) of the functions each user is allowed to perform.
+		 */
+		Map<String, Set<String>> getUsersAllowedFunctions(Map<String, Collection<String>> azGroupsByUser, Collection<String> functions);
+
 		/**
 		 * Get the role name for this user in this AuthzGroup.
 		 * 
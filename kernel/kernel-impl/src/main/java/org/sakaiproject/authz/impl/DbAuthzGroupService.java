@@ -1538,28 +1538,26 @@ public abstract class DbAuthzGroupService extends BaseAuthzGroupService implemen
 				}
 			});
 
-			fields = new Object[3];
-			fields[0] = caseId(azg.getId());
-
 			// delete what we need to
 			sql = dbAuthzGroupSql.getDeleteRealmRoleFunction1Sql();
+			List<Object[]> fieldsList = new ArrayList<Object[]>(toDelete.size());
 			for (RoleAndFunction raf : toDelete)
 			{
-				fields[1] = raf.role;
-				fields[2] = raf.function;
-				m_sql.dbWrite(sql, fields);
+				fieldsList.add(new Object[] {caseId(azg.getId()), raf.role, raf.function});
 			}
+			m_sql.dbWriteBatch(sql, fieldsList);
 
 			// add what we need to
 			sql = dbAuthzGroupSql.getInsertRealmRoleFunctionSql();
 
-			fields[0] = getValueForSubquery(dbAuthzGroupSql.getInsertRealmRoleFunction1Sql(), fields[0]);
+			Object realmKey = getValueForSubquery(dbAuthzGroupSql.getInsertRealmRoleFunction1Sql(), caseId(azg.getId()));
+			fieldsList = new ArrayList<Object[]>(toAdd.size());
 			for (RoleAndFunction raf : toAdd)
 			{
-				fields[1] = getValueForSubquery(dbAuthzGroupSql.getInsertRealmRoleFunction2Sql(), raf.role);
-				fields[2] = getValueForSubquery(dbAuthzGroupSql.getInsertRealmRoleFunction3Sql(), raf.function);
-				m_sql.dbWrite(sql, fields);
+				fieldsList.add(new Object[] {realmKey, getValueForSubquery(dbAuthzGroupSql.getInsertRealmRoleFunction2Sql(), raf.role),
+						getValueForSubquery(dbAuthzGroupSql.getInsertRealmRoleFunction3Sql(), raf.function)});
 			}
+			m_sql.dbWriteBatch(sql, fieldsList);
 
             // KNL-1230 need to be able to tell when changes occur in the AZG
             HashSet<RoleAndFunction> lastChanged = new HashSet<RoleAndFunction>();
@@ -1623,31 +1621,25 @@ public abstract class DbAuthzGroupService extends BaseAuthzGroupService implemen
 				}
 			});
 
-			fields = new Object[5];
-			fields[0] = caseId(azg.getId());
-
 			// delete what we need to
 			sql = dbAuthzGroupSql.getDeleteRealmRoleGroup1Sql();
+			List<Object[]> fieldsList = new ArrayList<Object[]>(toDelete.size());
 			for (UserAndRole uar : toDelete)
 			{
-				fields[1] = uar.role;
-				fields[2] = uar.userId;
-				fields[3] = uar.active ? "1" : "0";
-				fields[4] = uar.provided ? "1" : "0";
-				m_sql.dbWrite(sql, fields);
+				fieldsList.add(new Object[] {caseId(azg.getId()), uar.role, uar.userId, uar.active ? "1" : "0", uar.provided ? "1" : "0"});
 			}
+			m_sql.dbWriteBatch(sql, fieldsList);
 
 			// add what we need to
 			sql = dbAuthzGroupSql.getInsertRealmRoleGroup1Sql();
-			fields[0] = getValueForSubquery(dbAuthzGroupSql.getInsertRealmRoleGroup1_1Sql(), fields[0]);
+			Object realmKey = getValueForSubquery(dbAuthzGroupSql.getInsertRealmRoleGroup1_1Sql(), caseId(azg.getId()));
+			fieldsList = new ArrayList<Object[]>(toAdd.size());
 			for (UserAndRole uar : toAdd)
 			{
-				fields[1] = uar.userId;
-				fields[2] = getValueForSubquery(dbAuthzGroupSql.getInsertRealmRoleGroup1_2Sql(), uar.role);
-				fields[3] = uar.active ? "1" : "0";
-				fields[4] = uar.provided ? "1" : "0";
-				m_sql.dbWrite(sql, fields);
+				fieldsList.add(new Object[] {realmKey, uar.userId, getValueForSubquery(dbAuthzGroupSql.getInsertRealmRoleGroup1_2Sql(), uar.role),
+						uar.active ? "1" : "0", uar.provided ? "1" : "0"});
 			}
+			m_sql.dbWriteBatch(sql, fieldsList);
 		}
 
 		protected void save_REALM_PROVIDER(AuthzGroup azg)
@@ -2147,6 +2139,91 @@ public abstract class DbAuthzGroupService extends BaseAuthzGroupService implemen
 			return rv;
 		}
 
+		/**
+		 * {@inheritDoc}
+		 */
+		public Map<String, Set<String>> getUsersAllowedFunctions(Map<String, Collection<String>> realmsByUser, Collection<String> locks)
+		{
+			final Map<String, Set<String>> rv = new HashMap<String, Set<String>>();
+			if (realmsByUser == null || realmsByUser.isEmpty() || locks == null || locks.isEmpty()) return rv;
+
+			// the users each role is given to without a grant, and all the realms to consider
+			final Map<String, Set<String>> usersByRole = new HashMap<String, Set<String>>();
+			Set<String> realms = new HashSet<String>();
+			for (Map.Entry<String, Collection<String>> entry : realmsByUser.entrySet())
+			{
+				if (entry.getValue() == null || entry.getValue().isEmpty()) continue;
+				realms.addAll(entry.getValue());
+				for (String role : getEmptyRoles(entry.getKey()))
+				{
+					Set<String> users = usersByRole.get(role);
+					if (users == null)
+					{
+						users = new HashSet<String>();
+						usersByRole.put(role, users);
+					}
+					users.add(entry.getKey());
+				}
+			}
+			if (realms.isEmpty()) return rv;
+			Set<Integer> roleIds = getRealmRoleKeys(usersByRole.keySet());
+
+			String sql = dbAuthzGroupSql.getSelectRealmUserRoleFunctionSql(orInClause(realms.size(), "GR.REALM_ID"),
+					orInClause(realms.size(), "FR.REALM_ID"), orInClause(locks.size(), "SRF.FUNCTION_NAME"),
+					orInClause(realmsByUser.size(), "SRRG.USER_ID"), roleIds.isEmpty() ? null : orInClause(roleIds.size(), "SRRF.ROLE_KEY"));
+			List<Object> fields = new ArrayList<Object>();
+			fields.addAll(realms);
+			fields.addAll(realms);
+			fields.addAll(locks);
+			fields.addAll(realmsByUser.keySet());
+			if (!roleIds.isEmpty())
+			{
+				fields.addAll(realms);
+				fields.addAll(locks);
+				fields.addAll(roleIds);
+			}
+
+			m_sql.dbRead(sql, fields.toArray(), new SqlReader()
+			{
+				public Object readSqlResultRecord(ResultSet result)
+				{
+					try
+					{
+						String kind = result.getString(1);
+						String id = result.getString(2);
+						String lock = result.getString(3);
+						String grantRealm = result.getString(4);
+						String lockRealm = result.getString(5);
+
+						// the grant and the role's function must both come from the realms of the user being checked
+						Collection<String> users = "U".equals(kind) ? Collections.singleton(id) : usersByRole.get(id);
+						if (users == null) return null;
+						for (String user : users)
+						{
+							Collection<String> userRealms = realmsByUser.get(user);
+							if (userRealms != null && userRealms.contains(grantRealm) && userRealms.contains(lockRealm))
+							{
+								Set<String> allowed = rv.get(user);
+								if (allowed == null)
+								{
+									allowed = new HashSet<String>();
+									rv.put(user, allowed);
+								}
+								allowed.add(lock);
+							}
+						}
+					}
+					catch (SQLException ignore)
+					{
+					}
+
+					return null;
+				}
+			});
+
+			return rv;
+		}
+
 		/**
 		 * Delegated access essentially behaves like roleswap except instead of just specifying which role, you can also specify
 		 * the realm as well.  The access map is populated by an Event Listener that listens for dac.checkaccess and is stored in the session
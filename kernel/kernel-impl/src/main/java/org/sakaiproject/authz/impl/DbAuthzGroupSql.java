@@ -134,6 +134,8 @@ public interface DbAuthzGroupSql
 	String getSelectRealmRoleUserIdSql(String inClause);
 
 	String getSelectRealmRoleGroupUserIdSql(String inClause);
+
+	String getSelectRealmUserRoleFunctionSql(String grantRealmInClause, String functionRealmInClause, String functionInClause, String userInClause, String roleInClause);
 	
 	String getSelectRealmRoleGroupUserCountSql(String inClause);
 	
@@ -473,6 +473,32 @@ public class DbAuthzGroupSqlDefault implements DbAuthzGroupSql
 		return sqlBuf.toString();
 	}
 	
+	public String getSelectRealmUserRoleFunctionSql(String grantRealmInClause, String functionRealmInClause, String functionInClause, String userInClause, String roleInClause)
+	{
+		StringBuilder sqlBuf = new StringBuilder();
+
+		// functions from the roles the users are granted (a grant in one realm can pick up the role's functions in another)
+		sqlBuf.append("SELECT 'U', SRRG.USER_ID, SRF.FUNCTION_NAME, GR.REALM_ID, FR.REALM_ID ");
+		sqlBuf.append("FROM SAKAI_REALM_RL_GR SRRG INNER JOIN SAKAI_REALM GR ON GR.REALM_KEY = SRRG.REALM_KEY ");
+		sqlBuf.append("INNER JOIN SAKAI_REALM_RL_FN SRRF ON SRRF.ROLE_KEY = SRRG.ROLE_KEY ");
+		sqlBuf.append("INNER JOIN SAKAI_REALM FR ON FR.REALM_KEY = SRRF.REALM_KEY ");
+		sqlBuf.append("INNER JOIN SAKAI_REALM_FUNCTION SRF ON SRF.FUNCTION_KEY = SRRF.FUNCTION_KEY ");
+		sqlBuf.append("WHERE SRRG.ACTIVE = '1' and " + grantRealmInClause + " and " + functionRealmInClause + " and " + functionInClause + " and " + userInClause + " ");
+
+		// functions from the roles every user has without a grant (.anon, .auth and provided roles)
+		if (roleInClause != null)
+		{
+			sqlBuf.append("UNION ALL ");
+			sqlBuf.append("SELECT 'R', SRR.ROLE_NAME, SRF.FUNCTION_NAME, FR.REALM_ID, FR.REALM_ID ");
+			sqlBuf.append("FROM SAKAI_REALM_RL_FN SRRF INNER JOIN SAKAI_REALM_ROLE SRR ON SRR.ROLE_KEY = SRRF.ROLE_KEY ");
+			sqlBuf.append("INNER JOIN SAKAI_REALM FR ON FR.REALM_KEY = SRRF.REALM_KEY ");
+			sqlBuf.append("INNER JOIN SAKAI_REALM_FUNCTION SRF ON SRF.FUNCTION_KEY = SRRF.FUNCTION_KEY ");
+			sqlBuf.append("WHERE " + functionRealmInClause + " and " + functionInClause + " and " + roleInClause + " ");
+		}
+
+		return sqlBuf.toString();
+	}
+
 	public String getSelectRealmRoleGroupUserCountSql(String inClause)
 	{
 		StringBuilder sqlBuf = new StringBuilder();
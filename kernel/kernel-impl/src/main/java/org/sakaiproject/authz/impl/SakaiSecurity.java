@@ -45,6 +45,7 @@ import org.sakaiproject.user.api.User;
 import org.sakaiproject.user.api.UserDirectoryService;
 
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
 
 /**
  * <p>
@@ -68,6 +69,13 @@ public abstract class SakaiSecurity implements SecurityService, Observer
 	/** The update event to post to clear cached security lookups involving the authz group **/
 	protected final static String EVENT_ROLESWAP_CLEAR = "realm.clear.cache";
 
+	/** memory.SecurityService.invalidation: enumerate members x functions to build the keys to remove (the default) */
+	protected final static String INVALIDATION_KEYS = "keys";
+	/** memory.SecurityService.invalidation: remove only the keys indexed for the realm or user */
+	protected final static String INVALIDATION_INDEX = "index";
+	/** memory.SecurityService.invalidation: bump the realm or user generation so its cached answers are no longer found */
+	protected final static String INVALIDATION_GENERATION = "generation";
+
 	/**********************************************************************************************************************************************************************************************************************************************************
 	 * Dependencies, configuration, and their setter methods
 	 *********************************************************************************************************************************************************************************************************************************************************/
@@ -170,6 +178,19 @@ public abstract class SakaiSecurity implements SecurityService, Observer
 			m_callCache = memoryService().getCache("org.sakaiproject.authz.api.SecurityService.cache");
 			m_superCache = memoryService().getCache("org.sakaiproject.authz.api.SecurityService.superCache");
 			m_contentCache = memoryService().getCache("org.sakaiproject.authz.api.SecurityService.contentCache");
+
+			invalidationMode = serverConfigurationService.getString("memory.SecurityService.invalidation", INVALIDATION_KEYS);
+			if (!INVALIDATION_KEYS.equals(invalidationMode) && m_callCache != null && m_callCache.isDistributed()) {
+				// generations and the index are only known to this server, other servers would keep finding the old answers
+				M_log.warn("SecurityService " + invalidationMode + " invalidation needs a local cache, using keys invalidation instead");
+				invalidationMode = INVALIDATION_KEYS;
+			}
+			if (INVALIDATION_INDEX.equals(invalidationMode)) {
+				cacheIndex = new SecurityCacheIndex(serverConfigurationService.getInt("memory.SecurityService.index.maxKeys", 100000));
+			} else if (!INVALIDATION_GENERATION.equals(invalidationMode)) {
+				invalidationMode = INVALIDATION_KEYS;
+			}
+			M_log.info("SecurityService cache invalidation: " + invalidationMode);
 		}
         eventTrackingService().addObserver(this);
 	}
@@ -185,6 +206,19 @@ public abstract class SakaiSecurity implements SecurityService, Observer
      */
     Cache<String, Boolean> m_contentCache;
 
+    /**
+     * How unlock cache entries are invalidated when realms change (memory.SecurityService.invalidation)
+     */
+    String invalidationMode = INVALIDATION_KEYS;
+    /**
+     * The live unlock keys by realm and user (index invalidation only)
+     */
+    SecurityCacheIndex cacheIndex;
+    /**
+     * The current generation of each changed realm and user (generation invalidation only)
+     */
+    final Map<String, Long> generations = new ConcurrentHashMap<>();
+
     /**
      * KNL-1230
      * Get a permission check from the cache
@@ -216,6 +250,38 @@ public abstract class SakaiSecurity implements SecurityService, Observer
         return result;
     }
 
+    /**
+     * Get several permission checks from the cache with one request for each cache
+     * @param keys the cache keys (generated using makeCacheKey), none for a super user
+     * @return the values found in the cache by key, the keys not found are left out
+     */
+    Map<String, Boolean> getAllFromCache(Collection<String> keys) {
+        Map<String, Boolean> result = new HashMap<String, Boolean>();
+        if (m_callCache != null && !keys.isEmpty()) {
+            Set<String> contentKeys = new HashSet<String>();
+            Set<String> callKeys = new HashSet<String>();
+            for (String key : keys) {
+                if (key.contains("@/content")) {
+                    contentKeys.add(key);
+                } else {
+                    callKeys.add(key);
+                }
+            }
+            if (!contentKeys.isEmpty()) result.putAll(m_contentCache.getAll(contentKeys));
+            if (!callKeys.isEmpty()) result.putAll(m_callCache.getAll(callKeys));
+        }
+        if (cacheDebugDetailed) {
+            for (String key : keys) {
+                if (result.containsKey(key)) {
+                    M_log.info("SScache:hit:"+key+":val="+result.get(key));
+                } else {
+                    M_log.info("SScache:MISS:"+key);
+                }
+            }
+        }
+        return result;
+    }
+
     /**
      * KNL-1230
      * Add a permission check to the cache
@@ -225,6 +291,20 @@ public abstract class SakaiSecurity implements SecurityService, Observer
      * @param isSuper true if this is a super user cache entry
      */
     void addToCache(String key, Boolean payload, boolean isSuper) {
+        addToCache(key, payload, isSuper, null, null, null);
+    }
+
+    /**
+     * Add a permission check to the cache, recording what it depends on for index invalidation
+     *
+     * @param key the cache key (generated using makeCacheKey)
+     * @param payload true if the permission is granted, false if not
+     * @param isSuper true if this is a super user cache entry
+     * @param userId the user checked (may be null)
+     * @param function the permission checked (may be null)
+     * @param azgs the AuthzGroup references the answer was computed from (may be null)
+     */
+    void addToCache(String key, Boolean payload, boolean isSuper, String userId, String function, Collection<String> azgs) {
         if (m_callCache != null && key != null) {
             if (isSuper) {
                 m_superCache.put(key, payload);
@@ -239,6 +319,14 @@ public abstract class SakaiSecurity implements SecurityService, Observer
                     }
                 } else {
                     m_callCache.put(key, payload);
+                    if (cacheIndex != null && azgs != null) {
+                        Set<String> evicted = cacheIndex.add(key, userId, function, azgs);
+                        if (!evicted.isEmpty()) {
+                            // too many keys to track, the oldest ones can no longer be invalidated so drop them
+                            m_callCache.removeAll(evicted);
+                            if (cacheDebug) M_log.info("SScache:index full:EVICT:"+evicted.size());
+                        }
+                    }
                     if (cacheDebugDetailed) logCacheState("addToCache("+key+", "+payload+")");
                 }
             }
@@ -309,6 +397,25 @@ public abstract class SakaiSecurity implements SecurityService, Observer
         return false;
     }
 
+    /**
+     * Called when a user changes in a way that affects all their permissions (like a user.del Event),
+     * only index and generation invalidation can find the entries for one user
+     * @param userId the internal user id
+     * @return true if the cached answers for the user were invalidated, false otherwise
+     */
+    public boolean notifyUserChanged(String userId) {
+        if (m_callCache == null || userId == null) return false; // do nothing no cache in use
+        if (cacheIndex != null) {
+            m_callCache.removeAll(cacheIndex.removeForUser(userId));
+            if (cacheDebug) M_log.info("SScache:changed user:" + userId);
+            return true;
+        } else if (INVALIDATION_GENERATION.equals(invalidationMode)) {
+            generations.merge("user@" + userId, 1L, Long::sum);
+            return true;
+        }
+        return false;
+    }
+
     /**
      * KNL-1230
      * Called when realms are removed (like a realm.del Event)
@@ -369,6 +476,18 @@ public abstract class SakaiSecurity implements SecurityService, Observer
     void cacheRealmPermsChanged(String realmRef, Set<String> roles, Set<String> permissions) {
         if (m_callCache == null) return; // do nothing if no cache in use
         String azgRef = convertRealmRefToRef(realmRef);
+        if (cacheIndex != null) {
+            // only the keys cached for this realm, whatever the user or role (so .auth needs no special case)
+            Set<String> keysToInvalidate = cacheIndex.removeForAzg(azgRef, (permissions == null || permissions.isEmpty()) ? null : permissions);
+            m_callCache.removeAll(keysToInvalidate);
+            if (cacheDebug) M_log.info("SScache:changed "+azgRef+":indexed keys="+keysToInvalidate);
+            return; // SHORT CIRCUIT
+        } else if (INVALIDATION_GENERATION.equals(invalidationMode)) {
+            // all the answers using this realm now have keys nobody will ask for, they expire from the cache on their own
+            generations.merge(azgRef, 1L, Long::sum);
+            if (cacheDebug) M_log.info("SScache:changed "+azgRef+":generation="+generations.get(azgRef));
+            return; // SHORT CIRCUIT
+        }
         if (permissions == null || permissions.isEmpty()) {
             List<String> allPerms = functionManager().getRegisteredFunctions();
             permissions = new HashSet<String>(allPerms);
@@ -520,6 +639,23 @@ public abstract class SakaiSecurity implements SecurityService, Observer
         return "unlock@" + userId +"@" + role + "@" + function + "@" + reference;
     }
 
+    /**
+     * Make the generation suffix of an unlock cache key (generation invalidation only),
+     * it changes whenever one of the realms or the user is invalidated
+     * @param userId the internal sakai user ID (can be null)
+     * @param azgs the AuthzGroup references the answer is computed from
+     * @return the suffix to add to the key, empty if nothing has been invalidated yet
+     */
+    String makeGenerationSuffix(String userId, Collection<String> azgs) {
+        long generation = generations.getOrDefault("user@" + userId, 0L);
+        if (azgs != null) {
+            for (String azg : azgs) {
+                generation = 31 * generation + generations.getOrDefault(azg, 0L);
+            }
+        }
+        return generation == 0 ? "" : "#" + generation;
+    }
+
     // KNL-1230 added to assist with debugging caching issues
     /**
      * Enable cache debugging output in the logs
@@ -771,6 +907,10 @@ public abstract class SakaiSecurity implements SecurityService, Observer
 
 		// check the cache
 		String command = makeCacheKey(userId, roleswap, function, entityRef, false);
+		if (command != null && INVALIDATION_GENERATION.equals(invalidationMode))
+		{
+			command = command + makeGenerationSuffix(userId, azgs);
+		}
 		
 		if (m_callCache != null)
 		{
@@ -782,7 +922,7 @@ public abstract class SakaiSecurity implements SecurityService, Observer
 		boolean rv = authzGroupService().isAllowed(userId, function, azgs);
 
 		// cache
-		addToCache(command, rv, false);
+		addToCache(command, rv, false, userId, function, azgs);
 
 		return rv;
 	}
@@ -822,6 +962,178 @@ public abstract class SakaiSecurity implements SecurityService, Observer
 		return users;
 	}
 
+	/**
+	 * {@inheritDoc}
+	 */
+	public Map<String, Map<String, Set<String>>> unlockUsers(Collection<String> userIds, Collection<String> functions, Collection<String> entityRefs)
+	{
+		Map<String, Map<String, Set<String>>> rv = new HashMap<String, Map<String, Set<String>>>();
+		if (functions == null || entityRefs == null)
+		{
+			M_log.warn("unlockUsers(): null: " + functions + " " + entityRefs);
+			return rv;
+		}
+		for (String entityRef : entityRefs)
+		{
+			Map<String, Set<String>> usersByFunction = new HashMap<String, Set<String>>();
+			for (String function : functions)
+			{
+				usersByFunction.put(function, new HashSet<String>());
+			}
+			rv.put(entityRef, usersByFunction);
+		}
+		if (userIds == null || userIds.isEmpty() || functions.isEmpty()) return rv;
+
+		// role swap and delegated access only apply to the current user, who is left to the single check
+		String currentUserId = sessionManager().getCurrentSessionUserId();
+		boolean advisors = hasAdvisors();
+
+		// the checks the super user test, the advisors and the cache could not answer, grouped by the AuthzGroups
+		// of their reference for each user: (user -> AuthzGroups) -> reference -> user -> function -> cache key
+		Map<Map<String, Set<String>>, Map<String, Map<String, Map<String, String>>>> pending =
+				new HashMap<Map<String, Set<String>>, Map<String, Map<String, Map<String, String>>>>();
+		Map<String, Map<String, Collection<String>>> azgsByRef = new HashMap<String, Map<String, Collection<String>>>();
+		Set<String> commands = new HashSet<String>();
+		for (String entityRef : entityRefs)
+		{
+			Map<String, Set<String>> usersByFunction = rv.get(entityRef);
+			Reference ref = entityManager().newReference(entityRef);
+			Map<String, Set<String>> realmsByUser = new HashMap<String, Set<String>>();
+			Map<String, Collection<String>> azgsByUser = new HashMap<String, Collection<String>>();
+			Map<String, Map<String, String>> checks = new HashMap<String, Map<String, String>>();
+			for (String userId : userIds)
+			{
+				if (userId == null) continue;
+				if (isSuperUser(userId) || userId.equals(currentUserId))
+				{
+					for (String function : functions)
+					{
+						if (unlock(userId, function, entityRef)) usersByFunction.get(function).add(userId);
+					}
+					continue;
+				}
+
+				Collection<String> azgs = ref.getAuthzGroups(userId);
+				realmsByUser.put(userId, new HashSet<String>(azgs));
+				azgsByUser.put(userId, azgs);
+				for (String function : functions)
+				{
+					if (advisors)
+					{
+						SecurityAdvisor.SecurityAdvice advice = adviseIsAllowed(userId, function, entityRef);
+						if (advice != SecurityAdvisor.SecurityAdvice.PASS)
+						{
+							if (advice == SecurityAdvisor.SecurityAdvice.ALLOWED) usersByFunction.get(function).add(userId);
+							continue;
+						}
+					}
+
+					String command = makeCacheKey(userId, null, function, entityRef, false);
+					if (command != null && INVALIDATION_GENERATION.equals(invalidationMode))
+					{
+						command = command + makeGenerationSuffix(userId, azgs);
+					}
+					if (m_callCache != null && command != null)
+					{
+						commands.add(command);
+					}
+
+					Map<String, String> userChecks = checks.get(userId);
+					if (userChecks == null)
+					{
+						userChecks = new HashMap<String, String>();
+						checks.put(userId, userChecks);
+					}
+					userChecks.put(function, command);
+				}
+			}
+
+			if (!checks.isEmpty())
+			{
+				Map<String, Map<String, Map<String, String>>> group = pending.get(realmsByUser);
+				if (group == null)
+				{
+					group = new HashMap<String, Map<String, Map<String, String>>>();
+					pending.put(realmsByUser, group);
+				}
+				group.put(entityRef, checks);
+				azgsByRef.put(entityRef, azgsByUser);
+			}
+		}
+
+		// one cache request for all the checks, those answered by the cache are dropped from the lookups
+		Map<String, Boolean> cachedValues = getAllFromCache(commands);
+		if (!cachedValues.isEmpty())
+		{
+			for (Iterator<Map<String, Map<String, Map<String, String>>>> groups = pending.values().iterator(); groups.hasNext();)
+			{
+				Map<String, Map<String, Map<String, String>>> group = groups.next();
+				for (Iterator<Map.Entry<String, Map<String, Map<String, String>>>> refs = group.entrySet().iterator(); refs.hasNext();)
+				{
+					Map.Entry<String, Map<String, Map<String, String>>> refChecks = refs.next();
+					Map<String, Set<String>> usersByFunction = rv.get(refChecks.getKey());
+					for (Iterator<Map.Entry<String, Map<String, String>>> users = refChecks.getValue().entrySet().iterator(); users.hasNext();)
+					{
+						Map.Entry<String, Map<String, String>> userChecks = users.next();
+						for (Iterator<Map.Entry<String, String>> checks = userChecks.getValue().entrySet().iterator(); checks.hasNext();)
+						{
+							Map.Entry<String, String> check = checks.next();
+							Boolean value = (check.getValue() == null) ? null : cachedValues.get(check.getValue());
+							if (value != null)
+							{
+								if (value.booleanValue()) usersByFunction.get(check.getKey()).add(userChecks.getKey());
+								checks.remove();
+							}
+						}
+						if (userChecks.getValue().isEmpty()) users.remove();
+					}
+					if (refChecks.getValue().isEmpty()) refs.remove();
+				}
+				if (group.isEmpty()) groups.remove();
+			}
+		}
+
+		// one lookup for each distinct set of AuthzGroups, references sharing a cache key are only cached once
+		Set<String> cached = new HashSet<String>();
+		for (Map.Entry<Map<String, Set<String>>, Map<String, Map<String, Map<String, String>>>> group : pending.entrySet())
+		{
+			Map<String, Collection<String>> realmsByUser = new HashMap<String, Collection<String>>();
+			Set<String> groupFunctions = new HashSet<String>();
+			for (Map<String, Map<String, String>> checks : group.getValue().values())
+			{
+				for (Map.Entry<String, Map<String, String>> userChecks : checks.entrySet())
+				{
+					realmsByUser.put(userChecks.getKey(), group.getKey().get(userChecks.getKey()));
+					groupFunctions.addAll(userChecks.getValue().keySet());
+				}
+			}
+
+			Map<String, Set<String>> allowedFunctions = authzGroupService().getUsersAllowedFunctions(realmsByUser, groupFunctions);
+
+			for (Map.Entry<String, Map<String, Map<String, String>>> refChecks : group.getValue().entrySet())
+			{
+				Map<String, Set<String>> usersByFunction = rv.get(refChecks.getKey());
+				Map<String, Collection<String>> azgsByUser = azgsByRef.get(refChecks.getKey());
+				for (Map.Entry<String, Map<String, String>> userChecks : refChecks.getValue().entrySet())
+				{
+					String userId = userChecks.getKey();
+					Set<String> allowed = allowedFunctions.get(userId);
+					for (Map.Entry<String, String> check : userChecks.getValue().entrySet())
+					{
+						boolean isAllowed = allowed != null && allowed.contains(check.getKey());
+						if (isAllowed) usersByFunction.get(check.getKey()).add(userId);
+						if (cached.add(check.getValue()))
+						{
+							addToCache(check.getValue(), isAllowed, false, userId, check.getKey(), azgsByUser.get(userId));
+						}
+					}
+				}
+			}
+		}
+
+		return rv;
+	}
+
 	/**********************************************************************************************************************************************************************************************************************************************************
 	 * SecurityAdvisor Support
 	 *********************************************************************************************************************************************************************************************************************************************************/
@@ -1036,8 +1348,14 @@ public abstract class SakaiSecurity implements SecurityService, Observer
 		}
 
 		Event event = (Event) obj;
-		
-		if (SiteService.EVENT_SITE_USER_INVALIDATE.equals(event.getEvent()))
+
+		if (UserDirectoryService.SECURE_REMOVE_USER.equals(event.getEvent()) && event.getResource() != null)
+		{
+			// resource is /user/{id}
+			String userRef = event.getResource();
+			notifyUserChanged(userRef.substring(userRef.lastIndexOf(Entity.SEPARATOR) + 1));
+		}
+		else if (SiteService.EVENT_SITE_USER_INVALIDATE.equals(event.getEvent()))
 		{
 			Site site = null;
 			try {
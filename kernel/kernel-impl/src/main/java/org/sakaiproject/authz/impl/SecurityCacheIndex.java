@@ -0,0 +1,163 @@
+/**********************************************************************************
+ * $URL$
+ * $Id$
+ ***********************************************************************************
+ *
+ * Copyright (c) 2018 Sakai Foundation
+ *
+ * Licensed under the Educational Community License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.opensource.org/licenses/ECL-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ **********************************************************************************/
+
+package org.sakaiproject.authz.impl;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Tracks which unlock@ keys are live in the security call cache, by AuthzGroup reference and by user id,
+ * so that a realm or user change removes only the entries actually cached for it (KNL-1230 follow up).
+ * The index is a superset of the cache: keys expired or evicted from the cache stay indexed until they are invalidated
+ * or evicted, oldest first, when the index is full.
+ */
+class SecurityCacheIndex {
+
+    /** What the index knows about one cached key */
+    private static class Entry {
+        final String userId;
+        final String function;
+        final Collection<String> azgRefs;
+
+        Entry(String userId, String function, Collection<String> azgRefs) {
+            this.userId = userId;
+            this.function = function;
+            this.azgRefs = azgRefs;
+        }
+    }
+
+    // in insertion order so the oldest keys are evicted first
+    private final Map<String, Entry> entries = new LinkedHashMap<>();
+    private final Map<String, Set<String>> keysByAzg = new HashMap<>();
+    private final Map<String, Set<String>> keysByUser = new HashMap<>();
+    private final int maxKeys;
+
+    /**
+     * @param maxKeys the most keys to track before evicting the oldest
+     */
+    SecurityCacheIndex(int maxKeys) {
+        this.maxKeys = maxKeys;
+    }
+
+    /**
+     * Record a key that has just been put in the cache
+     * @param key the cache key
+     * @param userId the user id (may be null for the anon user)
+     * @param function the permission
+     * @param azgRefs the AuthzGroup references the answer was computed from
+     * @return the oldest keys evicted from the index to make room, the caller should remove them from the cache
+     */
+    synchronized Set<String> add(String key, String userId, String function, Collection<String> azgRefs) {
+        if (entries.containsKey(key)) {
+            return Collections.emptySet();
+        }
+        Set<String> evicted = Collections.emptySet();
+        if (entries.size() >= maxKeys) {
+            // make room for a tenth of the index at once so a full index is not evicted from on every add
+            evicted = new HashSet<>();
+            int toEvict = entries.size() - maxKeys * 9 / 10;
+            for (Iterator<String> i = entries.keySet().iterator(); i.hasNext() && evicted.size() < toEvict;) {
+                evicted.add(i.next());
+            }
+            for (String evictedKey : evicted) {
+                remove(evictedKey);
+            }
+        }
+        Entry entry = new Entry(userId, function, new HashSet<>(azgRefs));
+        entries.put(key, entry);
+        for (String azgRef : entry.azgRefs) {
+            keysByAzg.computeIfAbsent(azgRef, k -> new HashSet<>()).add(key);
+        }
+        keysByUser.computeIfAbsent(String.valueOf(userId), k -> new HashSet<>()).add(key);
+        return evicted;
+    }
+
+    /**
+     * Remove and return the keys cached for an AuthzGroup
+     * @param azgRef the AuthzGroup reference (e.g. /site/123)
+     * @param permissions only keys for these permissions, null for all
+     * @return the keys removed from the index
+     */
+    synchronized Set<String> removeForAzg(String azgRef, Set<String> permissions) {
+        Set<String> rv = new HashSet<>();
+        Set<String> keys = keysByAzg.get(azgRef);
+        if (keys != null) {
+            for (String key : keys) {
+                Entry entry = entries.get(key);
+                if (entry != null && (permissions == null || permissions.contains(entry.function))) {
+                    rv.add(key);
+                }
+            }
+        }
+        for (String key : rv) {
+            remove(key);
+        }
+        return rv;
+    }
+
+    /**
+     * Remove and return the keys cached for a user
+     * @param userId the user id
+     * @return the keys removed from the index
+     */
+    synchronized Set<String> removeForUser(String userId) {
+        Set<String> keys = keysByUser.get(String.valueOf(userId));
+        Set<String> rv = keys == null ? new HashSet<>() : new HashSet<>(keys);
+        for (String key : rv) {
+            remove(key);
+        }
+        return rv;
+    }
+
+    synchronized void clear() {
+        entries.clear();
+        keysByAzg.clear();
+        keysByUser.clear();
+    }
+
+    synchronized int size() {
+        return entries.size();
+    }
+
+    private void remove(String key) {
+        Entry entry = entries.remove(key);
+        if (entry == null) return;
+        for (String azgRef : entry.azgRefs) {
+            Set<String> keys = keysByAzg.get(azgRef);
+            if (keys != null) {
+                keys.remove(key);
+                if (keys.isEmpty()) keysByAzg.remove(azgRef);
+            }
+        }
+        Set<String> keys = keysByUser.get(String.valueOf(entry.userId));
+        if (keys != null) {
+            keys.remove(key);
+            if (keys.isEmpty()) keysByUser.remove(String.valueOf(entry.userId));
+        }
+    }
+}
@@ -23,6 +23,7 @@ package org.sakaiproject.content.impl;
 
 import java.io.BufferedInputStream;
 import java.io.ByteArrayInputStream;
+import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
@@ -32,6 +33,10 @@ import java.io.UnsupportedEncodingException;
 import java.net.SocketException;
 import java.net.URI;
 import java.net.URLDecoder;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.StandardOpenOption;
 import java.text.SimpleDateFormat;
 import java.util.ArrayList;
 import java.util.Arrays;
@@ -6938,6 +6943,15 @@ SiteContentAdvisorProvider, SiteContentAdvisorTypeRegistry, EntityTransferrerRef
 	/** The chunk size used when streaming (100K). */
 	protected static final int STREAM_BUFFER_SIZE = 102400;
 
+	/** Bodies smaller than this (48K) are written by us rather than handed to the container's sendfile. */
+	protected static final int SENDFILE_MIN_SIZE = 49152;
+
+	/** Request attributes through which Tomcat offers and accepts sendfile. */
+	protected static final String SENDFILE_SUPPORTED = "org.apache.tomcat.sendfile.support";
+	protected static final String SENDFILE_FILENAME = "org.apache.tomcat.sendfile.filename";
+	protected static final String SENDFILE_START = "org.apache.tomcat.sendfile.start";
+	protected static final String SENDFILE_END = "org.apache.tomcat.sendfile.end";
+
 	/**
 	 * Process the access request for a resource.
 	 * 
@@ -7099,8 +7113,20 @@ SiteContentAdvisorProvider, SiteContentAdvisorTypeRegistry, EntityTransferrerRef
 					contentType = contentType + "; charset=" + encoding;
 				}
 
+				String eTag = getETag(len, lastModTime);
+				if (eTag != null) {
+					res.addHeader("ETag", eTag);
+				}
+
+				// If-None-Match takes precedence over If-Modified-Since
+				String ifNoneMatch = req.getHeader("If-None-Match");
+				if (ifNoneMatch != null && matchesETag(ifNoneMatch, eTag)) {
+					res.setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+					return;
+				}
+
 				// KNL-1316 let's see if the user already has a cached copy. Code copied and modified from Tomcat DefaultServlet.java
-				long headerValue = req.getDateHeader("If-Modified-Since");
+				long headerValue = (ifNoneMatch == null) ? req.getDateHeader("If-Modified-Since") : -1;
 				if (headerValue != -1 && (lastModTime < headerValue + 1000)) {
 					// The entity has not been modified since the date specified by the client. This is not an error case.
 					res.setStatus(HttpServletResponse.SC_NOT_MODIFIED);
@@ -7111,7 +7137,7 @@ SiteContentAdvisorProvider, SiteContentAdvisorTypeRegistry, EntityTransferrerRef
 				// Send the asset directly to the load-balancer or to the client
 				URI directLinkUri = m_storage.getDirectLink(resource);
 
-				ArrayList<Range> ranges = parseRange(req, res, len);
+				ArrayList<Range> ranges = parseRange(req, res, len, eTag, lastModTime);
 				if (directLinkUri != null || req.getHeader("Range") == null || (ranges == null) || (ranges.isEmpty())) {
 					res.addHeader("Accept-Ranges", "none");
 					res.setContentType(contentType);
@@ -7146,6 +7172,12 @@ SiteContentAdvisorProvider, SiteContentAdvisorTypeRegistry, EntityTransferrerRef
 						}
 					}
 
+					// send a body held in a local file without reading it through a stream
+					if (sendBodyFile(req, res, resource, 0, len - 1))
+					{
+						return;
+					}
+
 					// stream the content using a small buffer to keep memory managed
 					InputStream content = null;
 					OutputStream out = null;
@@ -7229,6 +7261,11 @@ SiteContentAdvisorProvider, SiteContentAdvisorTypeRegistry, EntityTransferrerRef
 		                    res.setContentType(contentType);
 		                }
 
+						if (sendBodyFile(req, res, resource, range.start, range.end))
+						{
+							return;
+						}
+
 						// stream the content using a small buffer to keep memory managed
 						InputStream content = null;
 						OutputStream out = null;
@@ -7298,6 +7335,11 @@ SiteContentAdvisorProvider, SiteContentAdvisorTypeRegistry, EntityTransferrerRef
 
 		            	res.setContentType("multipart/byteranges; boundary=" + MIME_SEPARATOR);
 
+						if (sendBodyFileRanges(res, resource, ranges, contentType))
+						{
+							return;
+						}
+
 						// stream the content using a small buffer to keep memory managed
 						OutputStream out = null;
 		
@@ -13577,6 +13619,13 @@ SiteContentAdvisorProvider, SiteContentAdvisorTypeRegistry, EntityTransferrerRef
 		 */
 		public URI getDirectLink(ContentResource resource);
 
+		/**
+		 * Get the local file holding the body of the resource, so it can be sent without being streamed.
+		 * @param resource
+		 * @return The file or null if the body is not held in a local file
+		 */
+		public File getResourceBodyFile(ContentResource resource);
+
 		/**
 		 * Get a count of all members of a collection, where 'member' means the collection
 		 * is the immediate parent of the item.  The count is not recursive and it will 
@@ -13891,6 +13940,14 @@ SiteContentAdvisorProvider, SiteContentAdvisorTypeRegistry, EntityTransferrerRef
 		return 0;
 	}
 
+	/**
+	 * {@inheritDoc}
+	 * This storage keeps no stored totals, so there is nothing to reconcile.
+	 */
+	public void reconcileQuotaLedger()
+	{
+	}
+
 	public void transferCopyEntities(String fromContext, String toContext, List ids, boolean cleanup)
 	{
 		transferCopyEntitiesRefMigrator(fromContext, toContext, ids, cleanup);
@@ -14006,53 +14063,45 @@ SiteContentAdvisorProvider, SiteContentAdvisorTypeRegistry, EntityTransferrerRef
      *
      * @param request The servlet request we are processing
      * @param response The servlet response we are creating
-     * @return Vector of ranges
+     * @param fileLength The length of the body
+     * @param eTag The ETag of the body, or null if it has none
+     * @param lastModified The last modified time of the body, or 0 if it is not known
+     * @return Vector of ranges, or null if the whole body should be sent
      */
     protected ArrayList<Range> parseRange(HttpServletRequest request,
                                 HttpServletResponse response,
-                                long fileLength)
+                                long fileLength, String eTag, long lastModified)
         throws IOException {
 
-    	/* Commented out pending implementation of last-modified / if-modified.
-    	 * See http://jira.sakaiproject.org/jira/browse/SAK-3916
-    	
-        // Checking If-Range
+        // Checking If-Range, if the client's copy is out of date the entire entity is returned
 
     	String headerValue = request.getHeader("If-Range");
 
         if (headerValue != null) {
 
-            long headerValueTime = (-1L);
-            try {
-                headerValueTime = request.getDateHeader("If-Range");
-            } catch (Exception e) {
-                ;
-            }
+            headerValue = headerValue.trim();
+            if (headerValue.startsWith("\"") || headerValue.startsWith("W/")) {
 
-            String eTag = getETag(resourceAttributes);
-            long lastModified = resourceAttributes.getLastModified();
-
-            if (headerValueTime == (-1L)) {
-
-                // If the ETag the client gave does not match the entity
-                // etag, then the entire entity is returned.
-                if (!eTag.equals(headerValue.trim()))
-                    return FULL;
+                // only a strong ETag that matches the entity's allows a partial response
+                if (eTag == null || !eTag.equals(headerValue))
+                    return null;
 
             } else {
 
-                // If the timestamp of the entity the client got is older than
-                // the last modification date of the entity, the entire entity
-                // is returned.
-                if (lastModified > (headerValueTime + 1000))
-                    return FULL;
+                long headerValueTime = (-1L);
+                try {
+                    headerValueTime = request.getDateHeader("If-Range");
+                } catch (IllegalArgumentException e) {
+                    // not a date either
+                }
+
+                if (headerValueTime == (-1L) || lastModified == 0 || lastModified > (headerValueTime + 1000))
+                    return null;
 
             }
 
         }
-        
-    	*/
-    	
+
         if (fileLength == 0)
             return null;
 
@@ -14248,6 +14297,168 @@ SiteContentAdvisorProvider, SiteContentAdvisorTypeRegistry, EntityTransferrerRef
         }
     }
 
+    /**
+     * Get the ETag for a resource body.
+     *
+     * @param length The length of the body
+     * @param lastModified The last modified time of the body
+     * @return The strong ETag, or null if the body has no modified time to tell its versions apart.
+     */
+    protected String getETag(long length, long lastModified) {
+        if (lastModified <= 0)
+            return null;
+        return "\"" + length + "-" + lastModified + "\"";
+    }
+
+    /**
+     * Check an If-None-Match header against the ETag of the body.
+     *
+     * @param headerValue The comma separated list of ETags from the client
+     * @param eTag The ETag of the body, may be null
+     * @return true if the client already has this body
+     */
+    protected boolean matchesETag(String headerValue, String eTag) {
+        if (eTag == null)
+            return false;
+        StringTokenizer commaTokenizer = new StringTokenizer(headerValue, ",");
+        while (commaTokenizer.hasMoreTokens()) {
+            String value = commaTokenizer.nextToken().trim();
+            // If-None-Match uses the weak comparison
+            if (value.startsWith("W/"))
+                value = value.substring(2);
+            if (value.equals("*") || value.equals(eTag))
+                return true;
+        }
+        return false;
+    }
+
+    /**
+     * Get the local file holding the body of a resource, if it can be sent as it is.
+     *
+     * @return The file, or null if the body has to be read through streamContent().
+     */
+    protected File getBodyFile(ContentResource resource) {
+        File file = m_storage.getResourceBodyFile(resource);
+        if (file == null || file.length() != resource.getContentLength())
+            return null;
+        return file;
+    }
+
+    /**
+     * Send part of a body held in a local file. The file is handed to the container when it supports sendfile,
+     * otherwise it is copied to the response with FileChannel.transferTo.
+     *
+     * @param start Start of the range which will be sent
+     * @param end End of the range which will be sent
+     * @return false if the body is not in a local file and has to be streamed
+     */
+    protected boolean sendBodyFile(HttpServletRequest req, HttpServletResponse res, ContentResource resource, long start, long end)
+        throws IOException {
+
+        File file = getBodyFile(resource);
+        if (file == null)
+            return false;
+
+        if (Boolean.TRUE.equals(req.getAttribute(SENDFILE_SUPPORTED)) && (end - start + 1) >= SENDFILE_MIN_SIZE
+                && m_serverConfigurationService.getBoolean("content.sendfile", true)) {
+            req.setAttribute(SENDFILE_FILENAME, file.getCanonicalPath());
+            req.setAttribute(SENDFILE_START, Long.valueOf(start));
+            req.setAttribute(SENDFILE_END, Long.valueOf(end + 1));
+            return true;
+        }
+
+        FileChannel channel;
+        try {
+            channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+        } catch (IOException e) {
+            M_log.debug("Streaming " + resource.getId() + " as its file could not be opened: " + e);
+            return false;
+        }
+
+        try {
+            OutputStream out = res.getOutputStream();
+            copyRange(channel, out, start, end);
+            out.close();
+        } catch (IOException e) {
+            // usually the client aborted the connection
+            M_log.debug("Failed to send " + resource.getId() + ": " + e);
+        } finally {
+            channel.close();
+        }
+        return true;
+    }
+
+    /**
+     * Send several ranges of a body held in a local file as a multipart response, reading them all from one channel.
+     *
+     * @return false if the body is not in a local file and has to be streamed
+     */
+    protected boolean sendBodyFileRanges(HttpServletResponse res, ContentResource resource, List<Range> ranges, String contentType)
+        throws IOException {
+
+        File file = getBodyFile(resource);
+        if (file == null)
+            return false;
+
+        FileChannel channel;
+        try {
+            channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+        } catch (IOException e) {
+            M_log.debug("Streaming " + resource.getId() + " as its file could not be opened: " + e);
+            return false;
+        }
+
+        try {
+            OutputStream out = res.getOutputStream();
+            for (Range currentRange : ranges) {
+                // Writing MIME header.
+                IOUtils.write("\r\n--" + MIME_SEPARATOR + "\r\n", out);
+                if (contentType != null)
+                    IOUtils.write("Content-Type: " + contentType + "\r\n", out);
+                IOUtils.write("Content-Range: bytes " + currentRange.start
+                               + "-" + currentRange.end + "/"
+                               + currentRange.length + "\r\n", out);
+                IOUtils.write("\r\n", out);
+
+                copyRange(channel, out, currentRange.start, currentRange.end);
+            }
+            IOUtils.write("\r\n--" + MIME_SEPARATOR + "--\r\n", out);
+            out.close();
+        } catch (IOException e) {
+            // usually the client aborted the connection
+            M_log.debug("Failed to send " + resource.getId() + ": " + e);
+        } finally {
+            channel.close();
+        }
+        return true;
+    }
+
+    /**
+     * Copy part of a file to the specified output stream, letting the channel move the bytes
+     * rather than reading them through a buffer of our own.
+     *
+     * @param channel The file to read from
+     * @param ostream The output stream to write to
+     * @param start Start of the range which will be copied
+     * @param end End of the range which will be copied
+     * @exception IOException if an input/output error occurs
+     */
+    protected void copyRange(FileChannel channel, OutputStream ostream, long start, long end)
+        throws IOException {
+
+        WritableByteChannel target = Channels.newChannel(ostream);
+        long position = start;
+        long bytesToWrite = end - start + 1;
+        while (bytesToWrite > 0) {
+            long written = channel.transferTo(position, bytesToWrite, target);
+            if (written <= 0) {
+                throw new IOException("File ended " + bytesToWrite + " bytes before the end of the range");
+            }
+            position += written;
+            bytesToWrite -= written;
+        }
+    }
+
 	/**
 	 * Establish a security advisor to allow the "embedded" azg work to occur with no need for additional security permissions.
 	 */
@@ -167,6 +167,41 @@ public interface ContentServiceSql
 	 * KNL-1084, SAK-22169
 	 */
 	String getDropBoxRootQuotaQuerySql();
+
+	/**
+	 * returns the sql statement which retrieves the stored total number of bytes for a context from the CONTENT_QUOTA_LEDGER table.
+	 */
+	String getQuotaLedgerSelectSql();
+
+	/**
+	 * returns the sql statement which inserts a context into the CONTENT_QUOTA_LEDGER table with no total, to be counted.
+	 */
+	String getQuotaLedgerInsertSql();
+
+	/**
+	 * returns the sql statement which locks the row of a context in the CONTENT_QUOTA_LEDGER table, without changing it.
+	 */
+	String getQuotaLedgerLockSql();
+
+	/**
+	 * returns the sql statement which replaces the total number of bytes for a context in the CONTENT_QUOTA_LEDGER table.
+	 */
+	String getQuotaLedgerSetSql();
+
+	/**
+	 * returns the sql statement which adds a (possibly negative) number of bytes to the total for a context in the CONTENT_QUOTA_LEDGER table.
+	 */
+	String getQuotaLedgerAddSql();
+
+	/**
+	 * returns the sql statement which retrieves all the contexts in the CONTENT_RESOURCE and CONTENT_QUOTA_LEDGER tables.
+	 */
+	String getQuotaLedgerContextsSql();
+
+	/**
+	 * returns the sql statement which retrieves the CONTEXT and FILE_SIZE values of a resource in the specified table.
+	 */
+	String getResourceContextAndFilesizeSql(String table);
 	/**
 	 * returns the sql statement which retrieves the RESOURCE_ID and XML values for all entries in the specified table where file-size is null.
 	 */
@@ -250,6 +250,62 @@ public class ContentServiceSqlDefault implements ContentServiceSql
 		return "select SUM(FILE_SIZE) from CONTENT_RESOURCE where IN_COLLECTION LIKE ?";
 	}
 	
+	/**
+	 * returns the sql statement which retrieves the stored total number of bytes for a context from the CONTENT_QUOTA_LEDGER table.
+	 */
+	public String getQuotaLedgerSelectSql()
+	{
+		return "select TOTAL_SIZE from CONTENT_QUOTA_LEDGER where CONTEXT = ?";
+	}
+
+	/**
+	 * returns the sql statement which inserts a context into the CONTENT_QUOTA_LEDGER table with no total, to be counted.
+	 */
+	public String getQuotaLedgerInsertSql()
+	{
+		return "insert into CONTENT_QUOTA_LEDGER (CONTEXT) values (?)";
+	}
+
+	/**
+	 * returns the sql statement which locks the row of a context in the CONTENT_QUOTA_LEDGER table, without changing it.
+	 */
+	public String getQuotaLedgerLockSql()
+	{
+		return "update CONTENT_QUOTA_LEDGER set TOTAL_SIZE = TOTAL_SIZE where CONTEXT = ?";
+	}
+
+	/**
+	 * returns the sql statement which replaces the total number of bytes for a context in the CONTENT_QUOTA_LEDGER table.
+	 */
+	public String getQuotaLedgerSetSql()
+	{
+		return "update CONTENT_QUOTA_LEDGER set TOTAL_SIZE = ? where CONTEXT = ?";
+	}
+
+	/**
+	 * returns the sql statement which adds a (possibly negative) number of bytes to the total for a context in the CONTENT_QUOTA_LEDGER table.
+	 */
+	public String getQuotaLedgerAddSql()
+	{
+		return "update CONTENT_QUOTA_LEDGER set TOTAL_SIZE = TOTAL_SIZE + ? where CONTEXT = ?";
+	}
+
+	/**
+	 * returns the sql statement which retrieves all the contexts in the CONTENT_RESOURCE and CONTENT_QUOTA_LEDGER tables.
+	 */
+	public String getQuotaLedgerContextsSql()
+	{
+		return "select distinct CONTEXT from CONTENT_RESOURCE where CONTEXT is not null union select CONTEXT from CONTENT_QUOTA_LEDGER";
+	}
+
+	/**
+	 * returns the sql statement which retrieves the CONTEXT and FILE_SIZE values of a resource in the specified table.
+	 */
+	public String getResourceContextAndFilesizeSql(String table)
+	{
+		return "select CONTEXT, FILE_SIZE from " + table + " where RESOURCE_ID = ?";
+	}
+
 	/**
 	 * returns the sql statement which retrieves the RESOURCE_ID and XML values for all entries in the CONTENT_RESOURCE table where file-size is null.
 	 */
@@ -24,6 +24,7 @@ package org.sakaiproject.content.impl;
 
 import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
+import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
 import java.net.URI;
@@ -42,6 +43,11 @@ import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BooleanSupplier;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
@@ -307,6 +313,12 @@ public class DbContentService extends BaseContentService
     /** Configuration: to run the ddl on init or not. */
     protected boolean m_autoDdl = false;
 
+    /** Keep per-context size totals in CONTENT_QUOTA_LEDGER rather than summing CONTENT_RESOURCE for every quota check. */
+    protected boolean m_quotaLedger = true;
+
+    /** Number of threads used to rebuild the quota ledger. */
+    protected int m_quotaLedgerThreads = 4;
+
     /** Virtual Content Hosting Handler -- handler which resolves virtual entities to real ones. */
     private ContentHostingHandlerResolverImpl contentHostingHandlerResolver = null;
 
@@ -396,6 +408,14 @@ public class DbContentService extends BaseContentService
                 m_sqlService.ddl(this.getClass().getClassLoader(), "sakai_content_delete");
             }
 
+            m_quotaLedger = m_serverConfigurationService.getBoolean("content.quota.ledger", true);
+            m_quotaLedgerThreads = m_serverConfigurationService.getInt("content.quota.ledger.threads", 4);
+            if (m_quotaLedger && m_sqlService.dbRead("select count(*) from CONTENT_QUOTA_LEDGER").isEmpty())
+            {
+                M_log.warn("init(): the CONTENT_QUOTA_LEDGER table is not available, quota checks will sum the resource sizes");
+                m_quotaLedger = false;
+            }
+
             // Check for the existence of the FILE_SIZE column
             filesizeColumnExists = filesizeColumnExists();
 
@@ -1858,7 +1878,19 @@ public class DbContentService extends BaseContentService
                     {
                         insertIndividualDropboxRecord(getIndividualDropboxId(edit.getId()));
                     }
-                    m_resourceStore.commitResource(edit);
+                    if (!storeWithQuotaLedger(edit.getId(), ((BasicGroupAwareEdit) edit).getContext(), edit.getContentLength(), new BooleanSupplier()
+                    {
+                        public boolean getAsBoolean()
+                        {
+                            return m_resourceStore.commitResource(edit);
+                        }
+                    }))
+                    {
+                        message = "failed to write resource " + edit.getId();
+                        ServerOverloadException e = new ServerOverloadException(message);
+                        M_log.error(message, e);
+                        throw e;
+                    }
                 }
 
             }
@@ -2144,7 +2176,16 @@ public class DbContentService extends BaseContentService
 				   {
 					   insertIndividualDropboxRecord(getIndividualDropboxId(edit.getId()));
 				   }
-				   m_resourceStore.removeResource(edit);
+				   if (!storeWithQuotaLedger(edit.getId(), null, 0L, new BooleanSupplier()
+				   {
+					   public boolean getAsBoolean()
+					   {
+						   return m_resourceStore.removeResource(edit);
+					   }
+				   }))
+				   {
+					   M_log.warn("removeResource(): failed to remove resource " + edit.getId());
+				   }
 
 			   }
 		   }
@@ -2335,6 +2376,34 @@ public class DbContentService extends BaseContentService
         	return null;
         }
 
+        /**
+         * Get the local file holding the body of a resource. This is only known when the bodies are stored
+         * under the body path by a DefaultFileSystemHandler and the resource has no unsaved body of its own.
+         * 
+         * @param resource
+         * @return The file or null
+         */
+        public File getResourceBodyFile(ContentResource resource)
+        {
+            if (m_bodyPath == null || !(fileSystemHandler instanceof DefaultFileSystemHandler))
+            {
+                return null;
+            }
+            // wrapped resources may have their content filtered
+            if (resource instanceof WrappedContentResource || !(resource instanceof BaseResourceEdit))
+            {
+                return null;
+            }
+            BaseResourceEdit edit = (BaseResourceEdit) resource;
+            if (edit.getVirtualContentEntity() != null || edit.m_body != null || edit.m_contentStream != null
+                    || edit.m_contentLength == 0 || edit.m_filePath == null)
+            {
+                return null;
+            }
+            File file = ((DefaultFileSystemHandler) fileSystemHandler).getFile(edit.m_id, m_bodyPath, edit.m_filePath);
+            return file.isFile() ? file : null;
+        }
+
         /**
          * Return an input stream.
          * 
@@ -3341,7 +3410,28 @@ public class DbContentService extends BaseContentService
         }
     }
 
+    /**
+     * Get the total size of the resources in a context. Site and user contexts are read from the
+     * quota ledger, which is counted from the resources the first time a context is asked for.
+     */
     protected long getSizeForContext(String context) 
+    {
+        if (m_quotaLedger && !context.startsWith(COLLECTION_DROPBOX))
+        {
+            Long size = readQuotaLedger(context);
+            if (size == null)
+            {
+                size = countQuotaLedger(context, false);
+            }
+            return size;
+        }
+        return sumSizeForContext(context);
+    }
+
+    /**
+     * Sum the sizes of the resources in a context.
+     */
+    protected long sumSizeForContext(String context) 
     {
         long size = 0L;
 
@@ -3375,6 +3465,241 @@ public class DbContentService extends BaseContentService
         return size;
     }
 
+    /**
+     * Read the stored total size for a context.
+     * 
+     * @return the total or null if the context is not in the ledger yet.
+     */
+    protected Long readQuotaLedger(String context)
+    {
+        List list = m_sqlService.dbRead(contentServiceSql.getQuotaLedgerSelectSql(), new Object[] {context}, null);
+        if (list == null || list.isEmpty() || list.get(0) == null)
+        {
+            return null;
+        }
+        try
+        {
+            return Long.valueOf((String) list.get(0));
+        }
+        catch (NumberFormatException e)
+        {
+            M_log.warn("readQuotaLedger() unable to parse long from \"" + list.get(0) + "\" for context \"" + context + "\"");
+            return null;
+        }
+    }
+
+    /**
+     * Count the total size for a context from its resources and store it in the ledger. The ledger row is locked
+     * first, so a commit which already added to it is counted once it is done, and a later one adds to the count.
+     * 
+     * @param recount
+     *        true to count the context again even if it is already counted.
+     * @return the total size.
+     */
+    protected long countQuotaLedger(final String context, final boolean recount)
+    {
+        final long[] size = new long[1];
+        m_sqlService.transact(new Runnable()
+        {
+            public void run()
+            {
+                // an insert waits for a commit inserting the same context, and fails once that is committed
+                Object[] fields = new Object[] {context};
+                if (m_sqlService.dbWriteCount(contentServiceSql.getQuotaLedgerLockSql(), fields, null, null, false) == 0
+                        && !m_sqlService.dbWriteFailQuiet(null, contentServiceSql.getQuotaLedgerInsertSql(), fields))
+                {
+                    m_sqlService.dbWrite(contentServiceSql.getQuotaLedgerLockSql(), fields);
+                }
+
+                Long counted = recount ? null : readQuotaLedger(context);
+                if (counted != null)
+                {
+                    size[0] = counted;
+                    return;
+                }
+                size[0] = sumSizeForContext(context);
+                m_sqlService.dbWrite(contentServiceSql.getQuotaLedgerSetSql(), new Object[] {size[0], context});
+            }
+        }, "content quota ledger count");
+        return size[0];
+    }
+
+    /**
+     * Read the context and size currently stored for a resource.
+     * 
+     * @return the context (or null) and size, or null if the resource is not stored.
+     */
+    protected Object[] readQuotaEntry(String resourceId)
+    {
+        if (!m_quotaLedger) return null;
+        List list = m_sqlService.dbRead(contentServiceSql.getResourceContextAndFilesizeSql(m_resourceTableName), new Object[] {resourceId}, new SqlReader()
+        {
+            public Object readSqlResultRecord(ResultSet result)
+            {
+                try
+                {
+                    return new Object[] {result.getString(1), result.getLong(2)};
+                }
+                catch (SQLException e)
+                {
+                    M_log.warn("readQuotaEntry() failed for " + resourceId, e);
+                    return null;
+                }
+            }
+        });
+        return (list == null || list.isEmpty()) ? null : (Object[]) list.get(0);
+    }
+
+    /**
+     * Store a resource change, moving the resource's size in the quota ledger from the context and size it was
+     * stored with to its new ones in the same transaction. The ledger is left as it was if the change is not written.
+     * When locks are in the database the change is committed on the connection holding the resource's lock, so the
+     * contexts it changes are counted again once it is committed instead.
+     * 
+     * @param resourceId
+     *        The resource id.
+     * @param context
+     *        The new context, or null if the resource is removed or has no context.
+     * @param size
+     *        The new size.
+     * @param store
+     *        Writes the resource change, returning false if it could not be written.
+     * @return false if the resource change could not be written.
+     */
+    protected boolean storeWithQuotaLedger(final String resourceId, final String context, final long size, final BooleanSupplier store)
+    {
+        if (!m_quotaLedger)
+        {
+            return store.getAsBoolean();
+        }
+
+        if (m_locksInDb)
+        {
+            Object[] before = readQuotaEntry(resourceId);
+            boolean written = store.getAsBoolean();
+            String oldContext = before == null ? null : (String) before[0];
+            if (oldContext != null) countQuotaLedger(oldContext, true);
+            if (context != null && !context.equals(oldContext)) countQuotaLedger(context, true);
+            return written;
+        }
+
+        final boolean[] written = new boolean[] {true};
+        try
+        {
+            m_sqlService.transact(new Runnable()
+            {
+                public void run()
+                {
+                    Object[] before = readQuotaEntry(resourceId);
+                    if (!store.getAsBoolean())
+                    {
+                        // roll back anything the change did write
+                        written[0] = false;
+                        throw new RuntimeException("storeWithQuotaLedger(): unable to write " + resourceId);
+                    }
+                    updateQuotaLedger(before, context, size);
+                }
+            }, "content quota ledger");
+        }
+        catch (RuntimeException e)
+        {
+            if (written[0]) throw e;
+        }
+        return written[0];
+    }
+
+    /**
+     * Move a resource's size in the quota ledger from the context and size it was stored with to its new ones.
+     * 
+     * @param before
+     *        The context and size from {@link #readQuotaEntry(String)}, or null for a new resource.
+     * @param context
+     *        The new context, or null if the resource was removed or has no context.
+     * @param size
+     *        The new size.
+     */
+    protected void updateQuotaLedger(Object[] before, String context, long size)
+    {
+        String oldContext = before == null ? null : (String) before[0];
+        long oldSize = before == null ? 0L : (Long) before[1];
+        if (oldContext != null && oldContext.equals(context))
+        {
+            addQuotaLedger(context, size - oldSize);
+        }
+        else
+        {
+            if (oldContext != null) addQuotaLedger(oldContext, -oldSize);
+            if (context != null) addQuotaLedger(context, size);
+        }
+    }
+
+    /**
+     * Add to the total for a context. A context which is not in the ledger yet is added to it to be counted, which
+     * makes a count that is starting wait for this change to commit.
+     */
+    protected void addQuotaLedger(String context, long size)
+    {
+        if (size == 0) return;
+        Object[] fields = new Object[] {size, context};
+        if (m_sqlService.dbWriteCount(contentServiceSql.getQuotaLedgerAddSql(), fields, null, null, false) == 0
+                && !m_sqlService.dbWriteFailQuiet(null, contentServiceSql.getQuotaLedgerInsertSql(), new Object[] {context}))
+        {
+            // another transaction added the context in the meantime, and may have counted it without this change
+            m_sqlService.dbWrite(contentServiceSql.getQuotaLedgerAddSql(), fields);
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public void reconcileQuotaLedger()
+    {
+        if (!m_quotaLedger)
+        {
+            M_log.info("reconcileQuotaLedger(): the quota ledger is disabled");
+            return;
+        }
+
+        long start = System.currentTimeMillis();
+        List<String> contexts = m_sqlService.dbRead(contentServiceSql.getQuotaLedgerContextsSql());
+        final AtomicInteger failed = new AtomicInteger();
+        ExecutorService executor = Executors.newFixedThreadPool(Math.max(1, m_quotaLedgerThreads));
+        try
+        {
+            for (final String context : contexts)
+            {
+                if (context == null || context.startsWith(COLLECTION_DROPBOX)) continue;
+                executor.execute(new Runnable()
+                {
+                    public void run()
+                    {
+                        try
+                        {
+                            countQuotaLedger(context, true);
+                        }
+                        catch (Exception e)
+                        {
+                            failed.incrementAndGet();
+                            M_log.warn("reconcileQuotaLedger(): failed for context " + context, e);
+                        }
+                    }
+                });
+            }
+            executor.shutdown();
+            while (!executor.awaitTermination(1, TimeUnit.MINUTES))
+            {
+                M_log.info("reconcileQuotaLedger(): still running");
+            }
+        }
+        catch (InterruptedException e)
+        {
+            executor.shutdownNow();
+            Thread.currentThread().interrupt();
+        }
+        M_log.info("reconcileQuotaLedger(): " + contexts.size() + " contexts in " + (System.currentTimeMillis() - start) + " ms, "
+                + failed.get() + " failed");
+    }
+
     /**
      * @throws Exception 
      * 
@@ -0,0 +1,313 @@
+/**********************************************************************************
+ * $URL$
+ * $Id$
+ ***********************************************************************************
+ *
+ * Copyright (c) 2018 Sakai Foundation
+ *
+ * Licensed under the Educational Community License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.opensource.org/licenses/ECL-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ **********************************************************************************/
+
+package org.sakaiproject.content.impl;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.FileSystems;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.security.DigestInputStream;
+import java.security.DigestOutputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Map;
+import java.util.UUID;
+
+import org.apache.commons.codec.binary.Hex;
+import org.apache.commons.io.IOUtils;
+import org.apache.commons.io.output.NullOutputStream;
+import org.sakaiproject.content.api.ContentAddressedFileSystemHandler;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A FileSystemHandler that keeps one copy of each distinct body on local disk.
+ *
+ * Bodies are stored under the store directory of the root, named by the SHA-256 digest of their content,
+ * which is computed while the upload is written. The file for each resource is a hard link to its body,
+ * so reading and deleting resources work as they do for {@link DefaultFileSystemHandler} and the link count
+ * of a body is its reference count. A body whose only link is the store itself is no longer used and is
+ * removed by {@link #collectGarbage(String)}.
+ *
+ * If the file system does not support hard links, or does not report their count through the unix attribute view,
+ * each resource gets its own copy of the body and there is nothing to collect or migrate.
+ */
+public class DefaultContentAddressedFileSystemHandler extends DefaultFileSystemHandler implements ContentAddressedFileSystemHandler {
+
+    private static final Logger log = LoggerFactory.getLogger(DefaultContentAddressedFileSystemHandler.class);
+
+    private static final String ALGORITHM = "SHA-256";
+
+    /** Folder below the store for uploads that are being written. */
+    private static final String TEMP_DIRECTORY = "tmp";
+
+    private String storeDirectory = ".sha256";
+    private long gracePeriod = 60 * 60 * 1000L;
+    private volatile boolean linksSupported = true;
+    private boolean linkCountSupported = true;
+
+    public void init() {
+        linkCountSupported = FileSystems.getDefault().supportedFileAttributeViews().contains("unix");
+        if (!linkCountSupported) {
+            log.warn("The file system does not report link counts, bodies will not be shared");
+            linksSupported = false;
+        }
+    }
+
+    /**
+     * The folder, relative to the root, that the bodies are stored in.
+     */
+    public void setStoreDirectory(String storeDirectory) {
+        this.storeDirectory = storeDirectory;
+    }
+
+    /**
+     * How long in milliseconds an unused body is kept before it can be collected,
+     * so bodies that are being linked to are not removed.
+     */
+    public void setGracePeriod(long gracePeriod) {
+        this.gracePeriod = gracePeriod;
+    }
+
+    @Override
+    public long saveInputStream(String id, String root, String filePath, InputStream stream) throws IOException {
+        // Do not create the files for resources with zero length bodies
+        if ((stream == null)) {
+            return 0L;
+        }
+
+        Path file = getFile(id, root, filePath).toPath();
+        Path store = getStore(root);
+        Path temp = getTemp(store);
+        Files.createDirectories(temp.getParent());
+
+        // write the upload and compute its digest in one pass
+        MessageDigest digest = newDigest();
+        long size;
+        try (InputStream in = stream; OutputStream out = new DigestOutputStream(Files.newOutputStream(temp), digest)) {
+            size = IOUtils.copyLarge(in, out);
+        }
+
+        try {
+            // delete the old, leaving any other resources using its body alone
+            Files.deleteIfExists(file);
+            Path parent = file.getParent();
+            if (parent != null) {
+                Files.createDirectories(parent);
+            }
+            store(file, getBody(store, Hex.encodeHexString(digest.digest())), temp);
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+        return size;
+    }
+
+    @Override
+    public int getReferenceCount(String root, String digest) throws IOException {
+        if (!linkCountSupported) {
+            return 0;
+        }
+        Path body = getBody(getStore(root), digest);
+        try {
+            return getLinkCount(body) - 1;
+        } catch (NoSuchFileException e) {
+            return 0;
+        }
+    }
+
+    @Override
+    public long collectGarbage(String root) throws IOException {
+        Path store = getStore(root);
+        if (!linkCountSupported || !Files.isDirectory(store)) {
+            return 0L;
+        }
+        final long cutoff = System.currentTimeMillis() - gracePeriod;
+        final long[] reclaimed = new long[2];
+        Files.walkFileTree(store, new SimpleFileVisitor<Path>() {
+            @Override
+            public FileVisitResult visitFile(Path path, BasicFileAttributes attrs) throws IOException {
+                // linking a resource to a body changes its ctime, so recently shared bodies are kept
+                Map<String, Object> unix = Files.readAttributes(path, "unix:nlink,ctime");
+                if ((Integer) unix.get("nlink") <= 1 && ((FileTime) unix.get("ctime")).toMillis() <= cutoff) {
+                    if (Files.deleteIfExists(path)) {
+                        reclaimed[0] += attrs.size();
+                        reclaimed[1]++;
+                    }
+                }
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult visitFileFailed(Path path, IOException e) {
+                log.warn("Unable to check stored body " + path + ": " + e.getMessage());
+                return FileVisitResult.CONTINUE;
+            }
+        });
+        log.info("Removed " + reclaimed[1] + " unused bodies (" + reclaimed[0] + " bytes) from " + store);
+        return reclaimed[0];
+    }
+
+    @Override
+    public long migrate(String root) throws IOException {
+        if (!linksSupported) {
+            log.warn("Bodies are not shared, nothing to move to the store for " + root);
+            return 0L;
+        }
+        final Path store = getStore(root);
+        final long[] converted = new long[2];
+        Files.walkFileTree(Paths.get(root), new SimpleFileVisitor<Path>() {
+            @Override
+            public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) {
+                return dir.equals(store) ? FileVisitResult.SKIP_SUBTREE : FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult visitFile(Path path, BasicFileAttributes attrs) throws IOException {
+                // files with more than one link are already in the store
+                if (attrs.isRegularFile() && getLinkCount(path) == 1) {
+                    try {
+                        if (migrate(store, path, attrs)) {
+                            converted[0]++;
+                        }
+                    } catch (IOException e) {
+                        log.warn("Unable to move " + path + " to the store: " + e.getMessage());
+                    }
+                }
+                if (++converted[1] % 10000 == 0) {
+                    log.info("Checked " + converted[1] + " files, moved " + converted[0] + " to " + store);
+                }
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult visitFileFailed(Path path, IOException e) {
+                log.warn("Unable to read " + path + ": " + e.getMessage());
+                return FileVisitResult.CONTINUE;
+            }
+        });
+        log.info("Checked " + converted[1] + " files, moved " + converted[0] + " to " + store);
+        return converted[0];
+    }
+
+    /**
+     * Move an existing file into the store.
+     *
+     * @return true if the file now shares its body through the store.
+     */
+    private boolean migrate(Path store, Path file, BasicFileAttributes attrs) throws IOException {
+        MessageDigest digest = newDigest();
+        try (InputStream in = new DigestInputStream(Files.newInputStream(file), digest)) {
+            IOUtils.copyLarge(in, new NullOutputStream());
+        }
+        Path body = getBody(store, Hex.encodeHexString(digest.digest()));
+        Files.createDirectories(body.getParent());
+        try {
+            // the first copy of a body becomes the stored one
+            Files.createLink(body, file);
+            return true;
+        } catch (FileAlreadyExistsException e) {
+            if (Files.isSameFile(body, file)) {
+                return false;
+            }
+        }
+
+        // the body is already stored, replace the file with a link to it unless it was rewritten meanwhile
+        Path temp = getTemp(store);
+        Files.createDirectories(temp.getParent());
+        Files.createLink(temp, body);
+        try {
+            BasicFileAttributes current = Files.readAttributes(file, BasicFileAttributes.class);
+            if (!attrs.fileKey().equals(current.fileKey()) || !attrs.lastModifiedTime().equals(current.lastModifiedTime())) {
+                return false;
+            }
+            Files.move(temp, file, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+            return true;
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+    }
+
+    /**
+     * Link the file for a resource to its body, storing the body from the temporary file if it is not stored yet.
+     */
+    private void store(Path file, Path body, Path temp) throws IOException {
+        if (linksSupported) {
+            for (int attempt = 0; attempt < 3; attempt++) {
+                try {
+                    Files.createDirectories(body.getParent());
+                    Files.createLink(body, temp);
+                } catch (FileAlreadyExistsException e) {
+                    // the same content is already stored
+                } catch (UnsupportedOperationException e) {
+                    log.warn("Hard links are not supported for " + body + ", bodies will not be shared");
+                    linksSupported = false;
+                    break;
+                }
+                try {
+                    Files.createLink(file, body);
+                    return;
+                } catch (NoSuchFileException e) {
+                    // the body was collected after we found it, store it again
+                }
+            }
+            if (linksSupported) {
+                throw new IOException("Unable to store the body for " + file);
+            }
+        }
+        Files.copy(temp, file, StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    private Path getStore(String root) {
+        return new File(root, storeDirectory).toPath();
+    }
+
+    private Path getBody(Path store, String digest) {
+        return store.resolve(digest.substring(0, 2)).resolve(digest.substring(2, 4)).resolve(digest);
+    }
+
+    private Path getTemp(Path store) {
+        return store.resolve(TEMP_DIRECTORY).resolve(UUID.randomUUID().toString());
+    }
+
+    private int getLinkCount(Path path) throws IOException {
+        return (Integer) Files.getAttribute(path, "unix:nlink");
+    }
+
+    private MessageDigest newDigest() throws IOException {
+        try {
+            return MessageDigest.getInstance(ALGORITHM);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IOException("No " + ALGORITHM + " digest available", e);
+        }
+    }
+}
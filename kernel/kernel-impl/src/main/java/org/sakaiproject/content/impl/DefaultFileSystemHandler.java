@@ -42,7 +42,7 @@ public class DefaultFileSystemHandler implements FileSystemHandler {
      * @param filePath The path to save the file to.
      * @return The File object.
      */
-    private File getFile(String id, String root, String filePath){
+    protected File getFile(String id, String root, String filePath){
         if (useIdForFilePath) {
             return new File(root, id);
         } else {
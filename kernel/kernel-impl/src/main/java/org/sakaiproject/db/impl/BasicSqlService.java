@@ -30,19 +30,26 @@ import java.io.OutputStream;
 import java.io.UnsupportedEncodingException;
 import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Method;
+import java.sql.BatchUpdateException;
 import java.sql.Connection;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.ResultSetMetaData;
 import java.sql.SQLException;
+import java.sql.Savepoint;
 import java.sql.Statement;
 import java.sql.Timestamp;
 import java.util.Arrays;
 import java.util.GregorianCalendar;
 import java.util.List;
 import java.util.Map;
+import java.util.Spliterator;
+import java.util.Spliterators;
 import java.util.TimeZone;
 import java.util.Vector;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
 
 import javax.sql.DataSource;
 
@@ -175,6 +182,45 @@ public abstract class BasicSqlService implements SqlService
 		m_deadlockRetries = Integer.parseInt(value);
 	}
 
+	/** Configuration: number of records fetched at a time by dbReadStream. */
+	protected int m_streamFetchSize = 500;
+
+	/**
+	 * Configuration: number of records fetched at a time by dbReadStream, if the caller does not say.
+	 * 
+	 * @param value
+	 *        the number of records.
+	 */
+	public void setStreamFetchSize(String value)
+	{
+		m_streamFetchSize = Integer.parseInt(value);
+	}
+
+	/** Configuration: number of statements sent to the db at a time by dbWriteBatch. */
+	protected int m_batchSize = 100;
+
+	/**
+	 * Configuration: number of statements sent to the db at a time by dbWriteBatch.
+	 * 
+	 * @param value
+	 *        the number of statements.
+	 */
+	public void setBatchSize(String value)
+	{
+		m_batchSize = Math.max(1, Integer.parseInt(value));
+	}
+
+	/** Told about the sql run, if set. */
+	protected SqlMetrics sqlMetrics;
+
+	/**
+	 * Dependency: to be told about the sql run.
+	 */
+	public void setSqlMetrics(SqlMetrics sqlMetrics)
+	{
+		this.sqlMetrics = sqlMetrics;
+	}
+
 	/** Configuration: to run the ddl on init or not. */
 	protected boolean m_autoDdl = false;
 
@@ -257,7 +303,12 @@ public abstract class BasicSqlService implements SqlService
 
 		if (defaultDataSource != null)
 		{
-			return defaultDataSource.getConnection();
+			if (sqlMetrics == null) return defaultDataSource.getConnection();
+
+			long start = System.nanoTime();
+			Connection conn = defaultDataSource.getConnection();
+			sqlMetrics.connectionBorrowed(System.nanoTime() - start);
+			return conn;
 		}
 		else
 		{
@@ -322,6 +373,7 @@ public abstract class BasicSqlService implements SqlService
 
 			Connection connection = null;
 			boolean wasCommit = true;
+			long started = (sqlMetrics != null) ? System.nanoTime() : 0;
 			try
 			{
 				connection = borrowConnection();
@@ -414,6 +466,7 @@ public abstract class BasicSqlService implements SqlService
 					}
 					returnConnection(connection);
 				}
+				if (sqlMetrics != null) sqlMetrics.transactionCompleted(tag, System.nanoTime() - started);
 			}
 		}
 
@@ -505,6 +558,7 @@ public abstract class BasicSqlService implements SqlService
 		long stmtTime = 0;
 		long resultsTime = 0;
 		int count = 0;
+		long started = (sqlMetrics != null) ? System.nanoTime() : 0;
 
 		if (LOG.isDebugEnabled())
 		{
@@ -560,9 +614,7 @@ public abstract class BasicSqlService implements SqlService
             }
 
             while (result.next()) {
-                if (m_showSql) {
-                    count++;
-                }
+                count++;
 
                 // without a reader, we read the first String from each record
                 if (reader == null) {
@@ -623,10 +675,181 @@ public abstract class BasicSqlService implements SqlService
         }
 
 		if (m_showSql) debug("Sql.dbRead: time: " + connectionTime + " / " + stmtTime + " / " + resultsTime + " #: " + count, sql, fields);
+		if (sqlMetrics != null) sqlMetrics.sqlRead(sql, fields, count, System.nanoTime() - started);
 
 		return rv;
 	}
 
+	/**
+	 * {@inheritDoc}
+	 */
+	public <T> Stream<T> dbReadStream(String sql, Object[] fields, SqlReader<T> reader)
+	{
+		return dbReadStream(sql, fields, m_streamFetchSize, reader);
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	public <T> Stream<T> dbReadStream(String sql, Object[] fields, int fetchSize, SqlReader<T> reader)
+	{
+		if (LOG.isDebugEnabled())
+		{
+			LOG.debug("dbReadStream(String " + sql + ", Object[] " + Arrays.toString(fields) + ", int " + fetchSize + ", SqlReader " + reader + ")");
+		}
+
+		RecordSpliterator<T> records = new RecordSpliterator<T>(sql, fields, reader);
+		try
+		{
+			// in a transaction the records are read on its connection, which may be used for more while they are read
+			// so they are not streamed (where the database can't run anything else on the connection until all are read)
+			Connection callerConn = (Connection) threadLocalManager().get(TRANSACTION_CONNECTION);
+			if (callerConn != null)
+			{
+				records.conn = callerConn;
+				records.pstmt = callerConn.prepareStatement(sql);
+				records.pstmt.setFetchSize(fetchSize);
+			}
+			else
+			{
+				records.conn = borrowConnection();
+				records.borrowed = true;
+				records.pstmt = sqlServiceSql.prepareStreamingStatement(records.conn, sql, fetchSize);
+			}
+			prepareStatement(records.pstmt, fields);
+			records.result = records.pstmt.executeQuery();
+		}
+		catch (SQLException e)
+		{
+			LOG.warn("Sql.dbReadStream: sql: " + sql + debugFields(fields), e);
+			records.close();
+		}
+		catch (UnsupportedEncodingException e)
+		{
+			LOG.warn("Sql.dbReadStream: sql: " + sql + debugFields(fields), e);
+			records.close();
+		}
+
+		return StreamSupport.stream(records, false).onClose(records::close);
+	}
+
+	/**
+	 * The records of a query, read as they are consumed. The statement and connection are closed once all the records
+	 * are read or when the stream is closed.
+	 */
+	protected class RecordSpliterator<T> extends Spliterators.AbstractSpliterator<T>
+	{
+		protected final String sql;
+		protected final Object[] fields;
+		protected final SqlReader<T> reader;
+		protected final long start = System.nanoTime();
+		protected Connection conn;
+		protected boolean borrowed = false;
+		protected PreparedStatement pstmt;
+		protected ResultSet result;
+		protected long count = 0;
+		protected boolean closed = false;
+
+		protected RecordSpliterator(String sql, Object[] fields, SqlReader<T> reader)
+		{
+			super(Long.MAX_VALUE, Spliterator.ORDERED | Spliterator.NONNULL);
+			this.sql = sql;
+			this.fields = fields;
+			this.reader = reader;
+		}
+
+		@SuppressWarnings("unchecked")
+		public boolean tryAdvance(Consumer<? super T> action)
+		{
+			if (closed || result == null) return false;
+			try
+			{
+				while (result.next())
+				{
+					count++;
+
+					// without a reader, we read the first String from each record
+					T obj;
+					if (reader == null)
+					{
+						obj = (T) result.getString(1);
+					}
+					else
+					{
+						try
+						{
+							obj = reader.readSqlResultRecord(result);
+						}
+						catch (SqlReaderFinishedException e)
+						{
+							break;
+						}
+					}
+					if (obj != null)
+					{
+						action.accept(obj);
+						return true;
+					}
+				}
+			}
+			catch (SQLException e)
+			{
+				LOG.warn("Sql.dbReadStream: sql: " + sql + debugFields(fields), e);
+			}
+			close();
+			return false;
+		}
+
+		protected void close()
+		{
+			if (closed) return;
+			closed = true;
+			if (null != result)
+			{
+				try
+				{
+					result.close();
+				}
+				catch (SQLException e)
+				{
+					LOG.warn("Sql.dbReadStream: sql: " + sql + debugFields(fields), e);
+				}
+			}
+			if (null != pstmt)
+			{
+				try
+				{
+					pstmt.close();
+				}
+				catch (SQLException e)
+				{
+					LOG.warn("Sql.dbReadStream: sql: " + sql + debugFields(fields), e);
+				}
+			}
+
+			// return the connection only if we have borrowed a new one for this stream
+			if (borrowed)
+			{
+				if (m_commitAfterRead)
+				{
+					try
+					{
+						conn.commit();
+					}
+					catch (SQLException e)
+					{
+						LOG.warn("Sql.dbReadStream: sql: " + sql + debugFields(fields), e);
+					}
+				}
+				returnConnection(conn);
+			}
+
+			long nanos = System.nanoTime() - start;
+			if (m_showSql) debug("Sql.dbReadStream: time: " + (nanos / 1000000L) + " #: " + count, sql, fields);
+			if (sqlMetrics != null) sqlMetrics.sqlRead(sql, fields, count, nanos);
+		}
+	}
+
 	/**
 	 * Read a single field from the db, from multiple record - concatenating the binary values into value.
 	 * 
@@ -1173,6 +1396,7 @@ public abstract class BasicSqlService implements SqlService
 		// for DEBUG
 		long start = 0;
 		long connectionTime = 0;
+		long started = (sqlMetrics != null) ? System.nanoTime() : 0;
 
 		if (LOG.isDebugEnabled())
 		{
@@ -1328,10 +1552,345 @@ public abstract class BasicSqlService implements SqlService
 		if (m_showSql)
 			debug("Sql.dbWrite(): len: " + ((lastField != null) ? "" + lastField.length() : "null") + "  time: " + connectionTime + " /  "
 					+ (System.currentTimeMillis() - start), sql, fields);
+		if (sqlMetrics != null) sqlMetrics.sqlWritten(sql, fields, retval, System.nanoTime() - started);
 
 		return retval;
 	}
 
+	/**
+	 * {@inheritDoc}
+	 */
+	public int dbWriteBatch(String sql, List<Object[]> fieldsList)
+	{
+		return dbWriteBatch(null, sql, fieldsList);
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	public int dbWriteBatch(Connection callerConnection, String sql, List<Object[]> fieldsList)
+	{
+		if ((fieldsList == null) || fieldsList.isEmpty()) return 0;
+
+		// check for a transaction connection
+		if (callerConnection == null)
+		{
+			callerConnection = (Connection) threadLocalManager().get(TRANSACTION_CONNECTION);
+		}
+
+		if (LOG.isDebugEnabled())
+		{
+			LOG.debug("dbWriteBatch(Connection " + callerConnection + ", String " + sql + ", List<Object[]> " + fieldsList.size() + ")");
+		}
+
+		long started = System.nanoTime();
+		int rv;
+
+		if (callerConnection != null)
+		{
+			// the caller commits, and retries the lot on deadlock (as transact() does)
+			try
+			{
+				rv = writeBatch(callerConnection, sql, fieldsList);
+			}
+			catch (SQLException e)
+			{
+				throw batchFailure(sql, fieldsList, e);
+			}
+		}
+		else
+		{
+			rv = -1;
+			// in case of deadlock we might retry
+			for (int i = 0; rv < 0; i++)
+			{
+				if (i > 0)
+				{
+					// do a little wait, longer for each retry
+					try
+					{
+						Thread.sleep(i * 100L);
+					}
+					catch (InterruptedException ignore)
+					{
+					}
+				}
+
+				Connection conn = null;
+				boolean autoCommit = false;
+				boolean success = false;
+				try
+				{
+					conn = borrowConnection();
+
+					// make sure we have do not have auto commit - will change and reset if needed
+					autoCommit = conn.getAutoCommit();
+					if (autoCommit)
+					{
+						conn.setAutoCommit(false);
+					}
+
+					int written = writeBatch(conn, sql, fieldsList);
+					conn.commit();
+					success = true;
+					rv = written;
+				}
+				catch (SQLException e)
+				{
+					if (!(sqlServiceSql.isDeadLockError(e.getErrorCode()) && i < m_deadlockRetries))
+					{
+						throw batchFailure(sql, fieldsList, e);
+					}
+					LOG.warn("Sql.dbWriteBatch(): deadlock: retrying (" + (i + 1) + " / " + m_deadlockRetries + "): sql: " + sql);
+				}
+				finally
+				{
+					if (conn != null)
+					{
+						try
+						{
+							// rollback on failure
+							if (!success)
+							{
+								conn.rollback();
+							}
+
+							// if we changed the auto commit, reset here
+							if (autoCommit)
+							{
+								conn.setAutoCommit(autoCommit);
+							}
+						}
+						catch (SQLException e)
+						{
+							LOG.warn("Sql.dbWriteBatch(): " + e);
+						}
+						returnConnection(conn);
+					}
+				}
+			}
+		}
+
+		long nanos = System.nanoTime() - started;
+		if (m_showSql) debug("Sql.dbWriteBatch(): #: " + fieldsList.size() + " time: " + (nanos / 1000000L), sql, null);
+		if (sqlMetrics != null) sqlMetrics.sqlWritten(sql, null, rv, nanos);
+
+		return rv;
+	}
+
+	/**
+	 * Run the sql for each array of fields on the connection, in batches of up to m_batchSize statements (and up to the
+	 * db's batch size in bytes). As with dbWrite(), a statement failing for a record that already exists is skipped: the
+	 * batch it was in is rolled back and run again one statement at a time.
+	 * 
+	 * @return The number of records written.
+	 */
+	protected int writeBatch(Connection conn, String sql, List<Object[]> fieldsList) throws SQLException
+	{
+		long maxBatchBytes = sqlServiceSql.getMaxBatchBytes(conn);
+		int rv = 0;
+		PreparedStatement pstmt = conn.prepareStatement(sql);
+		try
+		{
+			int batchStart = 0;
+			long batchedBytes = 0;
+			Savepoint savepoint = setBatchSavepoint(conn);
+			for (int i = 0; i < fieldsList.size(); i++)
+			{
+				Object[] fields = fieldsList.get(i);
+				prepareBatchStatement(pstmt, fields);
+				pstmt.addBatch();
+				if (maxBatchBytes != Long.MAX_VALUE) batchedBytes += estimateBytes(fields);
+
+				if ((i + 1 - batchStart >= m_batchSize) || (batchedBytes >= maxBatchBytes))
+				{
+					rv += executeBatch(conn, pstmt, savepoint, fieldsList.subList(batchStart, i + 1));
+					releaseSavepoint(conn, savepoint);
+					batchStart = i + 1;
+					batchedBytes = 0;
+					if (batchStart < fieldsList.size()) savepoint = setBatchSavepoint(conn);
+				}
+			}
+			if (batchStart < fieldsList.size())
+			{
+				rv += executeBatch(conn, pstmt, savepoint, fieldsList.subList(batchStart, fieldsList.size()));
+				releaseSavepoint(conn, savepoint);
+			}
+		}
+		finally
+		{
+			pstmt.close();
+		}
+		return rv;
+	}
+
+	/**
+	 * Execute the statements batched, or if one fails as the record already exists, run them one at a time skipping those
+	 * which fail that way.
+	 * 
+	 * @param savepoint
+	 *        The savepoint set before the batch, to roll back the statements of the batch the db did run, or null if the connection
+	 *        auto commits.
+	 * @param batchFields
+	 *        The fields of each statement in the batch.
+	 * @return The number of records written.
+	 */
+	protected int executeBatch(Connection conn, PreparedStatement pstmt, Savepoint savepoint, List<Object[]> batchFields) throws SQLException
+	{
+		try
+		{
+			return executeBatch(pstmt);
+		}
+		catch (SQLException e)
+		{
+			if (!sqlServiceSql.getRecordAlreadyExists(e)) throw e;
+			pstmt.clearBatch();
+		}
+
+		// the db may have run some of the batch before the failure, and may have carried on after it
+		if (savepoint != null) conn.rollback(savepoint);
+
+		int rv = 0;
+		for (Object[] fields : batchFields)
+		{
+			prepareBatchStatement(pstmt, fields);
+			Savepoint statementSavepoint = (savepoint != null) ? conn.setSavepoint() : null;
+			try
+			{
+				rv += Math.max(pstmt.executeUpdate(), 0);
+				releaseSavepoint(conn, statementSavepoint);
+			}
+			catch (SQLException e)
+			{
+				if (!sqlServiceSql.getRecordAlreadyExists(e)) throw e;
+				if (statementSavepoint != null) conn.rollback(statementSavepoint);
+				if (m_showSql)
+				{
+					LOG.warn("Sql.dbWriteBatch(): recordAlreadyExists: error code: " + e.getErrorCode() + " binds: " + debugFields(fields) + " " + e);
+				}
+			}
+		}
+		return rv;
+	}
+
+	/**
+	 * @return a savepoint to roll a batch back to, or null if the connection auto commits.
+	 */
+	protected Savepoint setBatchSavepoint(Connection conn) throws SQLException
+	{
+		return conn.getAutoCommit() ? null : conn.setSavepoint();
+	}
+
+	/**
+	 * Release a savepoint no longer needed, so a long batch does not hold one for each statement until it commits.
+	 * 
+	 * @param savepoint
+	 *        The savepoint, or null if there is none.
+	 */
+	protected void releaseSavepoint(Connection conn, Savepoint savepoint)
+	{
+		if (savepoint == null) return;
+		try
+		{
+			conn.releaseSavepoint(savepoint);
+		}
+		catch (SQLException e)
+		{
+			// not all drivers support it (Oracle), the savepoint then goes with the transaction
+			if (LOG.isDebugEnabled()) LOG.debug("Sql.dbWriteBatch(): releaseSavepoint: " + e);
+		}
+	}
+
+	protected void prepareBatchStatement(PreparedStatement pstmt, Object[] fields) throws SQLException
+	{
+		try
+		{
+			prepareStatement(pstmt, fields);
+		}
+		catch (UnsupportedEncodingException e)
+		{
+			throw new SQLException(e.getMessage(), e);
+		}
+	}
+
+	protected int executeBatch(PreparedStatement pstmt) throws SQLException
+	{
+		int rv = 0;
+		for (int count : pstmt.executeBatch())
+		{
+			// the driver may not say, as when MySQL rewrites the batch to a single statement
+			rv += (count == Statement.SUCCESS_NO_INFO) ? 1 : Math.max(count, 0);
+		}
+		return rv;
+	}
+
+	/**
+	 * @return roughly how many bytes the fields take in a statement.
+	 */
+	protected long estimateBytes(Object[] fields)
+	{
+		if (fields == null) return 0;
+		long rv = 0;
+		for (Object field : fields)
+		{
+			if (field instanceof String)
+			{
+				// escaped and up to 3 bytes a character in UTF-8
+				rv += ((String) field).length() * 3L + 2;
+			}
+			else if (field instanceof byte[])
+			{
+				rv += ((byte[]) field).length * 2L + 2;
+			}
+			else
+			{
+				rv += 24;
+			}
+		}
+		return rv;
+	}
+
+	/**
+	 * @return the exception to throw for the failure of a batch, as dbWrite() would for one statement.
+	 */
+	protected RuntimeException batchFailure(String sql, List<Object[]> fieldsList, SQLException e)
+	{
+		// the first statement which failed, if the driver says
+		int failed = -1;
+		if (e instanceof BatchUpdateException)
+		{
+			int[] counts = ((BatchUpdateException) e).getUpdateCounts();
+			for (int i = 0; (counts != null) && (i < counts.length); i++)
+			{
+				if (counts[i] == Statement.EXECUTE_FAILED)
+				{
+					failed = i;
+					break;
+				}
+			}
+		}
+		String binds = (failed >= 0 && failed < fieldsList.size()) ? " binds: " + debugFields(fieldsList.get(failed)) : " #: " + fieldsList.size();
+
+		if (sqlServiceSql.isDeadLockError(e.getErrorCode()))
+		{
+			// just a little fuss
+			LOG.warn("Sql.dbWriteBatch(): deadlock: error code: " + e.getErrorCode() + " sql: " + sql + binds + " " + e.toString());
+			return new SqlServiceDeadlockException(e);
+		}
+		else if (sqlServiceSql.getRecordAlreadyExists(e))
+		{
+			// just a little fuss
+			LOG.warn("Sql.dbWriteBatch(): unique violation: error code: " + e.getErrorCode() + " sql: " + sql + binds + " " + e.toString());
+			return new SqlServiceUniqueViolationException(e);
+		}
+		else
+		{
+			// something ELSE went wrong, so lest make a fuss
+			LOG.warn("Sql.dbWriteBatch(): error code: " + e.getErrorCode() + " sql: " + sql + binds + " ", e);
+			return new RuntimeException("SqlService.dbWriteBatch failure", e);
+		}
+	}
+
 	/**
 	 * Execute the "insert" sql, returning a possible auto-update field Long value
 	 * 
@@ -1389,6 +1948,7 @@ public abstract class BasicSqlService implements SqlService
 		// for DEBUG
 		long start = 0;
 		long connectionTime = 0;
+		long started = (sqlMetrics != null) ? System.nanoTime() : 0;
 
 		if (LOG.isDebugEnabled())
 		{
@@ -1413,6 +1973,7 @@ public abstract class BasicSqlService implements SqlService
 
 		boolean success = false;
 		Long rv = null;
+		int result = 0;
 
 		try
 		{
@@ -1448,7 +2009,7 @@ public abstract class BasicSqlService implements SqlService
 				pstmt.setBinaryStream(pos, last, lastLength);
 			}
 
-			int result = pstmt.executeUpdate();
+			result = pstmt.executeUpdate();
 
 			rv = sqlServiceSql.getGeneratedKey(pstmt, sql);
 
@@ -1539,6 +2100,7 @@ public abstract class BasicSqlService implements SqlService
 		}
 
 		if (m_showSql) debug("Sql.dbWrite(): len: " + "  time: " + connectionTime + " /  " + (System.currentTimeMillis() - start), sql, fields);
+		if (sqlMetrics != null) sqlMetrics.sqlWritten(sql, fields, result, System.nanoTime() - started);
 
 		return rv;
 	}
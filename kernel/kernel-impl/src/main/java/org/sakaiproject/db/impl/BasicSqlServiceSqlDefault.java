@@ -158,4 +158,22 @@ public class BasicSqlServiceSqlDefault implements SqlServiceSql
 		return null;
 	}
 
+
+	/**
+	 * {@inheritDoc} The fetch size is a hint most drivers follow, for Oracle it is the row prefetch (10 rows by default).
+	 */
+	public PreparedStatement prepareStreamingStatement(Connection conn, String sql, int fetchSize) throws SQLException
+	{
+		PreparedStatement pstmt = conn.prepareStatement(sql, ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY);
+		pstmt.setFetchSize(fetchSize);
+		return pstmt;
+	}
+
+	/**
+	 * {@inheritDoc} The batches are not limited by size.
+	 */
+	public long getMaxBatchBytes(Connection conn) throws SQLException
+	{
+		return Long.MAX_VALUE;
+	}
 }
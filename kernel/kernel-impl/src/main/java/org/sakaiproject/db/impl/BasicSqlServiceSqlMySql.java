@@ -22,7 +22,9 @@
 package org.sakaiproject.db.impl;
 
 import java.io.UnsupportedEncodingException;
+import java.sql.Connection;
 import java.sql.PreparedStatement;
+import java.sql.ResultSet;
 import java.sql.SQLException;
 
 /**
@@ -77,6 +79,34 @@ public class BasicSqlServiceSqlMySql extends BasicSqlServiceSqlDefault
 		return pstmt;
 	}
 
+	/**
+	 * MySQL Connector/J reads all the rows when the query is executed unless the fetch size is Integer.MIN_VALUE,
+	 * which streams the rows one at a time (the fetch size requested is only honoured with useCursorFetch=true).
+	 */
+	@Override
+	public PreparedStatement prepareStreamingStatement(Connection conn, String sql, int fetchSize) throws SQLException
+	{
+		PreparedStatement pstmt = conn.prepareStatement(sql, ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY);
+		pstmt.setFetchSize(Integer.MIN_VALUE);
+		return pstmt;
+	}
+
+	/**
+	 * With rewriteBatchedStatements=true on the connection URL, Connector/J sends a batch as one multi-row
+	 * statement (one round trip instead of one per row) which has to fit in the server's max_allowed_packet
+	 * (1MB by default before MySQL 5.6), so the batches are kept under that.
+	 */
+	@Override
+	public long getMaxBatchBytes(Connection conn) throws SQLException
+	{
+		String url = conn.getMetaData().getURL();
+		if (url != null && url.contains("rewriteBatchedStatements=true"))
+		{
+			return 512 * 1024;
+		}
+		return Long.MAX_VALUE;
+	}
+
 	@Override
     public boolean isDeadLockError(int errorCode){        
         // perhaps due to a mysql deadlock?
@@ -0,0 +1,127 @@
+/******************************************************************************
+ * Copyright (c) 2003-2014 The Apereo Foundation
+ *
+ * Licensed under the Educational Community License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *       http://opensource.org/licenses/ecl2
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ *****************************************************************************/
+
+package org.sakaiproject.db.impl;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A histogram of durations in the style of HdrHistogram: the durations are counted in microsecond buckets
+ * which grow with the duration so each bucket is within about 3% of the durations in it, from 1 microsecond
+ * to over an hour in under a thousand buckets. Recording is lock free and doesn't allocate.
+ */
+public class LatencyHistogram
+{
+	/** Each power of two is split into 2^SUB_BITS buckets */
+	private static final int SUB_BITS = 5;
+	private static final int SUB_COUNT = 1 << SUB_BITS;
+	/** Durations are capped at 2^MAX_BITS microseconds (about 71 minutes) */
+	private static final int MAX_BITS = 32;
+	private static final long MAX_MICROS = (1L << MAX_BITS) - 1;
+
+	private final AtomicLongArray counts = new AtomicLongArray(index(MAX_MICROS) + 1);
+	private final LongAdder count = new LongAdder();
+	private final LongAdder totalMicros = new LongAdder();
+	private final LongAccumulator maxMicros = new LongAccumulator(Math::max, 0);
+
+	static int index(long micros)
+	{
+		int shift = Math.max(0, 63 - Long.numberOfLeadingZeros(micros) - SUB_BITS);
+		return (shift << SUB_BITS) + (int) (micros >>> shift);
+	}
+
+	/**
+	 * @return the largest duration counted in the bucket
+	 */
+	static long highestValue(int index)
+	{
+		if (index < 2 * SUB_COUNT) return index;
+		int shift = (index >>> SUB_BITS) - 1;
+		long lowest = ((long) (index - (shift << SUB_BITS))) << shift;
+		return lowest + (1L << shift) - 1;
+	}
+
+	/**
+	 * @param nanos the duration in nanoseconds
+	 */
+	public void record(long nanos)
+	{
+		long micros = Math.min(Math.max(TimeUnit.NANOSECONDS.toMicros(nanos), 0), MAX_MICROS);
+		counts.incrementAndGet(index(micros));
+		count.increment();
+		totalMicros.add(micros);
+		maxMicros.accumulate(micros);
+	}
+
+	public long getCount()
+	{
+		return count.sum();
+	}
+
+	public long getTotalMicros()
+	{
+		return totalMicros.sum();
+	}
+
+	public long getMaxMicros()
+	{
+		return maxMicros.get();
+	}
+
+	/**
+	 * @param percentile from 0 to 100
+	 * @return the duration in microseconds the percentile of the durations are no longer than (within the bucket precision)
+	 */
+	public long getPercentileMicros(double percentile)
+	{
+		long total = 0;
+		int length = counts.length();
+		long[] snapshot = new long[length];
+		for (int i = 0; i < length; i++)
+		{
+			snapshot[i] = counts.get(i);
+			total += snapshot[i];
+		}
+		if (total == 0) return 0;
+		long wanted = Math.max(1, (long) Math.ceil(total * percentile / 100.0));
+		long seen = 0;
+		for (int i = 0; i < length; i++)
+		{
+			seen += snapshot[i];
+			if (seen >= wanted) return Math.min(highestValue(i), getMaxMicros());
+		}
+		return getMaxMicros();
+	}
+
+	/**
+	 * @return a one line summary in milliseconds
+	 */
+	public String summary()
+	{
+		long n = getCount();
+		return "count=" + n + " mean=" + millis(n == 0 ? 0 : getTotalMicros() / n) + " p50=" + millis(getPercentileMicros(50))
+				+ " p95=" + millis(getPercentileMicros(95)) + " p99=" + millis(getPercentileMicros(99)) + " max=" + millis(getMaxMicros()) + "ms";
+	}
+
+	private static String millis(long micros)
+	{
+		return String.format("%.3f", micros / 1000.0);
+	}
+}
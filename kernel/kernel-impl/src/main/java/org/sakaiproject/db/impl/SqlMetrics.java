@@ -0,0 +1,71 @@
+/******************************************************************************
+ * Copyright (c) 2003-2014 The Apereo Foundation
+ *
+ * Licensed under the Educational Community License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *       http://opensource.org/licenses/ecl2
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ *****************************************************************************/
+
+package org.sakaiproject.db.impl;
+
+/**
+ * Told about the sql run by the SqlService, to monitor it. The durations are from borrowing the connection (if
+ * one is borrowed) until the statement is done with, in nanoseconds.
+ */
+public interface SqlMetrics
+{
+	/**
+	 * A query has completed.
+	 * 
+	 * @param sql
+	 *        The sql statement.
+	 * @param fields
+	 *        The parameters of the statement, may be null.
+	 * @param rows
+	 *        The number of records read.
+	 * @param nanos
+	 *        How long it took.
+	 */
+	void sqlRead(String sql, Object[] fields, long rows, long nanos);
+
+	/**
+	 * An insert, update, delete or ddl statement has completed.
+	 * 
+	 * @param sql
+	 *        The sql statement.
+	 * @param fields
+	 *        The parameters of the statement, may be null.
+	 * @param rows
+	 *        The number of records written.
+	 * @param nanos
+	 *        How long it took.
+	 */
+	void sqlWritten(String sql, Object[] fields, long rows, long nanos);
+
+	/**
+	 * A transaction run by transact() has completed.
+	 * 
+	 * @param tag
+	 *        The tag of the transaction.
+	 * @param nanos
+	 *        How long it took, including any retries.
+	 */
+	void transactionCompleted(String tag, long nanos);
+
+	/**
+	 * A connection was borrowed from the default pool.
+	 * 
+	 * @param nanos
+	 *        How long it took to get the connection.
+	 */
+	void connectionBorrowed(long nanos);
+}
@@ -131,4 +131,26 @@ public interface SqlServiceSql
 	 */
 	public Long getGeneratedKey(PreparedStatement pstmt, String sql) throws SQLException;
 
+	/**
+	 * Prepare a forward only, read only query whose rows are fetched from the database as they are read,
+	 * rather than all being held in memory when the query is executed.
+	 * 
+	 * @param conn
+	 *      The connection to use, not used by anything else until the results are closed
+	 * @param sql
+	 *      The SQL statement to prepare
+	 * @param fetchSize
+	 *      The number of rows to fetch at a time
+	 */
+	public PreparedStatement prepareStreamingStatement(Connection conn, String sql, int fetchSize) throws SQLException;
+
+	/**
+	 * returns roughly how many bytes of parameters to send in one batch of statements on this connection,
+	 * where the driver sends each batch as a single statement.
+	 * 
+	 * @param conn
+	 *      The connection the batch is run on
+	 */
+	public long getMaxBatchBytes(Connection conn) throws SQLException;
+
 }
@@ -0,0 +1,370 @@
+/******************************************************************************
+ * Copyright (c) 2003-2014 The Apereo Foundation
+ *
+ * Licensed under the Educational Community License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *       http://opensource.org/licenses/ecl2
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ *****************************************************************************/
+
+package org.sakaiproject.db.impl;
+
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.regex.Pattern;
+
+/**
+ * Collects the SqlService statistics and exports them over JMX.
+ * <p>
+ * The statements are grouped by their shape: the sql with the literals and lists of parameters replaced,
+ * so statements built with the values in them or with a varying number of parameters are counted together.
+ * Each shape has a latency histogram and counts of the records read and written. The statements slower
+ * than the slow threshold are kept in a ring buffer of the most recent, with their parameters only if
+ * slowParameters is set as they may hold personal data.
+ */
+public class SqlStatistics implements SqlMetrics
+{
+	/** The shape the statements are counted against once there are maxShapes shapes. */
+	static final String OTHER_SHAPE = "(other statements)";
+
+	private static final Pattern PARAMETER_LIST = Pattern.compile("\\?( ?, ?\\?)+");
+
+	private boolean enabled = true;
+	private int maxShapes = 500;
+	private int maxSql = 5000;
+	private long slowNanos = TimeUnit.MILLISECONDS.toNanos(1000);
+	private int slowSampleRate = 1;
+	private boolean slowParameters = false;
+	private int reportSize = 50;
+
+	/** The statistics by the sql text, a shortcut to those by shape */
+	private final ConcurrentMap<String, StatementStatistics> bySql = new ConcurrentHashMap<String, StatementStatistics>();
+	private final ConcurrentMap<String, StatementStatistics> byShape = new ConcurrentHashMap<String, StatementStatistics>();
+	private volatile LatencyHistogram connectionWait = new LatencyHistogram();
+	private final LongAdder rowsRead = new LongAdder();
+	private final LongAdder rowsWritten = new LongAdder();
+
+	private AtomicReferenceArray<SlowStatement> slow = new AtomicReferenceArray<SlowStatement>(100);
+	private final AtomicLong slowSeen = new AtomicLong();
+	private final AtomicLong slowNext = new AtomicLong();
+
+	static class StatementStatistics
+	{
+		final String shape;
+		final LatencyHistogram latency = new LatencyHistogram();
+		final LongAdder rowsRead = new LongAdder();
+		final LongAdder rowsWritten = new LongAdder();
+
+		StatementStatistics(String shape)
+		{
+			this.shape = shape;
+		}
+
+		String summary()
+		{
+			return latency.summary() + " rowsRead=" + rowsRead.sum() + " rowsWritten=" + rowsWritten.sum();
+		}
+	}
+
+	static class SlowStatement
+	{
+		final long when = System.currentTimeMillis();
+		final String sql;
+		final String fields;
+		final long rows;
+		final long nanos;
+
+		SlowStatement(String sql, String fields, long rows, long nanos)
+		{
+			this.sql = sql;
+			this.fields = fields;
+			this.rows = rows;
+			this.nanos = nanos;
+		}
+
+		public String toString()
+		{
+			return new SimpleDateFormat("yyyy-MM-dd HH:mm:ss.SSS").format(new Date(when)) + " " + TimeUnit.NANOSECONDS.toMillis(nanos) + "ms rows="
+					+ rows + " " + sql + ((fields == null) ? "" : " binds: " + fields);
+		}
+	}
+
+	/**
+	 * Configuration: to collect statistics or not.
+	 */
+	public void setEnabled(boolean enabled)
+	{
+		this.enabled = enabled;
+	}
+
+	/**
+	 * Configuration: the most statement shapes to keep statistics for, the others are counted together.
+	 */
+	public void setMaxShapes(int maxShapes)
+	{
+		this.maxShapes = maxShapes;
+	}
+
+	/**
+	 * Configuration: statements taking at least this long (ms) are kept in the slow statements.
+	 */
+	public void setSlowThreshold(long slowThreshold)
+	{
+		this.slowNanos = TimeUnit.MILLISECONDS.toNanos(slowThreshold);
+	}
+
+	/**
+	 * Configuration: how many slow statements are kept.
+	 */
+	public void setSlowCapacity(int slowCapacity)
+	{
+		this.slow = new AtomicReferenceArray<SlowStatement>(Math.max(1, slowCapacity));
+	}
+
+	/**
+	 * Configuration: keep one in this many of the slow statements.
+	 */
+	public void setSlowSampleRate(int slowSampleRate)
+	{
+		this.slowSampleRate = Math.max(1, slowSampleRate);
+	}
+
+	/**
+	 * Configuration: keep the parameters of the slow statements, off by default as they are readable over JMX.
+	 */
+	public void setSlowParameters(boolean slowParameters)
+	{
+		this.slowParameters = slowParameters;
+	}
+
+	/**
+	 * Configuration: the number of statement shapes reported, those taking the most time in total.
+	 */
+	public void setReportSize(int reportSize)
+	{
+		this.reportSize = reportSize;
+	}
+
+	public void sqlRead(String sql, Object[] fields, long rows, long nanos)
+	{
+		if (!enabled || sql == null) return;
+		StatementStatistics statistics = getStatistics(sql);
+		statistics.latency.record(nanos);
+		statistics.rowsRead.add(rows);
+		rowsRead.add(rows);
+		if (nanos >= slowNanos) slow(sql, fields, rows, nanos);
+	}
+
+	public void sqlWritten(String sql, Object[] fields, long rows, long nanos)
+	{
+		if (!enabled || sql == null) return;
+		StatementStatistics statistics = getStatistics(sql);
+		statistics.latency.record(nanos);
+		if (rows > 0)
+		{
+			statistics.rowsWritten.add(rows);
+			rowsWritten.add(rows);
+		}
+		if (nanos >= slowNanos) slow(sql, fields, rows, nanos);
+	}
+
+	public void transactionCompleted(String tag, long nanos)
+	{
+		if (!enabled) return;
+		getStatistics("transact: " + tag).latency.record(nanos);
+	}
+
+	public void connectionBorrowed(long nanos)
+	{
+		if (!enabled) return;
+		connectionWait.record(nanos);
+	}
+
+	StatementStatistics getStatistics(String sql)
+	{
+		StatementStatistics statistics = bySql.get(sql);
+		if (statistics == null)
+		{
+			String shape = shape(sql);
+			statistics = byShape.get(shape);
+			if (statistics == null)
+			{
+				if (byShape.size() >= maxShapes) shape = OTHER_SHAPE;
+				statistics = byShape.computeIfAbsent(shape, StatementStatistics::new);
+			}
+			// statements built with their values in them would fill this, so once full just work out their shape each time
+			if (bySql.size() < maxSql) bySql.put(sql, statistics);
+		}
+		return statistics;
+	}
+
+	private void slow(String sql, Object[] fields, long rows, long nanos)
+	{
+		if (slowSeen.getAndIncrement() % slowSampleRate != 0) return;
+		AtomicReferenceArray<SlowStatement> slow = this.slow;
+		int index = (int) (slowNext.getAndIncrement() % slow.length());
+		slow.set(index, new SlowStatement(sql, slowParameters ? debugFields(fields) : null, rows, nanos));
+	}
+
+	static String debugFields(Object[] fields)
+	{
+		if (fields == null) return null;
+		StringBuilder buf = new StringBuilder();
+		for (int i = 0; i < fields.length; i++)
+		{
+			if (i > 0) buf.append(", ");
+			Object field = fields[i];
+			String value = (field instanceof byte[]) ? "byte[" + ((byte[]) field).length + "]" : String.valueOf(field);
+			buf.append((value.length() > 100) ? value.substring(0, 100) + "..." : value);
+		}
+		return buf.toString();
+	}
+
+	/**
+	 * @return the sql with its whitespace collapsed, its literals replaced with ? and its lists of ? replaced with ?...
+	 */
+	static String shape(String sql)
+	{
+		int length = sql.length();
+		StringBuilder buf = new StringBuilder(length);
+		boolean space = false;
+		for (int i = 0; i < length; i++)
+		{
+			char c = sql.charAt(i);
+			if (Character.isWhitespace(c))
+			{
+				space = buf.length() > 0;
+				continue;
+			}
+			if (space)
+			{
+				buf.append(' ');
+				space = false;
+			}
+			if (c == '\'')
+			{
+				// a string literal, with '' for a quote in it
+				for (i++; i < length; i++)
+				{
+					if (sql.charAt(i) == '\'')
+					{
+						if (i + 1 < length && sql.charAt(i + 1) == '\'')
+						{
+							i++;
+						}
+						else
+						{
+							break;
+						}
+					}
+				}
+				buf.append('?');
+			}
+			else if (Character.isDigit(c) && (buf.length() == 0 || !isIdentifierPart(buf.charAt(buf.length() - 1))))
+			{
+				while (i + 1 < length && (Character.isDigit(sql.charAt(i + 1)) || sql.charAt(i + 1) == '.'))
+				{
+					i++;
+				}
+				buf.append('?');
+			}
+			else
+			{
+				buf.append(c);
+			}
+		}
+		return PARAMETER_LIST.matcher(buf).replaceAll("?...");
+	}
+
+	private static boolean isIdentifierPart(char c)
+	{
+		return Character.isLetterOrDigit(c) || c == '_' || c == '$' || c == '.';
+	}
+
+	public Map<String, String> getStatements()
+	{
+		List<StatementStatistics> statements = new ArrayList<StatementStatistics>(byShape.values());
+		statements.sort((a, b) -> Long.compare(b.latency.getTotalMicros(), a.latency.getTotalMicros()));
+		Map<String, String> rv = new LinkedHashMap<String, String>();
+		for (StatementStatistics statistics : statements.subList(0, Math.min(reportSize, statements.size())))
+		{
+			rv.put(statistics.shape, statistics.summary());
+		}
+		return rv;
+	}
+
+	public String getStatement(String shape)
+	{
+		StatementStatistics statistics = byShape.get(shape);
+		return (statistics == null) ? null : statistics.summary();
+	}
+
+	public List<String> getSlowStatements()
+	{
+		AtomicReferenceArray<SlowStatement> slow = this.slow;
+		List<SlowStatement> statements = new ArrayList<SlowStatement>(slow.length());
+		for (int i = 0; i < slow.length(); i++)
+		{
+			SlowStatement statement = slow.get(i);
+			if (statement != null) statements.add(statement);
+		}
+		statements.sort((a, b) -> Long.compare(b.when, a.when));
+		List<String> rv = new ArrayList<String>(statements.size());
+		for (SlowStatement statement : statements)
+		{
+			rv.add(statement.toString());
+		}
+		return rv;
+	}
+
+	public String getConnectionWait()
+	{
+		return connectionWait.summary();
+	}
+
+	public long getRowsRead()
+	{
+		return rowsRead.sum();
+	}
+
+	public long getRowsWritten()
+	{
+		return rowsWritten.sum();
+	}
+
+	public int getShapeCount()
+	{
+		return byShape.size();
+	}
+
+	public void reset()
+	{
+		bySql.clear();
+		byShape.clear();
+		connectionWait = new LatencyHistogram();
+		rowsRead.reset();
+		rowsWritten.reset();
+		for (int i = 0; i < slow.length(); i++)
+		{
+			slow.set(i, null);
+		}
+	}
+}
@@ -0,0 +1,520 @@
+/**********************************************************************************
+ * $URL$
+ * $Id$
+ ***********************************************************************************
+ *
+ * Copyright (c) 2018 Sakai Foundation
+ *
+ * Licensed under the Educational Community License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.opensource.org/licenses/ECL-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ **********************************************************************************/
+
+package org.sakaiproject.event.impl;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.RandomAccessFile;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Observable;
+import java.util.Observer;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.sakaiproject.event.api.Event;
+import org.sakaiproject.event.api.SimpleEvent;
+
+/**
+ * <p>
+ * AsyncObserverDispatcher notifies event observers off the posting thread. Each observer gets its own bounded queue and thread, so a slow
+ * observer only delays its own notifications.<br />
+ * When an observer's queue is full the {@link OverflowPolicy} decides what happens to the new event.
+ * </p>
+ */
+public class AsyncObserverDispatcher
+{
+	/** Our logger. */
+	private static Logger M_log = LoggerFactory.getLogger(AsyncObserverDispatcher.class);
+
+	/** What to do with a new event when an observer's queue is full. */
+	public enum OverflowPolicy
+	{
+		/** Make the posting thread wait for room in the queue. */
+		BLOCK,
+		/** Discard the oldest queued event to make room. */
+		DROP_OLDEST,
+		/** Write the event to a spill file, read back once the queue drains. */
+		SPILL;
+
+		/**
+		 * @param value
+		 *        The policy name, any case, with - or _ (e.g. "drop-oldest").
+		 * @return The policy, BLOCK if the value is not recognized.
+		 */
+		public static OverflowPolicy parse(String value)
+		{
+			if (value != null)
+			{
+				for (OverflowPolicy policy : values())
+				{
+					if (policy.name().equalsIgnoreCase(value.trim().replace('-', '_'))) return policy;
+				}
+			}
+			return BLOCK;
+		}
+	}
+
+	/** The observable passed to the observers. */
+	private final Observable observable;
+
+	/** The queues, in observer registration order. */
+	private final List<ObserverQueue> queues = new CopyOnWriteArrayList<ObserverQueue>();
+
+	/** The capacity of each observer's queue. */
+	private int queueSize = 1000;
+
+	/** What to do when a queue is full. */
+	private OverflowPolicy overflowPolicy = OverflowPolicy.BLOCK;
+
+	/** Where the spill files go (SPILL only). */
+	private File spillDirectory = new File(System.getProperty("java.io.tmpdir"));
+
+	/**
+	 * Construct
+	 *
+	 * @param observable
+	 *        The observable passed to the observers' update().
+	 */
+	public AsyncObserverDispatcher(Observable observable)
+	{
+		this.observable = observable;
+	}
+
+	public void setQueueSize(int queueSize)
+	{
+		this.queueSize = queueSize;
+	}
+
+	public void setOverflowPolicy(OverflowPolicy overflowPolicy)
+	{
+		this.overflowPolicy = overflowPolicy;
+	}
+
+	public void setSpillDirectory(File spillDirectory)
+	{
+		this.spillDirectory = spillDirectory;
+	}
+
+	/**
+	 * Start dispatching to an observer, if not already.
+	 *
+	 * @param observer
+	 *        The observer.
+	 */
+	public synchronized void addObserver(Observer observer)
+	{
+		if (find(observer) != null) return;
+		ObserverQueue queue = new ObserverQueue(observer);
+		queues.add(queue);
+		queue.start();
+	}
+
+	/**
+	 * Stop dispatching to an observer, events still queued for it are discarded.
+	 *
+	 * @param observer
+	 *        The observer.
+	 */
+	public synchronized void deleteObserver(Observer observer)
+	{
+		ObserverQueue queue = find(observer);
+		if (queue != null)
+		{
+			queues.remove(queue);
+			queue.stop();
+		}
+	}
+
+	/**
+	 * Queue an event for every observer.
+	 *
+	 * @param event
+	 *        The event.
+	 */
+	public void dispatch(Event event)
+	{
+		long now = System.currentTimeMillis();
+		for (ObserverQueue queue : queues)
+		{
+			queue.offer(event, now);
+		}
+	}
+
+	/**
+	 * Stop all the observer threads.
+	 */
+	public synchronized void shutdown()
+	{
+		for (ObserverQueue queue : queues)
+		{
+			queue.stop();
+		}
+		queues.clear();
+	}
+
+	/**
+	 * @return The queues, for their statistics.
+	 */
+	public List<ObserverQueue> getQueues()
+	{
+		return new ArrayList<ObserverQueue>(queues);
+	}
+
+	private ObserverQueue find(Observer observer)
+	{
+		for (ObserverQueue queue : queues)
+		{
+			if (queue.observer == observer) return queue;
+		}
+		return null;
+	}
+
+	/** An event waiting for an observer. */
+	private static class Pending
+	{
+		final Event event;
+		final long queued;
+
+		Pending(Event event, long queued)
+		{
+			this.event = event;
+			this.queued = queued;
+		}
+	}
+
+	/**
+	 * The queue and thread of one observer, with its statistics.
+	 */
+	public class ObserverQueue implements Runnable
+	{
+		private final Observer observer;
+		private final String name;
+		private final ArrayDeque<Pending> queue = new ArrayDeque<Pending>();
+		private final Object lock = new Object();
+		private volatile boolean running = true;
+		private Thread thread;
+
+		/** The spill file, and how many events are in it (SPILL only). */
+		private RandomAccessFile spill;
+		private File spillFile;
+		private long spillReadPosition = 0;
+		private int spilled = 0;
+
+		private long dispatched = 0;
+		private long dropped = 0;
+		private long totalProcessingNanos = 0;
+		private long maxProcessingNanos = 0;
+		private long lastLag = 0;
+		private long maxLag = 0;
+
+		ObserverQueue(Observer observer)
+		{
+			this.observer = observer;
+			this.name = observer.getClass().getName() + "@" + Integer.toHexString(System.identityHashCode(observer));
+		}
+
+		void start()
+		{
+			thread = new Thread(this, "EventObserver " + name);
+			thread.setDaemon(true);
+			thread.start();
+		}
+
+		void stop()
+		{
+			synchronized (lock)
+			{
+				running = false;
+				queue.clear();
+				closeSpill();
+				lock.notifyAll();
+			}
+		}
+
+		void offer(Event event, long now)
+		{
+			Pending pending = new Pending(event, now);
+			synchronized (lock)
+			{
+				if (!running) return;
+				// once spilling, keep spilling until the spill is read back so the order is kept
+				if (spilled == 0 && queue.size() < queueSize)
+				{
+					queue.add(pending);
+				}
+				else if (overflowPolicy == OverflowPolicy.DROP_OLDEST)
+				{
+					queue.poll();
+					dropped++;
+					queue.add(pending);
+				}
+				else if (overflowPolicy != OverflowPolicy.SPILL || !spill(pending))
+				{
+					// an observer posting from its own thread must not wait for itself
+					while (running && queue.size() >= queueSize && Thread.currentThread() != thread)
+					{
+						try
+						{
+							lock.wait(100);
+						}
+						catch (InterruptedException e)
+						{
+							Thread.currentThread().interrupt();
+							break;
+						}
+					}
+					queue.add(pending);
+				}
+				lock.notifyAll();
+			}
+		}
+
+		public void run()
+		{
+			while (running)
+			{
+				Pending pending = take();
+				if (pending == null) continue;
+
+				long start = System.nanoTime();
+				long lag = System.currentTimeMillis() - pending.queued;
+				try
+				{
+					observer.update(observable, pending.event);
+				}
+				catch (Exception t)
+				{
+					M_log.warn("{} failed on event: {}", name, pending.event, t);
+				}
+				long elapsed = System.nanoTime() - start;
+
+				synchronized (lock)
+				{
+					dispatched++;
+					totalProcessingNanos += elapsed;
+					maxProcessingNanos = Math.max(maxProcessingNanos, elapsed);
+					lastLag = lag;
+					maxLag = Math.max(maxLag, lag);
+				}
+			}
+		}
+
+		private Pending take()
+		{
+			synchronized (lock)
+			{
+				while (running && queue.isEmpty() && spilled == 0)
+				{
+					try
+					{
+						lock.wait(1000);
+					}
+					catch (InterruptedException e)
+					{
+						running = false;
+						return null;
+					}
+				}
+				if (!running) return null;
+				Pending pending = queue.poll();
+				if (pending == null)
+				{
+					pending = unspill();
+				}
+				lock.notifyAll();
+				return pending;
+			}
+		}
+
+		/**
+		 * Write an event to the spill file.
+		 *
+		 * @return false if the event could not be spilled.
+		 */
+		private boolean spill(Pending pending)
+		{
+			try
+			{
+				ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+				ObjectOutputStream out = new ObjectOutputStream(bytes);
+				out.writeObject(pending.event instanceof SimpleEvent ? pending.event : new SimpleEvent(pending.event, "local"));
+				out.close();
+
+				if (spill == null)
+				{
+					spillDirectory.mkdirs();
+					spillFile = File.createTempFile("event-spill-", ".bin", spillDirectory);
+					spillFile.deleteOnExit();
+					spill = new RandomAccessFile(spillFile, "rw");
+					spillReadPosition = 0;
+				}
+				spill.seek(spill.length());
+				spill.writeLong(pending.queued);
+				spill.writeInt(bytes.size());
+				spill.write(bytes.toByteArray());
+				spilled++;
+				return true;
+			}
+			catch (IOException e)
+			{
+				// not serializable (e.g. an LRS statement attached), or no disk: fall back to waiting
+				M_log.debug("{} could not spill event: {}", name, pending.event, e);
+				return false;
+			}
+		}
+
+		/**
+		 * Read the next event back from the spill file.
+		 */
+		private Pending unspill()
+		{
+			try
+			{
+				spill.seek(spillReadPosition);
+				long queued = spill.readLong();
+				byte[] bytes = new byte[spill.readInt()];
+				spill.readFully(bytes);
+				spillReadPosition = spill.getFilePointer();
+				spilled--;
+				if (spilled == 0)
+				{
+					spill.setLength(0);
+					spillReadPosition = 0;
+				}
+				ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(bytes));
+				return new Pending((Event) in.readObject(), queued);
+			}
+			catch (IOException | ClassNotFoundException e)
+			{
+				M_log.warn("{} lost {} spilled events: {}", name, spilled, e.getMessage(), e);
+				dropped += spilled;
+				spilled = 0;
+				closeSpill();
+				return null;
+			}
+		}
+
+		private void closeSpill()
+		{
+			if (spill != null)
+			{
+				try
+				{
+					spill.close();
+				}
+				catch (IOException e)
+				{
+					M_log.debug("closing spill file {}", spillFile, e);
+				}
+				spillFile.delete();
+				spill = null;
+				spilled = 0;
+			}
+		}
+
+		public String getName()
+		{
+			return name;
+		}
+
+		/**
+		 * @return The events waiting for the observer, in memory and spilled.
+		 */
+		public int getDepth()
+		{
+			synchronized (lock)
+			{
+				return queue.size() + spilled;
+			}
+		}
+
+		public int getSpilled()
+		{
+			synchronized (lock)
+			{
+				return spilled;
+			}
+		}
+
+		public long getDispatched()
+		{
+			synchronized (lock)
+			{
+				return dispatched;
+			}
+		}
+
+		public long getDropped()
+		{
+			synchronized (lock)
+			{
+				return dropped;
+			}
+		}
+
+		/**
+		 * @return How long the last event dispatched waited in the queue, in ms.
+		 */
+		public long getLastLag()
+		{
+			synchronized (lock)
+			{
+				return lastLag;
+			}
+		}
+
+		public long getMaxLag()
+		{
+			synchronized (lock)
+			{
+				return maxLag;
+			}
+		}
+
+		/**
+		 * @return The average time the observer took to process an event, in ms.
+		 */
+		public double getAverageProcessingTime()
+		{
+			synchronized (lock)
+			{
+				return dispatched == 0 ? 0 : (double) TimeUnit.NANOSECONDS.toMicros(totalProcessingNanos) / dispatched / 1000;
+			}
+		}
+
+		public long getMaxProcessingTime()
+		{
+			synchronized (lock)
+			{
+				return TimeUnit.NANOSECONDS.toMillis(maxProcessingNanos);
+			}
+		}
+	}
+}
@@ -41,7 +41,9 @@ import org.sakaiproject.tool.api.SessionManager;
 import org.sakaiproject.tool.api.ToolManager;
 import org.sakaiproject.user.api.User;
 
+import java.io.File;
 import java.util.Date;
+import java.util.List;
 import java.util.Observable;
 import java.util.Observer;
 
@@ -66,6 +68,12 @@ public abstract class BaseEventTrackingService implements EventTrackingService
 
 	protected EventDelayHandler delayHandler;
 
+	/** Configuration: if true, normal observers are notified from their own queue and thread rather than the posting thread. */
+	protected boolean m_asyncObservers = false;
+
+	/** Dispatches to the normal observers when they are asynchronous. */
+	protected AsyncObserverDispatcher m_asyncDispatcher = new AsyncObserverDispatcher(m_observableHelper);
+
 	/**********************************************************************************************************************************************************************************************************************************************************
 	 * Observable implementation
 	 *********************************************************************************************************************************************************************************************************************************************************/
@@ -101,8 +109,15 @@ public abstract class BaseEventTrackingService implements EventTrackingService
 		m_priorityObservableHelper.notifyObservers(event);
 
 		// notify the normal observers
-		m_observableHelper.setChanged();
-		m_observableHelper.notifyObservers(event);
+		if (m_asyncObservers)
+		{
+			m_asyncDispatcher.dispatch(event);
+		}
+		else
+		{
+			m_observableHelper.setChanged();
+			m_observableHelper.notifyObservers(event);
+		}
 
 		// if the event is local, notify local observers
 		if (local)
@@ -150,12 +165,67 @@ public abstract class BaseEventTrackingService implements EventTrackingService
 	 */
 	protected abstract TimeService timeService();
 
+	/**
+	 * Configuration: notify the normal observers asynchronously, each from its own bounded queue.
+	 *
+	 * @param value
+	 *        The async observers value.
+	 */
+	public void setAsyncObservers(String value)
+	{
+		m_asyncObservers = Boolean.valueOf(value).booleanValue();
+	}
+
+	/**
+	 * Configuration: the number of events each asynchronous observer can have queued.
+	 *
+	 * @param value
+	 *        The queue size.
+	 */
+	public void setAsyncQueueSize(String value)
+	{
+		m_asyncDispatcher.setQueueSize(Integer.parseInt(value));
+	}
+
+	/**
+	 * Configuration: what to do when an asynchronous observer's queue is full, one of block, drop-oldest or spill.
+	 *
+	 * @param value
+	 *        The overflow policy.
+	 */
+	public void setAsyncOverflowPolicy(String value)
+	{
+		m_asyncDispatcher.setOverflowPolicy(AsyncObserverDispatcher.OverflowPolicy.parse(value));
+	}
+
+	/**
+	 * Configuration: where events overflowing an asynchronous observer's queue are spilled.
+	 *
+	 * @param value
+	 *        The spill directory.
+	 */
+	public void setAsyncSpillDirectory(String value)
+	{
+		if (value != null && value.trim().length() > 0)
+		{
+			m_asyncDispatcher.setSpillDirectory(new File(value.trim()));
+		}
+	}
+
+	/**
+	 * @return The queues of the asynchronous observers, empty unless async observers are enabled.
+	 */
+	public List<AsyncObserverDispatcher.ObserverQueue> getObserverQueues()
+	{
+		return m_asyncDispatcher.getQueues();
+	}
+
 	/**
 	 * Final initialization, once all dependencies are set.
 	 */
 	public void init()
 	{
-		M_log.info(this + ".init()");
+		M_log.info(this + ".init() asyncObservers: " + m_asyncObservers);
 	}
 
 	/**********************************************************************************************************************************************************************************************************************************************************
@@ -167,6 +237,7 @@ public abstract class BaseEventTrackingService implements EventTrackingService
 	 */
 	public void destroy()
 	{
+		m_asyncDispatcher.shutdown();
 		M_log.info(this + ".destroy()");
 	}
 
@@ -446,7 +517,14 @@ public abstract class BaseEventTrackingService implements EventTrackingService
 		m_priorityObservableHelper.deleteObserver(observer);
 		m_localObservableHelper.deleteObserver(observer);
 
-		m_observableHelper.addObserver(observer);
+		if (m_asyncObservers)
+		{
+			m_asyncDispatcher.addObserver(observer);
+		}
+		else
+		{
+			m_observableHelper.addObserver(observer);
+		}
 	}
 
 	/**
@@ -459,6 +537,7 @@ public abstract class BaseEventTrackingService implements EventTrackingService
 	{
 		// keep this observer in one list only
 		m_observableHelper.deleteObserver(observer);
+		m_asyncDispatcher.deleteObserver(observer);
 		m_localObservableHelper.deleteObserver(observer);
 
 		m_priorityObservableHelper.addObserver(observer);
@@ -474,6 +553,7 @@ public abstract class BaseEventTrackingService implements EventTrackingService
 	{
 		// keep this observer in one list only
 		m_observableHelper.deleteObserver(observer);
+		m_asyncDispatcher.deleteObserver(observer);
 		m_priorityObservableHelper.deleteObserver(observer);
 
 		m_localObservableHelper.addObserver(observer);
@@ -488,6 +568,7 @@ public abstract class BaseEventTrackingService implements EventTrackingService
 	public void deleteObserver(Observer observer)
 	{
 		m_observableHelper.deleteObserver(observer);
+		m_asyncDispatcher.deleteObserver(observer);
 		m_priorityObservableHelper.deleteObserver(observer);
 		m_localObservableHelper.deleteObserver(observer);
 	}
@@ -0,0 +1,156 @@
+/**********************************************************************************
+ * $URL$
+ * $Id$
+ ***********************************************************************************
+ *
+ * Copyright (c) 2018 Sakai Foundation
+ *
+ * Licensed under the Educational Community License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.opensource.org/licenses/ECL-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ **********************************************************************************/
+
+package org.sakaiproject.event.impl;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.sakaiproject.event.api.SimpleEvent;
+
+/**
+ * <p>
+ * ClusterEventBatch is the unit of event distribution between cluster servers: the events one server wrote to SAKAI_EVENT in a single commit,
+ * with their EVENT_ID values.<br />
+ * Each server numbers its batches from 1 within an epoch (the time the server started), so receivers can detect lost batches and restarts.<br />
+ * Receivers follow the batches by server id, which stays the same when the server restarts, rather than by server instance.
+ * </p>
+ */
+public class ClusterEventBatch implements Serializable
+{
+	private static final long serialVersionUID = 1L;
+
+	/** The server that wrote the events. */
+	private final String serverId;
+
+	/** The server instance that wrote the events. */
+	private final String serverIdInstance;
+
+	/** When the publishing server instance started. */
+	private final long epoch;
+
+	/** The sequence number of the batch within the epoch. */
+	private final long sequence;
+
+	/** The EVENT_ID of each event, in the same order as the events. */
+	private final long[] eventIds;
+
+	/** The events. */
+	private final List<SimpleEvent> events;
+
+	/**
+	 * Construct
+	 *
+	 * @param serverId
+	 *        The server that wrote the events.
+	 * @param serverIdInstance
+	 *        The server instance that wrote the events.
+	 * @param epoch
+	 *        When the publishing server instance started.
+	 * @param sequence
+	 *        The sequence number of the batch within the epoch.
+	 * @param eventIds
+	 *        The EVENT_ID of each event.
+	 * @param events
+	 *        The events.
+	 */
+	public ClusterEventBatch(String serverId, String serverIdInstance, long epoch, long sequence, long[] eventIds, List<SimpleEvent> events)
+	{
+		if (eventIds.length != events.size())
+		{
+			throw new IllegalArgumentException("Each event in the batch needs an id.");
+		}
+		this.serverId = serverId;
+		this.serverIdInstance = serverIdInstance;
+		this.epoch = epoch;
+		this.sequence = sequence;
+		this.eventIds = eventIds.clone();
+		this.events = Collections.unmodifiableList(new ArrayList<SimpleEvent>(events));
+	}
+
+	public String getServerId()
+	{
+		return serverId;
+	}
+
+	public String getServerIdInstance()
+	{
+		return serverIdInstance;
+	}
+
+	public long getEpoch()
+	{
+		return epoch;
+	}
+
+	public long getSequence()
+	{
+		return sequence;
+	}
+
+	public int size()
+	{
+		return events.size();
+	}
+
+	public long getEventId(int index)
+	{
+		return eventIds[index];
+	}
+
+	public SimpleEvent getEvent(int index)
+	{
+		return events.get(index);
+	}
+
+	/**
+	 * @return The lowest EVENT_ID in the batch, or -1 if the batch is empty.
+	 */
+	public long getFirstEventId()
+	{
+		long first = -1;
+		for (long id : eventIds)
+		{
+			if (first == -1 || id < first) first = id;
+		}
+		return first;
+	}
+
+	/**
+	 * @return The highest EVENT_ID in the batch, or -1 if the batch is empty.
+	 */
+	public long getLastEventId()
+	{
+		long last = -1;
+		for (long id : eventIds)
+		{
+			if (id > last) last = id;
+		}
+		return last;
+	}
+
+	public String toString()
+	{
+		return serverIdInstance + "@" + epoch + "#" + sequence + "[" + events.size() + "]";
+	}
+}
@@ -0,0 +1,191 @@
+/**********************************************************************************
+ * $URL$
+ * $Id$
+ ***********************************************************************************
+ *
+ * Copyright (c) 2018 Sakai Foundation
+ *
+ * Licensed under the Educational Community License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.opensource.org/licenses/ECL-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ **********************************************************************************/
+
+package org.sakaiproject.event.impl;
+
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * <p>
+ * ClusterEventSequenceTracker follows the batch sequence of every cluster server publishing to a {@link ClusterEventTransport}.<br />
+ * It detects lost batches and restarted servers, following each server by its server id so a restart is seen as a new epoch of the same
+ * stream. It remembers the lowest EVENT_ID from which the database must be read to catch up, and keeps a
+ * bounded record of the event ids already delivered so that an event is not delivered twice by the push stream and a catch up read.
+ * </p>
+ */
+public class ClusterEventSequenceTracker
+{
+	/** What the tracker made of a batch. */
+	public enum Result
+	{
+		/** The first batch seen from this server, with no batches missed before it. */
+		FIRST,
+		/** The batch directly follows the previous one from this server. */
+		IN_ORDER,
+		/** One or more batches from this server were lost, possibly before the first one seen, a catch up is needed. */
+		GAP,
+		/** The server restarted since its previous batch, a catch up is needed. */
+		RESTART,
+		/** The batch was already seen, or is older than one already seen. */
+		STALE
+	}
+
+	/** No catch up pending. */
+	public static final long NO_CATCH_UP = -1;
+
+	/** The state of the stream from one server. */
+	private static class Stream
+	{
+		long epoch;
+		long sequence;
+		long lastEventId;
+	}
+
+	/** The stream of each publishing server, by server id. */
+	private final Map<String, Stream> streams = new HashMap<String, Stream>();
+
+	/** The EVENT_ID after which the database must be read, or NO_CATCH_UP. */
+	private long catchUpFrom = NO_CATCH_UP;
+
+	/** The most recently delivered event ids. */
+	private final Map<Long, Boolean> delivered;
+
+	/** The EVENT_ID from which to catch up on the batches missed before the first one seen from a server. */
+	private final long startEventId;
+
+	/**
+	 * Construct
+	 *
+	 * @param deliveredSize
+	 *        How many delivered event ids to remember to suppress duplicates.
+	 * @param startEventId
+	 *        The last EVENT_ID in the database when this server started following the other servers.
+	 */
+	public ClusterEventSequenceTracker(final int deliveredSize, long startEventId)
+	{
+		this.startEventId = startEventId;
+		delivered = new LinkedHashMap<Long, Boolean>(Math.min(deliveredSize, 1024), 0.75f, false)
+		{
+			private static final long serialVersionUID = 1L;
+
+			protected boolean removeEldestEntry(Map.Entry<Long, Boolean> eldest)
+			{
+				return size() > deliveredSize;
+			}
+		};
+	}
+
+	/**
+	 * Track a batch received from the transport.
+	 *
+	 * @param batch
+	 *        The batch.
+	 * @return What the batch means for the stream of its server. STALE batches should be ignored, the events of the others delivered.
+	 */
+	public synchronized Result track(ClusterEventBatch batch)
+	{
+		Stream stream = streams.get(batch.getServerId());
+		Result rv;
+		if (stream == null)
+		{
+			stream = new Stream();
+			streams.put(batch.getServerId(), stream);
+			if (batch.getSequence() > 1)
+			{
+				// the server published before we heard from it, anything it wrote since we started must be read
+				requestCatchUp(startEventId);
+				rv = Result.GAP;
+			}
+			else
+			{
+				rv = Result.FIRST;
+			}
+		}
+		else if (batch.getEpoch() < stream.epoch)
+		{
+			return Result.STALE;
+		}
+		else if (batch.getEpoch() > stream.epoch)
+		{
+			requestCatchUp(stream.lastEventId);
+			rv = Result.RESTART;
+		}
+		else if (batch.getSequence() <= stream.sequence)
+		{
+			return Result.STALE;
+		}
+		else if (batch.getSequence() == stream.sequence + 1)
+		{
+			rv = Result.IN_ORDER;
+		}
+		else
+		{
+			requestCatchUp(stream.lastEventId);
+			rv = Result.GAP;
+		}
+
+		stream.epoch = batch.getEpoch();
+		stream.sequence = batch.getSequence();
+		stream.lastEventId = Math.max(stream.lastEventId, batch.getLastEventId());
+		return rv;
+	}
+
+	/**
+	 * Ask for the database to be read for events after this id.
+	 *
+	 * @param eventId
+	 *        The last EVENT_ID known to be delivered.
+	 */
+	public synchronized void requestCatchUp(long eventId)
+	{
+		if (eventId < 0) eventId = 0;
+		if (catchUpFrom == NO_CATCH_UP || eventId < catchUpFrom)
+		{
+			catchUpFrom = eventId;
+		}
+	}
+
+	/**
+	 * Take the pending catch up, clearing it.
+	 *
+	 * @return The EVENT_ID after which the database must be read, or NO_CATCH_UP.
+	 */
+	public synchronized long takeCatchUp()
+	{
+		long rv = catchUpFrom;
+		catchUpFrom = NO_CATCH_UP;
+		return rv;
+	}
+
+	/**
+	 * Record an event as delivered.
+	 *
+	 * @param eventId
+	 *        The EVENT_ID.
+	 * @return true if the event was not delivered before and should be now, false if it is a duplicate.
+	 */
+	public synchronized boolean markDelivered(long eventId)
+	{
+		return delivered.put(eventId, Boolean.TRUE) == null;
+	}
+}
@@ -29,6 +29,7 @@ import org.sakaiproject.component.api.ServerConfigurationService;
 import org.sakaiproject.component.cover.ComponentManager;
 import org.sakaiproject.db.api.SqlReader;
 import org.sakaiproject.db.api.SqlService;
+import org.sakaiproject.db.api.SqlServiceUniqueViolationException;
 import org.sakaiproject.event.api.Event;
 import org.sakaiproject.event.api.NotificationService;
 import org.sakaiproject.event.api.SimpleEvent;
@@ -38,15 +39,19 @@ import org.sakaiproject.memory.api.MemoryService;
 import java.sql.Connection;
 import java.sql.ResultSet;
 import java.sql.SQLException;
+import java.sql.Savepoint;
 import java.util.*;
 import java.util.concurrent.Executors;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * <p>
  * ClusterEventTracking is the implmentation for the EventTracking service for use in a clustered multi-app server configuration.<br />
- * Events are backed in the cluster database, and this database is polled to read and process locally events posted by the other cluster members.
+ * Events are backed in the cluster database, and this database is polled to read and process locally events posted by the other cluster members.<br />
+ * If a {@link ClusterEventTransport} is configured, each batch of written events is pushed to the other cluster members instead, and the database
+ * is only read to catch up when a batch is lost or a member restarts.
  * </p>
  */
 public abstract class ClusterEventTracking extends BaseEventTrackingService implements Runnable
@@ -83,6 +88,15 @@ public abstract class ClusterEventTracking extends BaseEventTrackingService impl
 	private String serverId;
 	private ScheduledExecutorService scheduler;
 
+	/** Optional transport pushing our written events to the other cluster members, replacing the db polling. */
+	protected ClusterEventTransport m_transport = null;
+	/** Follows the batch streams of the other cluster members (ONLY used with a transport). */
+	protected ClusterEventSequenceTracker m_sequenceTracker = null;
+	/** When this server instance started, the epoch of the batches we publish. */
+	private final long transportEpoch = System.currentTimeMillis();
+	/** The sequence number of the last batch we published. */
+	private final AtomicLong transportSequence = new AtomicLong(0);
+
 	/*************************************************************************************************************************************************
 	 * Dependencies
 	 ************************************************************************************************************************************************/
@@ -173,6 +187,17 @@ public abstract class ClusterEventTracking extends BaseEventTrackingService impl
 		m_period = Integer.parseInt(time);
 	}
 
+	/**
+	 * Configuration: set the transport used to push events to the other cluster members.
+	 *
+	 * @param transport
+	 *        The transport, or null to poll the db.
+	 */
+	public void setTransport(ClusterEventTransport transport)
+	{
+		m_transport = transport;
+	}
+
 	public void setDatabaseBeans(Map databaseBeans)
 	{
 		this.databaseBeans = databaseBeans;
@@ -225,6 +250,12 @@ public abstract class ClusterEventTracking extends BaseEventTrackingService impl
 			{
 				initLastEvent();
 
+				if (m_transport != null)
+				{
+					m_sequenceTracker = new ClusterEventSequenceTracker(serverConfigurationService().getInt("events.cluster.transport.dedup.size", 10000), m_lastEventSeq);
+					m_transport.start(serverInstance, this::receiveBatch);
+				}
+
 				scheduler = Executors.newSingleThreadScheduledExecutor();
 				// schedule task for every pollDelaySeconds
 				scheduler.scheduleWithFixedDelay(
@@ -252,7 +283,7 @@ public abstract class ClusterEventTracking extends BaseEventTrackingService impl
     			}
 			}
 
-			M_log.info("period: {}, batch: {}, checkDb: {}", m_period, m_batchWrite, m_checkDb);
+			M_log.info("period: {}, batch: {}, checkDb: {}, transport: {}", m_period, m_batchWrite, m_checkDb, m_transport);
 
             String sakaiVersion = serverConfigurationService().getString("version.sakai", "unknown") + "/" + serverConfigurationService().getString("version.service", "unknown");
             M_log.info("Server Start: serverId={}, serverInstance={}, serverIdInstance={}, version={}",
@@ -304,7 +335,14 @@ public abstract class ClusterEventTracking extends BaseEventTrackingService impl
 	 */
 	public void destroy()
 	{
-		scheduler.shutdown();
+		if (m_transport != null)
+		{
+			m_transport.stop();
+		}
+		if (scheduler != null)
+		{
+			scheduler.shutdown();
+		}
 		super.destroy();
 	}
 
@@ -368,12 +406,19 @@ public abstract class ClusterEventTracking extends BaseEventTrackingService impl
 		bindValues(event, fields);
 
         // process the insert
-        if (cachingEnabled) {
-            // if caching is enabled, get the last inserted id
+        if (cachingEnabled || m_transport != null) {
+            // the cache and the transport need the inserted id, the transport so the other servers can detect duplicates
             Long eventId = sqlService().dbInsert(conn, statement, fields, "EVENT_ID");
             if (eventId != null) {
-                // write event to cache
-                writeEventToCluster(event, eventId);
+                if (cachingEnabled) {
+                    // write event to cache
+                    writeEventToCluster(event, eventId);
+                }
+                if (m_transport != null) {
+                    publishBatch(Collections.singletonList(event), new long[] {eventId});
+                }
+            } else if (m_transport != null) {
+                M_log.warn("dbInsert failed: session: {} event: {}", fields[3], event.toString());
             }
         } else {
             boolean ok = sqlService().dbWrite(conn, statement, fields);
@@ -407,16 +452,21 @@ public abstract class ClusterEventTracking extends BaseEventTrackingService impl
 				conn.setAutoCommit(false);
 			}
 
-			// Note: investigate batch writing via the jdbc driver: make sure we can still use prepared statements (check out host arrays, too)
-			// -ggolden
-
             // common preparation for each insert
             String statement = insertStatement();
-            Object fields[] = new Object[6];
+
+            // the events written and their ids, to publish once committed
+            List<Event> published = new ArrayList<>(events.size());
+            long[] publishedIds = new long[events.size()];
+
+            // events that don't need their id are sent to the db as one jdbc batch
+            List<Object[]> batched = new ArrayList<>(events.size());
+            List<Event> batchedEvents = new ArrayList<>(events.size());
 
 			// write all events
 			for (Event event : events)
 			{
+				Object fields[] = new Object[6];
 				bindValues(event, fields);
 
                 // process the insert
@@ -429,19 +479,35 @@ public abstract class ClusterEventTracking extends BaseEventTrackingService impl
                     if (eventId != null) {
                         // write event to cache
                         writeEventToCluster(event, eventId);
+                        if (m_transport != null) {
+                            publishedIds[published.size()] = eventId;
+                            published.add(event);
+                        }
                     }
-                } else {
-                    boolean ok = sqlService().dbWrite(conn, statement, fields);
-                    if (!ok) {
-                        M_log.warn("dbWrite failed: session: {} event: {}", fields[3], event.toString());
+                } else if (m_transport != null) {
+                    Long eventId = sqlService().dbInsert(conn, statement, fields, "EVENT_ID");
+                    if (eventId != null) {
+                        publishedIds[published.size()] = eventId;
+                        published.add(event);
+                    } else {
+                        M_log.warn("dbInsert failed: session: {} event: {}", fields[3], event.toString());
                     }
+                } else {
+                    batched.add(fields);
+                    batchedEvents.add(event);
                 }
             }
+            writeBatched(conn, statement, batched, batchedEvents);
 
 			// commit
 			if (!conn.isClosed()) {
 			    conn.commit();
 			}
+
+			// only now are the events visible to a catch up read by the other servers
+			if (!published.isEmpty()) {
+				publishBatch(published, Arrays.copyOf(publishedIds, published.size()));
+			}
 		}
 		catch (Exception e)
 		{
@@ -478,6 +544,45 @@ public abstract class ClusterEventTracking extends BaseEventTrackingService impl
 		}
 	}
 
+	/**
+	 * Write the events as one jdbc batch, or if the batch fails other than for a duplicate row, one at a time so only the
+	 * events that fail are lost.
+	 * 
+	 * @param batched
+	 *        The bound fields of each event.
+	 * @param batchedEvents
+	 *        The events, in the same order.
+	 */
+	protected void writeBatched(Connection conn, String statement, List<Object[]> batched, List<Event> batchedEvents) throws SQLException
+	{
+		if (batched.isEmpty()) return;
+
+		Savepoint savepoint = conn.setSavepoint();
+		try
+		{
+			sqlService().dbWriteBatch(conn, statement, batched);
+			return;
+		}
+		catch (SqlServiceUniqueViolationException e)
+		{
+			throw e;
+		}
+		catch (RuntimeException e)
+		{
+			M_log.warn("dbWriteBatch failed, writing {} events one at a time: {}", batched.size(), e.getMessage());
+			conn.rollback(savepoint);
+		}
+
+		for (int i = 0; i < batched.size(); i++)
+		{
+			Object[] fields = batched.get(i);
+			boolean ok = sqlService().dbWrite(conn, statement, fields);
+			if (!ok) {
+				M_log.warn("dbWrite failed: session: {} event: {}", fields[3], batchedEvents.get(i).toString());
+			}
+		}
+	}
+
 	/**
 	 * Form the proper event insert statement for the database technology.
 	 * 
@@ -549,6 +654,16 @@ public abstract class ClusterEventTracking extends BaseEventTrackingService impl
 				writeBatchEvents(batchEvents);
 			}
 
+			// with a transport, the events of the other servers are pushed to us, only read the db to catch up
+			long catchUpFrom = ClusterEventSequenceTracker.NO_CATCH_UP;
+			if (m_transport != null) {
+				catchUpFrom = m_sequenceTracker.takeCatchUp();
+				if (catchUpFrom == ClusterEventSequenceTracker.NO_CATCH_UP) {
+					return;
+				}
+				M_log.info("catching up on events > {} missed by the transport", catchUpFrom);
+			}
+
 			M_log.debug("checking for events > {}", m_lastEventSeq);
 			// check the db for new events
 			// We do a left join which gets us records from non-sessions also (SESSION_SERVER may be null when non-session events are returned)
@@ -556,10 +671,10 @@ public abstract class ClusterEventTracking extends BaseEventTrackingService impl
 
 			// send in the last seq number parameter
 			Object[] fields = new Object[1];
-			fields[0] = Long.valueOf(m_lastEventSeq);
+			fields[0] = Long.valueOf(m_transport != null ? catchUpFrom : m_lastEventSeq);
 
 			List<Event> events = new ArrayList<>();
-			if (cachingEnabled) { // KNL-1184
+			if (cachingEnabled && m_transport == null) { // KNL-1184
 				// set to last event id processed + 1 since we've already processed the last event id
 				long beginEventId = m_lastEventSeq + 1;
 				// set m_lastEventSeq to latest key value in event cache
@@ -636,6 +751,11 @@ public abstract class ClusterEventTracking extends BaseEventTrackingService impl
 								return null;
 							}
 
+							// skip events the transport already delivered
+							if (m_sequenceTracker != null && !m_sequenceTracker.markDelivered(id)) {
+								return null;
+							}
+
 							// Note: events from outside the server don't need notification info, since notification is processed only on internal
 							// events -ggolden
 							BaseEvent event = new BaseEvent(id, function, ref, context, "m".equals(code), NotificationService.NOTI_NONE, date);
@@ -662,6 +782,62 @@ public abstract class ClusterEventTracking extends BaseEventTrackingService impl
 		}
 	}
 
+	/**
+	 * Push a batch of committed events to the other cluster servers.
+	 *
+	 * @param events
+	 *        The events written.
+	 * @param eventIds
+	 *        The EVENT_ID of each event.
+	 */
+	protected void publishBatch(List<Event> events, long[] eventIds)
+	{
+		List<SimpleEvent> simpleEvents = new ArrayList<>(events.size());
+		for (Event event : events) {
+			simpleEvents.add(new SimpleEvent(ensureBaseEvent(event), serverInstance));
+		}
+
+		// a failed publish still uses its sequence number, so the other servers see the gap and catch up from the db
+		ClusterEventBatch batch = new ClusterEventBatch(serverId, serverInstance, transportEpoch, transportSequence.incrementAndGet(), eventIds, simpleEvents);
+		try {
+			m_transport.publish(batch);
+		} catch (Exception e) {
+			M_log.warn("{}could not publish {}: {}", m_logId, batch, e.getMessage(), e);
+		}
+	}
+
+	/**
+	 * Process a batch of events pushed by another cluster server.
+	 *
+	 * @param batch
+	 *        The batch of events.
+	 */
+	protected void receiveBatch(ClusterEventBatch batch)
+	{
+		ClusterEventSequenceTracker.Result result = m_sequenceTracker.track(batch);
+		if (result == ClusterEventSequenceTracker.Result.STALE) {
+			M_log.debug("ignoring stale batch {}", batch);
+			return;
+		}
+		if (result == ClusterEventSequenceTracker.Result.GAP || result == ClusterEventSequenceTracker.Result.RESTART) {
+			M_log.info("{} from batch {}, will catch up from the db", result, batch);
+		}
+
+		for (int i = 0; i < batch.size(); i++) {
+			if (!m_sequenceTracker.markDelivered(batch.getEventId(i))) {
+				continue;
+			}
+			// Note: as for events read from the db, notification info is only processed on internal events
+			SimpleEvent event = batch.getEvent(i);
+			event.setPriority(NotificationService.NOTI_NONE);
+			try {
+				notifyObservers(event, false);
+			} catch (Exception e) {
+				M_log.warn("receiveBatch, notifyObservers(), event: {}", event, e);
+			}
+		}
+	}
+
 	/**
 	 * Check the db for the largest event seq number, and set this as the one after which we will next get event.
 	 */
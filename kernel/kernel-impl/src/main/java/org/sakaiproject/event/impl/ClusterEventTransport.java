@@ -0,0 +1,70 @@
+/**********************************************************************************
+ * $URL$
+ * $Id$
+ ***********************************************************************************
+ *
+ * Copyright (c) 2018 Sakai Foundation
+ *
+ * Licensed under the Educational Community License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.opensource.org/licenses/ECL-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ **********************************************************************************/
+
+package org.sakaiproject.event.impl;
+
+/**
+ * <p>
+ * ClusterEventTransport pushes batches of events written by one cluster server to the other cluster servers, so that they do not have to poll
+ * the SAKAI_EVENT table to find them.<br />
+ * A transport only has to make a best effort delivery, {@link ClusterEventTracking} detects lost batches from their sequence numbers and
+ * catches up from the database.
+ * </p>
+ */
+public interface ClusterEventTransport
+{
+	/**
+	 * Receives the batches published by the other cluster servers.
+	 */
+	interface Receiver
+	{
+		/**
+		 * Process a batch published by another cluster server.
+		 *
+		 * @param batch
+		 *        The batch of events.
+		 */
+		void receive(ClusterEventBatch batch);
+	}
+
+	/**
+	 * Join the cluster and start delivering batches published by the other servers.
+	 *
+	 * @param serverIdInstance
+	 *        The id of this server instance, batches published with this id are never delivered back to it.
+	 * @param receiver
+	 *        The receiver for the batches of the other servers.
+	 */
+	void start(String serverIdInstance, Receiver receiver);
+
+	/**
+	 * Publish a batch of events to all the other cluster servers.
+	 *
+	 * @param batch
+	 *        The batch of events.
+	 */
+	void publish(ClusterEventBatch batch);
+
+	/**
+	 * Leave the cluster, no more batches will be delivered.
+	 */
+	void stop();
+}
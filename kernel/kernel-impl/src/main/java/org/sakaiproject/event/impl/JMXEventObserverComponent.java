@@ -0,0 +1,125 @@
+/**********************************************************************************
+ * $URL$
+ * $Id$
+ ***********************************************************************************
+ *
+ * Copyright (c) 2018 Sakai Foundation
+ *
+ * Licensed under the Educational Community License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.opensource.org/licenses/ECL-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ **********************************************************************************/
+
+package org.sakaiproject.event.impl;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.sakaiproject.event.api.EventTrackingService;
+import org.springframework.jmx.export.annotation.ManagedAttribute;
+import org.springframework.jmx.export.annotation.ManagedResource;
+
+/**
+ * Export the queue statistics of the asynchronous event observers over JMX.
+ */
+@ManagedResource(objectName="org.sakaiproject:name=EventObservers", description="Sakai asynchronous event observer queues")
+public class JMXEventObserverComponent {
+
+    private EventTrackingService eventTrackingService;
+    private BaseEventTrackingService observedService;
+
+    public void init() {
+        // the observer queues are only kept by the base implementation, not by a proxy or another implementation
+        if (!(eventTrackingService instanceof BaseEventTrackingService)) {
+            throw new IllegalStateException("The event observer queues can't be exported over JMX, the EventTrackingService "
+                    + (eventTrackingService == null ? "is not set" : eventTrackingService.getClass().getName() + " is not a BaseEventTrackingService"));
+        }
+        observedService = (BaseEventTrackingService) eventTrackingService;
+    }
+
+    @ManagedAttribute(description="Events waiting for each observer, in memory and spilled", currencyTimeLimit=0)
+    public Map<String, Integer> getQueueDepths() {
+        Map<String, Integer> rv = new LinkedHashMap<String, Integer>();
+        for (AsyncObserverDispatcher.ObserverQueue queue : observedService.getObserverQueues()) {
+            rv.put(queue.getName(), queue.getDepth());
+        }
+        return rv;
+    }
+
+    @ManagedAttribute(description="Events spilled to disk for each observer", currencyTimeLimit=0)
+    public Map<String, Integer> getSpilled() {
+        Map<String, Integer> rv = new LinkedHashMap<String, Integer>();
+        for (AsyncObserverDispatcher.ObserverQueue queue : observedService.getObserverQueues()) {
+            rv.put(queue.getName(), queue.getSpilled());
+        }
+        return rv;
+    }
+
+    @ManagedAttribute(description="Events dispatched to each observer", currencyTimeLimit=0)
+    public Map<String, Long> getDispatched() {
+        Map<String, Long> rv = new LinkedHashMap<String, Long>();
+        for (AsyncObserverDispatcher.ObserverQueue queue : observedService.getObserverQueues()) {
+            rv.put(queue.getName(), queue.getDispatched());
+        }
+        return rv;
+    }
+
+    @ManagedAttribute(description="Events dropped for each observer", currencyTimeLimit=0)
+    public Map<String, Long> getDropped() {
+        Map<String, Long> rv = new LinkedHashMap<String, Long>();
+        for (AsyncObserverDispatcher.ObserverQueue queue : observedService.getObserverQueues()) {
+            rv.put(queue.getName(), queue.getDropped());
+        }
+        return rv;
+    }
+
+    @ManagedAttribute(description="How long (ms) the last event for each observer waited in its queue", currencyTimeLimit=0)
+    public Map<String, Long> getLastLag() {
+        Map<String, Long> rv = new LinkedHashMap<String, Long>();
+        for (AsyncObserverDispatcher.ObserverQueue queue : observedService.getObserverQueues()) {
+            rv.put(queue.getName(), queue.getLastLag());
+        }
+        return rv;
+    }
+
+    @ManagedAttribute(description="Longest (ms) an event for each observer waited in its queue", currencyTimeLimit=0)
+    public Map<String, Long> getMaxLag() {
+        Map<String, Long> rv = new LinkedHashMap<String, Long>();
+        for (AsyncObserverDispatcher.ObserverQueue queue : observedService.getObserverQueues()) {
+            rv.put(queue.getName(), queue.getMaxLag());
+        }
+        return rv;
+    }
+
+    @ManagedAttribute(description="Average time (ms) each observer takes to process an event", currencyTimeLimit=0)
+    public Map<String, Double> getAverageProcessingTime() {
+        Map<String, Double> rv = new LinkedHashMap<String, Double>();
+        for (AsyncObserverDispatcher.ObserverQueue queue : observedService.getObserverQueues()) {
+            rv.put(queue.getName(), queue.getAverageProcessingTime());
+        }
+        return rv;
+    }
+
+    @ManagedAttribute(description="Longest time (ms) each observer took to process an event", currencyTimeLimit=0)
+    public Map<String, Long> getMaxProcessingTime() {
+        Map<String, Long> rv = new LinkedHashMap<String, Long>();
+        for (AsyncObserverDispatcher.ObserverQueue queue : observedService.getObserverQueues()) {
+            rv.put(queue.getName(), queue.getMaxProcessingTime());
+        }
+        return rv;
+    }
+
+    public void setEventTrackingService(EventTrackingService eventTrackingService) {
+        this.eventTrackingService = eventTrackingService;
+    }
+
+}
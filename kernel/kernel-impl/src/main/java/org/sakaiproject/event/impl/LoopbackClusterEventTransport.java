@@ -0,0 +1,103 @@
+/**********************************************************************************
+ * $URL$
+ * $Id$
+ ***********************************************************************************
+ *
+ * Copyright (c) 2018 Sakai Foundation
+ *
+ * Licensed under the Educational Community License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.opensource.org/licenses/ECL-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ **********************************************************************************/
+
+package org.sakaiproject.event.impl;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * <p>
+ * LoopbackClusterEventTransport is an in-JVM {@link ClusterEventTransport}. Every transport started on the same channel sees the batches
+ * published by the others, delivered synchronously on the publishing thread.<br />
+ * This lets several {@link ClusterEventTracking} instances act as a cluster inside one process, for tests and single server setups.
+ * </p>
+ */
+public class LoopbackClusterEventTransport implements ClusterEventTransport
+{
+	/** Our logger. */
+	private static Logger M_log = LoggerFactory.getLogger(LoopbackClusterEventTransport.class);
+
+	/** The receivers joined to each channel, by server instance id. */
+	private static final Map<String, Map<String, Receiver>> CHANNELS = new ConcurrentHashMap<String, Map<String, Receiver>>();
+
+	/** The channel this transport is on. */
+	protected String m_channel = "default";
+
+	/** The server instance id we started with. */
+	protected String m_serverIdInstance = null;
+
+	/**
+	 * Configuration: the channel to join, transports on different channels do not see each other.
+	 *
+	 * @param channel
+	 *        The channel name.
+	 */
+	public void setChannel(String channel)
+	{
+		m_channel = channel;
+	}
+
+	public void start(String serverIdInstance, Receiver receiver)
+	{
+		m_serverIdInstance = serverIdInstance;
+		channel().put(serverIdInstance, receiver);
+	}
+
+	public void publish(ClusterEventBatch batch)
+	{
+		for (Map.Entry<String, Receiver> entry : channel().entrySet())
+		{
+			if (entry.getKey().equals(batch.getServerIdInstance())) continue;
+			try
+			{
+				entry.getValue().receive(batch);
+			}
+			catch (Exception e)
+			{
+				M_log.warn("delivering {} to {}: {}", batch, entry.getKey(), e.getMessage(), e);
+			}
+		}
+	}
+
+	public void stop()
+	{
+		if (m_serverIdInstance != null)
+		{
+			channel().remove(m_serverIdInstance);
+			m_serverIdInstance = null;
+		}
+	}
+
+	private Map<String, Receiver> channel()
+	{
+		Map<String, Receiver> channel = CHANNELS.get(m_channel);
+		if (channel == null)
+		{
+			CHANNELS.putIfAbsent(m_channel, new ConcurrentHashMap<String, Receiver>());
+			channel = CHANNELS.get(m_channel);
+		}
+		return channel;
+	}
+}
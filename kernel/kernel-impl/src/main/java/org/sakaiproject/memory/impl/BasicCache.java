@@ -27,7 +27,9 @@ import org.sakaiproject.memory.api.Cache;
 import org.sakaiproject.memory.api.CacheLoader;
 import org.sakaiproject.memory.api.CacheStatistics;
 
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.Properties;
 import java.util.Set;
@@ -121,6 +123,27 @@ public abstract class BasicCache<K, V> implements Cache<K, V> {
 
     @Override
     public Map<K, V> getAll(Set<? extends K> keys) {
+        //noinspection unchecked
+        return getAll(keys, loader);
+    }
+
+    @Override
+    public Map<K, V> getAll(Set<? extends K> keys, CacheLoader<K, V> loader) {
+        Map<K, V> map = getAllPresent(keys);
+        if (loader != null && map.size() < keys.size()) {
+            map.putAll(loadAll(keys, map, loader));
+        }
+        return map;
+    }
+
+    /**
+     * Get the entries which are in the cache, without calling any loader.
+     * Implementations should override this with a bulk get if the underlying cache has one.
+     *
+     * @param keys the keys to look up
+     * @return a map of the entries found
+     */
+    protected Map<K, V> getAllPresent(Set<? extends K> keys) {
         HashMap<K, V> map = new HashMap<>();
         if (!keys.isEmpty()) {
             for (K key : keys) {
@@ -136,6 +159,37 @@ public abstract class BasicCache<K, V> implements Cache<K, V> {
         return map;
     }
 
+    /**
+     * Load all the keys which were not found with one call to the loader and put the results in the cache
+     *
+     * @param keys the keys which were requested
+     * @param found the entries which were found in the cache
+     * @param loader the loader to use
+     * @return the entries which were loaded
+     */
+    protected Map<K, V> loadAll(Set<? extends K> keys, Map<K, V> found, CacheLoader<K, V> loader) {
+        List<K> missing = new ArrayList<>(keys.size() - found.size());
+        for (K key : keys) {
+            if (!found.containsKey(key)) {
+                missing.add(key);
+            }
+        }
+        HashMap<K, V> loaded = new HashMap<>();
+        // a failing loader fails the getAll, as the caller can't tell a failure from keys which don't exist
+        Map<K, V> values = loader.loadAll(missing);
+        if (values != null) {
+            for (Map.Entry<K, V> entry : values.entrySet()) {
+                if (entry.getKey() != null && entry.getValue() != null) {
+                    loaded.put(entry.getKey(), entry.getValue());
+                }
+            }
+        }
+        if (!loaded.isEmpty()) {
+            putAll(loaded);
+        }
+        return loaded;
+    }
+
     @Override
     public void putAll(Map<? extends K, ? extends V> map) {
         if (map != null && !map.isEmpty()) {
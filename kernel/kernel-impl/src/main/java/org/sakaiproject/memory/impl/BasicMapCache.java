@@ -25,12 +25,14 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.sakaiproject.memory.api.Configuration;
 
+import java.util.HashMap;
 import java.util.Map;
+import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
 
 /**
  * Contains general common implementation info related to a cache.
- * No support for listener or cache loader.
+ * No support for listener, the cache loader is only used by getAll.
  * Should only be used for general testing of POC.
  *
  * @author Aaron Zeckoski (azeckoski @ unicon.net) (azeckoski @ gmail.com)
@@ -55,10 +57,16 @@ public class BasicMapCache<K, V> extends BasicCache<K, V> {
         this.cache = new ConcurrentHashMap<>();
     }
 
+    /**
+     * Construct the Cache using the given map to hold the entries
+     *
+     * @param name the name for this cache
+     * @param map  the map that backs this cache
+     */
     public BasicMapCache(String name, Map<? extends K, ? extends V> map) {
         super(name);
         //noinspection unchecked
-        this.cache.putAll(map);
+        this.cache = (Map<K, V>) map;
     }
 
     @Override
@@ -76,6 +84,21 @@ public class BasicMapCache<K, V> extends BasicCache<K, V> {
         return cache.get(key);
     } // get
 
+    @Override
+    protected Map<K, V> getAllPresent(Set<? extends K> keys) {
+        HashMap<K, V> map = new HashMap<>();
+        for (K key : keys) {
+            if (key == null) {
+                throw new NullPointerException("keys Set for getAll cannot contain nulls (but it does)");
+            }
+            V value = cache.get(key);
+            if (value != null) {
+                map.put(key, value);
+            }
+        }
+        return map;
+    }
+
     @Override
     public void clear() {
         cache.clear();
@@ -250,12 +250,15 @@ public class EhcacheCache<K, V> extends BasicCache<K, V> implements CacheEventLi
     // BULK operations - KNL-1246
 
     @Override
-    public Map<K, V> getAll(Set<? extends K> keys) {
+    protected Map<K, V> getAllPresent(Set<? extends K> keys) {
         HashMap<K, V> map = new HashMap<>();
         if (!keys.isEmpty()) {
             Map<Object, Element> mapElements = cache.getAll(keys);
             for (Map.Entry<Object, Element> entry : mapElements.entrySet()) {
-                map.put((K)entry.getKey(), (V)entry.getValue().getObjectValue());
+                // missing keys are returned with a null element
+                if (entry.getValue() != null && entry.getValue().getObjectValue() != null) {
+                    map.put((K)entry.getKey(), (V)entry.getValue().getObjectValue());
+                }
             }
         }
         return map;
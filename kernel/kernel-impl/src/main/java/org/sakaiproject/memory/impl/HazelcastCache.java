@@ -27,6 +27,8 @@ import org.slf4j.LoggerFactory;
 import org.sakaiproject.memory.api.CacheLoader;
 import org.sakaiproject.memory.api.CacheStatistics;
 
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Map;
 import java.util.Properties;
 import java.util.Set;
@@ -40,6 +42,10 @@ public class HazelcastCache<K, V> extends BasicMapCache<K, V> {
     final Logger log = LoggerFactory.getLogger(HazelcastCache.class);
 
     private IMap<K, V> cache;
+    /** Local copy of the recently read entries, null if there is none for this cache */
+    private HazelcastNearCache<K, V> nearCache;
+    /** The near caches by cache name the near cache is registered in, to deregister it on close */
+    private Map<String, HazelcastNearCache> nearCaches;
 
     /**
      * Construct the Cache
@@ -48,7 +54,33 @@ public class HazelcastCache<K, V> extends BasicMapCache<K, V> {
      * @param hcMap the hazelcast Map (IMap)
      */
     public HazelcastCache(IMap hcMap) {
+        this(hcMap, null);
+    }
+
+    /**
+     * Construct the Cache with a near cache in front of the map
+     *
+     * @param hcMap     the hazelcast Map (IMap)
+     * @param nearCache [OPTIONAL] holds the recently read entries locally, already listening to the map
+     */
+    public HazelcastCache(IMap hcMap, HazelcastNearCache nearCache) {
+        this(hcMap, nearCache, null);
+    }
+
+    /**
+     * Construct the Cache with a near cache in front of the map
+     *
+     * @param hcMap      the hazelcast Map (IMap)
+     * @param nearCache  [OPTIONAL] holds the recently read entries locally, already listening to the map
+     * @param nearCaches [OPTIONAL] the near caches by cache name the near cache is registered in
+     */
+    public HazelcastCache(IMap hcMap, HazelcastNearCache nearCache, Map<String, HazelcastNearCache> nearCaches) {
         super(hcMap.getName(), hcMap);
+        //noinspection unchecked
+        this.cache = hcMap;
+        //noinspection unchecked
+        this.nearCache = nearCache;
+        this.nearCaches = nearCaches;
     }
 
     @Override
@@ -63,7 +95,8 @@ public class HazelcastCache<K, V> extends BasicMapCache<K, V> {
 
     @Override
     public String getDescription() {
-        return "HCMap("+getName()+"):"+cache.getLocalMapStats(); // TODO we really want the cluster stats
+        return "HCMap("+getName()+"):"+cache.getLocalMapStats() // TODO we really want the cluster stats
+                + (nearCache != null ? ":"+nearCache : "");
     }
 
     @Override
@@ -73,39 +106,122 @@ public class HazelcastCache<K, V> extends BasicMapCache<K, V> {
 
     @Override
     public CacheStatistics getCacheStatistics() {
+        final HazelcastNearCache<K, V> near = nearCache;
         return new CacheStatistics() {
             @Override
             public long getCacheHits() {
-                return 0;
-            } // TODO get real numbers
+                return near != null ? near.getHits() : 0;
+            } // TODO get real numbers without a near cache
             @Override
             public long getCacheMisses() {
-                return 0;
-            } // TODO get real numbers
+                return near != null ? near.getMisses() : 0;
+            } // TODO get real numbers without a near cache
         };
     }
 
+    @Override
+    public V get(K key) {
+        if (nearCache == null) {
+            return cache.get(key);
+        }
+        V value = nearCache.get(key);
+        if (value == null) {
+            long generation = nearCache.getGeneration(key);
+            value = cache.get(key);
+            nearCache.put(key, value, generation);
+        }
+        return value;
+    }
+
+    @Override
+    public boolean containsKey(K key) {
+        return (nearCache != null && nearCache.get(key) != null) || cache.containsKey(key);
+    }
+
+    @Override
+    public void put(K key, V payload) {
+        cache.put(key, payload);
+        if (nearCache != null) {
+            nearCache.invalidate(key);
+        }
+    }
+
+    @Override
+    public boolean remove(K key) {
+        boolean removed = cache.remove(key) != null;
+        if (nearCache != null) {
+            nearCache.invalidate(key);
+        }
+        return removed;
+    }
+
+    @Override
+    public void clear() {
+        cache.clear();
+        if (nearCache != null) {
+            nearCache.clearAll();
+        }
+    }
+
     @Override
     public Properties getProperties(boolean includeExpensiveDetails) {
         Properties p = new Properties();
         p.put("name", getName());
         p.put("class", this.getClass().getSimpleName());
         // TODO fill in more info about the cache (like stats)
+        if (nearCache != null) {
+            p.put("nearCacheSize", nearCache.size());
+            p.put("nearCacheMaxEntries", nearCache.getMaxEntries());
+            p.put("nearCacheTimeToLive", nearCache.getTimeToLive());
+            p.put("nearCacheHits", nearCache.getHits());
+            p.put("nearCacheMisses", nearCache.getMisses());
+        }
         return p;
     }
 
     // BULK operations - KNL-1246
 
     @Override
-    public Map<K, V> getAll(Set<? extends K> keys) {
-        //noinspection unchecked
-        return cache.getAll((Set<K>) keys);
+    protected Map<K, V> getAllPresent(Set<? extends K> keys) {
+        if (nearCache == null) {
+            //noinspection unchecked
+            return new HashMap<>(cache.getAll((Set<K>) keys));
+        }
+        Map<K, V> found = new HashMap<>();
+        Set<K> missing = new HashSet<>();
+        for (K key : keys) {
+            V value = nearCache.get(key);
+            if (value != null) {
+                found.put(key, value);
+            } else {
+                missing.add(key);
+            }
+        }
+        if (!missing.isEmpty()) {
+            Map<K, Long> generations = new HashMap<>();
+            for (K key : missing) {
+                generations.put(key, nearCache.getGeneration(key));
+            }
+            for (Map.Entry<K, V> entry : cache.getAll(missing).entrySet()) {
+                found.put(entry.getKey(), entry.getValue());
+                Long generation = generations.get(entry.getKey());
+                if (generation != null) {
+                    nearCache.put(entry.getKey(), entry.getValue(), generation);
+                }
+            }
+        }
+        return found;
     }
 
     @Override
     public void putAll(Map<? extends K, ? extends V> map) {
         //noinspection unchecked
         cache.putAll(map);
+        if (nearCache != null) {
+            for (K key : map.keySet()) {
+                nearCache.invalidate(key);
+            }
+        }
     }
 
     @Override
@@ -116,13 +232,25 @@ public class HazelcastCache<K, V> extends BasicMapCache<K, V> {
                     throw new NullPointerException("keys Set for removeAll cannot contain nulls (but it does)");
                 }
                 cache.remove(key);
+                if (nearCache != null) {
+                    nearCache.invalidate(key);
+                }
             }
         }
     }
 
     @Override
     public void close() {
+        String name = getName();
         this.cache.destroy();
+        if (nearCache != null) {
+            // the other members drop their entries, this member stops listening to the destroyed map
+            nearCache.clearAll();
+            if (nearCaches != null) {
+                nearCaches.remove(name, nearCache);
+            }
+            nearCache.close();
+        }
     }
 
 }
@@ -41,6 +41,7 @@ import org.sakaiproject.memory.api.Configuration;
 import org.sakaiproject.memory.api.MemoryService;
 
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
 
 /**
  * Hazelcast based implementation of the MemoryService API which is automatically distributed by the nature of hazelcast
@@ -53,9 +54,14 @@ public class HazelcastMemoryService implements MemoryService {
 
     final Logger log = LoggerFactory.getLogger(HazelcastMemoryService.class);
 
+    /** Suffix of the name of the topic clearing a map is announced on, clearing fires no entry events */
+    static final String NEAR_CACHE_CLEAR_TOPIC = ".nearcache.clear";
+
     ServerConfigurationService serverConfigurationService;
     SecurityService securityService;
     HazelcastInstance hcInstance;
+    /** The near caches by cache name, shared by all the Cache objects for a map */
+    final Map<String, HazelcastNearCache> nearCaches = new ConcurrentHashMap<String, HazelcastNearCache>();
 
 
     public HazelcastMemoryService() {}
@@ -93,6 +99,10 @@ public class HazelcastMemoryService implements MemoryService {
      * Service SHUTDOWN
      */
     public void destroy() {
+        for (HazelcastNearCache nearCache : nearCaches.values()) {
+            nearCache.close();
+        }
+        nearCaches.clear();
         try {
             hcInstance.shutdown();
         } catch (CacheException e) {
@@ -119,12 +129,14 @@ public class HazelcastMemoryService implements MemoryService {
 
     @Override
     public <K, V, C extends Configuration<K, V>> Cache createCache(String cacheName, C configuration) {
-        return new HazelcastCache(makeHazelcastCache(cacheName, configuration));
+        IMap map = makeHazelcastCache(cacheName, configuration);
+        return new HazelcastCache(map, makeNearCache(map), nearCaches);
     }
 
     @Override
     public Cache getCache(String cacheName) {
-        return new HazelcastCache(makeHazelcastCache(cacheName, null));
+        IMap map = makeHazelcastCache(cacheName, null);
+        return new HazelcastCache(map, makeNearCache(map), nearCaches);
     }
 
     @Override
@@ -133,7 +145,9 @@ public class HazelcastMemoryService implements MemoryService {
             Collection<DistributedObject> distributedObjects = hcInstance.getDistributedObjects();
             ArrayList<String> names = new ArrayList<String>(distributedObjects.size());
             for (DistributedObject distributedObject : distributedObjects) {
-                names.add(distributedObject.getName());
+                if (distributedObject instanceof IMap) {
+                    names.add(distributedObject.getName());
+                }
             }
             return names;
         } else {
@@ -144,6 +158,10 @@ public class HazelcastMemoryService implements MemoryService {
     @Override
     public void destroyCache(String cacheName) {
         if (this.hcInstance != null) {
+            HazelcastNearCache nearCache = nearCaches.remove(cacheName);
+            if (nearCache != null) {
+                nearCache.close();
+            }
             IMap hcMap = this.hcInstance.getMap(cacheName);
             if (hcMap != null) {
                 hcMap.destroy();
@@ -172,6 +190,10 @@ public class HazelcastMemoryService implements MemoryService {
             for (DistributedObject distributedObject : distributedObjects) {
                 if (distributedObject instanceof IMap) {
                     ((IMap)distributedObject).clear();
+                    HazelcastNearCache nearCache = nearCaches.get(distributedObject.getName());
+                    if (nearCache != null) {
+                        nearCache.clearAll();
+                    }
                 }
             }
         }
@@ -207,7 +229,7 @@ public class HazelcastMemoryService implements MemoryService {
 
         // summary (cache descriptions)
         for (Map.Entry<String, IMap> entry : caches.entrySet()) {
-            Cache c = new HazelcastCache(entry.getValue());
+            Cache c = new HazelcastCache(entry.getValue(), nearCaches.get(entry.getKey()));
             buf.append(c.getDescription()).append("\n");
         }
 
@@ -388,6 +410,37 @@ public class HazelcastMemoryService implements MemoryService {
         return cache;
     }
 
+    /**
+     * Near caches are configured for each cache with
+     * memory.{cacheName}.nearcache.maxEntries (0 or less for no near cache, the default) and
+     * memory.{cacheName}.nearcache.timeToLive (seconds, 0 to hold entries until they change)
+     *
+     * @param map the distributed map
+     * @return the near cache for this map (listening to the map), null if none is configured
+     */
+    private HazelcastNearCache makeNearCache(IMap map) {
+        String name = map.getName();
+        HazelcastNearCache nearCache = nearCaches.get(name);
+        if (nearCache == null) {
+            int maxEntries = serverConfigurationService.getInt("memory."+name+".nearcache.maxEntries", 0);
+            if (maxEntries <= 0) {
+                return null;
+            }
+            int timeToLive = serverConfigurationService.getInt("memory."+name+".nearcache.timeToLive", 300);
+            synchronized (nearCaches) {
+                nearCache = nearCaches.get(name);
+                if (nearCache == null) {
+                    nearCache = new HazelcastNearCache(name, maxEntries, timeToLive * 1000L);
+                    //noinspection unchecked
+                    nearCache.listen(map, hcInstance.getTopic(name + NEAR_CACHE_CLEAR_TOPIC));
+                    nearCaches.put(name, nearCache);
+                    log.info("Near cache for (" + name + "): maxEntries=" + maxEntries + ", timeToLive=" + timeToLive);
+                }
+            }
+        }
+        return nearCache;
+    }
+
     public void setServerConfigurationService(ServerConfigurationService serverConfigurationService) {
         this.serverConfigurationService = serverConfigurationService;
     }
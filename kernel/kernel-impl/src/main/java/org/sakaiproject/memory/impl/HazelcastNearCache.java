@@ -0,0 +1,239 @@
+/******************************************************************************
+ * Copyright (c) 2003-2014 The Apereo Foundation
+ *
+ * Licensed under the Educational Community License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *       http://opensource.org/licenses/ecl2
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ *****************************************************************************/
+
+package org.sakaiproject.memory.impl;
+
+import com.hazelcast.core.EntryAdapter;
+import com.hazelcast.core.EntryEvent;
+import com.hazelcast.core.IMap;
+import com.hazelcast.core.ITopic;
+import com.hazelcast.core.Message;
+import com.hazelcast.core.MessageListener;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A bounded local copy of the most recently read entries of a Hazelcast map, so repeated reads
+ * on this member don't go over the network to the member which owns the entry.
+ * <p>
+ * Entries are dropped when any member changes them (through an entry listener on the map), when
+ * the map is cleared (clearing fires no entry events so it is announced on a topic) and when they
+ * have been held for longer than the time to live, which bounds how stale an entry can get if
+ * an event is lost.
+ */
+public class HazelcastNearCache<K, V> extends EntryAdapter<K, V> implements MessageListener<Object> {
+    final Logger log = LoggerFactory.getLogger(HazelcastNearCache.class);
+
+    private final String name;
+    private final int maxEntries;
+    private final long timeToLive;
+    private final LinkedHashMap<K, Entry<V>> entries;
+    /** Number of generation stripes, a power of 2 */
+    private static final int STRIPES = 64;
+
+    /**
+     * Change on every invalidation of a key in the stripe, a read started before an invalidation is not kept.
+     * Striped so invalidating one key does not stop the reads of every other key being kept.
+     */
+    private final AtomicLongArray generations = new AtomicLongArray(STRIPES);
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+
+    private IMap<K, V> map;
+    private ITopic<Object> clearTopic;
+    private String entryListenerId;
+    private String clearListenerId;
+    private volatile boolean closed;
+
+    private static class Entry<V> {
+        final V value;
+        final long expires;
+
+        Entry(V value, long expires) {
+            this.value = value;
+            this.expires = expires;
+        }
+    }
+
+    /**
+     * @param name       the name of the map
+     * @param maxEntries the most entries held, the least recently read are dropped first
+     * @param timeToLive how long an entry is held in milliseconds, 0 to hold until it is invalidated
+     */
+    public HazelcastNearCache(String name, final int maxEntries, long timeToLive) {
+        this.name = name;
+        this.maxEntries = maxEntries;
+        this.timeToLive = timeToLive;
+        this.entries = new LinkedHashMap<K, Entry<V>>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<K, Entry<V>> eldest) {
+                return size() > maxEntries;
+            }
+        };
+    }
+
+    /**
+     * Starts listening for the changes made to the map by any member
+     *
+     * @param map        the map this holds the entries of
+     * @param clearTopic the topic clearing the map is announced on
+     */
+    public void listen(IMap<K, V> map, ITopic<Object> clearTopic) {
+        this.map = map;
+        this.clearTopic = clearTopic;
+        entryListenerId = map.addEntryListener(this, false);
+        clearListenerId = clearTopic.addMessageListener(this);
+    }
+
+    /**
+     * Stops listening for changes and drops all the entries, nothing is held once closed
+     */
+    public void close() {
+        closed = true;
+        if (map != null) {
+            try {
+                map.removeEntryListener(entryListenerId);
+                clearTopic.removeMessageListener(clearListenerId);
+            } catch (RuntimeException e) {
+                // the instance may already be shut down
+                log.debug("close() near cache ("+name+") listener removal failure: "+e);
+            }
+            map = null;
+        }
+        invalidateAll();
+    }
+
+    /**
+     * @param key the key
+     * @return the value held for this key or null if there is none
+     */
+    public V get(K key) {
+        Entry<V> entry;
+        synchronized (entries) {
+            entry = entries.get(key);
+            if (entry != null && entry.expires > 0 && entry.expires < System.currentTimeMillis()) {
+                entries.remove(key);
+                entry = null;
+            }
+        }
+        if (entry == null) {
+            misses.incrementAndGet();
+            return null;
+        }
+        hits.incrementAndGet();
+        return entry.value;
+    }
+
+    /**
+     * @param key the key about to be read from the map
+     * @return the value to pass to {@link #put(Object, Object, long)} for the value read
+     */
+    public long getGeneration(K key) {
+        return generations.get(stripe(key));
+    }
+
+    /**
+     * Holds a value read from the map, unless the key may have been invalidated since the read started
+     *
+     * @param key        the key
+     * @param value      the value read
+     * @param generation the {@link #getGeneration(Object)} of the key from before the value was read
+     */
+    public void put(K key, V value, long generation) {
+        if (key == null || value == null || closed) return;
+        long expires = (timeToLive > 0) ? System.currentTimeMillis() + timeToLive : 0;
+        synchronized (entries) {
+            if (generations.get(stripe(key)) == generation) {
+                entries.put(key, new Entry<V>(value, expires));
+            }
+        }
+    }
+
+    public void invalidate(K key) {
+        synchronized (entries) {
+            generations.incrementAndGet(stripe(key));
+            entries.remove(key);
+        }
+    }
+
+    public void invalidateAll() {
+        synchronized (entries) {
+            for (int i = 0; i < STRIPES; i++) {
+                generations.incrementAndGet(i);
+            }
+            entries.clear();
+        }
+    }
+
+    private static int stripe(Object key) {
+        int h = (key == null) ? 0 : key.hashCode();
+        return (h ^ (h >>> 16)) & (STRIPES - 1);
+    }
+
+    /**
+     * Clears the entries held by every member
+     */
+    public void clearAll() {
+        invalidateAll();
+        if (clearTopic != null) {
+            clearTopic.publish(name);
+        }
+    }
+
+    public int size() {
+        synchronized (entries) {
+            return entries.size();
+        }
+    }
+
+    public int getMaxEntries() {
+        return maxEntries;
+    }
+
+    public long getTimeToLive() {
+        return timeToLive;
+    }
+
+    public long getHits() {
+        return hits.get();
+    }
+
+    public long getMisses() {
+        return misses.get();
+    }
+
+    @Override
+    public void onEntryEvent(EntryEvent<K, V> event) {
+        invalidate(event.getKey());
+    }
+
+    @Override
+    public void onMessage(Message<Object> message) {
+        invalidateAll();
+    }
+
+    @Override
+    public String toString() {
+        return "near(size="+size()+", maxEntries="+maxEntries+", hits="+getHits()+", misses="+getMisses()+")";
+    }
+
+}
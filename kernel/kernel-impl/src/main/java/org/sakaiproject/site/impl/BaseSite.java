@@ -167,6 +167,12 @@ public class BaseSite implements Site
 	/** Set true while the groups have not yet been read in for a site. */
 	protected boolean m_groupsLazy = false;
 
+	/** The cached site whose pages have not yet been copied into this one, see {@link #copyPages()}. */
+	protected BaseSite m_pagesSource = null;
+
+	/** The cached site whose groups have not yet been copied into this one, see {@link #copyGroups()}. */
+	protected BaseSite m_groupsSource = null;
+
 	/** The azg from the AuthzGroupService that is my AuthzGroup impl. */
 	protected AuthzGroup m_azg = null;
 
@@ -250,10 +256,28 @@ public class BaseSite implements Site
 	 *        and tools.
 	 */
 	public BaseSite(BaseSiteService siteService, Site other, boolean exact)
+	{
+		this(siteService, other, exact, false);
+	}
+
+	/**
+	 * Construct from another Site.
+	 * 
+	 * @param site
+	 *        The other site to copy values from.
+	 * @param exact
+	 *        If true, we copy ids - else we generate new ones for site, page
+	 *        and tools.
+	 * @param shared
+	 *        If true, the pages and groups are only copied when they are first
+	 *        used. The other site must not change after this, as is the case for
+	 *        the copies held in the site cache.
+	 */
+	BaseSite(BaseSiteService siteService, Site other, boolean exact, boolean shared)
 	{
 		setupServices(siteService, sessionManager, userDirectoryService);
 		BaseSite bOther = (BaseSite) other;
-		set(bOther, exact);
+		set(bOther, exact, shared);
 	}
 
 	/**
@@ -613,6 +637,24 @@ public class BaseSite implements Site
 	 *        and tools.
 	 */
 	protected void set(BaseSite other, boolean exact)
+	{
+		set(other, exact, false);
+	}
+
+	/**
+	 * Set me to be a deep copy of other, optionally leaving the pages and groups
+	 * to be copied when they are first used.
+	 * 
+	 * @param other
+	 *        the other to copy.
+	 * @param exact
+	 *        If true, we copy ids - else we generate new ones for site, page
+	 *        and tools.
+	 * @param shared
+	 *        If true and exact, the pages and groups are copied from other
+	 *        when they are first used.
+	 */
+	protected void set(BaseSite other, boolean exact, boolean shared)
 	{
 		// if exact, set the id, else assume the id was already set
 		if (exact)
@@ -694,25 +736,90 @@ public class BaseSite implements Site
 		((BaseResourcePropertiesEdit) m_properties)
 				.setLazy(((BaseResourceProperties) pOther).isLazy());
 
-		// deep copy the pages, but avoid triggering fetching by passing false to getPages
+		// if other hasn't copied its pages or groups yet, copy from where it would
+		BaseSite pagesSource = (other.m_pagesSource != null) ? other.m_pagesSource : other;
+		BaseSite groupsSource = (other.m_groupsSource != null) ? other.m_groupsSource : other;
+
+		if (shared && exact)
+		{
+			// most reads of a site never look at the pages or groups, so leave copying them until they do
+			m_pages = null;
+			m_pagesSource = pagesSource;
+			m_groups = null;
+			m_groupsSource = groupsSource;
+		}
+		else
+		{
+			m_pages = copyPages(pagesSource, exact);
+			m_pagesSource = null;
+			m_groups = copyGroups(groupsSource, exact);
+			m_groupsSource = null;
+		}
+		m_pagesLazy = pagesSource.m_pagesLazy;
+		m_groupsLazy = groupsSource.m_groupsLazy;
+
+		m_fullyLoaded = other.m_fullyLoaded;
+	}
+
+	/**
+	 * Deep copy the pages of another site into this one, avoid triggering fetching by passing false to getPages
+	 */
+	private ResourceVector copyPages(BaseSite other, boolean exact)
+	{
 		List<BaseSitePage> otherPages = new ArrayList<BaseSitePage>(other.getPages(false));
 		List<BaseSitePage> copiedPages = new ArrayList<BaseSitePage>(otherPages.size());
 		for (BaseSitePage page : otherPages) {
 		    copiedPages.add(new BaseSitePage(siteService, page, this, exact));
 		}
-		m_pages = new ResourceVector(copiedPages);
-		m_pagesLazy = other.m_pagesLazy;
+		return new ResourceVector(copiedPages);
+	}
 
-		// deep copy the groups, but avoid triggering fetching by passing false to getGroups
-		m_groups = new ResourceVector();
+	/**
+	 * Deep copy the groups of another site into this one, avoid triggering fetching by passing false to getGroups
+	 */
+	private ResourceVector copyGroups(BaseSite other, boolean exact)
+	{
+		ResourceVector copiedGroups = new ResourceVector();
 		for (Iterator iGroups = other.getGroups(false).iterator(); iGroups.hasNext();)
 		{
 			Group group = (Group) iGroups.next();
-			m_groups.add(new BaseGroup(siteService, group, this, exact));
+			copiedGroups.add(new BaseGroup(siteService, group, this, exact));
 		}
-		m_groupsLazy = other.m_groupsLazy;
+		return copiedGroups;
+	}
 
-		m_fullyLoaded = other.m_fullyLoaded;
+	/**
+	 * Copy the pages from the cached site if that has been put off. The cached site
+	 * may have fetched its pages since, so they are taken together with its lazy flag.
+	 */
+	protected void copyPages()
+	{
+		if (m_pagesSource != null)
+		{
+			synchronized (m_pagesSource)
+			{
+				m_pages = copyPages(m_pagesSource, true);
+				m_pagesLazy = m_pagesSource.m_pagesLazy;
+			}
+			m_pagesSource = null;
+		}
+	}
+
+	/**
+	 * Copy the groups from the cached site if that has been put off. The cached site
+	 * may have fetched its groups since, so they are taken together with its lazy flag.
+	 */
+	protected void copyGroups()
+	{
+		if (m_groupsSource != null)
+		{
+			synchronized (m_groupsSource)
+			{
+				m_groups = copyGroups(m_groupsSource, true);
+				m_groupsLazy = m_groupsSource.m_groupsLazy;
+			}
+			m_groupsSource = null;
+		}
 	}
 
 	/**
@@ -1001,11 +1108,19 @@ public class BaseSite implements Site
 	 */
 	public List getPages(boolean allowFetch)
 	{
+		copyPages();
 		if (allowFetch && m_pagesLazy)
 		{
-			siteService.storage().readSitePages(this,
-					m_pages);
-			m_pagesLazy = false;
+			// locked so a copy of this site doesn't take its pages half fetched, see copyPages()
+			synchronized (this)
+			{
+				if (m_pagesLazy)
+				{
+					siteService.storage().readSitePages(this,
+							m_pages);
+					m_pagesLazy = false;
+				}
+			}
 		}
 
 		return m_pages;
@@ -1035,12 +1150,20 @@ public class BaseSite implements Site
 	 */
 	public Collection getGroups(boolean allowFetch)
 	{
+		copyGroups();
 		// Avoid fetching if requested (as for copy constructor)
 		if (allowFetch && m_groupsLazy)
 		{
-			siteService.storage().readSiteGroups(
-					this, m_groups);
-			m_groupsLazy = false;
+			// locked so a copy of this site doesn't take its groups half fetched, see copyGroups()
+			synchronized (this)
+			{
+				if (m_groupsLazy)
+				{
+					siteService.storage().readSiteGroups(
+							this, m_groups);
+					m_groupsLazy = false;
+				}
+			}
 		}
 
 		return m_groups;
@@ -1720,6 +1843,7 @@ public class BaseSite implements Site
 	public Group addGroup()
 	{
 		Group rv = new BaseGroup(siteService, this);
+		copyGroups();
 		m_groups.add(rv);
 
 		return rv;
@@ -1735,6 +1859,7 @@ public class BaseSite implements Site
 			return;
 		}
 		// remove it
+		copyGroups();
 		m_groups.remove(group);
 
 		// track so we can clean up related on commit
@@ -1750,6 +1875,7 @@ public class BaseSite implements Site
 			throw new IllegalStateException("Error, cannot remove group: " + group.getId() + " because it is locked");
 		}
 		// remove it
+		copyGroups();
 		m_groups.remove(group);
 
 		// track so we can clean up related on commit
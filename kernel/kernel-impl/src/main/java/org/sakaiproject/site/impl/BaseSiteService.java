@@ -618,8 +618,8 @@ public abstract class BaseSiteService implements SiteService, Observer
 			{
 				rv = (Site) o;
 
-				// return a copy of the site from the cache
-				rv = new BaseSite(this,rv, true);
+				// return a copy of the site from the cache, the pages and groups are copied when first used
+				rv = new BaseSite(this, rv, true, true);
 
 				return rv;
 			}
@@ -627,6 +627,34 @@ public abstract class BaseSiteService implements SiteService, Observer
 		return null;
 	}
 
+	/**
+	 * Access several site objects from the cache (if available) with one cache request.
+	 * 
+	 * @param ids
+	 *        The site id strings.
+	 * @return A map of site id to a copy of the cached site, for the sites found in the cache
+	 */
+	protected Map<String, Site> getCachedSites(Collection<String> ids)
+	{
+		Map<String, Site> rv = new HashMap<String, Site>();
+		if (m_siteCache == null || ids == null || ids.isEmpty()) return rv;
+
+		Map<String, String> idsByRef = new HashMap<String, String>();
+		for (String id : ids)
+		{
+			if (id != null) idsByRef.put(siteReference(id), id);
+		}
+		for (Map.Entry<String, Object> entry : m_siteCache.getAll(idsByRef.keySet()).entrySet())
+		{
+			// some cached things are Booleans (site exists), not sites
+			if (entry.getValue() instanceof Site)
+			{
+				rv.put(idsByRef.get(entry.getKey()), new BaseSite(this, (Site) entry.getValue(), true, true));
+			}
+		}
+		return rv;
+	}
+
 	/**
 	 * Cache a copy of a site if caching is enabled.
 	 *
@@ -3331,7 +3359,7 @@ public abstract class BaseSiteService implements SiteService, Observer
 					// The group we get from the siteCache is a group from the actual cached site, so it's containing site is the actual cached site.
 
 					// get a copy of the site from the cache
-					Site site = new BaseSite(this,group.getContainingSite(), true);
+					Site site = new BaseSite(this, group.getContainingSite(), true, true);
 
 					// get the group from there
 					rv = site.getGroup(refOrId);
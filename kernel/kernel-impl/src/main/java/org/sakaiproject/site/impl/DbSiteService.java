@@ -314,6 +314,11 @@ public abstract class DbSiteService extends BaseSiteService
 			// since we've already deleted the old values, don't delete them again.
 			boolean deleteAgain = false;
 
+			// the pages, tools and groups go to the db as a batch each, pages before the tools on them
+			List<Object[]> pageFields = new ArrayList<Object[]>();
+			List<Object[]> toolFields = new ArrayList<Object[]>();
+			List<Object[]> groupFields = new ArrayList<Object[]>();
+
 			// add each page
 			int pageOrder = 1;
 			for (Iterator iPages = edit.getPages().iterator(); iPages.hasNext();)
@@ -321,8 +326,6 @@ public abstract class DbSiteService extends BaseSiteService
 				SitePage page = (SitePage) iPages.next();
 
 				// write the page
-				statement = siteServiceSql.getInsertPageSql();
-
 				fields = new Object[6];
 				fields[0] = page.getId();
 				fields[1] = caseId(edit.getId());
@@ -330,11 +333,7 @@ public abstract class DbSiteService extends BaseSiteService
 				fields[3] = Integer.toString(page.getLayout());
 				fields[4] = ((((BaseSitePage) page).m_popup) ? "1" : "0");
 				fields[5] = Integer.valueOf(pageOrder++);
-				m_sql.dbWrite(statement, fields);
-
-				// write the page's properties
-				writeProperties("SAKAI_SITE_PAGE_PROPERTY", "PAGE_ID", page.getId(), "SITE_ID", caseId(edit.getId()), page.getProperties(),
-						deleteAgain);
+				pageFields.add(fields);
 
 				// write the tools
 				int toolOrder = 1;
@@ -343,8 +342,6 @@ public abstract class DbSiteService extends BaseSiteService
 					ToolConfiguration tool = (ToolConfiguration) iTools.next();
 
 					// write the tool
-					statement = siteServiceSql.getInsertToolSql();
-
 					fields = new Object[7];
 					fields[0] = tool.getId();
 					fields[1] = page.getId();
@@ -353,11 +350,7 @@ public abstract class DbSiteService extends BaseSiteService
 					fields[4] = Integer.valueOf(toolOrder++);
 					fields[5] = tool.getTitle();
 					fields[6] = tool.getLayoutHints();
-					m_sql.dbWrite(statement, fields);
-
-					// write the tool's properties
-					writeProperties("SAKAI_SITE_TOOL_PROPERTY", "TOOL_ID", tool.getId(), "SITE_ID", caseId(edit.getId()), tool.getPlacementConfig(),
-							deleteAgain);
+					toolFields.add(fields);
 				}
 			}
 
@@ -372,16 +365,34 @@ public abstract class DbSiteService extends BaseSiteService
 				}
 				
 				// write the group
-				statement = siteServiceSql.getInsertGroupSql();
-
 				fields = new Object[4];
 				fields[0] = group.getId();
 				fields[1] = caseId(edit.getId());
 				fields[2] = group.getTitle();
 				fields[3] = group.getDescription();
-				m_sql.dbWrite(statement, fields);
+				groupFields.add(fields);
+			}
+
+			m_sql.dbWriteBatch(siteServiceSql.getInsertPageSql(), pageFields);
+			m_sql.dbWriteBatch(siteServiceSql.getInsertToolSql(), toolFields);
+			m_sql.dbWriteBatch(siteServiceSql.getInsertGroupSql(), groupFields);
 
-				// write the group's properties
+			// write the page's, tool's and group's properties
+			for (Iterator iPages = edit.getPages().iterator(); iPages.hasNext();)
+			{
+				SitePage page = (SitePage) iPages.next();
+				writeProperties("SAKAI_SITE_PAGE_PROPERTY", "PAGE_ID", page.getId(), "SITE_ID", caseId(edit.getId()), page.getProperties(),
+						deleteAgain);
+				for (Iterator iTools = page.getTools().iterator(); iTools.hasNext();)
+				{
+					ToolConfiguration tool = (ToolConfiguration) iTools.next();
+					writeProperties("SAKAI_SITE_TOOL_PROPERTY", "TOOL_ID", tool.getId(), "SITE_ID", caseId(edit.getId()), tool.getPlacementConfig(),
+							deleteAgain);
+				}
+			}
+			for (Iterator<Group> iGroups = edit.getGroups().iterator(); iGroups.hasNext();)
+			{
+				Group group = (Group) iGroups.next();
 				writeProperties("SAKAI_SITE_GROUP_PROPERTY", "GROUP_ID", group.getId(), "SITE_ID", caseId(edit.getId()), group.getProperties(),
 						deleteAgain);
 			}
@@ -1021,10 +1032,11 @@ public abstract class DbSiteService extends BaseSiteService
 				return sites;
 			}
 
+			// Reuse cached sites
+			Map<String, Site> cachedSites = getCachedSites(siteIds);
 			for (String id : siteIds)
 			{
-				// Reuse cached sites
-				Site site = getCachedSite(id);
+				Site site = cachedSites.get(id);
 
 				// But only use a cached site if we are ignoring descriptions or it is loaded.
 				// This instanceof is similar to the safety valve in getCachedSite; see there for detail.
@@ -21,6 +21,9 @@
 
 package org.sakaiproject.site.impl;
 
+import java.util.Map;
+import java.util.Set;
+
 import org.sakaiproject.site.api.Group;
 import org.sakaiproject.site.api.SitePage;
 import org.sakaiproject.site.api.ToolConfiguration;
@@ -44,6 +47,12 @@ public interface SiteCache {
      */
     Object get(String key);
 
+    /**
+     * @param keys the site references
+     * @return the Site objects OR Booleans found in the cache, by site reference
+     */
+    Map<String, Object> getAll(Set<? extends String> keys);
+
     void clear();
 
     boolean remove(String key);
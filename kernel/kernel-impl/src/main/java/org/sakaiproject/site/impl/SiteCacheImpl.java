@@ -38,6 +38,7 @@ import org.sakaiproject.site.api.ToolConfiguration;
 import java.util.Collection;
 import java.util.Iterator;
 import java.util.Map;
+import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
 
 /**
@@ -137,6 +138,19 @@ public class SiteCacheImpl implements CacheEventListener, SiteCache {
 		return m_cache.get(key);
 	}
 
+	/**
+	 * Get the entries for several keys with one cache request.
+	 * 
+	 * @param keys
+	 *        The cache keys.
+	 * @return The payloads found, by key.
+	 */
+	@Override
+    public Map<String, Object> getAll(Set<? extends String> keys)
+	{
+		return m_cache.getAll(keys);
+	}
+
 	/**
 	 * Clear all entries.
 	 */
@@ -258,7 +272,22 @@ public class SiteCacheImpl implements CacheEventListener, SiteCache {
 		if ((payload != null) && (payload instanceof Site))
 		{
 			Site site = (Site) payload;
-			for (Iterator<SitePage> pages = site.getPages().iterator(); pages.hasNext();)
+
+			Collection<SitePage> sitePages;
+			Collection<Group> siteGroups;
+			// the site is leaving the cache, so don't fetch what it hasn't loaded (that was never put in the maps)
+			if (site instanceof BaseSite)
+			{
+				sitePages  = ((BaseSite) site).getPages(false);
+				siteGroups = ((BaseSite) site).getGroups(false);
+			}
+			else
+			{
+				sitePages  = site.getPages();
+				siteGroups = site.getGroups();
+			}
+
+			for (Iterator<SitePage> pages = sitePages.iterator(); pages.hasNext();)
 			{
 				SitePage page = (SitePage) pages.next();
 				m_pages.remove(page.getId());
@@ -269,7 +298,7 @@ public class SiteCacheImpl implements CacheEventListener, SiteCache {
 				}
 			}
 
-			for (Iterator<Group> groups = site.getGroups().iterator(); groups.hasNext();)
+			for (Iterator<Group> groups = siteGroups.iterator(); groups.hasNext();)
 			{
 				Group group = (Group) groups.next();
 				m_groups.remove(group.getId());
@@ -33,9 +33,11 @@ import org.sakaiproject.site.api.SitePage;
 import org.sakaiproject.site.api.ToolConfiguration;
 
 import java.util.Collection;
+import java.util.Map;
 import java.util.Observable;
 import java.util.Observer;
 import java.util.Properties;
+import java.util.Set;
 
 /**
  * A safe and modern version of the site cache which is compatible with distributed caches
@@ -136,6 +138,16 @@ public class SiteCacheSafe extends BasicCache<String, Object> implements SiteCac
         return m_cache.get(key);
     }
 
+    @Override
+    public Map<String, Object> getAll(Set<? extends String> keys) {
+        return m_cache.getAll(keys);
+    }
+
+    @Override
+    public Map<String, Object> getAll(Set<? extends String> keys, CacheLoader<String, Object> loader) {
+        return m_cache.getAll(keys, loader);
+    }
+
     @Override
     public void clear() {
         m_cache.clear();
@@ -280,13 +292,25 @@ public class SiteCacheSafe extends BasicCache<String, Object> implements SiteCac
         // clear the tool ids for this site
         //noinspection ConstantConditions
         if (site != null && site instanceof Site) {
-            for (SitePage page : site.getPages()) {
+            Collection<SitePage> sitePages;
+            Collection<Group> siteGroups;
+            // the site is leaving the cache, so don't fetch what it hasn't loaded (that was never put in the maps)
+            if (site instanceof BaseSite) {
+                //noinspection unchecked
+                sitePages  = ((BaseSite) site).getPages(false);
+                //noinspection unchecked
+                siteGroups = ((BaseSite) site).getGroups(false);
+            } else {
+                sitePages  = site.getPages();
+                siteGroups = site.getGroups();
+            }
+            for (SitePage page : sitePages) {
                 m_cachePages.remove(page.getId());
                 for (ToolConfiguration tool : page.getTools()) {
                     m_cacheTools.remove(tool.getId());
                 }
             }
-            for (Group group : site.getGroups()) {
+            for (Group group : siteGroups) {
                 m_cacheGroups.remove(group.getId());
             }
         }
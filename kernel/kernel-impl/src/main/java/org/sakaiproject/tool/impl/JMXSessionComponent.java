@@ -94,6 +94,36 @@ public class JMXSessionComponent {
         return ids;
     }
 
+    @ManagedAttribute(description="Milliseconds after its expiry the last inactive session was invalidated", currencyTimeLimit=20)
+    public long getExpiryLagLast() {
+        return (sessionComponent == null) ? 0 : sessionComponent.getLastExpiryLag();
+    }
+
+    @ManagedAttribute(description="Most milliseconds after its expiry an inactive session was invalidated", currencyTimeLimit=20)
+    public long getExpiryLagMax() {
+        return (sessionComponent == null) ? 0 : sessionComponent.getMaxExpiryLag();
+    }
+
+    @ManagedAttribute(description="Inactive sessions invalidated by maintenance", currencyTimeLimit=20)
+    public long getExpiredCount() {
+        return (sessionComponent == null) ? 0 : sessionComponent.getExpiredCount();
+    }
+
+    @ManagedAttribute(description="Sessions examined by the last maintenance sweep", currencyTimeLimit=20)
+    public int getSweepExamined() {
+        return (sessionComponent == null) ? 0 : sessionComponent.getLastSweepExamined();
+    }
+
+    @ManagedAttribute(description="Microseconds the last maintenance sweep took", currencyTimeLimit=20)
+    public long getSweepMicros() {
+        return (sessionComponent == null) ? 0 : sessionComponent.getLastSweepMicros();
+    }
+
+    @ManagedAttribute(description="Sessions queued for maintenance", currencyTimeLimit=20)
+    public int getSweepQueued() {
+        return (sessionComponent == null) ? 0 : sessionComponent.getMaintenanceQueued();
+    }
+
     @ManagedOperation(description="Sessions active in the past N seconds")
     public int getActive(int seconds) {
         return sessionManager.getActiveUserCount(seconds);
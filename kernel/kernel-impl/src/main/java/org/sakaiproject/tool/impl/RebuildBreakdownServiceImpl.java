@@ -48,6 +48,7 @@ import java.util.concurrent.ConcurrentMap;
  * session.cluster.minSecsOldToStore=20
  * session.cluster.minSecsBetweenStores=10
  * session.cluster.minSecsAfterRebuild=30
+ * session.cluster.maxDeltas=10 (delta snapshots stored between full snapshots of a session, 0 to always store full ones)
  *
  * NOTE that org.sakaiproject.tool.impl.RebuildBreakdownService.cache must be set to a distributed store (like terracotta)
  */
@@ -65,12 +66,19 @@ public class RebuildBreakdownServiceImpl implements RebuildBreakdownService {
 
     final static String SESSION_LAST_BREAKDOWN_KEY                  = SPECIAL_SESSION_KEY_PREFIX+"LastBreakdownTime";
     final static String SESSION_LAST_REBUILD_KEY                    = SPECIAL_SESSION_KEY_PREFIX+"LastRebuildTime";
+    final static String SESSION_SNAPSHOT_STATE_KEY                  = SPECIAL_SESSION_KEY_PREFIX+"SnapshotState";
+
+    /** Delta snapshots are stored under the session id with this and their sequence number appended */
+    final static String SESSION_DELTA_KEY_SEPARATOR                 = "#delta";
 
     private static final Logger log = LoggerFactory.getLogger(RebuildBreakdownServiceImpl.class);
     private final int minSecondsBetweenStoresDefault = 10;
     private final int minSecondsAfterRebuildDefault = 30;
     private final int smallestMinSecondsBetweenStores = 1;
     private final int minAgeToStoreSecondsDefault = 10;
+    private final int maxSnapshotDeltasDefault = 10;
+    private int maxSnapshotDeltas = maxSnapshotDeltasDefault;
+    private SessionSnapshotCodec snapshotCodec = new SessionSnapshotCodec();
     /**
      * sessionClassWhitelist contains a list of classnames that are known safe to serialize
      * and store in sessions (since they can be deserialized safely)
@@ -99,15 +107,18 @@ public class RebuildBreakdownServiceImpl implements RebuildBreakdownService {
 
             stashingCache = memoryService.newCache("org.sakaiproject.tool.impl.RebuildBreakdownService.stash");
 
+            maxSnapshotDeltas = Math.max(0, serverConfigurationService.getInt("session.cluster.maxDeltas", maxSnapshotDeltasDefault));
+
             sessionClassWhitelist = new HashSet<String>(4); // number should match items count below
             sessionClassWhitelist.add(Locale.class.getName());
             sessionClassWhitelist.add("org.sakaiproject.event.api.SimpleEvent");
             sessionClassWhitelist.add("org.sakaiproject.authz.api.SimpleRole");
             sessionClassWhitelist.add("org.apache.commons.lang.mutable.MutableLong");
 
-            sessionAttributeBlacklist = new HashSet<String>(6); // number should match items count below
+            sessionAttributeBlacklist = new HashSet<String>(7); // number should match items count below
             sessionAttributeBlacklist.add(SESSION_LAST_BREAKDOWN_KEY);
             sessionAttributeBlacklist.add(SESSION_LAST_REBUILD_KEY);
+            sessionAttributeBlacklist.add(SESSION_SNAPSHOT_STATE_KEY);
             /* from BasePreferencesService.ATTR_PREFERENCE_IS_NULL
              * This controls whether the session cached version of prefs is reloaded or assumed to be populated,
              * when it is true the processing assumes it is populated (very weird logic and dual-caching)
@@ -157,8 +168,8 @@ public class RebuildBreakdownServiceImpl implements RebuildBreakdownService {
         Map<String,Serializable> sessionMap = new HashMap<String,Serializable>();
         storeSessionSpecialAttributes(ms, sessionMap);
         storeSessionAttributes(ms, sessionMap);
+        storeSessionSnapshot(ms, sessionMap);
         if (log.isDebugEnabled()) log.debug("RebuildBreakdownServiceImpl.storeSession, for sessionId: [" + sessionId + "] completed");
-        sessionCache.put(sessionId, sessionMap);
         ms.setAttribute(SESSION_LAST_BREAKDOWN_KEY, System.currentTimeMillis());
         return true;
     }
@@ -182,8 +193,7 @@ public class RebuildBreakdownServiceImpl implements RebuildBreakdownService {
         }
         boolean rebuilt;
         String sessionId = ms.getId();
-        @SuppressWarnings("unchecked")
-        Map<String, Serializable> sessionMap = (Map<String, Serializable>) sessionCache.get(sessionId);
+        Map<String, Serializable> sessionMap = retrieveSessionMap(sessionId);
         if (sessionMap == null || sessionMap.isEmpty()) {
             // no data available to rebuild this session
             if (log.isDebugEnabled()) log.debug("rebuildSession, sessionId: [" + sessionId + "] data not found in store, cannot rebuild");
@@ -238,6 +248,9 @@ public class RebuildBreakdownServiceImpl implements RebuildBreakdownService {
     public void purgeSessionFromStorageById(String sessionId) {
         if (this.sessionCache != null) {
             this.sessionCache.remove(sessionId);
+            if (maxSnapshotDeltas > 0) {
+                this.sessionCache.removeAll(makeDeltaKeys(sessionId, maxSnapshotDeltas));
+            }
         }
     }
 
@@ -353,6 +366,80 @@ public class RebuildBreakdownServiceImpl implements RebuildBreakdownService {
         return rebuilt;
     }
 
+    /**
+     * Stores the session map as a snapshot: a full one the first time and every maxDeltas stores,
+     * otherwise a delta of what changed since the last store (if anything did)
+     * @param s the session the map was made from, which keeps what was stored so far
+     * @param sessionMap the Map with all the attributes to store
+     */
+    private void storeSessionSnapshot(MySession s, Map<String, Serializable> sessionMap) {
+        SessionSnapshotCodec.State state;
+        synchronized (s) {
+            state = (SessionSnapshotCodec.State) s.getAttribute(SESSION_SNAPSHOT_STATE_KEY);
+            if (state == null) {
+                state = new SessionSnapshotCodec.State();
+                s.setAttribute(SESSION_SNAPSHOT_STATE_KEY, state);
+            }
+        }
+        synchronized (state) {
+            int previousDeltas = state.sequence;
+            byte[] snapshot = snapshotCodec.encode(sessionMap, state, previousDeltas >= maxSnapshotDeltas);
+            if (snapshot == null) {
+                if (log.isDebugEnabled()) log.debug("storeSessionSnapshot, sessionId: [" + s.getId() + "] unchanged");
+            } else if (state.sequence == 0) {
+                sessionCache.put(s.getId(), snapshot);
+                if (previousDeltas > 0) {
+                    // the deltas of the previous full snapshot are no longer used
+                    sessionCache.removeAll(makeDeltaKeys(s.getId(), previousDeltas));
+                }
+                if (log.isDebugEnabled()) log.debug("storeSessionSnapshot, sessionId: [" + s.getId() + "] full snapshot (" + snapshot.length + " bytes)");
+            } else {
+                sessionCache.put(s.getId() + SESSION_DELTA_KEY_SEPARATOR + state.sequence, snapshot);
+                if (log.isDebugEnabled()) log.debug("storeSessionSnapshot, sessionId: [" + s.getId() + "] delta " + state.sequence + " (" + snapshot.length + " bytes)");
+            }
+        }
+    }
+
+    /**
+     * Retrieves the stored session map, from the full snapshot and the deltas made after it (read together)
+     * or as stored before snapshots were used
+     * @param sessionId the session id
+     * @return the session map or null if there is none (or it cannot be read)
+     */
+    private Map<String, Serializable> retrieveSessionMap(String sessionId) {
+        Object stored = sessionCache.get(sessionId);
+        if (stored instanceof byte[]) {
+            try {
+                List<byte[]> deltas = new ArrayList<byte[]>();
+                if (maxSnapshotDeltas > 0) {
+                    @SuppressWarnings("unchecked")
+                    Map<String, Object> found = sessionCache.getAll(makeDeltaKeys(sessionId, maxSnapshotDeltas));
+                    for (int i = 1; i <= maxSnapshotDeltas; i++) {
+                        Object delta = found.get(sessionId + SESSION_DELTA_KEY_SEPARATOR + i);
+                        if (!(delta instanceof byte[])) {
+                            break;
+                        }
+                        deltas.add((byte[]) delta);
+                    }
+                }
+                return snapshotCodec.decode((byte[]) stored, deltas);
+            } catch (RuntimeException e) {
+                log.warn("retrieveSessionMap, sessionId: [" + sessionId + "] snapshot cannot be read: " + e);
+                return null;
+            }
+        }
+        //noinspection unchecked
+        return (Map<String, Serializable>) stored;
+    }
+
+    private Set<String> makeDeltaKeys(String sessionId, int deltas) {
+        Set<String> keys = new HashSet<String>(deltas * 2);
+        for (int i = 1; i <= deltas; i++) {
+            keys.add(sessionId + SESSION_DELTA_KEY_SEPARATOR + i);
+        }
+        return keys;
+    }
+
     /**
      * storeSessionSpecialAttributes() adds session attributes that need to be stored in the
      * cluster in the sessionMap.  These are attributes that are not part of session.getAttributes().
@@ -27,12 +27,17 @@ import java.security.NoSuchAlgorithmException;
 import java.security.Principal;
 import java.security.SecureRandom;
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Queue;
 import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicLong;
 
 import javax.servlet.http.HttpServletRequest;
 
@@ -376,6 +381,11 @@ public abstract class SessionComponent implements SessionManager, SessionStore
 
 		// Place an entry in the expirationTimeSuggestionMap that corresponds to the entry in m_sessions
 		expirationTimeSuggestionMap.put(id, currentTime);
+		Maintenance maintenance = m_maintenance;
+		if (maintenance != null)
+		{
+			maintenance.schedule(id, currentTime.longValue());
+		}
 
 		// check for id conflict
 		if (old != null)
@@ -495,6 +505,60 @@ public abstract class SessionComponent implements SessionManager, SessionStore
 		return activeusers.size();
 	}
 
+	/**
+	 * @return how late, in milliseconds, the last inactive session was expired
+	 */
+	public long getLastExpiryLag()
+	{
+		Maintenance maintenance = m_maintenance;
+		return (maintenance == null) ? 0 : maintenance.m_lastExpiryLag;
+	}
+
+	/**
+	 * @return how late, in milliseconds, the latest expired inactive session was expired
+	 */
+	public long getMaxExpiryLag()
+	{
+		Maintenance maintenance = m_maintenance;
+		return (maintenance == null) ? 0 : maintenance.m_maxExpiryLag;
+	}
+
+	/**
+	 * @return the number of inactive sessions expired by maintenance
+	 */
+	public long getExpiredCount()
+	{
+		Maintenance maintenance = m_maintenance;
+		return (maintenance == null) ? 0 : maintenance.m_expired.get();
+	}
+
+	/**
+	 * @return the number of sessions examined by the last maintenance sweep
+	 */
+	public int getLastSweepExamined()
+	{
+		Maintenance maintenance = m_maintenance;
+		return (maintenance == null) ? 0 : maintenance.m_lastSweepExamined;
+	}
+
+	/**
+	 * @return the time the last maintenance sweep took in microseconds
+	 */
+	public long getLastSweepMicros()
+	{
+		Maintenance maintenance = m_maintenance;
+		return (maintenance == null) ? 0 : maintenance.m_lastSweepMicros;
+	}
+
+	/**
+	 * @return the number of sessions queued to be examined by maintenance, as of the last sweep
+	 */
+	public int getMaintenanceQueued()
+	{
+		Maintenance maintenance = m_maintenance;
+		return (maintenance == null) ? 0 : maintenance.m_queued;
+	}
+
 	public SessionAttributeListener getSessionListener() {
 		return sessionListener;
 	}
@@ -512,6 +576,11 @@ public abstract class SessionComponent implements SessionManager, SessionStore
 	 * Maintenance
 	 *********************************************************************************************************************************************************************************************************************************************************/
 
+	/**
+	 * Expires the inactive sessions. The sessions are queued by the time they might next expire (their
+	 * expiration time suggestion) and only the ones which are due are examined. A session which was used
+	 * since it was queued is queued again for its new suggested time, without examining it.
+	 */
 	protected class Maintenance implements Runnable
 	{
 		/** My thread running my timeout checker. */
@@ -520,6 +589,24 @@ public abstract class SessionComponent implements SessionManager, SessionStore
 		/** Signal to the timeout checker to stop. */
 		protected boolean m_maintenanceCheckerStop = false;
 
+		/** The sessions queued by other threads, moved to the due queue by the maintenance thread. */
+		protected final Queue<Due> m_scheduled = new ConcurrentLinkedQueue<Due>();
+
+		/** The sessions by the time they are due to be examined (maintenance thread only). */
+		protected final PriorityQueue<Due> m_due = new PriorityQueue<Due>();
+
+		/** The time each session is queued for, older entries for a session are skipped (maintenance thread only). */
+		protected final Map<String, Long> m_dueTimes = new HashMap<String, Long>();
+
+		/** Statistics, for JMX. */
+		protected volatile long m_lastExpiryLag = 0;
+		protected volatile long m_maxExpiryLag = 0;
+		protected final AtomicLong m_expired = new AtomicLong();
+		protected volatile int m_lastSweepExamined = 0;
+		protected volatile int m_lastSweepDue = 0;
+		protected volatile long m_lastSweepMicros = 0;
+		protected volatile int m_queued = 0;
+
 		/**
 		 * Construct.
 		 */
@@ -562,7 +649,20 @@ public abstract class SessionComponent implements SessionManager, SessionStore
 		}
 
 		/**
-		 * Run the maintenance thread. Every m_checkEvery seconds, check for expired sessions.
+		 * Queue a session to be examined.
+		 * 
+		 * @param sessionId
+		 *        the session id
+		 * @param time
+		 *        when the session might expire
+		 */
+		public void schedule(String sessionId, long time)
+		{
+			m_scheduled.add(new Due(sessionId, time));
+		}
+
+		/**
+		 * Run the maintenance thread. Examine the sessions as they become due, at least every m_checkEvery seconds.
 		 */
 		public void run()
 		{
@@ -570,35 +670,36 @@ public abstract class SessionComponent implements SessionManager, SessionStore
 			// startup, wait here for a complete component manager
 			ComponentManager.waitTillConfigured();
 
+			// queue the sessions which were started before this thread, after this startSession() queues them
+			try
+			{
+				for (Map.Entry<String, MutableLong> entry: expirationTimeSuggestionMap.entrySet()) {
+					schedule(entry.getKey(), entry.getValue().longValue());
+				}
+			}
+			catch (Exception e)
+			{
+				M_log.warn("run(): exception: " + e);
+			}
+
 			while (!m_maintenanceCheckerStop)
 			{
 				try
 				{
-					for (Map.Entry<String, MutableLong> entry: expirationTimeSuggestionMap.entrySet()) {
-						if (entry.getValue().longValue() < System.currentTimeMillis()) {
-							MySession s = (MySession)m_sessions.get(entry.getKey());
-							if (M_log.isDebugEnabled()) M_log.debug("checking session " + s.getId());
-							if (s.isInactive())
-							{
-								if (M_log.isDebugEnabled()) M_log.debug("invalidating session " + s.getId());
-								synchronized(s) {
-									s.invalidate();
-								}
-							}
-						}
-					}
+					sweep();
 				}
 				catch (Exception e)
 				{
 					M_log.warn("run(): exception: " + e);
 				}
 
-				// cycle every REFRESH seconds
+				// sleep until the next session is due, at most REFRESH seconds
 				if (!m_maintenanceCheckerStop)
 				{
 					try
 					{
-						Thread.sleep(m_checkEvery * 1000L);
+						long wait = Math.min(nextDue() - System.currentTimeMillis(), m_checkEvery * 1000L);
+						Thread.sleep(Math.max(wait, 1L));
 					}
 					catch (Exception ignore)
 					{
@@ -606,6 +707,106 @@ public abstract class SessionComponent implements SessionManager, SessionStore
 				}
 			}
 		}
+
+		/**
+		 * Examine the sessions which are due.
+		 */
+		protected void sweep()
+		{
+			long start = System.nanoTime();
+			long now = System.currentTimeMillis();
+			int due = 0;
+			int examined = 0;
+			moveScheduled();
+			while (!m_due.isEmpty() && m_due.peek().time <= now && !m_maintenanceCheckerStop)
+			{
+				Due next = m_due.poll();
+				if (!Long.valueOf(next.time).equals(m_dueTimes.get(next.sessionId))) continue; // queued again since
+				m_dueTimes.remove(next.sessionId);
+				due++;
+
+				MutableLong suggestion = expirationTimeSuggestionMap.get(next.sessionId);
+				if (suggestion == null) continue; // session is gone
+				long suggested = suggestion.longValue();
+				if (suggested > now)
+				{
+					// used since it was queued
+					queue(next.sessionId, suggested);
+					continue;
+				}
+
+				MySession s = (MySession) m_sessions.get(next.sessionId);
+				if (s == null) continue;
+				examined++;
+				if (M_log.isDebugEnabled()) M_log.debug("checking session " + s.getId());
+				if (s.isInactive())
+				{
+					if (M_log.isDebugEnabled()) M_log.debug("invalidating session " + s.getId());
+					long lag = now - (s.m_accessed + s.getMaxInactiveIntervalMillis());
+					synchronized(s) {
+						s.invalidate();
+					}
+					m_expired.incrementAndGet();
+					m_lastExpiryLag = lag;
+					if (lag > m_maxExpiryLag) m_maxExpiryLag = lag;
+				}
+				else
+				{
+					// the suggestion is only a hint, check again when the session could expire
+					long expires = s.m_accessed + s.getMaxInactiveIntervalMillis();
+					queue(next.sessionId, (expires > now) ? expires : now + m_checkEvery * 1000L);
+				}
+				now = System.currentTimeMillis();
+			}
+			m_lastSweepDue = due;
+			m_lastSweepExamined = examined;
+			m_lastSweepMicros = (System.nanoTime() - start) / 1000L;
+			m_queued = m_dueTimes.size();
+		}
+
+		/**
+		 * @return when the next session is due to be examined
+		 */
+		protected long nextDue()
+		{
+			moveScheduled();
+			return m_due.isEmpty() ? Long.MAX_VALUE : m_due.peek().time;
+		}
+
+		protected void moveScheduled()
+		{
+			Due scheduled;
+			while ((scheduled = m_scheduled.poll()) != null)
+			{
+				queue(scheduled.sessionId, scheduled.time);
+			}
+		}
+
+		protected void queue(String sessionId, long time)
+		{
+			m_dueTimes.put(sessionId, time);
+			m_due.add(new Due(sessionId, time));
+		}
+	}
+
+	/**
+	 * A session queued to be examined at a time.
+	 */
+	protected static class Due implements Comparable<Due>
+	{
+		protected final String sessionId;
+		protected final long time;
+
+		protected Due(String sessionId, long time)
+		{
+			this.sessionId = sessionId;
+			this.time = time;
+		}
+
+		public int compareTo(Due other)
+		{
+			return (time < other.time) ? -1 : ((time == other.time) ? 0 : 1);
+		}
 	}
 
 }
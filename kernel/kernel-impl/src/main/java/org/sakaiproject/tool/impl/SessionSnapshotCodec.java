@@ -0,0 +1,670 @@
+/**********************************************************************************
+ * Copyright (c) 2014 The Apereo Foundation.
+ *
+ * Licensed under the Educational Community License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.opensource.org/licenses/ECL-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ **********************************************************************************/
+package org.sakaiproject.tool.impl;
+
+import org.sakaiproject.event.api.UsageSessionService;
+import org.sakaiproject.tool.api.Breakdownable.BreakdownableSize;
+import org.sakaiproject.tool.api.StoreableBreakdown;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.ObjectStreamClass;
+import java.io.OutputStream;
+import java.io.Serializable;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.concurrent.ThreadLocalRandom;
+
+import static org.sakaiproject.tool.impl.RebuildBreakdownServiceImpl.*;
+
+/**
+ * Encodes the session maps made by the {@link RebuildBreakdownServiceImpl} into compact binary snapshots.
+ * <p>
+ * A full snapshot holds every attribute of the session and its tool and context sessions. A delta snapshot
+ * only holds the attributes which changed (or were removed) since the previous snapshot of the same session,
+ * it is applied on top of the full snapshot and the deltas before it. Attribute names are written once per
+ * snapshot (the well known ones never) and the simple values (strings, numbers, booleans, locales) are written
+ * directly, only other objects go through Java serialization.
+ * <p>
+ * Layout: version, kind (full or delta), generation (shared by a full snapshot and its deltas), sequence
+ * (0 for the full one), then the session attributes, the tool sessions and the context sessions. Each block
+ * is the changed entries followed by the removed keys. Changing the layout or the known keys needs a new version.
+ */
+public class SessionSnapshotCodec {
+
+    static final byte VERSION = 1;
+    static final byte KIND_FULL = 0;
+    static final byte KIND_DELTA = 1;
+
+    /** Keys which are never written out, the index in this list (+1) is written instead, append only */
+    static final List<String> KNOWN_KEYS = Arrays.asList(
+            SESSION_USER_ID_KEY,
+            SESSION_USER_EID_KEY,
+            SESSION_CREATION_TIME_KEY,
+            SESSION_LAST_ACCESSED_TIME_KEY,
+            SESSION_CURRENT_TOOLSESSION_PLACEMENT_KEY,
+            SESSION_CURRENT_USAGESESSION_KEY,
+            UsageSessionService.USAGE_SESSION_KEY,
+            "sakai.locale",
+            "sakai:portal:sitepage",
+            "sakai-controlling-portal",
+            "sakai.presence.last",
+            "sakai.session.tool.last"
+    );
+
+    private static final byte TAG_NULL = 0;
+    private static final byte TAG_STRING = 1;
+    private static final byte TAG_LONG = 2;
+    private static final byte TAG_INTEGER = 3;
+    private static final byte TAG_TRUE = 4;
+    private static final byte TAG_FALSE = 5;
+    private static final byte TAG_DOUBLE = 6;
+    private static final byte TAG_LOCALE = 7;
+    private static final byte TAG_BREAKDOWN = 8;
+    private static final byte TAG_SERIALIZED = 9;
+
+    /** The writers are reused as a snapshot is mostly copying into their buffers */
+    private static final ThreadLocal<Writer> WRITERS = new ThreadLocal<Writer>() {
+        @Override
+        protected Writer initialValue() {
+            return new Writer();
+        }
+    };
+
+    private static final Map<String, Integer> KNOWN_KEY_INDEXES = new HashMap<String, Integer>();
+    static {
+        for (String key : KNOWN_KEYS) {
+            KNOWN_KEY_INDEXES.put(key, KNOWN_KEY_INDEXES.size());
+        }
+    }
+
+    /**
+     * What the snapshots made so far for a session hold, so the next snapshot can be a delta.
+     * This stays with the session on the server which made the snapshots, it is never shipped.
+     */
+    static class State {
+        /** 0 until a full snapshot is made */
+        long generation;
+        int sequence;
+        final Map<String, Long> attributes = new HashMap<String, Long>();
+        final Map<String, Map<String, Long>> toolSessions = new HashMap<String, Map<String, Long>>();
+        final Map<String, Map<String, Long>> contextSessions = new HashMap<String, Map<String, Long>>();
+    }
+
+    /**
+     * Header of an encoded snapshot
+     */
+    static class Header {
+        final boolean full;
+        final long generation;
+        final int sequence;
+
+        Header(boolean full, long generation, int sequence) {
+            this.full = full;
+            this.generation = generation;
+            this.sequence = sequence;
+        }
+    }
+
+    /**
+     * Encodes a session map as a snapshot
+     *
+     * @param sessionMap the session as made by the breakdown, tool and context sessions are held as maps of maps
+     * @param state      the state left by the previous snapshot of this session, updated for this one
+     * @param full       true to make a full snapshot, one is always made if there was none before
+     * @return the snapshot or null if this is a delta and nothing changed
+     */
+    @SuppressWarnings("unchecked")
+    public byte[] encode(Map<String, Serializable> sessionMap, State state, boolean full) {
+        if (state.generation == 0) {
+            full = true;
+        }
+        if (full) {
+            long generation;
+            do {
+                generation = ThreadLocalRandom.current().nextLong();
+            } while (generation == 0 || generation == state.generation);
+            state.generation = generation;
+            state.sequence = 0;
+            state.attributes.clear();
+            state.toolSessions.clear();
+            state.contextSessions.clear();
+        } else {
+            state.sequence++;
+        }
+
+        Writer out = WRITERS.get();
+        out.reset();
+        try {
+            out.data.writeByte(VERSION);
+            out.data.writeByte(full ? KIND_FULL : KIND_DELTA);
+            out.data.writeLong(state.generation);
+            writeVarInt(out.data, state.sequence);
+            boolean changed = writeAttributes(out, sessionMap, state.attributes);
+            changed |= writeSubSessions(out, (Map<String, Serializable>) sessionMap.get(SESSION_TOOL_SESSIONS_KEY), state.toolSessions);
+            changed |= writeSubSessions(out, (Map<String, Serializable>) sessionMap.get(SESSION_CONTEXT_SESSIONS_KEY), state.contextSessions);
+            if (!full && !changed) {
+                state.sequence--;
+                return null;
+            }
+            return out.bytes.toByteArray();
+        } catch (IOException e) {
+            // forget what was written, the next snapshot will be a full one
+            state.generation = 0;
+            throw new IllegalStateException("Failure encoding session snapshot: " + e, e);
+        }
+    }
+
+    /**
+     * @param snapshot an encoded snapshot
+     * @return the header of the snapshot or null if it is not a snapshot in this version
+     */
+    public Header readHeader(byte[] snapshot) {
+        if (snapshot == null || snapshot.length < 11 || snapshot[0] != VERSION) {
+            return null;
+        }
+        try {
+            DataInputStream in = new DataInputStream(new ByteArrayInputStream(snapshot, 1, snapshot.length - 1));
+            boolean full = in.readByte() == KIND_FULL;
+            long generation = in.readLong();
+            return new Header(full, generation, readVarInt(in));
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Decodes a full snapshot with the deltas made after it
+     *
+     * @param base   a full snapshot
+     * @param deltas the deltas made after the full snapshot, in order, only the ones which continue it are applied
+     * @return the session map, in the form made by the breakdown
+     */
+    public Map<String, Serializable> decode(byte[] base, List<byte[]> deltas) {
+        Header header = readHeader(base);
+        if (header == null || !header.full) {
+            throw new IllegalArgumentException("Not a full session snapshot in version " + VERSION);
+        }
+        Map<String, Serializable> attributes = new HashMap<String, Serializable>();
+        Map<String, Map<String, Serializable>> toolSessions = new HashMap<String, Map<String, Serializable>>();
+        Map<String, Map<String, Serializable>> contextSessions = new HashMap<String, Map<String, Serializable>>();
+        apply(base, attributes, toolSessions, contextSessions);
+        int sequence = header.sequence;
+        if (deltas != null) {
+            for (byte[] delta : deltas) {
+                Header deltaHeader = readHeader(delta);
+                if (deltaHeader == null || deltaHeader.full || deltaHeader.generation != header.generation
+                        || deltaHeader.sequence != sequence + 1) {
+                    break;
+                }
+                apply(delta, attributes, toolSessions, contextSessions);
+                sequence++;
+            }
+        }
+        if (!toolSessions.isEmpty()) {
+            attributes.put(SESSION_TOOL_SESSIONS_KEY, (Serializable) toolSessions);
+        }
+        if (!contextSessions.isEmpty()) {
+            attributes.put(SESSION_CONTEXT_SESSIONS_KEY, (Serializable) contextSessions);
+        }
+        return attributes;
+    }
+
+    private void apply(byte[] snapshot, Map<String, Serializable> attributes,
+                       Map<String, Map<String, Serializable>> toolSessions, Map<String, Map<String, Serializable>> contextSessions) {
+        try {
+            Reader in = new Reader(snapshot);
+            in.data.readByte(); // version
+            in.data.readByte(); // kind
+            in.data.readLong(); // generation
+            readVarInt(in.data); // sequence
+            readAttributes(in, attributes);
+            readSubSessions(in, toolSessions);
+            readSubSessions(in, contextSessions);
+        } catch (IOException | ClassNotFoundException e) {
+            throw new IllegalStateException("Failure decoding session snapshot: " + e, e);
+        }
+    }
+
+    // ATTRIBUTES
+
+    /**
+     * Writes the attributes which changed since the fingerprints were taken, and updates them
+     *
+     * @return true if any attribute was written or removed
+     */
+    private boolean writeAttributes(Writer out, Map<String, Serializable> attributes, Map<String, Long> fingerprints) throws IOException {
+        // the count is patched once the changed attributes are written
+        int countMark = out.bytes.size();
+        out.data.writeInt(0);
+        int changed = 0;
+        int previous = fingerprints.size();
+        int kept = 0;
+        if (attributes != null) {
+            for (Entry<String, Serializable> entry : attributes.entrySet()) {
+                String key = entry.getKey();
+                if (SESSION_TOOL_SESSIONS_KEY.equals(key) || SESSION_CONTEXT_SESSIONS_KEY.equals(key)) {
+                    continue;
+                }
+                out.scratch.reset();
+                writeValue(out.scratchData, entry.getValue());
+                long fingerprint = out.scratch.fingerprint();
+                Long last = fingerprints.put(key, fingerprint);
+                if (last != null) {
+                    kept++;
+                }
+                if (last == null || last != fingerprint) {
+                    writeKey(out, key);
+                    out.scratch.writeTo(out.bytes);
+                    changed++;
+                }
+            }
+        }
+        out.bytes.setInt(countMark, changed);
+
+        List<String> removed = new ArrayList<String>(previous - kept);
+        if (previous > kept) {
+            for (String key : fingerprints.keySet()) {
+                if (attributes == null || !attributes.containsKey(key)) {
+                    removed.add(key);
+                }
+            }
+        }
+        writeVarInt(out.data, removed.size());
+        for (String key : removed) {
+            writeKey(out, key);
+            fingerprints.remove(key);
+        }
+        return changed > 0 || !removed.isEmpty();
+    }
+
+    private void readAttributes(Reader in, Map<String, Serializable> attributes) throws IOException, ClassNotFoundException {
+        int changed = in.data.readInt();
+        for (int i = 0; i < changed; i++) {
+            String key = readKey(in);
+            attributes.put(key, readValue(in));
+        }
+        int removed = readVarInt(in.data);
+        for (int i = 0; i < removed; i++) {
+            attributes.remove(readKey(in));
+        }
+    }
+
+    /**
+     * Writes the sub sessions which changed, each one after a 1 and the last one followed by a 0,
+     * and then the ids of the removed ones
+     *
+     * @return true if any sub session was written or removed
+     */
+    @SuppressWarnings("unchecked")
+    private boolean writeSubSessions(Writer out, Map<String, Serializable> subSessions, Map<String, Map<String, Long>> fingerprints) throws IOException {
+        boolean changed = false;
+        Map<String, Map<String, Long>> previous = new HashMap<String, Map<String, Long>>(fingerprints);
+        if (subSessions != null) {
+            for (Entry<String, Serializable> entry : subSessions.entrySet()) {
+                Map<String, Long> subFingerprints = previous.remove(entry.getKey());
+                if (subFingerprints == null) {
+                    subFingerprints = new HashMap<String, Long>();
+                    fingerprints.put(entry.getKey(), subFingerprints);
+                }
+                int mark = out.bytes.size();
+                int keys = out.keyOrder.size();
+                writeVarInt(out.data, 1);
+                writeString(out.data, entry.getKey());
+                if (writeAttributes(out, (Map<String, Serializable>) entry.getValue(), subFingerprints)) {
+                    changed = true;
+                } else {
+                    // nothing to ship for this one, drop what was written for it
+                    out.truncate(mark, keys);
+                }
+            }
+        }
+        writeVarInt(out.data, 0);
+        writeVarInt(out.data, previous.size());
+        for (String removed : previous.keySet()) {
+            writeString(out.data, removed);
+            fingerprints.remove(removed);
+        }
+        return changed || !previous.isEmpty();
+    }
+
+    private void readSubSessions(Reader in, Map<String, Map<String, Serializable>> subSessions) throws IOException, ClassNotFoundException {
+        while (readVarInt(in.data) != 0) {
+            String id = readString(in.data);
+            Map<String, Serializable> attributes = subSessions.get(id);
+            if (attributes == null) {
+                attributes = new HashMap<String, Serializable>();
+                subSessions.put(id, attributes);
+            }
+            readAttributes(in, attributes);
+        }
+        int removed = readVarInt(in.data);
+        for (int i = 0; i < removed; i++) {
+            subSessions.remove(readString(in.data));
+        }
+    }
+
+    // VALUES
+
+    /** Values are fingerprinted on their own so they don't use the key table */
+    private void writeValue(DataOutputStream data, Object value) throws IOException {
+        if (value == null) {
+            data.writeByte(TAG_NULL);
+        } else if (value instanceof String) {
+            data.writeByte(TAG_STRING);
+            writeString(data, (String) value);
+        } else if (value instanceof Long) {
+            data.writeByte(TAG_LONG);
+            writeVarLong(data, (Long) value);
+        } else if (value instanceof Integer) {
+            data.writeByte(TAG_INTEGER);
+            writeVarLong(data, (Integer) value);
+        } else if (value instanceof Boolean) {
+            data.writeByte((Boolean) value ? TAG_TRUE : TAG_FALSE);
+        } else if (value instanceof Double) {
+            data.writeByte(TAG_DOUBLE);
+            data.writeDouble((Double) value);
+        } else if (value.getClass() == Locale.class) {
+            Locale locale = (Locale) value;
+            data.writeByte(TAG_LOCALE);
+            writeString(data, locale.getLanguage());
+            writeString(data, locale.getCountry());
+            writeString(data, locale.getVariant());
+        } else if (value.getClass() == StoreableBreakdown.class) {
+            StoreableBreakdown breakdown = (StoreableBreakdown) value;
+            data.writeByte(TAG_BREAKDOWN);
+            writeString(data, breakdown.getClassName());
+            data.writeByte(breakdown.getSize() != null ? breakdown.getSize().ordinal() : -1);
+            writeValue(data, breakdown.getData());
+        } else {
+            data.writeByte(TAG_SERIALIZED);
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            ObjectOutputStream objects = new ObjectOutputStream(bytes);
+            objects.writeObject(value);
+            objects.close();
+            writeVarInt(data, bytes.size());
+            bytes.writeTo(data);
+        }
+    }
+
+    private Serializable readValue(Reader in) throws IOException, ClassNotFoundException {
+        byte tag = in.data.readByte();
+        switch (tag) {
+            case TAG_NULL:
+                return null;
+            case TAG_STRING:
+                return readString(in.data);
+            case TAG_LONG:
+                return readVarLong(in.data);
+            case TAG_INTEGER:
+                return (int) readVarLong(in.data);
+            case TAG_TRUE:
+                return Boolean.TRUE;
+            case TAG_FALSE:
+                return Boolean.FALSE;
+            case TAG_DOUBLE:
+                return in.data.readDouble();
+            case TAG_LOCALE:
+                return new Locale(readString(in.data), readString(in.data), readString(in.data));
+            case TAG_BREAKDOWN:
+                String className = readString(in.data);
+                byte size = in.data.readByte();
+                return new StoreableBreakdown(className, size >= 0 ? BreakdownableSize.values()[size] : null, readValue(in));
+            case TAG_SERIALIZED:
+                byte[] bytes = new byte[readVarInt(in.data)];
+                in.data.readFully(bytes);
+                ObjectInputStream objects = new ContextObjectInputStream(new ByteArrayInputStream(bytes));
+                try {
+                    return (Serializable) objects.readObject();
+                } finally {
+                    objects.close();
+                }
+            default:
+                throw new IOException("Unknown value tag: " + tag);
+        }
+    }
+
+    // KEYS, STRINGS AND NUMBERS
+
+    /** Writes a known key as its index, other keys as a string the first time and then as their index */
+    private void writeKey(Writer out, String key) throws IOException {
+        Integer index = KNOWN_KEY_INDEXES.get(key);
+        if (index == null) {
+            index = out.keys.get(key);
+        }
+        if (index != null) {
+            writeVarInt(out.data, index + 1);
+        } else {
+            writeVarInt(out.data, 0);
+            writeString(out.data, key);
+            out.keys.put(key, KNOWN_KEYS.size() + out.keyOrder.size());
+            out.keyOrder.add(key);
+        }
+    }
+
+    private String readKey(Reader in) throws IOException {
+        int index = readVarInt(in.data);
+        if (index == 0) {
+            String key = readString(in.data);
+            in.keys.add(key);
+            return key;
+        }
+        if (index > in.keys.size()) {
+            throw new IOException("Unknown key index: " + index);
+        }
+        return in.keys.get(index - 1);
+    }
+
+    private static void writeString(DataOutputStream data, String value) throws IOException {
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        writeVarInt(data, bytes.length);
+        data.write(bytes);
+    }
+
+    private static String readString(DataInputStream data) throws IOException {
+        byte[] bytes = new byte[readVarInt(data)];
+        data.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private static void writeVarInt(DataOutputStream data, int value) throws IOException {
+        while ((value & ~0x7F) != 0) {
+            data.writeByte((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        data.writeByte(value);
+    }
+
+    private static int readVarInt(DataInputStream data) throws IOException {
+        int value = 0;
+        for (int shift = 0; shift < 32; shift += 7) {
+            byte b = data.readByte();
+            value |= (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+        throw new IOException("Malformed varint");
+    }
+
+    /** Zig-zag encoded so small negative numbers stay short */
+    private static void writeVarLong(DataOutputStream data, long value) throws IOException {
+        long zigzag = (value << 1) ^ (value >> 63);
+        while ((zigzag & ~0x7FL) != 0) {
+            data.writeByte((int) ((zigzag & 0x7F) | 0x80));
+            zigzag >>>= 7;
+        }
+        data.writeByte((int) zigzag);
+    }
+
+    private static long readVarLong(DataInputStream data) throws IOException {
+        long zigzag = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            byte b = data.readByte();
+            zigzag |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return (zigzag >>> 1) ^ -(zigzag & 1);
+            }
+        }
+        throw new IOException("Malformed varlong");
+    }
+
+    /**
+     * The output of a snapshot with the keys written so far, besides the known ones
+     */
+    private static class Writer {
+        final Buffer bytes = new Buffer(4096);
+        final DataOutputStream data = new DataOutputStream(bytes);
+        final Buffer scratch = new Buffer(64);
+        final DataOutputStream scratchData = new DataOutputStream(scratch);
+        final Map<String, Integer> keys = new HashMap<String, Integer>();
+        final List<String> keyOrder = new ArrayList<String>();
+
+        void reset() {
+            bytes.reset();
+            keys.clear();
+            keyOrder.clear();
+        }
+
+        /** Drops everything written after the mark, including the keys */
+        void truncate(int mark, int keyCount) {
+            bytes.truncate(mark);
+            while (keyOrder.size() > keyCount) {
+                keys.remove(keyOrder.remove(keyOrder.size() - 1));
+            }
+        }
+    }
+
+    /**
+     * An unsynchronized byte array output stream
+     */
+    private static class Buffer extends OutputStream {
+        private static final int MAX_RETAINED_BUFFER = 64 * 1024;
+        private byte[] buf;
+        private int count;
+
+        Buffer(int size) {
+            buf = new byte[size];
+        }
+
+        @Override
+        public void write(int b) {
+            ensureCapacity(count + 1);
+            buf[count++] = (byte) b;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) {
+            ensureCapacity(count + len);
+            System.arraycopy(b, off, buf, count, len);
+            count += len;
+        }
+
+        private void ensureCapacity(int capacity) {
+            if (capacity > buf.length) {
+                buf = Arrays.copyOf(buf, Math.max(capacity, buf.length * 2));
+            }
+        }
+
+        void writeTo(Buffer out) {
+            out.write(buf, 0, count);
+        }
+
+        void setInt(int pos, int value) {
+            buf[pos] = (byte) (value >>> 24);
+            buf[pos + 1] = (byte) (value >>> 16);
+            buf[pos + 2] = (byte) (value >>> 8);
+            buf[pos + 3] = (byte) value;
+        }
+
+        /** 64 bit FNV-1a hash of the content */
+        long fingerprint() {
+            long hash = 0xcbf29ce484222325L;
+            for (int i = 0; i < count; i++) {
+                hash ^= buf[i] & 0xff;
+                hash *= 0x100000001b3L;
+            }
+            return hash;
+        }
+
+        int size() {
+            return count;
+        }
+
+        void reset() {
+            count = 0;
+            if (buf.length > MAX_RETAINED_BUFFER) {
+                buf = new byte[MAX_RETAINED_BUFFER];
+            }
+        }
+
+        void truncate(int size) {
+            count = size;
+        }
+
+        byte[] toByteArray() {
+            return Arrays.copyOf(buf, count);
+        }
+    }
+
+    /**
+     * The input of a snapshot with the keys read so far
+     */
+    private static class Reader {
+        final DataInputStream data;
+        final List<String> keys = new ArrayList<String>(KNOWN_KEYS);
+
+        Reader(byte[] snapshot) {
+            data = new DataInputStream(new ByteArrayInputStream(snapshot));
+        }
+    }
+
+    /**
+     * Resolves the serialized classes with the context class loader, as the caches which stored
+     * the session maps did, and falls back to the kernel class loader
+     */
+    private static class ContextObjectInputStream extends ObjectInputStream {
+        ContextObjectInputStream(ByteArrayInputStream in) throws IOException {
+            super(in);
+        }
+
+        @Override
+        protected Class<?> resolveClass(ObjectStreamClass desc) throws IOException, ClassNotFoundException {
+            ClassLoader loader = Thread.currentThread().getContextClassLoader();
+            if (loader != null) {
+                try {
+                    return Class.forName(desc.getName(), false, loader);
+                } catch (ClassNotFoundException e) {
+                    // try the kernel class loader below
+                }
+            }
+            return super.resolveClass(desc);
+        }
+    }
+
+}
@@ -33,6 +33,7 @@ import org.sakaiproject.event.api.Event;
 import org.sakaiproject.event.api.EventTrackingService;
 import org.sakaiproject.id.api.IdManager;
 import org.sakaiproject.memory.api.Cache;
+import org.sakaiproject.memory.api.CacheLoader;
 import org.sakaiproject.memory.api.MemoryService;
 import org.sakaiproject.time.api.Time;
 import org.sakaiproject.time.api.TimeService;
@@ -848,8 +849,8 @@ public abstract class BaseUserDirectoryService implements UserDirectoryService,
 	 */
 	public List getUsers(Collection<String> ids)
 	{
-		// Clean IDs to match the by-user case.
-		Set<String> searchIds = new HashSet<String>();
+		// Clean IDs to match the by-user case, keeping their order for the users returned.
+		Set<String> searchIds = new LinkedHashSet<String>();
 		for (Iterator<String> idIter = ids.iterator(); idIter.hasNext(); )
 		{
 			String id = idIter.next();
@@ -1780,6 +1781,25 @@ public abstract class BaseUserDirectoryService implements UserDirectoryService,
 		return userEdit;
 	}
 
+	/**
+	 * Get several users from the cache with one request.
+	 * 
+	 * @param refs
+	 *        the user references
+	 * @param loader
+	 *        loads the users which are not cached, these are then cached, may be null
+	 * @return the users found or loaded, by reference
+	 */
+	protected Map<String, UserEdit> getCachedUsers(Set<String> refs, CacheLoader<String, UserEdit> loader)
+	{
+		if (m_callCache != null)
+		{
+			return m_callCache.getAll(refs, loader);
+		}
+		Map<String, UserEdit> users = (loader != null) ? loader.loadAll(refs) : null;
+		return (users != null) ? users : new HashMap<String, UserEdit>();
+	}
+
 	protected void putCachedUser(String ref, UserEdit user)
 	{
 		// KNL-1241 removed caching in threadlocal
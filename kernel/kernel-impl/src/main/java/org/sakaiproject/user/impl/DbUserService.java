@@ -29,6 +29,7 @@ import org.sakaiproject.db.api.SqlReaderFinishedException;
 import org.sakaiproject.db.api.SqlService;
 import org.sakaiproject.entity.api.ResourcePropertiesEdit;
 import org.sakaiproject.memory.api.Cache;
+import org.sakaiproject.memory.api.CacheLoader;
 import org.sakaiproject.time.api.Time;
 import org.sakaiproject.user.api.User;
 import org.sakaiproject.user.api.UserEdit;
@@ -663,63 +664,92 @@ public abstract class DbUserService extends BaseUserDirectoryService
 
 		public List<User> getUsersByIds(Collection<String> ids)
 		{
-			List<User> foundUsers = new ArrayList<User>();
-
-			// Put all the already cached user records to one side.
-			Set<String> idsToSearch = new HashSet<String>();
+			// in the order of the ids, to return the users in
+			final Map<String, String> idsByRef = new LinkedHashMap<String, String>();
 			for (String id : ids)
 			{
-				UserEdit cachedUser = getCachedUser(userReference(id));
-				if (cachedUser != null)
+				idsByRef.put(userReference(id), id);
+			}
+
+			// Get the cached user records with one request, and read the rest together.
+			Map<String, UserEdit> users = getCachedUsers(idsByRef.keySet(), new CacheLoader<String, UserEdit>()
+			{
+				public UserEdit load(String ref)
 				{
-					foundUsers.add(cachedUser);
+					return loadAll(Collections.singleton(ref)).get(ref);
 				}
-				else
+
+				public Map<String, UserEdit> loadAll(Iterable<? extends String> refs)
 				{
-					idsToSearch.add(id);
-				}
-			}
+					Set<String> idsToSearch = new HashSet<String>();
+					for (String ref : refs)
+					{
+						idsToSearch.add(idsByRef.get(ref));
+					}
+					Map<String, UserEdit> loaded = new HashMap<String, UserEdit>();
 
-			UserWithEidReader userWithEidReader = new UserWithEidReader(false);
-			userWithEidReader.findMappedUsers(idsToSearch);
+					// The user records are cached by the caller, only the ID-EID mapping is cached here.
+					UserWithEidReader userWithEidReader = new UserWithEidReader(false, false);
+					userWithEidReader.findMappedUsers(idsToSearch);
 
-			// Add the Sakai-maintained user records.
-			foundUsers.addAll(userWithEidReader.getUsersFromSakaiData());
+					// Add the Sakai-maintained user records.
+					for (UserEdit user : userWithEidReader.getUsersFromSakaiData())
+					{
+						loaded.put(userReference(user.getId()), user);
+					}
 
-			// Finally, fill in the provided user records.
-			List<UserEdit> usersToQueryProvider = userWithEidReader.getUsersToQueryProvider();
-			if ((m_provider != null) && !usersToQueryProvider.isEmpty())
-			{
-				m_provider.getUsers(usersToQueryProvider);
+					// Finally, fill in the provided user records.
+					List<UserEdit> usersToQueryProvider = userWithEidReader.getUsersToQueryProvider();
+					if ((m_provider != null) && !usersToQueryProvider.isEmpty())
+					{
+						m_provider.getUsers(usersToQueryProvider);
 
-				// Make sure that returned users are mapped and cached correctly.
-				for (UserEdit user : usersToQueryProvider)
+						// Make sure that returned users are mapped correctly.
+						for (UserEdit user : usersToQueryProvider)
+						{
+							putIdMappingInCaches(user);
+							loaded.put(userReference(user.getId()), user);
+						}
+					}
+					return loaded;
+				}
+			});
+
+			List<User> rv = new ArrayList<User>(users.size());
+			for (String ref : idsByRef.keySet())
+			{
+				UserEdit user = users.get(ref);
+				if (user != null)
 				{
-					putUserInCaches(user);
-					foundUsers.add(user);
+					rv.add(user);
 				}
 			}
-
-			return foundUsers;
+			return rv;
 		}
 
 		public List<User> getUsersByEids(Collection<String> eids)
 		{
 			List<User> foundUsers = new ArrayList<User>();
 
-			// Put all the already cached user records to one side.
-			Set<String> eidsToSearch = new HashSet<String>();
+			// Put all the already cached user records to one side, looking up the
+			// ID-EID mappings and then the user records with one request each.
+			Set<String> eidsToSearch = new HashSet<String>(eids);
+			Set<String> idKeys = new HashSet<String>();
 			for (String eid : eids)
 			{
-				UserEdit cachedUser = getCachedUserByEid(eid);
-				if (cachedUser != null)
+				idKeys.add(IDCACHE+eid);
+			}
+			Set<String> refs = new HashSet<String>();
+			for (Object id : cache.getAll(idKeys).values())
+			{
+				refs.add(userReference((String) id));
+			}
+			for (UserEdit cachedUser : getCachedUsers(refs, null).values())
+			{
+				if (eidsToSearch.remove(cachedUser.getEid()))
 				{
 					foundUsers.add(cachedUser);
 				}
-				else
-				{
-					eidsToSearch.add(eid);
-				}
 			}
 
 			UserWithEidReader userWithEidReader = new UserWithEidReader(true);
@@ -763,15 +793,20 @@ public abstract class DbUserService extends BaseUserDirectoryService
 		}
 
 		protected void putUserInCaches(UserEdit user)
+		{
+			putIdMappingInCaches(user);
+
+			// Update user record cache.
+			putCachedUser(userReference(user.getId()), user);
+		}
+
+		protected void putIdMappingInCaches(UserEdit user)
 		{
 			// Update ID-EID mapping cache.
 			String id = user.getId();
 			String eid = user.getEid();
 			cache.put(EIDCACHE+id, eid);
 			cache.put(IDCACHE+eid, id);
-
-			// Update user record cache.
-			putCachedUser(userReference(id), user);
 		}
 
 		/**
@@ -789,10 +824,20 @@ public abstract class DbUserService extends BaseUserDirectoryService
 			private List<UserEdit> usersFromSakaiData = new ArrayList<UserEdit>();
 			private List<UserEdit> usersToQueryProvider = new ArrayList<UserEdit>();
 			private boolean isEidSearch;
+			private boolean cacheUsers;
 
 			public UserWithEidReader(boolean isEidSearch)
+			{
+				this(isEidSearch, true);
+			}
+
+			/**
+			 * @param cacheUsers false if the caller caches the user records itself
+			 */
+			public UserWithEidReader(boolean isEidSearch, boolean cacheUsers)
 			{
 				this.isEidSearch = isEidSearch;
+				this.cacheUsers = cacheUsers;
 			}
 
 			public void findMappedUsers(Collection<String> searchValues)
@@ -861,7 +906,14 @@ public abstract class DbUserService extends BaseUserDirectoryService
 						usersFromSakaiData.add(userEdit);
 
 						// Cache management is why this needs to be an inner class.
-						putUserInCaches(userEdit);
+						if (cacheUsers)
+						{
+							putUserInCaches(userEdit);
+						}
+						else
+						{
+							putIdMappingInCaches(userEdit);
+						}
 					}
 					else
 					{
@@ -180,3 +180,14 @@ CREATE INDEX CONTENT_DROPBOX_INCOLL_INDEX ON CONTENT_DROPBOX_CHANGES
 	IN_COLLECTION
 );
 
+
+-----------------------------------------------------------------------------
+-- CONTENT_QUOTA_LEDGER
+-----------------------------------------------------------------------------
+
+CREATE TABLE CONTENT_QUOTA_LEDGER
+(
+    CONTEXT VARCHAR (99) NOT NULL,
+    TOTAL_SIZE BIGINT,
+    PRIMARY KEY (CONTEXT)
+);
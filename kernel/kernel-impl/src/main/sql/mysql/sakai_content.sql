@@ -197,3 +197,14 @@ CREATE INDEX CONTENT_DROPBOX_II ON CONTENT_DROPBOX_CHANGES
 (
 	IN_COLLECTION
 );
+
+-----------------------------------------------------------------------------
+-- CONTENT_QUOTA_LEDGER
+-----------------------------------------------------------------------------
+
+CREATE TABLE CONTENT_QUOTA_LEDGER
+(
+    CONTEXT VARCHAR (99) NOT NULL,
+    TOTAL_SIZE BIGINT,
+    PRIMARY KEY (CONTEXT)
+);
@@ -144,6 +144,12 @@ public class MockAuthzGroupService implements AuthzGroupService {
 		return null;
 	}
 
+	public Map<String, Set<String>> getUsersAllowedFunctions(Map<String, Collection<String>> azGroupsByUser,
+			Collection<String> functions) {
+		// TODO Auto-generated method stub
+		return null;
+	}
+
 	public boolean isAllowed(String userId, String function, String azGroupId) {
 		// TODO Auto-generated method stub
 		return false;
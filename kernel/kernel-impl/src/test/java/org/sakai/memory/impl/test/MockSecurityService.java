@@ -23,6 +23,8 @@ package org.sakai.memory.impl.test;
 
 import java.util.Collection;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 
 import org.sakaiproject.authz.api.SecurityAdvisor;
 import org.sakaiproject.authz.api.SecurityService;
@@ -126,6 +128,16 @@ public class MockSecurityService implements SecurityService
 		return null;
 	}
 
+	/* (non-Javadoc)
+	 * @see org.sakaiproject.authz.api.SecurityService#unlockUsers(java.util.Collection, java.util.Collection, java.util.Collection)
+	 */
+	public Map<String, Map<String, Set<String>>> unlockUsers(Collection<String> userIds, Collection<String> locks,
+			Collection<String> references)
+	{
+		// TODO Auto-generated method stub
+		return null;
+	}
+
 	/* (non-Javadoc)
 	 * @see org.sakaiproject.authz.api.SecurityService#unlock(org.sakaiproject.user.api.User, java.lang.String, java.lang.String)
 	 */
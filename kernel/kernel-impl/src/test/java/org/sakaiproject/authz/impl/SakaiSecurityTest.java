@@ -14,19 +14,31 @@ import org.sakaiproject.authz.api.FunctionManager;
 import org.sakaiproject.authz.api.GroupNotDefinedException;
 import org.sakaiproject.component.api.ServerConfigurationService;
 import org.sakaiproject.entity.api.EntityManager;
+import org.sakaiproject.entity.api.Reference;
 import org.sakaiproject.event.api.EventTrackingService;
 import org.sakaiproject.memory.api.Cache;
 import org.sakaiproject.memory.api.MemoryService;
+import org.sakaiproject.thread_local.api.ThreadLocalManager;
+import org.sakaiproject.tool.api.SessionManager;
 
 import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.HashSet;
+import java.util.Map;
 import java.util.Set;
 
 import static java.util.Collections.singleton;
+import static java.util.Collections.singletonMap;
 import static org.hamcrest.MatcherAssert.assertThat;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNull;
 import static org.hamcrest.collection.IsIterableContainingInAnyOrder.containsInAnyOrder;
 import static org.mockito.ArgumentMatchers.any;
 import static org.mockito.ArgumentMatchers.anyBoolean;
+import static org.mockito.ArgumentMatchers.anyInt;
 import static org.mockito.ArgumentMatchers.anyString;
 import static org.mockito.Mockito.*;
 import static org.mockito.Mockito.eq;
@@ -42,6 +54,8 @@ public class SakaiSecurityTest {
     @Mock private MemoryService memoryService;
     @Mock private ServerConfigurationService serverConfigurationService;
     @Mock private EventTrackingService eventTrackingService;
+    @Mock private ThreadLocalManager threadLocalManager;
+    @Mock private SessionManager sessionManager;
 
 
     private SakaiSecurity sakaiSecurity;
@@ -55,6 +69,8 @@ public class SakaiSecurityTest {
         sakaiSecurity.setMemoryService(memoryService);
         sakaiSecurity.setServerConfigurationService(serverConfigurationService);
         sakaiSecurity.setEventTrackingService(eventTrackingService);
+        sakaiSecurity.setThreadLocalManager(threadLocalManager);
+        sakaiSecurity.setSessionManager(sessionManager);
 
         // Always return default
         when(serverConfigurationService.getString(anyString(), anyString())).thenAnswer(invocation -> invocation.getArgument(1));
@@ -135,4 +151,132 @@ public class SakaiSecurityTest {
         assertThat(flushed, containsInAnyOrder("unlock@1@@function@/site/1", "unlock@2@@function@/site/1"));
     }
 
+    @Test
+    public void testCacheRealmPermsChangedIndexed() throws GroupNotDefinedException {
+
+        Cache cache = mock(Cache.class);
+        when(memoryService.getCache("org.sakaiproject.authz.api.SecurityService.cache")).thenReturn(cache);
+        when(serverConfigurationService.getString(eq("memory.SecurityService.invalidation"), anyString())).thenReturn("index");
+        when(serverConfigurationService.getInt(eq("memory.SecurityService.index.maxKeys"), anyInt())).thenReturn(100);
+        sakaiSecurity.init();
+
+        sakaiSecurity.addToCache("unlock@user1@@function1@/site/1", true, false, "user1", "function1", singleton("/site/1"));
+        sakaiSecurity.addToCache("unlock@user1@@function2@/site/1", true, false, "user1", "function2", singleton("/site/1"));
+        sakaiSecurity.addToCache("unlock@user2@@function1@/site/2", true, false, "user2", "function1", singleton("/site/2"));
+
+        // This collects all the flushes
+        Set<String> flushed = new HashSet<>();
+        doAnswer(s -> flushed.addAll(s.getArgument(0))).when(cache).removeAll(any());
+
+        // .auth no longer needs the whole cache cleared, and the realm does not need to be loaded
+        sakaiSecurity.cacheRealmPermsChanged("/realm//site/1", singleton(AuthzGroupService.AUTH_ROLE), singleton("function1"));
+
+        assertThat(flushed, containsInAnyOrder("unlock@user1@@function1@/site/1"));
+        verify(cache, never()).clear();
+        verify(authzGroupService, never()).getAuthzGroup(anyString());
+
+        flushed.clear();
+        sakaiSecurity.notifyUserChanged("user1");
+        assertThat(flushed, containsInAnyOrder("unlock@user1@@function2@/site/1"));
+    }
+
+    @Test
+    public void testIndexFullEvictsOldest() {
+
+        Cache cache = mock(Cache.class);
+        when(memoryService.getCache("org.sakaiproject.authz.api.SecurityService.cache")).thenReturn(cache);
+        when(serverConfigurationService.getString(eq("memory.SecurityService.invalidation"), anyString())).thenReturn("index");
+        when(serverConfigurationService.getInt(eq("memory.SecurityService.index.maxKeys"), anyInt())).thenReturn(10);
+        sakaiSecurity.init();
+
+        Set<String> flushed = new HashSet<>();
+        doAnswer(s -> flushed.addAll(s.getArgument(0))).when(cache).removeAll(any());
+
+        for (int i = 0; i < 11; i++) {
+            sakaiSecurity.addToCache("unlock@user" + i + "@@function@/site/1", true, false, "user" + i, "function", singleton("/site/1"));
+        }
+
+        assertThat(flushed, containsInAnyOrder("unlock@user0@@function@/site/1"));
+        assertEquals(10, sakaiSecurity.cacheIndex.size());
+        verify(cache, never()).clear();
+        verify(cache, never()).containsKey(any());
+    }
+
+    @Test
+    public void testDistributedCacheUsesKeys() {
+
+        Cache cache = mock(Cache.class);
+        when(cache.isDistributed()).thenReturn(true);
+        when(memoryService.getCache("org.sakaiproject.authz.api.SecurityService.cache")).thenReturn(cache);
+        when(serverConfigurationService.getString(eq("memory.SecurityService.invalidation"), anyString())).thenReturn("index");
+        sakaiSecurity.init();
+
+        assertEquals(SakaiSecurity.INVALIDATION_KEYS, sakaiSecurity.invalidationMode);
+        assertNull(sakaiSecurity.cacheIndex);
+    }
+
+    @Test
+    public void testCacheRealmPermsChangedGeneration() {
+
+        Cache cache = mock(Cache.class);
+        when(memoryService.getCache("org.sakaiproject.authz.api.SecurityService.cache")).thenReturn(cache);
+        when(serverConfigurationService.getString(eq("memory.SecurityService.invalidation"), anyString())).thenReturn("generation");
+        sakaiSecurity.init();
+
+        String before = sakaiSecurity.makeGenerationSuffix("user1", singleton("/site/1"));
+        String other = sakaiSecurity.makeGenerationSuffix("user1", singleton("/site/2"));
+
+        sakaiSecurity.cacheRealmPermsChanged("/realm//site/1", singleton("role"), singleton("function"));
+
+        assertNotEquals(before, sakaiSecurity.makeGenerationSuffix("user1", singleton("/site/1")));
+        assertEquals(other, sakaiSecurity.makeGenerationSuffix("user1", singleton("/site/2")));
+        verify(cache, never()).removeAll(any());
+    }
+
+    @Test
+    public void testUnlockUsersBatch() {
+
+        Cache cache = mock(Cache.class);
+        when(memoryService.getCache(anyString())).thenReturn(mock(Cache.class));
+        when(memoryService.getCache("org.sakaiproject.authz.api.SecurityService.cache")).thenReturn(cache);
+        sakaiSecurity.init();
+
+        // Both entities live in the same site so should be answered by one lookup
+        Reference ref = mock(Reference.class);
+        when(ref.getAuthzGroups(anyString())).thenReturn(singleton("/site/1"));
+        when(entityManager.newReference(anyString())).thenReturn(ref);
+        when(cache.getAll(any(Set.class))).thenReturn(singletonMap("unlock@user3@@function2@/site/1", Boolean.TRUE));
+
+        Map<String, Set<String>> allowed = new HashMap<>();
+        allowed.put("user1", new HashSet<>(Arrays.asList("function1", "function2")));
+        allowed.put("user2", singleton("function1"));
+        when(authzGroupService.getUsersAllowedFunctions(any(), any())).thenReturn(allowed);
+
+        Map<String, Map<String, Set<String>>> rv = sakaiSecurity.unlockUsers(Arrays.asList("user1", "user2", "user3"),
+                Arrays.asList("function1", "function2"), Arrays.asList("/assignment/a/1/one", "/assignment/a/1/two"));
+
+        for (String entityRef : Arrays.asList("/assignment/a/1/one", "/assignment/a/1/two")) {
+            assertThat(rv.get(entityRef).get("function1"), containsInAnyOrder("user1", "user2"));
+            assertThat(rv.get(entityRef).get("function2"), containsInAnyOrder("user1", "user3"));
+        }
+        verify(authzGroupService, times(1)).getUsersAllowedFunctions(any(), any());
+        verify(authzGroupService, never()).isAllowed(anyString(), eq("function1"), any(Collection.class));
+        verify(cache).put("unlock@user2@@function1@/site/1", true);
+        verify(cache).put("unlock@user2@@function2@/site/1", false);
+        verify(cache, never()).put(eq("unlock@user3@@function2@/site/1"), any());
+        // and the cached checks are read with one request
+        verify(cache, times(1)).getAll(any(Set.class));
+        verify(cache, never()).get(anyString());
+    }
+
+    @Test
+    public void testUnlockUsersEmpty() {
+
+        Map<String, Map<String, Set<String>>> rv = sakaiSecurity.unlockUsers(Collections.emptyList(),
+                singleton("function1"), singleton("/site/1"));
+
+        assertEquals(Collections.emptySet(), rv.get("/site/1").get("function1"));
+        verify(authzGroupService, never()).getUsersAllowedFunctions(any(), any());
+    }
+
 }
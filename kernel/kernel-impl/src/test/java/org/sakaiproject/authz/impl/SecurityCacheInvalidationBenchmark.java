@@ -0,0 +1,175 @@
+/**********************************************************************************
+ * $URL$
+ * $Id$
+ ***********************************************************************************
+ *
+ * Copyright (c) 2018 Sakai Foundation
+ *
+ * Licensed under the Educational Community License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.opensource.org/licenses/ECL-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ **********************************************************************************/
+
+package org.sakaiproject.authz.impl;
+
+import static org.mockito.ArgumentMatchers.anyBoolean;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+import static org.mockito.Mockito.withSettings;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import org.sakaiproject.authz.api.AuthzGroup;
+import org.sakaiproject.authz.api.AuthzGroupService;
+import org.sakaiproject.authz.api.FunctionManager;
+import org.sakaiproject.authz.api.GroupNotDefinedException;
+import org.sakaiproject.authz.api.Member;
+import org.sakaiproject.authz.api.Role;
+import org.sakaiproject.component.api.ServerConfigurationService;
+import org.sakaiproject.event.api.EventTrackingService;
+import org.sakaiproject.memory.api.MemoryService;
+import org.sakaiproject.memory.impl.BasicMapCache;
+
+/**
+ * Compares the cost of saving the permissions of a large site with each security cache invalidation mode.
+ * Each invocation refills the cache with the answers a busy site would have cached (a few functions per member)
+ * and then invalidates the whole realm, as a realm save with no changed permission list does.
+ * <p>
+ * Run with: mvn test-compile exec:java -Dexec.classpathScope=test -Dexec.mainClass=org.sakaiproject.authz.impl.SecurityCacheInvalidationBenchmark
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class SecurityCacheInvalidationBenchmark {
+
+    @Param({"keys", "index", "generation"})
+    public String mode;
+
+    @Param({"3000"})
+    public int members;
+
+    /** Registered functions, every one is enumerated for every member by the keys mode */
+    @Param({"300"})
+    public int functions;
+
+    /** Functions each member actually has cached answers for */
+    @Param({"5"})
+    public int cachedFunctions;
+
+    private SakaiSecurityConcrete security;
+    private BasicMapCache<String, Boolean> cache;
+    private List<String> userIds;
+    private List<String> functionNames;
+
+    @Setup(Level.Trial)
+    public void setUp() throws GroupNotDefinedException {
+        AuthzGroupService authzGroupService = mock(AuthzGroupService.class);
+        FunctionManager functionManager = mock(FunctionManager.class);
+        MemoryService memoryService = mock(MemoryService.class);
+        ServerConfigurationService serverConfigurationService = mock(ServerConfigurationService.class);
+
+        when(serverConfigurationService.getString(anyString(), anyString())).thenAnswer(invocation -> invocation.getArgument(1));
+        when(serverConfigurationService.getBoolean(anyString(), anyBoolean())).thenAnswer(invocation -> invocation.getArgument(1));
+        when(serverConfigurationService.getString(eq("memory.SecurityService.invalidation"), anyString())).thenReturn(mode);
+        when(serverConfigurationService.getInt(eq("memory.SecurityService.index.maxKeys"), anyInt())).thenReturn(Integer.MAX_VALUE);
+
+        cache = new BasicMapCache<>("org.sakaiproject.authz.api.SecurityService.cache");
+        when(memoryService.getCache(anyString())).thenAnswer(invocation -> new BasicMapCache<>(invocation.getArgument(0)));
+        when(memoryService.getCache("org.sakaiproject.authz.api.SecurityService.cache")).thenReturn((BasicMapCache) cache);
+
+        functionNames = new ArrayList<>();
+        for (int i = 0; i < functions; i++) {
+            functionNames.add("tool.function." + i);
+        }
+        when(functionManager.getRegisteredFunctions()).thenReturn(functionNames);
+
+        // stub only mocks, recording millions of invocations would swamp the measurement
+        Role role = mock(Role.class, withSettings().stubOnly());
+        when(role.getId()).thenReturn("access");
+        Set<Member> realmMembers = new HashSet<>();
+        userIds = new ArrayList<>();
+        for (int i = 0; i < members; i++) {
+            String userId = "user" + i;
+            userIds.add(userId);
+            Member member = mock(Member.class, withSettings().stubOnly());
+            when(member.getUserId()).thenReturn(userId);
+            when(member.getRole()).thenReturn(role);
+            when(member.isActive()).thenReturn(true);
+            realmMembers.add(member);
+        }
+        AuthzGroup realm = mock(AuthzGroup.class, withSettings().stubOnly());
+        when(realm.getMembers()).thenReturn(realmMembers);
+        when(realm.getRoles()).thenReturn(Collections.singleton(role));
+        when(authzGroupService.getAuthzGroup("/site/big")).thenReturn(realm);
+
+        security = new SakaiSecurityConcrete();
+        security.setAuthzGroupService(authzGroupService);
+        security.setFunctionManager(functionManager);
+        security.setMemoryService(memoryService);
+        security.setServerConfigurationService(serverConfigurationService);
+        security.setEventTrackingService(mock(EventTrackingService.class));
+        security.init();
+    }
+
+    /** Generation mode never removes anything, start each save from an empty cache so all modes do the same work */
+    @Setup(Level.Invocation)
+    public void clearCache() {
+        cache.clear();
+        if (security.cacheIndex != null) {
+            security.cacheIndex.clear();
+        }
+    }
+
+    @Benchmark
+    public int realmSave() {
+        for (String userId : userIds) {
+            for (int f = 0; f < cachedFunctions; f++) {
+                String function = functionNames.get(f);
+                String key = security.makeCacheKey(userId, null, function, "/site/big", false)
+                        + ("generation".equals(mode) ? security.makeGenerationSuffix(userId, Collections.singleton("/site/big")) : "");
+                security.addToCache(key, Boolean.TRUE, false, userId, function, Collections.singleton("/site/big"));
+            }
+        }
+        security.cacheRealmPermsChanged("/realm//site/big", null, null);
+        return cache.hashCode();
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder().include(SecurityCacheInvalidationBenchmark.class.getSimpleName()).build()).run();
+    }
+}
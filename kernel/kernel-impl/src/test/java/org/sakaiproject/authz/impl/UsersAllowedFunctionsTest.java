@@ -0,0 +1,119 @@
+/**********************************************************************************
+ * $URL$
+ * $Id$
+ ***********************************************************************************
+ *
+ * Copyright (c) 2018 Sakai Foundation
+ *
+ * Licensed under the Educational Community License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.opensource.org/licenses/ECL-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ **********************************************************************************/
+
+package org.sakaiproject.authz.impl;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+
+import org.junit.Assert;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.sakaiproject.authz.api.AuthzGroupService;
+import org.sakaiproject.authz.api.SecurityService;
+import org.sakaiproject.entity.api.EntityManager;
+import org.sakaiproject.site.api.Group;
+import org.sakaiproject.site.api.Site;
+import org.sakaiproject.site.api.SiteService;
+import org.sakaiproject.test.SakaiKernelTestBase;
+import org.sakaiproject.tool.api.Session;
+import org.sakaiproject.tool.api.SessionManager;
+import org.sakaiproject.user.api.UserDirectoryService;
+import org.sakaiproject.user.api.UserEdit;
+
+public class UsersAllowedFunctionsTest extends SakaiKernelTestBase {
+	private static Logger log = LoggerFactory.getLogger(UsersAllowedFunctionsTest.class);
+
+	@BeforeClass
+	public static void beforeClass() {
+		try {
+			log.debug("starting oneTimeSetup");
+			oneTimeSetup();
+			log.debug("finished oneTimeSetup");
+		} catch (Exception e) {
+			log.warn(e.getMessage(), e);
+		}
+	}
+
+	@Test
+	public void testMatchesIsAllowed() throws Exception {
+
+		SiteService siteService = getService(SiteService.class);
+		AuthzGroupService authzGroupService = getService(AuthzGroupService.class);
+		SecurityService securityService = getService(SecurityService.class);
+		EntityManager entityManager = getService(EntityManager.class);
+
+		SessionManager sessionManager = getService(SessionManager.class);
+		Session session = sessionManager.getCurrentSession();
+		session.setUserEid("admin");
+		session.setUserId("admin");
+
+		UserDirectoryService userService = getService(UserDirectoryService.class);
+		for (String id : Arrays.asList("batchaccess", "batchmaintain", "batchother")) {
+			UserEdit user = userService.addUser(id, id);
+			userService.commitEdit(user);
+		}
+
+		Site site = siteService.addSite("batchSiteVisit", "test");
+		site.addMember("batchaccess", "access", true, false);
+		site.addMember("batchmaintain", "maintain", true, false);
+		site.getRole("maintain").allowFunction(SiteService.SITE_ROLE_SWAP);
+		Group group = site.addGroup();
+		group.setTitle("group");
+		group.addMember("batchmaintain", "maintain", true, false);
+		siteService.save(site);
+
+		Collection<String> functions = Arrays.asList(SiteService.SITE_VISIT, SiteService.SITE_ROLE_SWAP, SiteService.SECURE_UPDATE_SITE);
+		Collection<String> realms = Arrays.asList(site.getReference(), group.getReference());
+		Map<String, Collection<String>> realmsByUser = new HashMap<>();
+		for (String id : Arrays.asList("batchaccess", "batchmaintain", "batchother")) {
+			realmsByUser.put(id, realms);
+		}
+
+		Map<String, Set<String>> allowed = authzGroupService.getUsersAllowedFunctions(realmsByUser, functions);
+		for (String id : realmsByUser.keySet()) {
+			for (String function : functions) {
+				boolean expected = authzGroupService.isAllowed(id, function, realms);
+				boolean actual = allowed.containsKey(id) && allowed.get(id).contains(function);
+				Assert.assertEquals(id + " " + function, expected, actual);
+			}
+		}
+		Assert.assertTrue(allowed.get("batchmaintain").contains(SiteService.SITE_ROLE_SWAP));
+		Assert.assertFalse(allowed.get("batchaccess").contains(SiteService.SITE_ROLE_SWAP));
+
+		// and through the security service, from a different session user
+		Map<String, Map<String, Set<String>>> unlocked = securityService.unlockUsers(realmsByUser.keySet(), functions,
+				Arrays.asList(site.getReference()));
+		for (String id : realmsByUser.keySet()) {
+			for (String function : functions) {
+				Collection<String> azgs = entityManager.newReference(site.getReference()).getAuthzGroups(id);
+				Assert.assertEquals(id + " " + function, authzGroupService.isAllowed(id, function, azgs),
+						unlocked.get(site.getReference()).get(function).contains(id));
+			}
+		}
+	}
+
+}
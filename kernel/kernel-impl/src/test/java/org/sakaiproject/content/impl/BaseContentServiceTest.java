@@ -1,16 +1,36 @@
 package org.sakaiproject.content.impl;
 
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
 import org.junit.Before;
+import org.junit.Rule;
 import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
 
+import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
 
 /**
  * Simple checks for BaseContentService
  */
 public class BaseContentServiceTest {
 
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
     private BaseContentService baseContentService;
 
     @Before
@@ -48,4 +68,60 @@ public class BaseContentServiceTest {
         assertTrue(baseContentService.isSiteLevelCollection("/group/siteId"));
         assertTrue(baseContentService.isSiteLevelCollection("/group/siteId/"));
     }
+
+    @Test
+    public void testMatchesETag() {
+        String eTag = baseContentService.getETag(100, 1500000000000L);
+        assertEquals("\"100-1500000000000\"", eTag);
+        assertNull(baseContentService.getETag(100, 0));
+
+        assertTrue(baseContentService.matchesETag(eTag, eTag));
+        assertTrue(baseContentService.matchesETag("\"other\", W/" + eTag, eTag));
+        assertTrue(baseContentService.matchesETag("*", eTag));
+        assertFalse(baseContentService.matchesETag("\"other\"", eTag));
+        assertFalse(baseContentService.matchesETag("*", null));
+    }
+
+    @Test
+    public void testParseRangeIfRange() throws Exception {
+        String eTag = baseContentService.getETag(1000, 1500000000000L);
+        HttpServletResponse response = mock(HttpServletResponse.class);
+
+        List<BaseContentService.Range> ranges = baseContentService.parseRange(request("bytes=0-99,-10", null, -1), response, 1000, eTag, 1500000000000L);
+        assertEquals(2, ranges.size());
+        assertEquals(990, ranges.get(1).start);
+        assertEquals(999, ranges.get(1).end);
+
+        assertEquals(1, baseContentService.parseRange(request("bytes=0-99", eTag, -1), response, 1000, eTag, 1500000000000L).size());
+        assertNull(baseContentService.parseRange(request("bytes=0-99", "\"other\"", -1), response, 1000, eTag, 1500000000000L));
+        // a weak ETag never allows a partial response
+        assertNull(baseContentService.parseRange(request("bytes=0-99", "W/" + eTag, -1), response, 1000, eTag, 1500000000000L));
+
+        assertEquals(1, baseContentService.parseRange(request("bytes=0-99", "Fri, 14 Jul 2017 02:40:00 GMT", 1500000000000L), response, 1000, eTag, 1500000000000L).size());
+        assertNull(baseContentService.parseRange(request("bytes=0-99", "Fri, 14 Jul 2017 02:30:00 GMT", 1499999400000L), response, 1000, eTag, 1500000000000L));
+    }
+
+    @Test
+    public void testCopyRangeFromChannel() throws Exception {
+        File file = folder.newFile();
+        Files.write(file.toPath(), "0123456789".getBytes(StandardCharsets.UTF_8));
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            baseContentService.copyRange(channel, out, 2, 4);
+            baseContentService.copyRange(channel, out, 0, 9);
+        }
+        assertEquals("2340123456789", new String(out.toByteArray(), StandardCharsets.UTF_8));
+    }
+
+    private HttpServletRequest request(String range, String ifRange, long ifRangeTime) {
+        HttpServletRequest request = mock(HttpServletRequest.class);
+        when(request.getHeader("Range")).thenReturn(range);
+        when(request.getHeader("If-Range")).thenReturn(ifRange);
+        if (ifRangeTime == -1) {
+            when(request.getDateHeader("If-Range")).thenThrow(new IllegalArgumentException());
+        } else {
+            when(request.getDateHeader("If-Range")).thenReturn(ifRangeTime);
+        }
+        return request;
+    }
 }
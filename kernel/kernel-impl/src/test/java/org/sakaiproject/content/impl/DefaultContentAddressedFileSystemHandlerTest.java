@@ -0,0 +1,128 @@
+/**********************************************************************************
+ * $URL$
+ * $Id$
+ ***********************************************************************************
+ *
+ * Copyright (c) 2018 Sakai Foundation
+ *
+ * Licensed under the Educational Community License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.opensource.org/licenses/ECL-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ **********************************************************************************/
+
+package org.sakaiproject.content.impl;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+
+import org.apache.commons.codec.digest.DigestUtils;
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class DefaultContentAddressedFileSystemHandlerTest {
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	private DefaultContentAddressedFileSystemHandler handler;
+	private String root;
+
+	@Before
+	public void setUp() {
+		handler = new DefaultContentAddressedFileSystemHandler();
+		handler.init();
+		handler.setGracePeriod(0);
+		root = folder.getRoot().getAbsolutePath();
+	}
+
+	@Test
+	public void testCopiesShareBody() throws Exception {
+		String digest = DigestUtils.sha256Hex("Hello World");
+		assertEquals(11L, save("/a", "/2017/001/a", "Hello World"));
+		assertEquals(11L, save("/b", "/2017/002/b", "Hello World"));
+		save("/c", "/2017/003/c", "Something else");
+
+		assertEquals(2, handler.getReferenceCount(root, digest));
+		assertEquals("Hello World", read("/a", "/2017/001/a"));
+		assertEquals("Hello World", read("/b", "/2017/002/b"));
+		assertTrue(Files.isSameFile(new File(root, "/2017/001/a").toPath(), new File(root, "/2017/002/b").toPath()));
+		assertEquals(0, handler.getReferenceCount(root, DigestUtils.sha256Hex("missing")));
+	}
+
+	@Test
+	public void testRewriteDoesNotChangeCopies() throws Exception {
+		save("/a", "/2017/001/a", "Hello World");
+		save("/b", "/2017/002/b", "Hello World");
+		save("/a", "/2017/001/a", "Goodbye");
+
+		assertEquals("Goodbye", read("/a", "/2017/001/a"));
+		assertEquals("Hello World", read("/b", "/2017/002/b"));
+		assertEquals(1, handler.getReferenceCount(root, DigestUtils.sha256Hex("Hello World")));
+	}
+
+	@Test
+	public void testCollectGarbage() throws Exception {
+		save("/a", "/2017/001/a", "Hello World");
+		save("/b", "/2017/002/b", "Hello World");
+		save("/c", "/2017/003/c", "Something else");
+
+		assertTrue(handler.delete("/a", root, "/2017/001/a"));
+		assertEquals(0L, handler.collectGarbage(root));
+		assertTrue(handler.delete("/b", root, "/2017/002/b"));
+		assertEquals(11L, handler.collectGarbage(root));
+
+		assertEquals(0, handler.getReferenceCount(root, DigestUtils.sha256Hex("Hello World")));
+		assertEquals(1, handler.getReferenceCount(root, DigestUtils.sha256Hex("Something else")));
+		assertEquals("Something else", read("/c", "/2017/003/c"));
+	}
+
+	@Test
+	public void testMigrate() throws Exception {
+		// written before the store was in use
+		FileUtils.writeStringToFile(new File(root, "/2016/001/a"), "Hello World", StandardCharsets.UTF_8);
+		FileUtils.writeStringToFile(new File(root, "/2016/002/b"), "Hello World", StandardCharsets.UTF_8);
+		FileUtils.writeStringToFile(new File(root, "/2016/003/c"), "Something else", StandardCharsets.UTF_8);
+
+		assertEquals(3L, handler.migrate(root));
+		assertEquals(0L, handler.migrate(root));
+		assertEquals(2, handler.getReferenceCount(root, DigestUtils.sha256Hex("Hello World")));
+		assertEquals(1, handler.getReferenceCount(root, DigestUtils.sha256Hex("Something else")));
+		assertEquals("Hello World", read("/a", "/2016/001/a"));
+		assertEquals("Hello World", read("/b", "/2016/002/b"));
+
+		// new uploads share the migrated bodies
+		save("/d", "/2017/004/d", "Hello World");
+		assertEquals(3, handler.getReferenceCount(root, DigestUtils.sha256Hex("Hello World")));
+		assertFalse(new File(root, ".sha256/tmp").list().length > 0);
+	}
+
+	private long save(String id, String filePath, String content) throws Exception {
+		return handler.saveInputStream(id, root, filePath, new ByteArrayInputStream(content.getBytes(StandardCharsets.UTF_8)));
+	}
+
+	private String read(String id, String filePath) throws Exception {
+		try (InputStream in = handler.getInputStream(id, root, filePath)) {
+			return IOUtils.toString(in, StandardCharsets.UTF_8);
+		}
+	}
+}
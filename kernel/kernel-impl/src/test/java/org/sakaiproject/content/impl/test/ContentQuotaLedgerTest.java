@@ -0,0 +1,172 @@
+/**********************************************************************************
+ * $URL$
+ * $Id$
+ ***********************************************************************************
+ *
+ * Copyright (c) 2018 Sakai Foundation
+ *
+ * Licensed under the Educational Community License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.opensource.org/licenses/ECL-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ **********************************************************************************/
+
+package org.sakaiproject.content.impl.test;
+
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.util.Properties;
+import java.util.UUID;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.junit.Assert;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.sakaiproject.content.api.ContentCollectionEdit;
+import org.sakaiproject.content.api.ContentHostingService;
+import org.sakaiproject.content.api.ContentResourceEdit;
+import org.sakaiproject.db.api.SqlService;
+import org.sakaiproject.exception.ServerOverloadException;
+import org.sakaiproject.test.SakaiKernelTestBase;
+import org.sakaiproject.tool.api.Session;
+import org.sakaiproject.tool.api.SessionManager;
+
+/**
+ * Checks the per-context size totals follow resources being added, changed, removed and reconciled.
+ */
+public class ContentQuotaLedgerTest extends SakaiKernelTestBase {
+	private static Logger log = LoggerFactory.getLogger(ContentQuotaLedgerTest.class);
+
+	@BeforeClass
+	public static void beforeClass() {
+		try {
+			Properties properties = new Properties();
+			properties.put("org.sakaiproject.content.api.ContentHostingService@bodyPath",
+					Files.createTempDirectory(FileSystems.getDefault().getPath(System.getProperty("java.io.tmpdir")), "files").toString());
+			properties.put("org.sakaiproject.content.api.ContentHostingService@bodyPathDeleted",
+					Files.createTempDirectory(FileSystems.getDefault().getPath(System.getProperty("java.io.tmpdir")), "deleted").toString());
+			oneTimeSetup(null, null, properties);
+		} catch (Exception e) {
+			log.warn(e.getMessage(), e);
+		}
+	}
+
+	@Test
+	public void testLedgerFollowsResources() throws Exception {
+		ContentHostingService ch = getService(ContentHostingService.class);
+		SqlService sql = getService(SqlService.class);
+		SessionManager sm = getService(SessionManager.class);
+		Session session = sm.getCurrentSession();
+		session.setUserId("admin");
+		session.setUserEid("admin");
+
+		String context = "ledger-" + UUID.randomUUID().toString();
+		String root = "/group/" + context + "/";
+		ContentCollectionEdit collection = ch.addCollection(root);
+		ch.commitCollection(collection);
+
+		addResource(ch, root + "first", 3000);
+		// the quota check of the first commit counts the context, the commit adds to the count
+		Assert.assertEquals("3000", sql.dbRead("select TOTAL_SIZE from CONTENT_QUOTA_LEDGER where CONTEXT = ?", new Object[] {context}, null).get(0));
+		Assert.assertEquals(3L, ch.getCollection(root).getBodySizeK());
+
+		addResource(ch, root + "second", 5000);
+		Assert.assertEquals(8L, ch.getCollection(root).getBodySizeK());
+
+		ContentResourceEdit edit = ch.editResource(root + "first");
+		edit.setContent(new byte[1000]);
+		ch.commitResource(edit);
+		Assert.assertEquals(6L, ch.getCollection(root).getBodySizeK());
+
+		ch.removeResource(root + "second");
+		Assert.assertEquals(1L, ch.getCollection(root).getBodySizeK());
+
+		// a context waiting to be counted is counted on its next read
+		sql.dbWrite("update CONTENT_QUOTA_LEDGER set TOTAL_SIZE = null where CONTEXT = ?", new Object[] {context});
+		addResource(ch, root + "third", 2000);
+		Assert.assertEquals(3L, ch.getCollection(root).getBodySizeK());
+		ch.removeResource(root + "third");
+		Assert.assertEquals(1L, ch.getCollection(root).getBodySizeK());
+
+		// drift is repaired by reconciling
+		sql.dbWrite("update CONTENT_QUOTA_LEDGER set TOTAL_SIZE = 123456 where CONTEXT = ?", new Object[] {context});
+		Assert.assertEquals(123L, ch.getCollection(root).getBodySizeK());
+		ch.reconcileQuotaLedger();
+		Assert.assertEquals(1L, ch.getCollection(root).getBodySizeK());
+	}
+
+	@Test
+	public void testLedgerRollsBackWithResource() throws Exception {
+		ContentHostingService ch = getService(ContentHostingService.class);
+		SqlService sql = getService(SqlService.class);
+		SessionManager sm = getService(SessionManager.class);
+		Session session = sm.getCurrentSession();
+		session.setUserId("admin");
+		session.setUserEid("admin");
+
+		String context = "ledger-" + UUID.randomUUID().toString();
+		String root = "/group/" + context + "/";
+		ContentCollectionEdit collection = ch.addCollection(root);
+		ch.commitCollection(collection);
+		addResource(ch, root + "first", 3000);
+		Assert.assertEquals(3L, ch.getCollection(root).getBodySizeK());
+
+		// the resource and its size in the ledger are written in the same transaction, so a failed ledger write leaves the
+		// resource as it was stored when it was added
+		sql.dbWrite("alter table CONTENT_QUOTA_LEDGER add constraint LEDGER_TEST_LIMIT check (TOTAL_SIZE < 4000)");
+		try {
+			// the failure is logged rather than thrown
+			addResource(ch, root + "second", 5000);
+		} catch (RuntimeException e) {
+			// it may be thrown as well
+		} finally {
+			sql.dbWrite("alter table CONTENT_QUOTA_LEDGER drop constraint LEDGER_TEST_LIMIT");
+		}
+		Assert.assertEquals("0", sql.dbRead("select FILE_SIZE from CONTENT_RESOURCE where RESOURCE_ID = ?", new Object[] {root + "second"}, null).get(0));
+		Assert.assertEquals(3L, ch.getCollection(root).getBodySizeK());
+	}
+
+	@Test
+	public void testLedgerUnchangedWhenResourceNotWritten() throws Exception {
+		ContentHostingService ch = getService(ContentHostingService.class);
+		SqlService sql = getService(SqlService.class);
+		SessionManager sm = getService(SessionManager.class);
+		Session session = sm.getCurrentSession();
+		session.setUserId("admin");
+		session.setUserEid("admin");
+
+		String context = "ledger-" + UUID.randomUUID().toString();
+		String root = "/group/" + context + "/";
+		ContentCollectionEdit collection = ch.addCollection(root);
+		ch.commitCollection(collection);
+		addResource(ch, root + "first", 3000);
+		Assert.assertEquals(3L, ch.getCollection(root).getBodySizeK());
+
+		// the resource can be added but not written with its content, so its size must not reach the ledger
+		sql.dbWrite("alter table CONTENT_RESOURCE add constraint RESOURCE_TEST_LIMIT check (FILE_SIZE < 4000)");
+		try {
+			// the failure is logged rather than thrown
+			addResource(ch, root + "second", 5000);
+		} catch (ServerOverloadException | RuntimeException e) {
+			// it may be thrown as well
+		} finally {
+			sql.dbWrite("alter table CONTENT_RESOURCE drop constraint RESOURCE_TEST_LIMIT");
+		}
+		Assert.assertEquals("3000", sql.dbRead("select TOTAL_SIZE from CONTENT_QUOTA_LEDGER where CONTEXT = ?", new Object[] {context}, null).get(0));
+	}
+
+	private void addResource(ContentHostingService ch, String id, int size) throws Exception {
+		ContentResourceEdit resource = ch.addResource(id);
+		resource.setContent(new byte[size]);
+		ch.commitResource(resource);
+	}
+}
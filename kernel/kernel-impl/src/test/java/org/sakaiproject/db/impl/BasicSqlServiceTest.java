@@ -0,0 +1,246 @@
+/**********************************************************************************
+ * $URL$
+ * $Id$
+ ***********************************************************************************
+ *
+ * Copyright (c) 2018 Sakai Foundation
+ *
+ * Licensed under the Educational Community License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.opensource.org/licenses/ECL-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ **********************************************************************************/
+
+package org.sakaiproject.db.impl;
+
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.ArgumentMatchers.isNull;
+import static org.mockito.Mockito.atLeastOnce;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.spy;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import javax.sql.DataSource;
+
+import org.hsqldb.jdbc.JDBCDataSource;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.sakaiproject.event.api.UsageSessionService;
+import org.sakaiproject.thread_local.api.ThreadLocalManager;
+
+public class BasicSqlServiceTest {
+
+	private BasicSqlService sqlService;
+	private ThreadLocalManager threadLocalManager;
+	private SqlMetrics sqlMetrics;
+	private JDBCDataSource hsql;
+	private Connection conn;
+	private Connection failing;
+
+	@Before
+	public void setUp() throws SQLException {
+		hsql = new JDBCDataSource();
+		hsql.setUrl("jdbc:hsqldb:mem:BasicSqlServiceTest");
+		hsql.setUser("sa");
+		DataSource dataSource = mock(DataSource.class);
+		when(dataSource.getConnection()).thenAnswer(invocation -> {
+			if (failing != null) {
+				Connection rv = failing;
+				failing = null;
+				return rv;
+			}
+			return conn = spy(hsql.getConnection());
+		});
+
+		threadLocalManager = mock(ThreadLocalManager.class);
+		Map<String, Object> threadLocals = new HashMap<>();
+		doAnswer(invocation -> threadLocals.put(invocation.getArgument(0), invocation.getArgument(1))).when(threadLocalManager).set(anyString(), any());
+		when(threadLocalManager.get(anyString())).thenAnswer(invocation -> threadLocals.get(invocation.getArgument(0)));
+		sqlMetrics = mock(SqlMetrics.class);
+		sqlService = new BasicSqlService() {
+			protected UsageSessionService usageSessionService() {
+				return mock(UsageSessionService.class);
+			}
+
+			protected ThreadLocalManager threadLocalManager() {
+				return threadLocalManager;
+			}
+		};
+		Map<String, SqlServiceSql> databaseBeans = new HashMap<>();
+		databaseBeans.put("default", new BasicSqlServiceSqlDefault());
+		databaseBeans.put("hsqldb", new BasicSqlServiceSqlHSql() {
+			public boolean isDeadLockError(int errorCode) {
+				return errorCode == 1213;
+			}
+		});
+		sqlService.setDatabaseBeans(databaseBeans);
+		sqlService.setDefaultDataSource(dataSource);
+		sqlService.setSqlMetrics(sqlMetrics);
+		sqlService.init();
+
+		sqlService.dbWrite("CREATE TABLE STREAM_TEST (ID INTEGER, NAME VARCHAR(10))");
+		for (int i = 0; i < 20; i++) {
+			sqlService.dbWrite("INSERT INTO STREAM_TEST VALUES (?, ?)", new Object[] {i, (i % 5 == 0) ? null : "name" + i});
+		}
+	}
+
+	@After
+	public void tearDown() {
+		sqlService.dbWrite("DROP TABLE STREAM_TEST");
+	}
+
+	@Test
+	public void testDbReadStream() throws SQLException {
+		List<Integer> ids;
+		try (Stream<Integer> stream = sqlService.dbReadStream("SELECT ID FROM STREAM_TEST WHERE ID >= ? ORDER BY ID", new Object[] {10}, 3,
+				result -> Integer.valueOf(getString(result, 1)))) {
+			ids = stream.collect(Collectors.toList());
+		}
+		Assert.assertEquals(10, ids.size());
+		Assert.assertEquals(Integer.valueOf(19), ids.get(9));
+		verify(sqlMetrics).sqlRead(anyString(), any(Object[].class), eq(10L), anyLong());
+
+		// without a reader the first field is read, the nulls are left out as with dbRead
+		try (Stream<Object> stream = sqlService.dbReadStream("SELECT NAME FROM STREAM_TEST ORDER BY ID", null, null)) {
+			Assert.assertEquals(sqlService.dbRead("SELECT NAME FROM STREAM_TEST ORDER BY ID"), stream.collect(Collectors.toList()));
+		}
+	}
+
+	@Test
+	public void testDbReadStreamReturnsConnection() throws SQLException {
+		Stream<String> stream = sqlService.dbReadStream("SELECT NAME FROM STREAM_TEST ORDER BY ID", null, result -> getString(result, 1));
+		Assert.assertEquals(2, stream.limit(2).count());
+		verify(conn, times(0)).close();
+		stream.close();
+		verify(conn).close();
+		verify(sqlMetrics).sqlRead(anyString(), isNull(), eq(3L), anyLong());
+
+		// a failing query is an empty stream
+		try (Stream<String> failed = sqlService.dbReadStream("SELECT NOTHING FROM STREAM_TEST", null, null)) {
+			Assert.assertEquals(0, failed.count());
+		}
+		verify(conn).close();
+	}
+
+	@Test
+	public void testMetrics() {
+		Assert.assertTrue(sqlService.transact(() -> sqlService.dbWrite("UPDATE STREAM_TEST SET NAME = ? WHERE ID < ?", new Object[] {"x", 3}), "test"));
+		verify(sqlMetrics).sqlWritten(eq("UPDATE STREAM_TEST SET NAME = ? WHERE ID < ?"), any(Object[].class), eq(3L), anyLong());
+		verify(sqlMetrics).transactionCompleted(eq("test"), anyLong());
+		verify(sqlMetrics, atLeastOnce()).connectionBorrowed(anyLong());
+	}
+
+	@Test
+	public void testDbWriteBatch() throws SQLException {
+		sqlService.setBatchSize("3");
+		List<Object[]> rows = new ArrayList<>();
+		for (int i = 20; i < 30; i++) {
+			rows.add(new Object[] {i, "name" + i});
+		}
+		Assert.assertEquals(10, sqlService.dbWriteBatch("INSERT INTO STREAM_TEST VALUES (?, ?)", rows));
+		verify(conn).commit();
+		Assert.assertEquals("10", sqlService.dbRead("SELECT COUNT(*) FROM STREAM_TEST WHERE ID >= 20").get(0));
+		verify(sqlMetrics).sqlWritten(eq("INSERT INTO STREAM_TEST VALUES (?, ?)"), isNull(), eq(10L), anyLong());
+
+		// in a transaction, on its connection
+		List<Object[]> deletes = new ArrayList<>();
+		deletes.add(new Object[] {20});
+		deletes.add(new Object[] {21});
+		deletes.add(new Object[] {99});
+		final int[] deleted = new int[1];
+		Assert.assertTrue(sqlService.transact(() -> deleted[0] = sqlService.dbWriteBatch("DELETE FROM STREAM_TEST WHERE ID = ?", deletes), "test"));
+		Assert.assertEquals(2, deleted[0]);
+		Assert.assertEquals("8", sqlService.dbRead("SELECT COUNT(*) FROM STREAM_TEST WHERE ID >= 20").get(0));
+		Assert.assertEquals(0, sqlService.dbWriteBatch("DELETE FROM STREAM_TEST", new ArrayList<>()));
+	}
+
+	@Test
+	public void testDbWriteBatchDeadlockRetry() throws SQLException {
+		failing = mock(Connection.class);
+		when(failing.prepareStatement(anyString())).thenThrow(new SQLException("deadlock", "40001", 1213));
+		List<Object[]> rows = new ArrayList<>();
+		rows.add(new Object[] {30, "name30"});
+		Assert.assertEquals(1, sqlService.dbWriteBatch("INSERT INTO STREAM_TEST VALUES (?, ?)", rows));
+		Assert.assertEquals("1", sqlService.dbRead("SELECT COUNT(*) FROM STREAM_TEST WHERE ID = 30").get(0));
+	}
+
+	@Test
+	public void testDbWriteBatchSkipsDuplicates() {
+		sqlService.setBatchSize("2");
+		sqlService.dbWrite("ALTER TABLE STREAM_TEST ADD PRIMARY KEY (ID)");
+		List<Object[]> rows = new ArrayList<>();
+		rows.add(new Object[] {40, "name40"});
+		rows.add(new Object[] {1, "other1"});
+		rows.add(new Object[] {41, "name41"});
+		rows.add(new Object[] {42, "name42"});
+		rows.add(new Object[] {42, "other42"});
+		Assert.assertEquals(3, sqlService.dbWriteBatch("INSERT INTO STREAM_TEST VALUES (?, ?)", rows));
+		Assert.assertEquals("3", sqlService.dbRead("SELECT COUNT(*) FROM STREAM_TEST WHERE ID >= 40").get(0));
+		Assert.assertEquals("name1", sqlService.dbRead("SELECT NAME FROM STREAM_TEST WHERE ID = 1").get(0));
+		Assert.assertEquals("name42", sqlService.dbRead("SELECT NAME FROM STREAM_TEST WHERE ID = 42").get(0));
+
+		// in a transaction the rows before and after the duplicate are kept too
+		rows.clear();
+		rows.add(new Object[] {43, "name43"});
+		rows.add(new Object[] {2, "other2"});
+		final int[] written = new int[1];
+		Assert.assertTrue(sqlService.transact(() -> written[0] = sqlService.dbWriteBatch("INSERT INTO STREAM_TEST VALUES (?, ?)", rows), "test"));
+		Assert.assertEquals(1, written[0]);
+		Assert.assertEquals("4", sqlService.dbRead("SELECT COUNT(*) FROM STREAM_TEST WHERE ID >= 40").get(0));
+	}
+
+	@Test(expected = RuntimeException.class)
+	public void testDbWriteBatchFailure() {
+		List<Object[]> rows = new ArrayList<>();
+		rows.add(new Object[] {40, "name40"});
+		rows.add(new Object[] {41, "a name too long"});
+		sqlService.dbWriteBatch("INSERT INTO STREAM_TEST VALUES (?, ?)", rows);
+	}
+
+	private String getString(ResultSet result, int column) {
+		try {
+			return result.getString(column);
+		} catch (SQLException e) {
+			throw new RuntimeException(e);
+		}
+	}
+
+	@Test
+	public void testMySqlStreamingStatement() throws SQLException {
+		Connection conn = mock(Connection.class);
+		PreparedStatement pstmt = mock(PreparedStatement.class);
+		when(conn.prepareStatement(anyString(), anyInt(), anyInt())).thenReturn(pstmt);
+		new BasicSqlServiceSqlMySql().prepareStreamingStatement(conn, "SELECT 1", 100);
+		verify(conn).prepareStatement("SELECT 1", ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY);
+		verify(pstmt).setFetchSize(Integer.MIN_VALUE);
+	}
+
+}
@@ -0,0 +1,107 @@
+/**********************************************************************************
+ * $URL$
+ * $Id$
+ ***********************************************************************************
+ *
+ * Copyright (c) 2018 Sakai Foundation
+ *
+ * Licensed under the Educational Community License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.opensource.org/licenses/ECL-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ **********************************************************************************/
+
+package org.sakaiproject.db.impl;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class SqlStatisticsTest {
+
+	@Test
+	public void testShape() {
+		Assert.assertEquals("SELECT A FROM T WHERE B = ? AND C IN (?...) AND D = ?",
+				SqlStatistics.shape("SELECT A FROM T\n\tWHERE B = 'it''s'  AND C IN (?,?, ?) AND D = 12.5"));
+		Assert.assertEquals("SELECT COL1 FROM T2 WHERE X = ?", SqlStatistics.shape(" SELECT COL1 FROM T2 WHERE X = 3 "));
+		Assert.assertEquals("INSERT INTO T VALUES (?...)", SqlStatistics.shape("INSERT INTO T VALUES (?, 'a', 4)"));
+	}
+
+	@Test
+	public void testHistogram() {
+		LatencyHistogram histogram = new LatencyHistogram();
+		for (int i = 1; i <= 1000; i++) {
+			histogram.record(TimeUnit.MILLISECONDS.toNanos(i));
+		}
+		Assert.assertEquals(1000, histogram.getCount());
+		Assert.assertEquals(1000000, histogram.getMaxMicros());
+		// within the precision of the buckets
+		Assert.assertEquals(500000, histogram.getPercentileMicros(50), 500000 * 0.04);
+		Assert.assertEquals(990000, histogram.getPercentileMicros(99), 990000 * 0.04);
+		Assert.assertEquals(1000000, histogram.getPercentileMicros(100));
+
+		for (long micros : new long[] {0, 1, 63, 64, 65, 1000, 123456789}) {
+			int index = LatencyHistogram.index(micros);
+			Assert.assertTrue(LatencyHistogram.highestValue(index) >= micros);
+			Assert.assertTrue(index == 0 || LatencyHistogram.highestValue(index - 1) < micros);
+		}
+	}
+
+	@Test
+	public void testStatistics() {
+		SqlStatistics statistics = new SqlStatistics();
+		statistics.setSlowThreshold(100);
+		statistics.setSlowCapacity(2);
+		statistics.setSlowParameters(true);
+		statistics.setMaxShapes(2);
+
+		statistics.sqlRead("SELECT A FROM T WHERE B = 1", null, 5, TimeUnit.MILLISECONDS.toNanos(2));
+		statistics.sqlRead("SELECT A FROM T WHERE B = 2", null, 3, TimeUnit.MILLISECONDS.toNanos(200));
+		statistics.sqlWritten("UPDATE T SET A = ?", new Object[] {"a", new byte[10]}, 4, TimeUnit.MILLISECONDS.toNanos(300));
+		statistics.sqlWritten("DELETE FROM T", null, 1, TimeUnit.MILLISECONDS.toNanos(1));
+		statistics.sqlRead("SELECT B FROM T", null, 1, TimeUnit.MILLISECONDS.toNanos(150));
+
+		Assert.assertEquals(9, statistics.getRowsRead());
+		Assert.assertEquals(5, statistics.getRowsWritten());
+		Map<String, String> statements = statistics.getStatements();
+		Assert.assertEquals(3, statements.size());
+		// the most time first, the shapes over the maximum are counted together
+		Assert.assertEquals("UPDATE T SET A = ?", statements.keySet().iterator().next());
+		Assert.assertTrue(statements.get("SELECT A FROM T WHERE B = ?").startsWith("count=2 "));
+		Assert.assertTrue(statements.get(SqlStatistics.OTHER_SHAPE).endsWith("rowsRead=1 rowsWritten=1"));
+
+		// only the most recent slow statements are kept
+		List<String> slow = statistics.getSlowStatements();
+		Assert.assertEquals(2, slow.size());
+		Assert.assertTrue(slow.toString(), slow.get(0).contains("SELECT B FROM T") || slow.get(1).contains("SELECT B FROM T"));
+		Assert.assertTrue(slow.toString(), slow.toString().contains("binds: a, byte[10]"));
+
+		statistics.reset();
+		Assert.assertTrue(statistics.getStatements().isEmpty());
+		Assert.assertTrue(statistics.getSlowStatements().isEmpty());
+	}
+
+	@Test
+	public void testSlowParametersNotKeptByDefault() {
+		SqlStatistics statistics = new SqlStatistics();
+		statistics.setSlowThreshold(100);
+
+		statistics.sqlWritten("UPDATE T SET A = ?", new Object[] {"secret"}, 1, TimeUnit.MILLISECONDS.toNanos(300));
+
+		List<String> slow = statistics.getSlowStatements();
+		Assert.assertEquals(1, slow.size());
+		Assert.assertFalse(slow.get(0), slow.get(0).contains("secret"));
+	}
+
+}
@@ -0,0 +1,165 @@
+/**********************************************************************************
+ * $URL$
+ * $Id$
+ ***********************************************************************************
+ *
+ * Copyright (c) 2018 Sakai Foundation
+ *
+ * Licensed under the Educational Community License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.opensource.org/licenses/ECL-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ **********************************************************************************/
+
+package org.sakaiproject.event.impl;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.Observable;
+import java.util.Observer;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.sakaiproject.event.api.Event;
+import org.sakaiproject.event.api.SimpleEvent;
+
+public class AsyncObserverDispatcherTest {
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	private AsyncObserverDispatcher dispatcher;
+	private CountDownLatch gate;
+	private List<String> seen;
+	private Observer observer;
+
+	@Before
+	public void setUp() {
+		dispatcher = new AsyncObserverDispatcher(new Observable());
+		dispatcher.setQueueSize(2);
+		gate = new CountDownLatch(1);
+		seen = Collections.synchronizedList(new ArrayList<String>());
+		// waits for the gate on the first event so the queue fills up behind it
+		observer = new Observer() {
+			public void update(Observable o, Object arg) {
+				try {
+					gate.await(10, TimeUnit.SECONDS);
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+				}
+				seen.add(((Event) arg).getEvent());
+			}
+		};
+	}
+
+	@After
+	public void tearDown() {
+		dispatcher.shutdown();
+	}
+
+	@Test
+	public void testDispatchOffPostingThread() throws Exception {
+		dispatcher.addObserver(observer);
+		dispatcher.dispatch(event("e1"));
+		// the posting thread is not held up by the observer
+		assertEquals(0, seen.size());
+		gate.countDown();
+		waitFor(1);
+		assertEquals(Collections.singletonList("e1"), seen);
+		assertEquals(1, dispatcher.getQueues().get(0).getDispatched());
+	}
+
+	@Test
+	public void testDropOldest() throws Exception {
+		dispatcher.setOverflowPolicy(AsyncObserverDispatcher.OverflowPolicy.DROP_OLDEST);
+		dispatcher.addObserver(observer);
+		dispatcher.dispatch(event("e1"));
+		waitForDepth(0);
+		// e1 is being processed, e2 and e3 fill the queue, e4 pushes e2 out
+		dispatcher.dispatch(event("e2"));
+		dispatcher.dispatch(event("e3"));
+		dispatcher.dispatch(event("e4"));
+		assertEquals(1, dispatcher.getQueues().get(0).getDropped());
+		gate.countDown();
+		waitFor(3);
+		assertEquals(java.util.Arrays.asList("e1", "e3", "e4"), seen);
+	}
+
+	@Test
+	public void testSpillKeepsOrder() throws Exception {
+		File spillDirectory = folder.newFolder();
+		dispatcher.setOverflowPolicy(AsyncObserverDispatcher.OverflowPolicy.SPILL);
+		dispatcher.setSpillDirectory(spillDirectory);
+		dispatcher.addObserver(observer);
+		dispatcher.dispatch(event("e1"));
+		waitForDepth(0);
+		for (int i = 2; i <= 6; i++) {
+			dispatcher.dispatch(event("e" + i));
+		}
+		AsyncObserverDispatcher.ObserverQueue queue = dispatcher.getQueues().get(0);
+		assertEquals(3, queue.getSpilled());
+		assertEquals(5, queue.getDepth());
+		gate.countDown();
+		waitFor(6);
+		assertEquals(java.util.Arrays.asList("e1", "e2", "e3", "e4", "e5", "e6"), seen);
+		assertEquals(0, queue.getDropped());
+	}
+
+	@Test
+	public void testDeleteObserver() throws Exception {
+		dispatcher.addObserver(observer);
+		dispatcher.addObserver(observer);
+		assertEquals(1, dispatcher.getQueues().size());
+		dispatcher.deleteObserver(observer);
+		assertTrue(dispatcher.getQueues().isEmpty());
+	}
+
+	private void waitFor(int count) throws InterruptedException {
+		long end = System.currentTimeMillis() + 10000;
+		while (seen.size() < count && System.currentTimeMillis() < end) {
+			Thread.sleep(10);
+		}
+		assertEquals(count, seen.size());
+	}
+
+	private void waitForDepth(int depth) throws InterruptedException {
+		long end = System.currentTimeMillis() + 10000;
+		while (dispatcher.getQueues().get(0).getDepth() != depth && System.currentTimeMillis() < end) {
+			Thread.sleep(10);
+		}
+	}
+
+	private Event event(String name) {
+		Event event = new Event() {
+			public String getEvent() { return name; }
+			public String getResource() { return "/test"; }
+			public org.sakaiproject.event.api.LearningResourceStoreService.LRS_Statement getLrsStatement() { return null; }
+			public String getContext() { return null; }
+			public String getSessionId() { return null; }
+			public String getUserId() { return "user"; }
+			public boolean getModify() { return false; }
+			public int getPriority() { return 0; }
+			public Date getEventTime() { return new Date(); }
+		};
+		return new SimpleEvent(event, "server");
+	}
+}
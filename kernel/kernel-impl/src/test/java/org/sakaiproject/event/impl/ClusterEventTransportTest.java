@@ -0,0 +1,223 @@
+/**********************************************************************************
+ * $URL$
+ * $Id$
+ ***********************************************************************************
+ *
+ * Copyright (c) 2018 Sakai Foundation
+ *
+ * Licensed under the Educational Community License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.opensource.org/licenses/ECL-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ **********************************************************************************/
+
+package org.sakaiproject.event.impl;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Test;
+import org.sakaiproject.authz.api.SecurityService;
+import org.sakaiproject.component.api.ServerConfigurationService;
+import org.sakaiproject.db.api.SqlService;
+import org.sakaiproject.entity.api.EntityManager;
+import org.sakaiproject.event.api.Event;
+import org.sakaiproject.event.api.SimpleEvent;
+import org.sakaiproject.event.api.UsageSessionService;
+import org.sakaiproject.memory.api.Cache;
+import org.sakaiproject.memory.api.MemoryService;
+import org.sakaiproject.time.api.TimeService;
+import org.sakaiproject.tool.api.SessionManager;
+import org.sakaiproject.tool.api.ToolManager;
+
+public class ClusterEventTransportTest {
+
+	private List<LoopbackClusterEventTransport> transports = new ArrayList<>();
+
+	@After
+	public void tearDown() {
+		for (LoopbackClusterEventTransport transport : transports) {
+			transport.stop();
+		}
+	}
+
+	@Test
+	public void testLoopbackDeliversToOtherServersOnly() {
+		List<ClusterEventBatch> received1 = new ArrayList<>();
+		List<ClusterEventBatch> received2 = new ArrayList<>();
+		List<ClusterEventBatch> received3 = new ArrayList<>();
+		LoopbackClusterEventTransport node1 = transport("test", "node1-1", received1);
+		transport("test", "node2-1", received2);
+		transport("other", "node3-1", received3);
+
+		node1.publish(batch("node1", 1L, 1, 10));
+
+		assertEquals(0, received1.size());
+		assertEquals(1, received2.size());
+		assertEquals(0, received3.size());
+		assertEquals(10, received2.get(0).getEventId(0));
+	}
+
+	@Test
+	public void testEventsArePublishedWithClusterCaching() {
+		List<ClusterEventBatch> received = new ArrayList<>();
+		transport("caching", "node2-1", received);
+		LoopbackClusterEventTransport node1 = new LoopbackClusterEventTransport();
+		node1.setChannel("caching");
+		transports.add(node1);
+
+		ServerConfigurationService config = mock(ServerConfigurationService.class);
+		when(config.getServerId()).thenReturn("node1");
+		when(config.getServerIdInstance()).thenReturn("node1-1");
+		when(config.getBoolean("memory.cluster.enabled", false)).thenReturn(true);
+		when(config.getStrings("memory.cluster.names")).thenReturn(new String[] {
+				"org.sakaiproject.event.impl.ClusterEventTracking.eventsCache",
+				"org.sakaiproject.event.impl.ClusterEventTracking.eventLastCache"});
+		MemoryService memory = mock(MemoryService.class);
+		Cache cache = mock(Cache.class);
+		when(memory.newCache(anyString())).thenReturn(cache);
+		SqlService sql = mock(SqlService.class);
+		when(sql.getVendor()).thenReturn("default");
+		when(sql.dbInsert(any(), anyString(), any(), eq("EVENT_ID"))).thenReturn(42L);
+
+		ClusterEventTracking tracking = tracking(sql, config, memory);
+		tracking.setTransport(node1);
+		tracking.setCheckDb("false");
+		tracking.setBatchWrite("false");
+		tracking.init();
+		try {
+			tracking.postEvent(tracking.newEvent("test.event", "/test/resource", false));
+		} finally {
+			tracking.destroy();
+		}
+
+		// the event went to the cluster cache and to the transport
+		verify(cache).put(eq("42"), any());
+		assertEquals(1, received.size());
+		assertEquals(42, received.get(0).getEventId(0));
+		assertEquals("node1", received.get(0).getServerId());
+	}
+
+	@Test
+	public void testSequenceInOrder() {
+		ClusterEventSequenceTracker tracker = new ClusterEventSequenceTracker(100, 5);
+		assertEquals(ClusterEventSequenceTracker.Result.FIRST, tracker.track(batch("node1", 1L, 1, 10)));
+		assertEquals(ClusterEventSequenceTracker.Result.IN_ORDER, tracker.track(batch("node1", 1L, 2, 11)));
+		assertEquals(ClusterEventSequenceTracker.Result.FIRST, tracker.track(batch("node2", 1L, 1, 12)));
+		assertEquals(ClusterEventSequenceTracker.NO_CATCH_UP, tracker.takeCatchUp());
+	}
+
+	@Test
+	public void testSequenceGapBeforeFirstBatchRequestsCatchUp() {
+		ClusterEventSequenceTracker tracker = new ClusterEventSequenceTracker(100, 5);
+		// node2 published batches before this one that were never seen
+		assertEquals(ClusterEventSequenceTracker.Result.GAP, tracker.track(batch("node2", 1L, 5, 12)));
+		assertEquals(5, tracker.takeCatchUp());
+		assertEquals(ClusterEventSequenceTracker.Result.IN_ORDER, tracker.track(batch("node2", 1L, 6, 13)));
+		assertEquals(ClusterEventSequenceTracker.NO_CATCH_UP, tracker.takeCatchUp());
+	}
+
+	@Test
+	public void testSequenceGapRequestsCatchUp() {
+		ClusterEventSequenceTracker tracker = new ClusterEventSequenceTracker(100, 5);
+		tracker.track(batch("node1", 1L, 1, 10));
+		tracker.track(batch("node2", 1L, 1, 20));
+		assertEquals(ClusterEventSequenceTracker.Result.GAP, tracker.track(batch("node2", 1L, 3, 30)));
+		assertEquals(ClusterEventSequenceTracker.Result.GAP, tracker.track(batch("node1", 1L, 3, 31)));
+		// the lowest id wins so nothing from either server is missed
+		assertEquals(10, tracker.takeCatchUp());
+		assertEquals(ClusterEventSequenceTracker.NO_CATCH_UP, tracker.takeCatchUp());
+	}
+
+	@Test
+	public void testSequenceRestartAndStale() {
+		ClusterEventSequenceTracker tracker = new ClusterEventSequenceTracker(100, 5);
+		tracker.track(batch("node1", 1L, 1, 10));
+		tracker.track(batch("node1", 1L, 2, 11));
+		assertEquals(ClusterEventSequenceTracker.Result.STALE, tracker.track(batch("node1", 1L, 2, 11)));
+		assertEquals(ClusterEventSequenceTracker.Result.RESTART, tracker.track(batch("node1", 2L, 1, 15)));
+		assertEquals(ClusterEventSequenceTracker.Result.STALE, tracker.track(batch("node1", 1L, 3, 12)));
+		assertEquals(11, tracker.takeCatchUp());
+	}
+
+	@Test
+	public void testDeliveredIsBounded() {
+		ClusterEventSequenceTracker tracker = new ClusterEventSequenceTracker(2, 0);
+		assertTrue(tracker.markDelivered(1));
+		assertFalse(tracker.markDelivered(1));
+		assertTrue(tracker.markDelivered(2));
+		assertTrue(tracker.markDelivered(3));
+		// 1 has been forgotten
+		assertTrue(tracker.markDelivered(1));
+	}
+
+	private LoopbackClusterEventTransport transport(String channel, String serverIdInstance, final List<ClusterEventBatch> received) {
+		LoopbackClusterEventTransport transport = new LoopbackClusterEventTransport();
+		transport.setChannel(channel);
+		transport.start(serverIdInstance, received::add);
+		transports.add(transport);
+		return transport;
+	}
+
+	private ClusterEventTracking tracking(final SqlService sql, final ServerConfigurationService config, final MemoryService memory) {
+		final UsageSessionService usageSessionService = mock(UsageSessionService.class);
+		final SessionManager sessionManager = mock(SessionManager.class);
+		final SecurityService securityService = mock(SecurityService.class);
+		final ToolManager toolManager = mock(ToolManager.class);
+		final EntityManager entityManager = mock(EntityManager.class);
+		final TimeService timeService = mock(TimeService.class);
+		ClusterEventTracking tracking = new ClusterEventTracking() {
+			protected SqlService sqlService() { return sql; }
+			protected ServerConfigurationService serverConfigurationService() { return config; }
+			protected MemoryService memoryService() { return memory; }
+			protected UsageSessionService usageSessionService() { return usageSessionService; }
+			protected SessionManager sessionManager() { return sessionManager; }
+			protected SecurityService securityService() { return securityService; }
+			protected ToolManager toolManager() { return toolManager; }
+			protected EntityManager entityManager() { return entityManager; }
+			protected TimeService timeService() { return timeService; }
+		};
+		tracking.setDatabaseBeans(Collections.singletonMap("default", new ClusterEventTrackingServiceSqlDefault()));
+		return tracking;
+	}
+
+	private ClusterEventBatch batch(String serverId, long epoch, long sequence, long eventId) {
+		// a restarted server keeps its id but has a new instance
+		String serverIdInstance = serverId + "-" + epoch;
+		Event event = new SimpleEvent(new TestEvent(), serverIdInstance);
+		return new ClusterEventBatch(serverId, serverIdInstance, epoch, sequence, new long[] {eventId}, Collections.singletonList((SimpleEvent) event));
+	}
+
+	private static class TestEvent implements Event {
+		public String getEvent() { return "test.event"; }
+		public String getResource() { return "/test/resource"; }
+		public org.sakaiproject.event.api.LearningResourceStoreService.LRS_Statement getLrsStatement() { return null; }
+		public String getContext() { return null; }
+		public String getSessionId() { return "session"; }
+		public String getUserId() { return "user"; }
+		public boolean getModify() { return false; }
+		public int getPriority() { return 0; }
+		public Date getEventTime() { return new Date(); }
+	}
+}
@@ -0,0 +1,89 @@
+/**********************************************************************************
+ * $URL$
+ * $Id$
+ ***********************************************************************************
+ *
+ * Copyright (c) 2018 Sakai Foundation
+ *
+ * Licensed under the Educational Community License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.opensource.org/licenses/ECL-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ **********************************************************************************/
+
+package org.sakaiproject.memory.impl;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.sakaiproject.memory.api.CacheLoader;
+
+public class BasicMapCacheTest {
+
+	@Test
+	public void testGetAllLoadsMissingKeysOnce() {
+		BasicMapCache<String, String> cache = new BasicMapCache<String, String>("test");
+		cache.put("a", "A");
+		final List<List<String>> loads = new ArrayList<List<String>>();
+		CacheLoader<String, String> loader = new CacheLoader<String, String>() {
+			public String load(String key) {
+				throw new IllegalStateException("Single load of " + key);
+			}
+
+			public Map<String, String> loadAll(Iterable<? extends String> keys) {
+				List<String> load = new ArrayList<String>();
+				Map<String, String> values = new HashMap<String, String>();
+				for (String key : keys) {
+					load.add(key);
+					// "c" doesn't exist
+					if (!"c".equals(key)) values.put(key, key.toUpperCase());
+				}
+				loads.add(load);
+				return values;
+			}
+		};
+
+		Map<String, String> values = cache.getAll(new HashSet<String>(Arrays.asList("a", "b", "c")), loader);
+		Assert.assertEquals(2, values.size());
+		Assert.assertEquals("A", values.get("a"));
+		Assert.assertEquals("B", values.get("b"));
+		Assert.assertEquals(1, loads.size());
+		Assert.assertEquals(new HashSet<String>(Arrays.asList("b", "c")), new HashSet<String>(loads.get(0)));
+		Assert.assertEquals("B", cache.get("b"));
+		Assert.assertFalse(cache.containsKey("c"));
+
+		// without a loader only the cached values are returned
+		values = cache.getAll(new HashSet<String>(Arrays.asList("a", "b", "d")));
+		Assert.assertEquals(2, values.size());
+		Assert.assertFalse(values.containsKey("d"));
+	}
+
+	@Test(expected = IllegalStateException.class)
+	public void testGetAllPropagatesLoaderFailure() {
+		BasicMapCache<String, String> cache = new BasicMapCache<String, String>("test");
+		cache.getAll(new HashSet<String>(Arrays.asList("a")), new CacheLoader<String, String>() {
+			public String load(String key) {
+				throw new IllegalStateException("Single load of " + key);
+			}
+
+			public Map<String, String> loadAll(Iterable<? extends String> keys) {
+				throw new IllegalStateException("Backend down");
+			}
+		});
+	}
+
+}
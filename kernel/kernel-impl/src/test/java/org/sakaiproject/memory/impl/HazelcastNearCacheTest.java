@@ -0,0 +1,153 @@
+/**********************************************************************************
+ * $URL$
+ * $Id$
+ ***********************************************************************************
+ *
+ * Copyright (c) 2018 Sakai Foundation
+ *
+ * Licensed under the Educational Community License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.opensource.org/licenses/ECL-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ **********************************************************************************/
+
+package org.sakaiproject.memory.impl;
+
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import com.hazelcast.config.Config;
+import com.hazelcast.config.JoinConfig;
+import com.hazelcast.core.Hazelcast;
+import com.hazelcast.core.HazelcastInstance;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.sakaiproject.component.api.ServerConfigurationService;
+import org.sakaiproject.memory.api.Cache;
+
+/**
+ * Runs two Hazelcast members in this JVM, each with a near cache in front of the same map.
+ */
+public class HazelcastNearCacheTest {
+
+	private static final String CACHE = "org.sakaiproject.memory.impl.HazelcastNearCacheTest.cache";
+
+	private HazelcastMemoryService service1;
+	private HazelcastMemoryService service2;
+
+	@Before
+	public void setUp() {
+		ServerConfigurationService serverConfigurationService = mock(ServerConfigurationService.class);
+		when(serverConfigurationService.getInt(anyString(), anyInt())).thenAnswer(invocation -> invocation.getArgument(1));
+		when(serverConfigurationService.getInt("memory." + CACHE + ".nearcache.maxEntries", 0)).thenReturn(10);
+		service1 = newService(serverConfigurationService);
+		service2 = newService(serverConfigurationService);
+		Assert.assertEquals(2, service1.hcInstance.getCluster().getMembers().size());
+	}
+
+	@After
+	public void tearDown() {
+		service1.destroy();
+		service2.destroy();
+	}
+
+	private HazelcastMemoryService newService(ServerConfigurationService serverConfigurationService) {
+		Config config = new Config();
+		config.setProperty("hazelcast.logging.type", "slf4j");
+		JoinConfig join = config.getNetworkConfig().getJoin();
+		join.getMulticastConfig().setEnabled(false);
+		join.getTcpIpConfig().setEnabled(true).addMember("127.0.0.1");
+		HazelcastInstance instance = Hazelcast.newHazelcastInstance(config);
+		HazelcastMemoryService service = new HazelcastMemoryService(serverConfigurationService);
+		service.hcInstance = instance;
+		return service;
+	}
+
+	@Test
+	public void testNearCacheInvalidation() throws Exception {
+		Cache<String, String> cache1 = service1.getCache(CACHE);
+		Cache<String, String> cache2 = service2.getCache(CACHE);
+
+		cache1.put("key", "one");
+		Assert.assertEquals("one", cache2.get("key"));
+		// the event for the put may still drop the first copy read
+		for (int i = 0; i < 100 && cache2.getCacheStatistics().getCacheHits() == 0; i++) {
+			Thread.sleep(50);
+			Assert.assertEquals("one", cache2.get("key"));
+		}
+		Assert.assertTrue(cache2.getCacheStatistics().getCacheHits() > 0);
+		Assert.assertTrue(cache2.getCacheStatistics().getCacheMisses() > 0);
+		Assert.assertEquals(0, cache1.getCacheStatistics().getCacheHits());
+
+		// changes on the other member are seen once its event arrives
+		cache1.put("key", "two");
+		Assert.assertEquals("two", await(cache2, "key", "two"));
+		cache1.remove("key");
+		Assert.assertNull(await(cache2, "key", null));
+
+		// clearing fires no entry events
+		cache1.put("key", "three");
+		Assert.assertEquals("three", await(cache2, "key", "three"));
+		cache1.clear();
+		Assert.assertNull(await(cache2, "key", null));
+
+		// and it only holds the most recently read entries
+		for (int i = 0; i < 20; i++) {
+			cache1.put("key" + i, "value" + i);
+		}
+		for (int i = 0; i < 20; i++) {
+			Assert.assertEquals("value" + i, cache2.get("key" + i));
+		}
+		Assert.assertEquals(10, service2.nearCaches.get(CACHE).size());
+		Assert.assertEquals(20, service2.getCache(CACHE).getAll(service1.hcInstance.getMap(CACHE).keySet()).size());
+
+		// only the configured caches have a near cache
+		service2.getCache("other").put("key", "value");
+		Assert.assertFalse(service2.nearCaches.containsKey("other"));
+
+		// closing the cache drops its near cache
+		cache2.close();
+		Assert.assertFalse(service2.nearCaches.containsKey(CACHE));
+	}
+
+	@Test
+	public void testReadsStartedBeforeInvalidation() {
+		HazelcastNearCache<Integer, String> nearCache = new HazelcastNearCache<>(CACHE, 10, 0);
+		long generation1 = nearCache.getGeneration(1);
+		long generation2 = nearCache.getGeneration(2);
+
+		// a read of the key started before it was invalidated is not kept, reads of other keys are
+		nearCache.invalidate(1);
+		nearCache.put(1, "one", generation1);
+		nearCache.put(2, "two", generation2);
+		Assert.assertNull(nearCache.get(1));
+		Assert.assertEquals("two", nearCache.get(2));
+
+		generation2 = nearCache.getGeneration(2);
+		nearCache.invalidateAll();
+		nearCache.put(2, "two", generation2);
+		Assert.assertNull(nearCache.get(2));
+	}
+
+	private String await(Cache<String, String> cache, String key, String expected) throws InterruptedException {
+		String value = cache.get(key);
+		for (int i = 0; i < 100 && (expected == null ? value != null : !expected.equals(value)); i++) {
+			Thread.sleep(50);
+			value = cache.get(key);
+		}
+		return value;
+	}
+
+}
@@ -0,0 +1,143 @@
+/**********************************************************************************
+ * $URL$
+ * $Id$
+ ***********************************************************************************
+ *
+ * Copyright (c) 2018 Sakai Foundation
+ *
+ * Licensed under the Educational Community License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.opensource.org/licenses/ECL-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ **********************************************************************************/
+
+package org.sakaiproject.site.impl;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import org.sakaiproject.site.api.Group;
+import org.sakaiproject.site.api.Site;
+import org.sakaiproject.site.api.SitePage;
+import org.sakaiproject.site.api.SiteService;
+import org.sakaiproject.site.api.ToolConfiguration;
+import org.sakaiproject.test.SakaiKernelTestBase;
+import org.sakaiproject.tool.api.Session;
+import org.sakaiproject.tool.api.SessionManager;
+
+/**
+ * Compares the cost of reading a large site from the site cache: a full copy of the cached site, as getSite
+ * used to make, against the copy getSite makes now where pages and groups are only copied when used.
+ * The "site" access reads what most callers want (title, type, properties), "portal" also walks the pages
+ * and tools as the portal does when rendering the site navigation.
+ * <p>
+ * Run with: mvn test-compile exec:java -Dexec.classpathScope=test -Dexec.mainClass=org.sakaiproject.site.impl.SiteCopyBenchmark
+ * and compare gc.alloc.rate.norm (bytes allocated per read).
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(value = 1, jvmArgs = {"-Xmx1g"})
+public class SiteCopyBenchmark extends SakaiKernelTestBase {
+
+    @Param({"legacy", "shared"})
+    public String copy;
+
+    @Param({"site", "portal"})
+    public String access;
+
+    @Param({"200"})
+    public int tools;
+
+    @Param({"400"})
+    public int groups;
+
+    private BaseSiteService siteService;
+    private String siteId;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        oneTimeSetup();
+        siteService = (BaseSiteService) getService(SiteService.class);
+        Session session = getService(SessionManager.class).getCurrentSession();
+        session.setUserEid("admin");
+        session.setUserId("admin");
+
+        siteId = "copyBenchmark" + tools + "-" + groups;
+        Site site = siteService.addSite(siteId, "course");
+        site.setTitle("Copy benchmark");
+        site.getPropertiesEdit().addProperty("term", "Fall");
+        for (int i = 0; i < tools; i++) {
+            SitePage page = site.addPage();
+            page.setTitle("Page " + i);
+            ToolConfiguration tool = page.addTool();
+            tool.setTool("sakai.iframe", null);
+            tool.setTitle("Tool " + i);
+            tool.getPlacementConfig().setProperty("source", "http://localhost/" + i);
+        }
+        for (int i = 0; i < groups; i++) {
+            Group group = site.addGroup();
+            group.setTitle("Group " + i);
+            group.getProperties().addProperty("group_prop", "value " + i);
+        }
+        siteService.save(site);
+        // load the site into the cache
+        siteService.getSite(siteId);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        oneTimeTearDown();
+    }
+
+    @Benchmark
+    public int read() throws Exception {
+        Site site = siteService.getSite(siteId);
+        if ("legacy".equals(copy)) {
+            site = new BaseSite(siteService, site, true);
+        }
+        int rv = site.getTitle().length() + site.getType().length() + site.getProperties().getProperty("term").length();
+        if ("portal".equals(access)) {
+            for (SitePage page : site.getOrderedPages()) {
+                rv += page.getTitle().length();
+                for (ToolConfiguration tool : page.getTools()) {
+                    rv += tool.getTitle().length();
+                }
+            }
+        }
+        return rv;
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder()
+                .include(SiteCopyBenchmark.class.getSimpleName())
+                .addProfiler(GCProfiler.class)
+                .build()).run();
+    }
+}
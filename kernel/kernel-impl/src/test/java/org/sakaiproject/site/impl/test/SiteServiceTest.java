@@ -16,6 +16,7 @@ import org.sakaiproject.exception.IdUsedException;
 import org.sakaiproject.exception.PermissionException;
 import org.sakaiproject.site.api.Group;
 import org.sakaiproject.site.api.Site;
+import org.sakaiproject.site.api.SitePage;
 import org.sakaiproject.site.api.SiteService;
 import org.sakaiproject.test.SakaiKernelTestBase;
 import org.sakaiproject.tool.api.Session;
@@ -167,4 +168,41 @@ public class SiteServiceTest extends SakaiKernelTestBase {
 			Assert.fail();
 		}
 	}
+
+	/**
+	 * Check that copies of a cached site don't share pages or groups with each other, even though they are
+	 * only copied when first used.
+	 */
+	@Test
+	public void testCachedSiteCopies() throws IdInvalidException, IdUsedException, PermissionException, IdUnusedException {
+		SiteService siteService = getService(SiteService.class);
+		workAsAdmin();
+
+		Site site = siteService.addSite("cachedCopySite", "test");
+		SitePage page = site.addPage();
+		page.setTitle("page");
+		Group group = site.addGroup();
+		group.setTitle("group");
+		siteService.save(site);
+
+		Site first = siteService.getSite("cachedCopySite");
+		Site second = siteService.getSite("cachedCopySite");
+		Assert.assertNotSame(first, second);
+
+		first.getPages().get(0).setTitle("changed");
+		first.getGroups().iterator().next().setTitle("changed");
+		first.addGroup().setTitle("another");
+		Assert.assertSame(first, first.getPages().get(0).getContainingSite());
+		Assert.assertSame(first, first.getGroup(group.getId()).getContainingSite());
+
+		Assert.assertEquals("page", second.getPages().get(0).getTitle());
+		Assert.assertEquals("group", second.getGroup(group.getId()).getTitle());
+		Assert.assertEquals(1, second.getGroups().size());
+		Assert.assertEquals("page", siteService.getSite("cachedCopySite").getPages().get(0).getTitle());
+
+		siteService.save(first);
+		Site saved = siteService.getSite("cachedCopySite");
+		Assert.assertEquals("changed", saved.getPages().get(0).getTitle());
+		Assert.assertEquals(2, saved.getGroups().size());
+	}
 }
@@ -527,6 +527,42 @@ public class SessionComponentRegressionTest extends BaseSessionComponentTest {
 		}
 	}
 	
+	/**
+	 * Verifies that maintenance only examines the sessions which are due to
+	 * expire, rather than every session.
+	 */
+	public void testMaintenanceOnlyExaminesDueSessions() throws InterruptedException {
+		sessionComponent.setInactiveInterval("20");
+		for (int i = 0; i < 100; i++) {
+			MySession active = new MySession(sessionComponent,nextUuid(),threadLocalManager,idManager,
+					sessionComponent,sessionListener,sessionComponent.getInactiveInterval(),new MyNonPortableSession(),
+					new MutableLong(System.currentTimeMillis() + (3600 * 1000L)), null);
+			registerSession(active);
+		}
+
+		final CountDownLatch startedLatch = new CountDownLatch(1);
+		final CountDownLatch completedLatch = new CountDownLatch(1);
+		final CountDownLatch blockerLatch = new CountDownLatch(0);
+		MySession session = (MySession)newSessionWithBlockableInvalidate(startedLatch,
+				blockerLatch, completedLatch);
+		session.m_accessed = System.currentTimeMillis() - (25 * 1000L);
+		session.expirationTimeSuggestion.setValue(System.currentTimeMillis() - (5*1000L));
+		expectGetCurrentSessionReturnNull(session);
+		registerSession(session);
+		resetMaintenance("20", "20");
+
+		if ( !(completedLatch.await(5, TimeUnit.SECONDS)) ) {
+			fail("Took too long for the Session.invalidate() to complete");
+		}
+		for (int i = 0; i < 100 && sessionComponent.getExpiredCount() == 0; i++) {
+			Thread.sleep(20);
+		}
+		assertEquals(1, sessionComponent.getExpiredCount());
+		assertEquals(1, sessionComponent.getLastSweepExamined());
+		assertTrue(sessionComponent.getMaxExpiryLag() >= 5000L);
+		assertEquals(100, sessionComponent.getMaintenanceQueued());
+	}
+	
 	/**
 	 * Tests that sessions can be created while a maintenance sweep is in
 	 * progress. Read on for implementation notes.
@@ -0,0 +1,208 @@
+/**********************************************************************************
+ * $URL$
+ * $Id$
+ ***********************************************************************************
+ *
+ * Copyright (c) 2018 Sakai Foundation
+ *
+ * Licensed under the Educational Community License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.opensource.org/licenses/ECL-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ **********************************************************************************/
+
+package org.sakaiproject.tool.impl;
+
+import static org.sakaiproject.tool.impl.RebuildBreakdownServiceImpl.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import org.sakaiproject.tool.api.Breakdownable.BreakdownableSize;
+import org.sakaiproject.tool.api.StoreableBreakdown;
+
+/**
+ * Compares breaking down and rebuilding 10k session maps with Java serialization of the maps (as stored before),
+ * full snapshots and delta snapshots where only the access times changed since the previous store.
+ * Each operation handles every session, so the score is the time per 10k sessions.
+ * <p>
+ * Run with: mvn test-compile exec:java -Dexec.classpathScope=test -Dexec.mainClass=org.sakaiproject.tool.impl.SessionSnapshotBenchmark
+ * and compare the score, gc.alloc.rate.norm and the bytes shipped printed at setup.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(value = 1, jvmArgs = {"-Xmx2g"})
+public class SessionSnapshotBenchmark {
+
+    @Param({"java", "full", "delta"})
+    public String mode;
+
+    @Param({"10000"})
+    public int sessions;
+
+    private SessionSnapshotCodec codec = new SessionSnapshotCodec();
+    private List<Map<String, Serializable>> sessionMaps = new ArrayList<>();
+    private List<SessionSnapshotCodec.State> states = new ArrayList<>();
+    private List<byte[]> stored = new ArrayList<>();
+    private List<byte[]> deltas = new ArrayList<>();
+    private long clock;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        clock = 1400000000000L;
+        long bytes = 0;
+        for (int i = 0; i < sessions; i++) {
+            Map<String, Serializable> sessionMap = makeSessionMap(i);
+            sessionMaps.add(sessionMap);
+            SessionSnapshotCodec.State state = new SessionSnapshotCodec.State();
+            states.add(state);
+            byte[] full = codec.encode(sessionMap, state, true);
+            touch(sessionMap);
+            byte[] delta = codec.encode(sessionMap, state, false);
+            switch (mode) {
+                case "java":
+                    stored.add(serialize(sessionMap));
+                    bytes += stored.get(i).length;
+                    break;
+                case "full":
+                    stored.add(full);
+                    bytes += full.length;
+                    break;
+                default:
+                    stored.add(full);
+                    deltas.add(delta);
+                    bytes += delta.length;
+            }
+        }
+        System.out.println("\n" + mode + ": " + (bytes / sessions) + " bytes shipped per store");
+    }
+
+    private Map<String, Serializable> makeSessionMap(int i) {
+        Map<String, Serializable> sessionMap = new HashMap<>();
+        sessionMap.put(SESSION_USER_ID_KEY, "a1b2c3d4-e5f6-4711-8899-" + (100000000000L + i));
+        sessionMap.put(SESSION_USER_EID_KEY, "student" + i);
+        sessionMap.put(SESSION_CREATION_TIME_KEY, clock);
+        sessionMap.put(SESSION_LAST_ACCESSED_TIME_KEY, clock);
+        sessionMap.put(SESSION_CURRENT_TOOLSESSION_PLACEMENT_KEY, "placement-" + (i % 50));
+        sessionMap.put(SESSION_CURRENT_USAGESESSION_KEY, "usage-" + i);
+        sessionMap.put("sakai.locale", Locale.UK);
+        sessionMap.put("sakai:portal:sitepage", "/site/course-" + (i % 100) + "/page/overview");
+        sessionMap.put("breakdown", new StoreableBreakdown("org.sakaiproject.event.api.SimpleEvent", BreakdownableSize.TINY, "event-" + i));
+        for (int a = 0; a < 10; a++) {
+            sessionMap.put("org.sakaiproject.tool.attribute." + a, "value-" + a + "-" + i);
+        }
+        Map<String, Map<String, Serializable>> toolSessions = new HashMap<>();
+        for (int t = 0; t < 3; t++) {
+            Map<String, Serializable> toolSession = new HashMap<>();
+            toolSession.put(SESSION_CREATION_TIME_KEY, clock);
+            toolSession.put(SESSION_LAST_ACCESSED_TIME_KEY, clock);
+            for (int a = 0; a < 5; a++) {
+                toolSession.put("tool.state." + a, "state-" + a + "-" + t);
+            }
+            toolSessions.put("tool-session-" + t + "-" + i, toolSession);
+        }
+        sessionMap.put(SESSION_TOOL_SESSIONS_KEY, (Serializable) toolSessions);
+        return sessionMap;
+    }
+
+    /** A click: the session and one tool session are accessed */
+    @SuppressWarnings("unchecked")
+    private void touch(Map<String, Serializable> sessionMap) {
+        Long now = ++clock;
+        sessionMap.put(SESSION_LAST_ACCESSED_TIME_KEY, now);
+        Map<String, Map<String, Serializable>> toolSessions = (Map<String, Map<String, Serializable>>) sessionMap.get(SESSION_TOOL_SESSIONS_KEY);
+        toolSessions.values().iterator().next().put(SESSION_LAST_ACCESSED_TIME_KEY, now);
+    }
+
+    @Benchmark
+    public long breakdown() throws IOException {
+        long bytes = 0;
+        for (int i = 0; i < sessions; i++) {
+            Map<String, Serializable> sessionMap = sessionMaps.get(i);
+            switch (mode) {
+                case "java":
+                    bytes += serialize(sessionMap).length;
+                    break;
+                case "full":
+                    bytes += codec.encode(sessionMap, states.get(i), true).length;
+                    break;
+                default:
+                    touch(sessionMap);
+                    bytes += codec.encode(sessionMap, states.get(i), false).length;
+            }
+        }
+        return bytes;
+    }
+
+    @Benchmark
+    public long rebuild() throws IOException, ClassNotFoundException {
+        long attributes = 0;
+        for (int i = 0; i < sessions; i++) {
+            switch (mode) {
+                case "java":
+                    ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(stored.get(i)));
+                    attributes += ((Map<?, ?>) in.readObject()).size();
+                    break;
+                case "full":
+                    attributes += codec.decode(stored.get(i), null).size();
+                    break;
+                default:
+                    attributes += codec.decode(stored.get(i), Collections.singletonList(deltas.get(i))).size();
+            }
+        }
+        return attributes;
+    }
+
+    private byte[] serialize(Map<String, Serializable> sessionMap) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        ObjectOutputStream out = new ObjectOutputStream(bytes);
+        out.writeObject(sessionMap);
+        out.close();
+        return bytes.toByteArray();
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder()
+                .include(SessionSnapshotBenchmark.class.getSimpleName())
+                .addProfiler(GCProfiler.class)
+                .build()).run();
+    }
+}
@@ -0,0 +1,127 @@
+/**********************************************************************************
+ * $URL$
+ * $Id$
+ ***********************************************************************************
+ *
+ * Copyright (c) 2018 Sakai Foundation
+ *
+ * Licensed under the Educational Community License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.opensource.org/licenses/ECL-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ **********************************************************************************/
+
+package org.sakaiproject.tool.impl;
+
+import static org.sakaiproject.tool.impl.RebuildBreakdownServiceImpl.*;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.sakaiproject.tool.api.Breakdownable.BreakdownableSize;
+import org.sakaiproject.tool.api.StoreableBreakdown;
+
+public class SessionSnapshotCodecTest {
+
+	private SessionSnapshotCodec codec = new SessionSnapshotCodec();
+
+	private Map<String, Serializable> makeSessionMap() {
+		Map<String, Serializable> sessionMap = new HashMap<>();
+		sessionMap.put(SESSION_USER_ID_KEY, "a1b2c3");
+		sessionMap.put(SESSION_USER_EID_KEY, "student");
+		sessionMap.put(SESSION_CREATION_TIME_KEY, 1400000000000L);
+		sessionMap.put(SESSION_LAST_ACCESSED_TIME_KEY, 1400000060000L);
+		sessionMap.put("sakai.locale", new Locale("en", "GB"));
+		sessionMap.put("count", -3);
+		sessionMap.put("flag", true);
+		sessionMap.put("breakdown", new StoreableBreakdown("org.example.Thing", BreakdownableSize.TINY, "thing"));
+		sessionMap.put("list", new ArrayList<>(Arrays.asList("one", "two")));
+
+		Map<String, Map<String, Serializable>> toolSessions = new HashMap<>();
+		for (String id : Arrays.asList("tool1", "tool2")) {
+			Map<String, Serializable> toolSession = new HashMap<>();
+			toolSession.put(SESSION_CREATION_TIME_KEY, 1400000000000L);
+			toolSession.put(SESSION_LAST_ACCESSED_TIME_KEY, 1400000060000L);
+			toolSession.put("count", id);
+			toolSessions.put(id, toolSession);
+		}
+		sessionMap.put(SESSION_TOOL_SESSIONS_KEY, (Serializable) toolSessions);
+		return sessionMap;
+	}
+
+	@Test
+	public void testFullSnapshot() {
+		Map<String, Serializable> sessionMap = makeSessionMap();
+		SessionSnapshotCodec.State state = new SessionSnapshotCodec.State();
+		byte[] snapshot = codec.encode(sessionMap, state, false);
+
+		SessionSnapshotCodec.Header header = codec.readHeader(snapshot);
+		Assert.assertTrue(header.full);
+		Assert.assertEquals(0, header.sequence);
+		Assert.assertEquals(sessionMap, codec.decode(snapshot, null));
+	}
+
+	@Test
+	@SuppressWarnings("unchecked")
+	public void testDeltaSnapshots() {
+		Map<String, Serializable> sessionMap = makeSessionMap();
+		SessionSnapshotCodec.State state = new SessionSnapshotCodec.State();
+		byte[] full = codec.encode(sessionMap, state, false);
+
+		// nothing changed so there is nothing to store
+		Assert.assertNull(codec.encode(makeSessionMap(), state, false));
+
+		sessionMap.put(SESSION_LAST_ACCESSED_TIME_KEY, 1400000090000L);
+		sessionMap.remove("flag");
+		Map<String, Map<String, Serializable>> toolSessions = (Map<String, Map<String, Serializable>>) sessionMap.get(SESSION_TOOL_SESSIONS_KEY);
+		toolSessions.get("tool1").put("new", "value");
+		toolSessions.remove("tool2");
+		byte[] delta1 = codec.encode(sessionMap, state, false);
+		Assert.assertEquals(1, codec.readHeader(delta1).sequence);
+		Assert.assertTrue(delta1.length < full.length);
+
+		Map<String, Serializable> contextSession = new HashMap<>();
+		contextSession.put("context", "value");
+		sessionMap.put(SESSION_CONTEXT_SESSIONS_KEY, (Serializable) Collections.singletonMap("context1", contextSession));
+		byte[] delta2 = codec.encode(sessionMap, state, false);
+
+		Assert.assertEquals(sessionMap, codec.decode(full, Arrays.asList(delta1, delta2)));
+
+		// deltas which don't follow on are left out
+		Map<String, Serializable> afterDelta1 = codec.decode(full, Arrays.asList(delta1, delta1, delta2));
+		Assert.assertFalse(afterDelta1.containsKey(SESSION_CONTEXT_SESSIONS_KEY));
+		Assert.assertFalse(afterDelta1.containsKey("flag"));
+
+		// a new full snapshot starts a new generation, the old deltas do not apply to it
+		byte[] full2 = codec.encode(sessionMap, state, true);
+		Assert.assertNotEquals(codec.readHeader(full).generation, codec.readHeader(full2).generation);
+		Assert.assertEquals(sessionMap, codec.decode(full2, Arrays.asList(delta1, delta2)));
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testDecodeDelta() {
+		Map<String, Serializable> sessionMap = makeSessionMap();
+		SessionSnapshotCodec.State state = new SessionSnapshotCodec.State();
+		codec.encode(sessionMap, state, false);
+		sessionMap.put("count", 4);
+		List<byte[]> none = Collections.emptyList();
+		codec.decode(codec.encode(sessionMap, state, false), none);
+	}
+
+}
@@ -213,6 +213,10 @@ public class GetUsersByEidTest extends SakaiKernelTestBase {
 		Assert.assertEquals(mappedUserIds.size(), users.size());	// Everyone but the NO_SUCH_EID
 		Assert.assertEquals(0, TestProvider.GET_USER_CALLS_COUNTER);
 		Assert.assertEquals(1, TestProvider.GET_USERS_CALLS_COUNTER);
+		// The users come back in the order of the IDs.
+		for (int i = 0; i < users.size(); i++) {
+			Assert.assertEquals(searchIds.get(i), users.get(i).getId());
+		}
 
 		// Make sure caching wasn't broken. Again we need to use our inside
 		// knowledge that even when all other caching is turned off, the
@@ -0,0 +1,186 @@
+/**********************************************************************************
+ * $URL$
+ * $Id$
+ ***********************************************************************************
+ *
+ * Copyright (c) 2018 Sakai Foundation
+ *
+ * Licensed under the Educational Community License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.opensource.org/licenses/ECL-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ **********************************************************************************/
+
+package org.sakaiproject.util;
+
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+import static org.mockito.Mockito.withSettings;
+
+import java.io.CharArrayReader;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import org.sakaiproject.db.api.SqlReader;
+import org.sakaiproject.db.api.SqlService;
+import org.sakaiproject.entity.api.Entity;
+import org.sakaiproject.javax.Filter;
+import org.xml.sax.Attributes;
+import org.xml.sax.SAXException;
+
+/**
+ * Compares the memory used to scan a synthetic single storage table with an id filter:
+ * the previous read-all-xml-then-parse approach, getSelectedResources and forEachSelectedResource.
+ * Rows are generated on demand by a fake result set: getString copies the xml out of a shared buffer,
+ * as a driver decoding a column would, while getCharacterStream reads that buffer in place.
+ * <p>
+ * Run with: mvn test-compile exec:java -Dexec.classpathScope=test -Dexec.mainClass=org.sakaiproject.util.SingleStorageScanBenchmark
+ * and compare gc.alloc.rate.norm (bytes allocated per scan).
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+@Fork(value = 1, jvmArgs = {"-Xmx2g"})
+public class SingleStorageScanBenchmark {
+
+    @Param({"legacy", "list", "stream"})
+    public String mode;
+
+    @Param({"1000000"})
+    public int rows;
+
+    /** Percentage of the ids accepted by the filter */
+    @Param({"1", "100"})
+    public int selected;
+
+    private BaseDbSingleStorage storage;
+    private Filter filter;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        StringBuilder xml = new StringBuilder("<alias id=\"alias\" target=\"/site/0123456789abcdef\">");
+        xml.append("<properties>");
+        for (int i = 0; i < 8; i++) {
+            xml.append("<property enc=\"BASE64\" name=\"property-").append(i).append("\" value=\"dmFsdWUtdmFsdWUtdmFsdWU=\"/>");
+        }
+        xml.append("</properties></alias>");
+        final char[] buffer = xml.toString().toCharArray();
+
+        final Entity entity = mock(Entity.class, withSettings().stubOnly());
+        SingleStorageUser user = mock(SingleStorageUser.class, withSettings().stubOnly().extraInterfaces(SAXEntityReader.class));
+        when(((SAXEntityReader) user).getDefaultHandler(any())).thenAnswer(invocation -> new DefaultEntityHandler() {
+            @Override
+            public void startElement(String uri, String localName, String qName, Attributes attributes) throws SAXException {
+                this.entity = entity;
+            }
+        });
+        when(((SAXEntityReader) user).getServices()).thenReturn(Collections.emptyMap());
+
+        SqlService sqlService = mock(SqlService.class, withSettings().stubOnly());
+        when(sqlService.getVendor()).thenReturn("hsql");
+        when(sqlService.dbRead(anyString(), any(), any(SqlReader.class))).thenAnswer(invocation -> {
+            SqlReader reader = invocation.getArgument(2);
+            int[] row = new int[1];
+            ResultSet result = (ResultSet) Proxy.newProxyInstance(getClass().getClassLoader(), new Class<?>[] {ResultSet.class},
+                    new InvocationHandler() {
+                        @Override
+                        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+                            int column = (Integer) args[0];
+                            switch (method.getName()) {
+                                case "getString":
+                                    return column == 1 ? "alias-" + row[0] : new String(buffer);
+                                case "getCharacterStream":
+                                    return new CharArrayReader(buffer);
+                                default:
+                                    throw new SQLException("Not supported: " + method.getName());
+                            }
+                        }
+                    });
+            List<Object> rv = new ArrayList<>();
+            for (row[0] = 0; row[0] < rows; row[0]++) {
+                Object obj = reader.readSqlResultRecord(result);
+                if (obj != null) rv.add(obj);
+            }
+            return rv;
+        });
+
+        storage = new BaseDbSingleStorage("ALIAS", "ALIAS_ID", null, false, "alias", user, sqlService);
+        filter = o -> Math.floorMod(o.hashCode(), 100) < selected;
+    }
+
+    @Benchmark
+    public int scan() {
+        switch (mode) {
+            case "legacy":
+                return legacyScan().size();
+            case "list":
+                return storage.getSelectedResources(filter).size();
+            default:
+                int[] count = new int[1];
+                storage.forEachSelectedResource(filter, entry -> count[0]++);
+                return count[0];
+        }
+    }
+
+    /** getSelectedResources before streaming: every xml string is read, the accepted ones are kept and then parsed */
+    private List<Entity> legacyScan() {
+        List xml = storage.m_sql.dbRead("select ALIAS_ID, XML from ALIAS", null, result -> {
+            try {
+                String id = result.getString(1);
+                String value = result.getString(2);
+                if (!filter.accept(id)) return null;
+                return value;
+            } catch (SQLException e) {
+                return null;
+            }
+        });
+        List<Entity> all = new ArrayList<>();
+        for (Object value : xml) {
+            Entity entry = storage.readResource((String) value);
+            if (entry != null) all.add(entry);
+        }
+        return all;
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder()
+                .include(SingleStorageScanBenchmark.class.getSimpleName())
+                .addProfiler(GCProfiler.class)
+                .build()).run();
+    }
+}
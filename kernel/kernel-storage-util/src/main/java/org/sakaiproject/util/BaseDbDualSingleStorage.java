@@ -29,6 +29,7 @@ import java.util.Hashtable;
 import java.util.List;
 import java.util.Map;
 import java.util.Vector;
+import java.util.function.Consumer;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -547,13 +548,27 @@ public class BaseDbDualSingleStorage  implements DbSingleStorage
 	 */
 	public List getSelectedResources(final Filter filter)
 	{
-		List all = new Vector();
-		// read all users from the db
+		final List all = new Vector();
+		forEachSelectedResource(filter, entry -> all.add(entry));
+		return all;
+	}
+
+	/**
+	 * Stream selected Resources, filtered by a test on the id field, to a consumer
+	 * while the result set is still open.
+	 * 
+	 * @param filter
+	 *        A filter to select what gets returned.
+	 * @param consumer
+	 *        Receives each selected Resource.
+	 */
+	public void forEachSelectedResource(final Filter filter, final Consumer<Entity> consumer)
+	{
+		// read all resources from the db
 		String sql = singleStorageSql.getXmlAndFieldSql(m_resourceTableIdField,
 				m_resourceTableName);
-		// %%% + "order by " + m_resourceTableOrderField + " asc";
 
-		List xml = m_sql.dbRead(sql, null, new SqlReader()
+		m_sql.dbRead(sql, null, new SqlReader()
 		{
 			public Object readSqlResultRecord(ResultSet result)
 			{
@@ -562,31 +577,23 @@ public class BaseDbDualSingleStorage  implements DbSingleStorage
 					// read the id m_resourceTableIdField
 					String id = result.getString(1);
 
+					// test the id before touching the xml and blob
+					if (!filter.accept(caseId(id))) return null;
+
 					// read the xml
 					String xml = result.getString(2);
 					byte[] blob = result.getBytes(3);
-
-					if (!filter.accept(caseId(id))) return null;
-
-					return readResource(xml, blob);
+					Entity entry = readResource(xml, blob);
+					if (entry != null) consumer.accept(entry);
 				}
 				catch (SQLException ignore)
 				{
-					return null;
 				}
+
+				// nothing is collected by dbRead
+				return null;
 			}
 		});
-		// process all result xml into user objects
-		if (!xml.isEmpty())
-		{
-			for (int i = 0; i < xml.size(); i++)
-			{
-				Entity entry = (Entity) xml.get(i);
-				if (entry != null) all.add(entry);
-			}
-		}
-
-		return all;
 	}
 
 	/**
@@ -1003,7 +1010,7 @@ public class BaseDbDualSingleStorage  implements DbSingleStorage
 	 * @param user
 	 *        The Edit to commit.
 	 */
-	public void commitResource(Edit edit)
+	public boolean commitResource(Edit edit)
 	{
 		// form the SQL statement and the var w/ the XML
 		Object blob = getBlob(edit);
@@ -1031,6 +1038,7 @@ public class BaseDbDualSingleStorage  implements DbSingleStorage
 		// singleStorageSql.getUpdateXml(m_resourceTableIdField,
 		// m_resourceTableOtherFields, m_resourceTableName);
 
+		boolean written = true;
 		if (m_locksAreInDb)
 		{
 			// use this connection that is stored with the lock
@@ -1038,7 +1046,7 @@ public class BaseDbDualSingleStorage  implements DbSingleStorage
 			if (lock == null)
 			{
 				M_log.warn("commitResource(): edit not in locks");
-				return;
+				return false;
 			}
 
 			// update, commit, release the lock's connection
@@ -1051,7 +1059,7 @@ public class BaseDbDualSingleStorage  implements DbSingleStorage
 		else if (m_locksAreInTable)
 		{
 			// process the update
-			m_sql.dbWrite(statement, fields);
+			written = m_sql.dbWrite(statement, fields);
 
 			// remove the lock
 			statement = singleStorageSql.getDeleteLocksSql();
@@ -1071,11 +1079,13 @@ public class BaseDbDualSingleStorage  implements DbSingleStorage
 		else
 		{
 			// just process the update
-			m_sql.dbWrite(statement, fields);
+			written = m_sql.dbWrite(statement, fields);
 
 			// remove the lock
 			m_locks.remove(edit.getReference());
 		}
+
+		return written;
 	}
 
 	/**
@@ -1133,7 +1143,7 @@ public class BaseDbDualSingleStorage  implements DbSingleStorage
 	 * @param user
 	 *        The Edit to remove.
 	 */
-	public void removeResource(Edit edit)
+	public boolean removeResource(Edit edit)
 	{
 		// form the SQL delete statement
 		String statement = singleStorageSql.getDeleteSql(m_resourceTableIdField,
@@ -1142,6 +1152,7 @@ public class BaseDbDualSingleStorage  implements DbSingleStorage
 		Object fields[] = new Object[1];
 		fields[0] = caseId(edit.getId());
 
+		boolean written = true;
 		if (m_locksAreInDb)
 		{
 			// use this connection that is stored with the lock
@@ -1149,7 +1160,7 @@ public class BaseDbDualSingleStorage  implements DbSingleStorage
 			if (lock == null)
 			{
 				M_log.warn("removeResource(): edit not in locks");
-				return;
+				return false;
 			}
 
 			// process the delete statement, commit, and release the lock's
@@ -1163,7 +1174,7 @@ public class BaseDbDualSingleStorage  implements DbSingleStorage
 		else if (m_locksAreInTable)
 		{
 			// process the delete statement
-			m_sql.dbWrite(statement, fields);
+			written = m_sql.dbWrite(statement, fields);
 
 			// remove the lock
 			statement = singleStorageSql.getDeleteLocksSql();
@@ -1182,11 +1193,13 @@ public class BaseDbDualSingleStorage  implements DbSingleStorage
 		else
 		{
 			// process the delete statement
-			m_sql.dbWrite(statement, fields);
+			written = m_sql.dbWrite(statement, fields);
 
 			// release the lock
 			m_locks.remove(edit.getReference());
 		}
+
+		return written;
 	}
 
 	/**
@@ -24,6 +24,7 @@ package org.sakaiproject.util;
 import java.sql.Connection;
 import java.sql.ResultSet;
 import java.sql.SQLException;
+import java.util.ArrayList;
 import java.util.Enumeration;
 import java.util.Hashtable;
 import java.util.Iterator;
@@ -1346,8 +1347,7 @@ public class BaseDbFlatStorage
 
 		// the SQL statement
 		statement = flatStorageSql.getInsertSql(table, idField, extraIdField);
-		fields = new Object[((extraIdField != null) ? 4 : 3)];
-		fields[0] = id;
+		List<Object[]> fieldsList = new ArrayList<Object[]>();
 
 		// process each property
 		for (Iterator i = props.getPropertyNames(); i.hasNext();)
@@ -1355,22 +1355,17 @@ public class BaseDbFlatStorage
 			String name = (String) i.next();
 			String value = props.getProperty(name);
 
-			fields[1] = name;
-			fields[2] = value;
-
-			if (extraIdField != null)
-			{
-				fields[3] = extraId;
-			}
-
 			// The value might be null if it's a list of values.
 			// TODO support persisting to the database lists of values.
 			// dont write it if there's only an empty string for value
 			if (value != null && value.length() > 0)
 			{
-				m_sql.dbWrite(statement, fields);
+				fieldsList.add(propertyFields(id, name, value, extraIdField, extraId));
 			}
 		}
+
+		// and send them to the db together
+		m_sql.dbWriteBatch(statement, fieldsList);
 	}
 
 	/**
@@ -1434,8 +1429,7 @@ public class BaseDbFlatStorage
 
 		// the SQL statement
 		statement = flatStorageSql.getInsertSql(table, idField, extraIdField);
-		fields = new Object[((extraIdField != null) ? 4 : 3)];
-		fields[0] = id;
+		List<Object[]> fieldsList = new ArrayList<Object[]>();
 
 		// process each property
 		for (Enumeration i = props.propertyNames(); i.hasMoreElements();)
@@ -1443,20 +1437,27 @@ public class BaseDbFlatStorage
 			String name = (String) i.nextElement();
 			String value = props.getProperty(name);
 
-			fields[1] = name;
-			fields[2] = value;
-
-			if (extraIdField != null)
-			{
-				fields[3] = extraId;
-			}
-
 			// don't write it if there's only an empty string for value
 			if (!StringUtils.isEmpty(value))
 			{
-				m_sql.dbWrite(statement, fields);
+				fieldsList.add(propertyFields(id, name, value, extraIdField, extraId));
 			}
 		}
+
+		// and send them to the db together
+		m_sql.dbWriteBatch(statement, fieldsList);
+	}
+
+	/**
+	 * Bind the values of one property for the insert statement.
+	 */
+	private Object[] propertyFields(Object id, String name, String value, String extraIdField, String extraId)
+	{
+		if (extraIdField != null)
+		{
+			return new Object[] { id, name, value, extraId };
+		}
+		return new Object[] { id, name, value };
 	}
 
 	/**
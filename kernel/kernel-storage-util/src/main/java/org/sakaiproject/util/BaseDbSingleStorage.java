@@ -21,6 +21,7 @@
 
 package org.sakaiproject.util;
 
+import java.io.Reader;
 import java.sql.Connection;
 import java.sql.ResultSet;
 import java.sql.SQLException;
@@ -29,6 +30,7 @@ import java.util.List;
 import java.util.Map;
 import java.util.Stack;
 import java.util.Vector;
+import java.util.function.Consumer;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -273,6 +275,50 @@ public class BaseDbSingleStorage implements DbSingleStorage
 		}
 	}
 
+	/**
+	 * Read one Resource from the xml column of the current result set row. When the user
+	 * supports SAX the column is parsed straight from its character stream, without first
+	 * building the xml string.
+	 * 
+	 * @param result
+	 *        The result set, positioned on the row to read.
+	 * @param column
+	 *        The index of the xml column.
+	 * @return The Resource object created from the xml.
+	 */
+	protected Entity readResource(ResultSet result, int column) throws SQLException
+	{
+		if (!(m_user instanceof SAXEntityReader))
+		{
+			return readResource(result.getString(column));
+		}
+
+		Reader xml = result.getCharacterStream(column);
+		if (xml == null) return null;
+		try
+		{
+			SAXEntityReader sm_user = (SAXEntityReader) m_user;
+			DefaultEntityHandler deh = sm_user.getDefaultHandler(sm_user.getServices());
+			StorageUtils.processReader(xml, deh);
+			return deh.getEntity();
+		}
+		catch (Exception e)
+		{
+			M_log.debug("readResource(): ", e);
+			return null;
+		}
+		finally
+		{
+			try
+			{
+				xml.close();
+			}
+			catch (Exception ignore)
+			{
+			}
+		}
+	}
+
 	/* (non-Javadoc)
 	 * @see org.sakaiproject.util.DbSingleStorage#checkResource(java.lang.String)
 	 */
@@ -503,13 +549,20 @@ public class BaseDbSingleStorage implements DbSingleStorage
 	 */
 	public List getSelectedResources(final Filter filter)
 	{
-		List all = new Vector();
+		final List all = new Vector();
+		forEachSelectedResource(filter, entry -> all.add(entry));
+		return all;
+	}
 
-		// read all users from the db
+	/* (non-Javadoc)
+	 * @see org.sakaiproject.util.DbSingleStorage#forEachSelectedResource(org.sakaiproject.javax.Filter, java.util.function.Consumer)
+	 */
+	public void forEachSelectedResource(final Filter filter, final Consumer<Entity> consumer)
+	{
+		// read all resources from the db
 		String sql = singleStorageSql.getXmlAndFieldSql(m_resourceTableIdField, m_resourceTableName);
-		// %%% + "order by " + m_resourceTableOrderField + " asc";
 
-		List xml = m_sql.dbRead(sql, null, new SqlReader()
+		m_sql.dbRead(sql, null, new SqlReader()
 		{
 			public Object readSqlResultRecord(ResultSet result)
 			{
@@ -518,31 +571,20 @@ public class BaseDbSingleStorage implements DbSingleStorage
 					// read the id m_resourceTableIdField
 					String id = result.getString(1);
 
-					// read the xml
-					String xml = result.getString(2);
-
+					// test the id before touching the xml
 					if (!filter.accept(caseId(id))) return null;
 
-					return xml;
+					Entity entry = readResource(result, 2);
+					if (entry != null) consumer.accept(entry);
 				}
 				catch (SQLException ignore)
 				{
-					return null;
 				}
-			}
-		});
 
-		// process all result xml into user objects
-		if (!xml.isEmpty())
-		{
-			for (int i = 0; i < xml.size(); i++)
-			{
-				Entity entry = readResource((String) xml.get(i));
-				if (entry != null) all.add(entry);
+				// nothing is collected by dbRead
+				return null;
 			}
-		}
-
-		return all;
+		});
 	}
 
 	/* (non-Javadoc)
@@ -849,7 +891,7 @@ public class BaseDbSingleStorage implements DbSingleStorage
 	/* (non-Javadoc)
 	 * @see org.sakaiproject.util.DbSingleStorage#commitResource(org.sakaiproject.entity.api.Edit)
 	 */
-	public void commitResource(Edit edit)
+	public boolean commitResource(Edit edit)
 	{
 		// form the SQL statement and the var w/ the XML
 		Document doc = StorageUtils.createDocument();
@@ -866,6 +908,7 @@ public class BaseDbSingleStorage implements DbSingleStorage
 				+ m_resourceTableIdField + " = ? )";
 		// singleStorageSql.getUpdateXml(m_resourceTableIdField, m_resourceTableOtherFields, m_resourceTableName);
 
+		boolean written = true;
 		if (m_locksAreInDb)
 		{
 			// use this connection that is stored with the lock
@@ -873,7 +916,7 @@ public class BaseDbSingleStorage implements DbSingleStorage
 			if (lock == null)
 			{
 				M_log.warn("commitResource(): edit not in locks");
-				return;
+				return false;
 			}
 
 			// update, commit, release the lock's connection
@@ -886,7 +929,7 @@ public class BaseDbSingleStorage implements DbSingleStorage
 		else if (m_locksAreInTable)
 		{
 			// process the update
-			m_sql.dbWrite(statement, fields);
+			written = m_sql.dbWrite(statement, fields);
 
 			// remove the lock
 			statement = singleStorageSql.getDeleteLocksSql();
@@ -905,11 +948,13 @@ public class BaseDbSingleStorage implements DbSingleStorage
 		else
 		{
 			// just process the update
-			m_sql.dbWrite(statement, fields);
+			written = m_sql.dbWrite(statement, fields);
 
 			// remove the lock
 			m_locks.remove(edit.getReference());
 		}
+
+		return written;
 	}
 
 	/* (non-Javadoc)
@@ -960,7 +1005,7 @@ public class BaseDbSingleStorage implements DbSingleStorage
 	/* (non-Javadoc)
 	 * @see org.sakaiproject.util.DbSingleStorage#removeResource(org.sakaiproject.entity.api.Edit)
 	 */
-	public void removeResource(Edit edit)
+	public boolean removeResource(Edit edit)
 	{
 		// form the SQL delete statement
 		String statement = singleStorageSql.getDeleteSql(m_resourceTableIdField, m_resourceTableName);
@@ -968,6 +1013,7 @@ public class BaseDbSingleStorage implements DbSingleStorage
 		Object fields[] = new Object[1];
 		fields[0] = caseId(edit.getId());
 
+		boolean written = true;
 		if (m_locksAreInDb)
 		{
 			// use this connection that is stored with the lock
@@ -975,7 +1021,7 @@ public class BaseDbSingleStorage implements DbSingleStorage
 			if (lock == null)
 			{
 				M_log.warn("removeResource(): edit not in locks");
-				return;
+				return false;
 			}
 
 			// process the delete statement, commit, and release the lock's connection
@@ -988,7 +1034,7 @@ public class BaseDbSingleStorage implements DbSingleStorage
 		else if (m_locksAreInTable)
 		{
 			// process the delete statement
-			m_sql.dbWrite(statement, fields);
+			written = m_sql.dbWrite(statement, fields);
 
 			// remove the lock
 			statement = singleStorageSql.getDeleteLocksSql();
@@ -1006,11 +1052,13 @@ public class BaseDbSingleStorage implements DbSingleStorage
 		else
 		{
 			// process the delete statement
-			m_sql.dbWrite(statement, fields);
+			written = m_sql.dbWrite(statement, fields);
 
 			// release the lock
 			m_locks.remove(edit.getReference());
 		}
+
+		return written;
 	}
 
 	/**
@@ -59,6 +59,9 @@ public class StorageUtils {
 
 	private static SAXParserFactory parserFactory;
 
+	/** A parser per thread, reset and reused between documents; empty while in use so nested parses get their own. */
+	private static final ThreadLocal<SAXParser> threadParser = new ThreadLocal<SAXParser>();
+
 	/**
 	 * Create a new DOM Document.
 	 * 
@@ -193,23 +196,42 @@ public class StorageUtils {
 	{
 		InputSource ss = new InputSource(in);
 
-		SAXParser p = null;
-		if (parserFactory == null)
+		SAXParser p = threadParser.get();
+		if (p == null)
 		{
-			parserFactory = SAXParserFactory.newInstance();
-			parserFactory.setNamespaceAware(false);
-			parserFactory.setValidating(false);
+			if (parserFactory == null)
+			{
+				parserFactory = SAXParserFactory.newInstance();
+				parserFactory.setNamespaceAware(false);
+				parserFactory.setValidating(false);
+			}
+			try
+			{
+				p = parserFactory.newSAXParser();
+
+			}
+			catch (ParserConfigurationException e)
+			{
+				throw new SAXException("Failed to get a parser ", e);
+			}
 		}
+		threadParser.remove();
 		try
 		{
-			p = parserFactory.newSAXParser();
-
+			p.parse(ss, dh);
 		}
-		catch (ParserConfigurationException e)
+		finally
 		{
-			throw new SAXException("Failed to get a parser ", e);
+			try
+			{
+				p.reset();
+				threadParser.set(p);
+			}
+			catch (UnsupportedOperationException e)
+			{
+				// this parser can't be reused, a new one is created next time
+			}
 		}
-		p.parse(ss, dh);
 	}
 
 	/**
@@ -125,6 +125,12 @@ public interface MessageForumsMessageManager {
     
     public int findUnreadViewableMessageCountByTopicId(Long topicId);
 
+    /**
+     * @return the unread counts of each of the given users in the topic, keyed by user id,
+     * counting those that aren't stored yet
+     */
+    public Map<String, UnreadCount> findUnreadCountsByTopicIdForUsers(Long topicId, List<String> userIds);
+
     public int findReadMessageCountByTopicIdByUserId(Long topicId, String userId);
     
     public int findReadMessageCountByTopicId(Long topicId);
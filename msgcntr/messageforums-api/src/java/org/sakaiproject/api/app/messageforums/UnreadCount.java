@@ -0,0 +1,52 @@
+/**********************************************************************************
+ *
+ * Copyright (c) 2017 The Apereo Foundation
+ *
+ * Licensed under the Educational Community License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.opensource.org/licenses/ECL-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ **********************************************************************************/
+package org.sakaiproject.api.app.messageforums;
+
+/**
+ * The unread message counts of one user in one topic, kept up to date as messages
+ * are posted, read, moderated and deleted.
+ */
+public interface UnreadCount {
+
+    public Long getId();
+
+    public void setId(Long id);
+
+    public Long getTopicId();
+
+    public void setTopicId(Long topicId);
+
+    public String getUserId();
+
+    public void setUserId(String userId);
+
+    /**
+     * @return the count of unread messages, as seen by a moderator of the topic
+     */
+    public Integer getUnreadCount();
+
+    public void setUnreadCount(Integer unreadCount);
+
+    /**
+     * @return the count of unread messages that were approved or authored by the user
+     */
+    public Integer getUnreadViewableCount();
+
+    public void setUnreadViewableCount(Integer unreadViewableCount);
+
+}
@@ -32,7 +32,11 @@ import java.util.List;
 import java.util.Map;
 import java.util.Set;
 
+import org.hibernate.HibernateException;
+import org.hibernate.LockOptions;
 import org.hibernate.Query;
+import org.hibernate.Session;
+import org.hibernate.type.IntegerType;
 import org.hibernate.type.LongType;
 import org.hibernate.type.StringType;
 import org.sakaiproject.api.app.messageforums.Attachment;
@@ -45,6 +49,7 @@ import org.sakaiproject.api.app.messageforums.MessageMoveHistory;
 import org.sakaiproject.api.app.messageforums.PrivateMessage;
 import org.sakaiproject.api.app.messageforums.SynopticMsgcntrManager;
 import org.sakaiproject.api.app.messageforums.Topic;
+import org.sakaiproject.api.app.messageforums.UnreadCount;
 import org.sakaiproject.api.app.messageforums.UnreadStatus;
 import org.sakaiproject.api.app.messageforums.UserStatistics;
 import org.sakaiproject.api.app.messageforums.cover.SynopticMsgcntrManagerCover;
@@ -52,6 +57,7 @@ import org.sakaiproject.component.app.messageforums.dao.hibernate.AttachmentImpl
 import org.sakaiproject.component.app.messageforums.dao.hibernate.MessageImpl;
 import org.sakaiproject.component.app.messageforums.dao.hibernate.MessageMoveHistoryImpl;
 import org.sakaiproject.component.app.messageforums.dao.hibernate.PrivateMessageImpl;
+import org.sakaiproject.component.app.messageforums.dao.hibernate.UnreadCountImpl;
 import org.sakaiproject.component.app.messageforums.dao.hibernate.UnreadStatusImpl;
 import org.sakaiproject.component.app.messageforums.dao.hibernate.Util;
 import org.sakaiproject.component.app.messageforums.exception.LockedException;
@@ -93,11 +99,21 @@ public class MessageForumsMessageManagerImpl extends HibernateDaoSupport impleme
     private static final String QUERY_UNDELETED_MSG_BY_TOPIC_ID = "findUndeletedMessagesByTopicId";
     private static final String QUERY_MOVED_MESSAGES_BY_TOPICID = "findMovedMessagesByTopicId";
     private static final String QUERY_MOVED_HISTORY_BY_MESSAGEID = "findMovedHistoryByMessageId";
+    private static final String QUERY_UNREAD_COUNTS_BY_TOPIC_AND_USERS = "findUnreadCountsByTopicIdAndUserIds";
+    private static final String QUERY_UNREAD_COUNT_BY_TOPIC_AND_USER = "findUnreadCountByTopicIdAndUserId";
+    private static final String QUERY_UPDATE_UNREAD_COUNTS_FOR_MESSAGE = "updateUnreadCountsForMessage";
+    private static final String QUERY_UPDATE_UNREAD_COUNTS_FOR_AUTHOR = "updateUnreadCountsForMessageAuthor";
+    private static final String QUERY_UPDATE_UNREAD_COUNT_FOR_USER = "updateUnreadCountForUser";
+    private static final String QUERY_DELETE_UNREAD_COUNTS_BY_TOPIC_ID = "deleteUnreadCountsByTopicId";
+    private static final String QUERY_COUNT_DISCUSSION_TOPICS_BY_ID = "countDiscussionTopicsById";
     //private static final String ID = "id";
 
     // Oracle's 1000 'in' clause limit
     private static final int MAX_IN_CLAUSE_SIZE = 1000;
 
+    // the counts of a row stored before it is counted, far enough below zero for no number of updates to make it look counted
+    private static final int NOT_COUNTED = Integer.MIN_VALUE / 2;
+
     private static final String MESSAGECENTER_HELPER_TOOL_ID = "sakai.messageforums.helper";
 
     private IdManager idManager;                      
@@ -691,7 +707,7 @@ public class MessageForumsMessageManagerImpl extends HibernateDaoSupport impleme
 
        LOG.debug("findUnreadMessageCountByTopicIdByUserId executing with topicId: " + topicId);
 
-       return findMessageCountByTopicId(topicId) - findReadMessageCountByTopicIdByUserId(topicId, userId);
+       return getUnreadCount(topicId, userId).getUnreadCount();
    }
     
    public int findUnreadMessageCountByTopicId(final Long topicId) {
@@ -702,7 +718,10 @@ public class MessageForumsMessageManagerImpl extends HibernateDaoSupport impleme
 
         LOG.debug("findUnreadMessageCountByTopicId executing with topicId: " + topicId);
 
-        return findMessageCountByTopicId(topicId) - findReadMessageCountByTopicId(topicId);
+        if(getCurrentUser()!=null){
+        return findUnreadMessageCountByTopicIdByUserId(topicId, getCurrentUser());
+        }
+        else return findMessageCountByTopicId(topicId);
     }
    
    /**
@@ -717,7 +736,11 @@ public class MessageForumsMessageManagerImpl extends HibernateDaoSupport impleme
 
        LOG.debug("findUnreadViewableMessageCountByTopicIdByUserId executing with topicId: " + topicId + " userId: " + userId);
 
-       return findViewableMessageCountByTopicIdByUserId(topicId, userId) - findReadViewableMessageCountByTopicIdByUserId(topicId, userId);
+       if (userId == null) {
+           // fails the same way as the viewable count would
+           return findViewableMessageCountByTopicIdByUserId(topicId, userId);
+       }
+       return getUnreadCount(topicId, userId).getUnreadViewableCount();
    }
    
    /**
@@ -737,6 +760,206 @@ public class MessageForumsMessageManagerImpl extends HibernateDaoSupport impleme
        }
        else return 0;
    }
+
+   public Map<String, UnreadCount> findUnreadCountsByTopicIdForUsers(final Long topicId, final List<String> userIds) {
+       if (topicId == null || userIds == null) {
+           LOG.error("findUnreadCountsByTopicIdForUsers failed with topicId: " + topicId + " and userIds: " + userIds);
+           throw new IllegalArgumentException("Null Argument");
+       }
+
+       LOG.debug("findUnreadCountsByTopicIdForUsers executing with topicId: " + topicId + " for " + userIds.size() + " users");
+
+       Map<String, UnreadCount> counts = new HashMap<>();
+       if (userIds.isEmpty()) {
+           return counts;
+       }
+
+       HibernateCallback<List<UnreadCount>> hcb = session -> {
+           List<UnreadCount> rtn = new ArrayList<>();
+           Query q = session.getNamedQuery(QUERY_UNREAD_COUNTS_BY_TOPIC_AND_USERS);
+           q.setParameter("topicId", topicId, LongType.INSTANCE);
+           for (int initIndex = 0; initIndex < userIds.size(); initIndex += MAX_IN_CLAUSE_SIZE) {
+               q.setParameterList("userIds", userIds.subList(initIndex, Math.min(initIndex + MAX_IN_CLAUSE_SIZE, userIds.size())));
+               rtn.addAll(q.list());
+           }
+           return rtn;
+       };
+
+       for (UnreadCount count : getHibernateTemplate().execute(hcb)) {
+           counts.put(count.getUserId(), count);
+       }
+       Boolean discussionTopic = null;
+       for (String userId : userIds) {
+           UnreadCount count = counts.get(userId);
+           if (count == null) {
+               if (discussionTopic == null) {
+                   discussionTopic = isDiscussionTopic(topicId);
+               }
+               // only the messages of discussion topics update the stored counts, others are counted every time
+               counts.put(userId, discussionTopic ? countUnread(topicId, userId, true) : countUnread(new UnreadCountImpl(topicId, userId)));
+           } else if (count.getUnreadCount() < 0 || count.getUnreadViewableCount() < 0) {
+               // a count below zero has missed an update or is not counted yet, so it is counted again as well
+               counts.put(userId, countUnread(topicId, userId, false));
+           }
+       }
+       return counts;
+   }
+
+   private boolean isDiscussionTopic(final Long topicId) {
+       HibernateCallback<Number> hcb = session -> {
+           Query q = session.getNamedQuery(QUERY_COUNT_DISCUSSION_TOPICS_BY_ID);
+           q.setParameter("topicId", topicId, LongType.INSTANCE);
+           return (Number) q.uniqueResult();
+       };
+
+       return getHibernateTemplate().execute(hcb).intValue() > 0;
+   }
+
+   private UnreadCount getUnreadCount(Long topicId, String userId) {
+       return findUnreadCountsByTopicIdForUsers(topicId, Collections.singletonList(userId)).get(userId);
+   }
+
+   /**
+    * Counts the unread messages of a user in a topic with the message and read status queries,
+    * and stores the counts for the saves, reads and moderation of messages to keep up to date.
+    * The row is stored before it is counted and counted under its lock, so a message posted meanwhile
+    * has either updated the row and is in the count, or waits for the lock and then updates the count.
+    */
+   private UnreadCount countUnread(final Long topicId, final String userId, boolean insert) {
+       if (insert) {
+           insertUnreadCount(topicId, userId);
+       }
+       HibernateCallback<UnreadCount> hcb = session -> {
+           Query q = session.getNamedQuery(QUERY_UNREAD_COUNT_BY_TOPIC_AND_USER);
+           q.setParameter("topicId", topicId, LongType.INSTANCE);
+           q.setParameter("userId", userId, StringType.INSTANCE);
+           q.setLockOptions(LockOptions.UPGRADE);
+           return (UnreadCount) q.uniqueResult();
+       };
+
+       UnreadCount count = getHibernateTemplate().execute(hcb);
+       if (count == null) {
+           // the row could not be stored, the counts are returned without being kept
+           return countUnread(new UnreadCountImpl(topicId, userId));
+       }
+       getHibernateTemplate().update(countUnread(count));
+       return count;
+   }
+
+   /**
+    * Sets the counts from the message and read status queries.
+    */
+   private UnreadCount countUnread(UnreadCount count) {
+       Long topicId = count.getTopicId();
+       String userId = count.getUserId();
+       count.setUnreadCount(findMessageCountByTopicId(topicId) - findReadMessageCountByTopicIdByUserId(topicId, userId));
+       count.setUnreadViewableCount(findViewableMessageCountByTopicIdByUserId(topicId, userId)
+               - findReadViewableMessageCountByTopicIdByUserId(topicId, userId));
+       return count;
+   }
+
+   /**
+    * Stores the row of a user in a topic, not counted yet, unless it is stored already. It is committed
+    * on its own so the updates of the messages posted from then on find it.
+    */
+   private void insertUnreadCount(Long topicId, String userId) {
+       UnreadCount count = new UnreadCountImpl(topicId, userId);
+       count.setUnreadCount(NOT_COUNTED);
+       count.setUnreadViewableCount(NOT_COUNTED);
+       Session session = getSessionFactory().openSession();
+       try {
+           session.beginTransaction();
+           session.save(count);
+           session.getTransaction().commit();
+       } catch (HibernateException e) {
+           // stored by another lookup of the same count, the unique key keeps it to one row
+           LOG.debug("unread count of topic " + topicId + " for user " + userId + " not stored: " + e.getMessage());
+           if (session.getTransaction().isActive()) {
+               session.getTransaction().rollback();
+           }
+       } finally {
+           session.close();
+       }
+   }
+
+   /**
+    * A message is counted when it is neither a draft nor deleted, as in the message count queries.
+    */
+   private static boolean isCounted(Boolean draft, Boolean deleted) {
+       return Boolean.FALSE.equals(draft) && Boolean.FALSE.equals(deleted);
+   }
+
+   /**
+    * Updates the stored unread counts of the message's topic for a change of the message from one
+    * state to another. Others see the message when it is approved, its author always does. The
+    * users who have read the message are left alone, as it moved in or out of their read count too.
+    */
+   private void updateUnreadCounts(final Message message, boolean wasCounted, boolean wasApproved,
+           boolean counted, boolean approved) {
+       final int unreadDelta = (counted ? 1 : 0) - (wasCounted ? 1 : 0);
+       final int viewableDelta = (counted && approved ? 1 : 0) - (wasCounted && wasApproved ? 1 : 0);
+       if (unreadDelta == 0 && viewableDelta == 0) {
+           return;
+       }
+
+       HibernateCallback<Integer> hcb = session -> {
+           Query q = session.getNamedQuery(QUERY_UPDATE_UNREAD_COUNTS_FOR_MESSAGE);
+           q.setParameter("unreadDelta", unreadDelta, IntegerType.INSTANCE);
+           q.setParameter("viewableDelta", viewableDelta, IntegerType.INSTANCE);
+           q.setParameter("topicId", message.getTopic().getId(), LongType.INSTANCE);
+           q.setParameter("authorId", message.getCreatedBy(), StringType.INSTANCE);
+           q.setParameter("messageId", message.getId(), LongType.INSTANCE);
+           int updated = q.executeUpdate();
+           if (unreadDelta != 0) {
+               Query qAuthor = session.getNamedQuery(QUERY_UPDATE_UNREAD_COUNTS_FOR_AUTHOR);
+               qAuthor.setParameter("unreadDelta", unreadDelta, IntegerType.INSTANCE);
+               qAuthor.setParameter("topicId", message.getTopic().getId(), LongType.INSTANCE);
+               qAuthor.setParameter("authorId", message.getCreatedBy(), StringType.INSTANCE);
+               qAuthor.setParameter("messageId", message.getId(), LongType.INSTANCE);
+               updated += qAuthor.executeUpdate();
+           }
+           return updated;
+       };
+
+       int updated = getHibernateTemplate().execute(hcb);
+       LOG.debug("updated " + updated + " unread counts for message " + message.getId());
+   }
+
+   /**
+    * Updates the stored unread counts of the message's topic for one user reading it, or marking it unread.
+    */
+   private void updateUnreadCountForReader(final Message message, final String userId, boolean read) {
+       if (!isCounted(message.getDraft(), message.getDeleted())) {
+           return;
+       }
+       final int unreadDelta = read ? -1 : 1;
+       final int viewableDelta = Boolean.TRUE.equals(message.getApproved()) || userId.equals(message.getCreatedBy()) ? unreadDelta : 0;
+
+       HibernateCallback<Integer> hcb = session -> {
+           Query q = session.getNamedQuery(QUERY_UPDATE_UNREAD_COUNT_FOR_USER);
+           q.setParameter("unreadDelta", unreadDelta, IntegerType.INSTANCE);
+           q.setParameter("viewableDelta", viewableDelta, IntegerType.INSTANCE);
+           q.setParameter("topicId", message.getTopic().getId(), LongType.INSTANCE);
+           q.setParameter("userId", userId, StringType.INSTANCE);
+           return q.executeUpdate();
+       };
+
+       getHibernateTemplate().execute(hcb);
+   }
+
+   /**
+    * Drops the stored unread counts of a topic, for changes that can't be followed message by message.
+    * They are counted again on their next lookup.
+    */
+   private void deleteUnreadCounts(final Long topicId) {
+       HibernateCallback<Integer> hcb = session -> {
+           Query q = session.getNamedQuery(QUERY_DELETE_UNREAD_COUNTS_BY_TOPIC_ID);
+           q.setParameter("topicId", topicId, LongType.INSTANCE);
+           return q.executeUpdate();
+       };
+
+       getHibernateTemplate().execute(hcb);
+   }
     
     public int findReadMessageCountByTopicId(final Long topicId) {
         if (topicId == null) {
@@ -1073,8 +1296,10 @@ public class MessageForumsMessageManagerImpl extends HibernateDaoSupport impleme
         }
         	
         getHibernateTemplate().saveOrUpdate(status);
-       
-        
+
+        if (isMessageFromForums && originalReadStatus != read) {
+            updateUnreadCountForReader(message, userId, read);
+        }
         	
         	if (isMessageFromForums){
         		if(!originalReadStatus && read){
@@ -1331,6 +1556,10 @@ public class MessageForumsMessageManagerImpl extends HibernateDaoSupport impleme
 
         getHibernateTemplate().saveOrUpdate(message);
 
+        if (isMessageFromForums(message)) {
+            updateUnreadCountsOnSave(message, isNew);
+        }
+
         if (logEvent) {
         	if (isNew) {
         		if (isMessageFromForums(message))
@@ -1349,9 +1578,37 @@ public class MessageForumsMessageManagerImpl extends HibernateDaoSupport impleme
         
     }
 
+    private void updateUnreadCountsOnSave(Message message, boolean isNew) {
+        boolean counted = isCounted(message.getDraft(), message.getDeleted());
+        boolean approved = Boolean.TRUE.equals(message.getApproved());
+        if (isNew) {
+            updateUnreadCounts(message, false, false, counted, approved);
+        } else if (message instanceof MessageImpl && ((MessageImpl) message).isSavedStateKnown()) {
+            MessageImpl saved = (MessageImpl) message;
+            updateUnreadCounts(message, isCounted(saved.getSavedDraft(), saved.getSavedDeleted()),
+                    Boolean.TRUE.equals(saved.getSavedApproved()), counted, approved);
+        } else {
+            // no telling what this save changed
+            deleteUnreadCounts(message.getTopic().getId());
+        }
+        if (message instanceof MessageImpl) {
+            ((MessageImpl) message).markSaved();
+        }
+    }
+
     public void deleteMessage(Message message) {
         long id = message.getId().longValue();
         message.setInReplyTo(null);
+
+        if (isMessageFromForums(message)) {
+            if (message instanceof MessageImpl && ((MessageImpl) message).isSavedStateKnown()) {
+                MessageImpl saved = (MessageImpl) message;
+                updateUnreadCounts(message, isCounted(saved.getSavedDraft(), saved.getSavedDeleted()),
+                        Boolean.TRUE.equals(saved.getSavedApproved()), false, false);
+            } else {
+                deleteUnreadCounts(message.getTopic().getId());
+            }
+        }
         
         getHibernateTemplate().saveOrUpdate(message);
         
@@ -1465,9 +1722,18 @@ public class MessageForumsMessageManagerImpl extends HibernateDaoSupport impleme
         LOG.debug("markMessageApproval executing with messageId: " + messageId);
         
         Message message = (Message) getMessageById(messageId);
+        boolean wasApproved = Boolean.TRUE.equals(message.getApproved());
         message.setApproved(Boolean.valueOf(approved));
         
         getHibernateTemplate().saveOrUpdate(message);
+
+        if (isMessageFromForums(message)) {
+            boolean counted = isCounted(message.getDraft(), message.getDeleted());
+            updateUnreadCounts(message, counted, wasApproved, counted, approved);
+            if (message instanceof MessageImpl) {
+                ((MessageImpl) message).markSaved();
+            }
+        }
     }
 
 
@@ -1942,6 +2208,9 @@ public class MessageForumsMessageManagerImpl extends HibernateDaoSupport impleme
 
 		getHibernateTemplate().saveOrUpdate(mhist);
 
+		// the message left the counts of one topic for the other's
+		deleteUnreadCounts(sourceTopicId);
+		deleteUnreadCounts(desttopicId);
 
 	}
 
@@ -22,6 +22,7 @@ import org.sakaiproject.api.app.messageforums.MessageForumsMessageManager;
 import org.sakaiproject.api.app.messageforums.MessageForumsTypeManager;
 import org.sakaiproject.api.app.messageforums.SynopticMsgcntrItem;
 import org.sakaiproject.api.app.messageforums.SynopticMsgcntrManager;
+import org.sakaiproject.api.app.messageforums.UnreadCount;
 import org.sakaiproject.api.app.messageforums.ui.DiscussionForumManager;
 import org.sakaiproject.api.app.messageforums.ui.PrivateMessageManager;
 import org.sakaiproject.api.app.messageforums.ui.UIPermissionsManager;
@@ -44,7 +45,6 @@ public class SynopticMsgcntrManagerImpl extends HibernateDaoSupport implements S
 	private static final String QUERY_SITE_SYNOPTIC_ITEMS = "findSiteSynopticMsgcntrItems";
 	private static final String QUERY_UPDATE_ALL_SITE_TITLES = "updateSiteTitles";
 
-	private HashMap mfPageInSiteMap, sitesMap;
 	// transient variable for when on home page of site
 	private transient DecoratedCompiledMessageStats siteContents;
 	private MessageForumsMessageManager messageManager;
@@ -696,6 +696,8 @@ public class SynopticMsgcntrManagerImpl extends HibernateDaoSupport implements S
 						while (topicIter.hasNext()) 
 						{
 							DecoratedTopicsInfo topic = (DecoratedTopicsInfo) topicIter.next();
+							//the users who can read the topic, and whether they see its unapproved messages
+							Map<String, Boolean> readers = new HashMap<String, Boolean>();
 							for(String userId : userIds){
 								if(overridingPermissionMap.get(userId)
 										|| (area.getAvailability() && ((dForum.getIsDraft().equals(Boolean.FALSE) && dForum.getAvailability()) ||
@@ -713,23 +715,22 @@ public class SynopticMsgcntrManagerImpl extends HibernateDaoSupport implements S
 
 										if (getUiPermissionsManager().isRead(topicId, isTopicDraft, dForum.getIsDraft(), userId, siteId))
 										{
-											if (!isTopicModerated.booleanValue() || (isTopicModerated.booleanValue() && 
-													getUiPermissionsManager().isModeratePostings(topicId, dForum.getIsLocked(), dForum.getIsDraft(), isTopicLocked, isTopicDraft, userId, siteId)))
-											{
-												//TODO: to improve this performance, try using the logic in MessageForumStatisticsBean.getTopicStatistics
-												//essentially, get the number of possible messages for that user and subtract the number read.  See commit for SAK-27810 for more details.
-												dcms.get(userId).setUnreadForumsAmt(dcms.get(userId).getUnreadForumsAmt() + getMessageManager().findUnreadMessageCountByTopicIdByUserId(topicId, userId));
-											}
-											else
-											{	
-												// b/c topic is moderated and user does not have mod perm, user may only
-												// see approved msgs or pending/denied msgs authored by user
-												dcms.get(userId).setUnreadForumsAmt(dcms.get(userId).getUnreadForumsAmt() + getMessageManager().findUnreadViewableMessageCountByTopicIdByUserId(topicId, userId));
-											}
+											// b/c topic is moderated and user does not have mod perm, user may only
+											// see approved msgs or pending/denied msgs authored by user
+											readers.put(userId, !isTopicModerated.booleanValue() || (isTopicModerated.booleanValue() && 
+													getUiPermissionsManager().isModeratePostings(topicId, dForum.getIsLocked(), dForum.getIsDraft(), isTopicLocked, isTopicDraft, userId, siteId)));
 										}
 									}
 								}
 							}
+
+							//the unread counts are kept per user and topic, so one lookup covers all the readers of the topic
+							Map<String, UnreadCount> unreadCounts = getMessageManager().findUnreadCountsByTopicIdForUsers(topic.getTopicId(), new ArrayList<String>(readers.keySet()));
+							for(Entry<String, Boolean> reader : readers.entrySet()){
+								UnreadCount unreadCount = unreadCounts.get(reader.getKey());
+								int unread = reader.getValue() ? unreadCount.getUnreadCount() : unreadCount.getUnreadViewableCount();
+								dcms.get(reader.getKey()).setUnreadForumsAmt(dcms.get(reader.getKey()).getUnreadForumsAmt() + unread);
+							}
 						}
 					}
 				}
@@ -922,17 +923,7 @@ public class SynopticMsgcntrManagerImpl extends HibernateDaoSupport implements S
 	 *         FALSE otherwise
 	 */
 	private boolean isMessageForumsPageInSite(Site thisSite) {
-		if (mfPageInSiteMap == null) {
-			mfPageInSiteMap = new HashMap();
-		}
-		
-		Boolean isMFPageInSite;
-		if ((isMFPageInSite = (Boolean) mfPageInSiteMap.get(thisSite)) == null) {
-			isMFPageInSite = isToolInSite(thisSite, DiscussionForumService.MESSAGE_CENTER_ID);
-			mfPageInSiteMap.put(thisSite, isMFPageInSite);
-		}
-		
-		return isMFPageInSite;
+		return isToolInSite(thisSite, DiscussionForumService.MESSAGE_CENTER_ID);
 	}
 	
 	/**
@@ -957,6 +948,9 @@ public class SynopticMsgcntrManagerImpl extends HibernateDaoSupport implements S
 	 * Returns the Site object for this id, if it exists.
 	 * If not, returns IdUnusedException
 	 * 
+	 * The site service caches sites itself, and keeps them up to date with
+	 * membership and tool changes, so the site isn't held on to here.
+	 * 
 	 * @param siteId
 	 * 			The site id to check
 	 * 
@@ -965,18 +959,7 @@ public class SynopticMsgcntrManagerImpl extends HibernateDaoSupport implements S
 	 */
 	private Site getSite(String siteId) 
 	throws IdUnusedException {
-		if (sitesMap == null) {
-			sitesMap = new HashMap();
-		}
-	
-		if (sitesMap.get(siteId) == null) {
-			Site site = siteService.getSite(siteId);
-			sitesMap.put(site.getId(), site);
-			return site;
-		}
-		else {
-			return (Site) sitesMap.get(siteId);
-		}
+		return siteService.getSite(siteId);
 	}
 
 	
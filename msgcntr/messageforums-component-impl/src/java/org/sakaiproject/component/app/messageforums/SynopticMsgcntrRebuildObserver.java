@@ -0,0 +1,159 @@
+/**********************************************************************************
+ *
+ * Copyright (c) 2017 The Apereo Foundation
+ *
+ * Licensed under the Educational Community License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.opensource.org/licenses/ECL-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ **********************************************************************************/
+package org.sakaiproject.component.app.messageforums;
+
+import java.util.Observable;
+import java.util.Observer;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import org.sakaiproject.api.app.messageforums.SynopticMsgcntrManager;
+import org.sakaiproject.authz.api.AuthzGroupService;
+import org.sakaiproject.component.cover.ServerConfigurationService;
+import org.sakaiproject.event.api.Event;
+import org.sakaiproject.event.api.EventTrackingService;
+import org.sakaiproject.site.api.SiteService;
+import org.sakaiproject.thread_local.api.ThreadLocalManager;
+import org.sakaiproject.tool.api.Session;
+import org.sakaiproject.tool.api.SessionManager;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Rebuilds the synoptic Messages and Forums counts of a site in the background when
+ * its membership or permissions change, as either changes who can read which topics.
+ * The unread counts per user and topic stay as they are, so the rebuild only sums them again.
+ *
+ * Changes to a site within msgcntr.synoptic.rebuildDelay seconds (60 by default) are rebuilt
+ * together, as a roster update changes many memberships at once. A negative delay turns the
+ * rebuilds off.
+ */
+public class SynopticMsgcntrRebuildObserver implements Observer {
+
+	private static final Logger LOG = LoggerFactory.getLogger(SynopticMsgcntrRebuildObserver.class);
+	private static final String REBUILD_DELAY_PROP = "msgcntr.synoptic.rebuildDelay";
+	private static final String SITE_REFERENCE_PREFIX = SiteService.REFERENCE_ROOT + "/";
+
+	private EventTrackingService eventTrackingService;
+	private SessionManager sessionManager;
+	private ThreadLocalManager threadLocalManager;
+	private SiteService siteService;
+	private SynopticMsgcntrManager synopticMsgcntrManager;
+
+	private final Set<String> pendingSites = ConcurrentHashMap.newKeySet();
+	private ScheduledExecutorService executor;
+	private int rebuildDelay;
+
+	public void setEventTrackingService(EventTrackingService eventTrackingService) {
+		this.eventTrackingService = eventTrackingService;
+	}
+
+	public void setSessionManager(SessionManager sessionManager) {
+		this.sessionManager = sessionManager;
+	}
+
+	public void setThreadLocalManager(ThreadLocalManager threadLocalManager) {
+		this.threadLocalManager = threadLocalManager;
+	}
+
+	public void setSiteService(SiteService siteService) {
+		this.siteService = siteService;
+	}
+
+	public void setSynopticMsgcntrManager(SynopticMsgcntrManager synopticMsgcntrManager) {
+		this.synopticMsgcntrManager = synopticMsgcntrManager;
+	}
+
+	public void init() {
+		rebuildDelay = ServerConfigurationService.getInt(REBUILD_DELAY_PROP, 60);
+		if (rebuildDelay < 0) {
+			LOG.info("init() synoptic rebuilds are off");
+			return;
+		}
+		LOG.info("init() rebuilding synoptic counts " + rebuildDelay + " seconds after membership and permission changes");
+		executor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+			Thread thread = new Thread(runnable, "SynopticMsgcntrRebuild");
+			thread.setDaemon(true);
+			return thread;
+		});
+		// only the events of this server, so a cluster rebuilds a site once
+		eventTrackingService.addLocalObserver(this);
+	}
+
+	public void destroy() {
+		if (executor != null) {
+			eventTrackingService.deleteObserver(this);
+			executor.shutdownNow();
+		}
+	}
+
+	public void update(Observable observable, Object arg) {
+		if (!(arg instanceof Event)) {
+			return;
+		}
+		Event event = (Event) arg;
+		String eventType = event.getEvent();
+		if (SiteService.SECURE_UPDATE_SITE_MEMBERSHIP.equals(eventType)
+				|| SiteService.SECURE_UPDATE_GROUP_MEMBERSHIP.equals(eventType)
+				|| AuthzGroupService.SECURE_UPDATE_AUTHZ_GROUP.equals(eventType)
+				|| AuthzGroupService.SECURE_UPDATE_OWN_AUTHZ_GROUP.equals(eventType)) {
+			String siteId = getSiteId(event.getResource());
+			if (siteId != null && !siteService.isUserSite(siteId) && pendingSites.add(siteId)) {
+				executor.schedule(() -> rebuild(siteId), rebuildDelay, TimeUnit.SECONDS);
+			}
+		}
+	}
+
+	/**
+	 * @return the id of the site in a site, group or realm reference, or null for other references
+	 */
+	private String getSiteId(String reference) {
+		if (reference == null) {
+			return null;
+		}
+		int start = reference.indexOf(SITE_REFERENCE_PREFIX);
+		if (start == -1) {
+			return null;
+		}
+		start += SITE_REFERENCE_PREFIX.length();
+		int end = reference.indexOf('/', start);
+		String siteId = end == -1 ? reference.substring(start) : reference.substring(start, end);
+		return siteId.isEmpty() ? null : siteId;
+	}
+
+	private void rebuild(String siteId) {
+		// changes from here on need another rebuild
+		pendingSites.remove(siteId);
+		Session session = sessionManager.getCurrentSession();
+		session.setUserId("admin");
+		session.setUserEid("admin");
+		try {
+			LOG.debug("rebuilding the synoptic counts of site " + siteId);
+			synopticMsgcntrManager.resetAllUsersSynopticInfoInSite(siteId);
+		} catch (RuntimeException e) {
+			LOG.warn("Could not rebuild the synoptic counts of site " + siteId, e);
+		} finally {
+			session.invalidate();
+			threadLocalManager.clear();
+		}
+	}
+
+}
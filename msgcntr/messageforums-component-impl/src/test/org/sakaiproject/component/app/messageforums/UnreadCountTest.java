@@ -0,0 +1,226 @@
+/**********************************************************************************
+ * $URL$
+ * $Id$
+ ***********************************************************************************
+ *
+ * Copyright (c) 2003, 2004, 2005, 2006, 2007, 2008 The Sakai Foundation
+ *
+ * Licensed under the Educational Community License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.opensource.org/licenses/ECL-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ **********************************************************************************/
+package org.sakaiproject.component.app.messageforums;
+
+import java.util.Arrays;
+import java.util.Date;
+import java.util.Map;
+import java.util.UUID;
+
+import org.hibernate.Session;
+import org.hibernate.SessionFactory;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.Mockito;
+import org.sakaiproject.api.app.messageforums.Message;
+import org.sakaiproject.api.app.messageforums.UnreadCount;
+import org.sakaiproject.component.app.messageforums.dao.hibernate.DiscussionTopicImpl;
+import org.sakaiproject.component.app.messageforums.dao.hibernate.MessageImpl;
+import org.sakaiproject.component.app.messageforums.dao.hibernate.MutableEntityImpl;
+import org.sakaiproject.component.app.messageforums.dao.hibernate.PrivateTopicImpl;
+import org.sakaiproject.component.app.messageforums.dao.hibernate.TopicImpl;
+import org.sakaiproject.component.cover.ComponentManager;
+import org.sakaiproject.event.api.EventTrackingService;
+import org.springframework.jdbc.datasource.DriverManagerDataSource;
+import org.springframework.orm.hibernate4.HibernateTransactionManager;
+import org.springframework.orm.hibernate4.LocalSessionFactoryBuilder;
+import org.springframework.transaction.support.TransactionTemplate;
+
+/**
+ * Checks the stored unread counts follow the messages of a topic being posted, read, approved and deleted.
+ */
+public class UnreadCountTest {
+
+    // the mappings of components.xml
+    private static final String[] MAPPINGS = {"DateRestrictions", "Attachment", "UnreadStatus", "UnreadCount", "Area",
+            "Topic", "MessageImpl", "OpenForum", "PrivateForum", "Label", "DBMembershipItemImpl", "PermissionLevelImpl",
+            "EmailNotification", "SynopticMsgcntrItem", "HiddenGroupImpl", "MessageMoveHistory", "Rank", "RankImage",
+            "AnonymousMapping"};
+
+    private static final String AUTHOR = "author";
+    private static final String READER = "reader";
+
+    private SessionFactory sessionFactory;
+    private TransactionTemplate transactionTemplate;
+    private MessageForumsMessageManagerImpl messageManager;
+    private Long topicId;
+
+    @Before
+    public void setUp() {
+        ComponentManager.testingMode = true;
+        TestUtil.setRunningTests(true);
+
+        // the counts are stored on a connection of their own, so the database must not lock whole tables
+        LocalSessionFactoryBuilder builder = new LocalSessionFactoryBuilder(new DriverManagerDataSource(
+                "jdbc:hsqldb:mem:UnreadCountTest;hsqldb.tx=mvcc", "sa", ""));
+        for (String mapping : MAPPINGS) {
+            builder.addResource("org/sakaiproject/component/app/messageforums/dao/hibernate/" + mapping + ".hbm.xml");
+        }
+        sessionFactory = builder
+                .setProperty("hibernate.dialect", "org.hibernate.dialect.HSQLDialect")
+                .setProperty("hibernate.cache.use_second_level_cache", "false")
+                .setProperty("hibernate.query.substitutions", "true 1, false 0")
+                .setProperty("hibernate.hbm2ddl.auto", "create-drop")
+                .buildSessionFactory();
+        transactionTemplate = new TransactionTemplate(new HibernateTransactionManager(sessionFactory));
+
+        messageManager = new MessageForumsMessageManagerImpl();
+        messageManager.setSessionFactory(sessionFactory);
+        messageManager.setEventTrackingService(Mockito.mock(EventTrackingService.class));
+
+        topicId = saveTopic(new DiscussionTopicImpl());
+    }
+
+    @After
+    public void tearDown() {
+        TestUtil.setRunningTests(false);
+        sessionFactory.close();
+    }
+
+    @Test
+    public void testCountsFollowMessages() {
+        assertCounts(READER, 0, 0);
+        assertCounts(AUTHOR, 0, 0);
+
+        Long approved = post(true);
+        assertCounts(READER, 1, 1);
+        assertCounts(AUTHOR, 1, 1);
+
+        // others do not see the pending message, its author does
+        Long pending = post(false);
+        assertCounts(READER, 2, 1);
+        assertCounts(AUTHOR, 2, 2);
+
+        transactionTemplate.execute(status -> {
+            messageManager.markMessageReadForUser(topicId, approved, true, READER, "site", "sakai.forums");
+            return null;
+        });
+        assertCounts(READER, 1, 0);
+        assertCounts(AUTHOR, 2, 2);
+
+        transactionTemplate.execute(status -> {
+            messageManager.markMessageApproval(pending, true);
+            return null;
+        });
+        assertCounts(READER, 1, 1);
+
+        transactionTemplate.execute(status -> {
+            Message message = messageManager.getMessageById(pending);
+            message.setDeleted(true);
+            messageManager.saveMessage(message, false, "sakai.forums", AUTHOR, "site", true);
+            return null;
+        });
+        assertCounts(READER, 0, 0);
+        assertCounts(AUTHOR, 1, 1);
+
+        // the stored counts are what counting them again gives
+        transactionTemplate.execute(status -> sessionFactory.getCurrentSession()
+                .createQuery("delete from UnreadCountImpl").executeUpdate());
+        assertCounts(READER, 0, 0);
+        assertCounts(AUTHOR, 1, 1);
+    }
+
+    @Test
+    public void testCountsAreStoredOncePerUser() {
+        post(true);
+        assertCounts(READER, 1, 1);
+        assertCounts(READER, 1, 1);
+
+        // a count that missed an update is counted again in its own row
+        transactionTemplate.execute(status -> sessionFactory.getCurrentSession()
+                .createQuery("update UnreadCountImpl set unreadCount = -1").executeUpdate());
+        assertCounts(READER, 1, 1);
+        Number rows = transactionTemplate.execute(status -> (Number) sessionFactory.getCurrentSession()
+                .createQuery("select count(*) from UnreadCountImpl where topicId = :topicId and userId = :userId")
+                .setLong("topicId", topicId).setString("userId", READER).uniqueResult());
+        Assert.assertEquals(1, rows.intValue());
+    }
+
+    @Test
+    public void testPrivateTopicCountsAreNotStored() {
+        Long privateTopicId = saveTopic(new PrivateTopicImpl());
+        Map<String, UnreadCount> counts = transactionTemplate.execute(status ->
+                messageManager.findUnreadCountsByTopicIdForUsers(privateTopicId, Arrays.asList(READER)));
+        Assert.assertEquals(Integer.valueOf(0), counts.get(READER).getUnreadCount());
+        Number rows = transactionTemplate.execute(status -> (Number) sessionFactory.getCurrentSession()
+                .createQuery("select count(*) from UnreadCountImpl where topicId = :topicId")
+                .setLong("topicId", privateTopicId).uniqueResult());
+        Assert.assertEquals(0, rows.intValue());
+    }
+
+    private Long saveTopic(TopicImpl topic) {
+        setCreated(topic);
+        topic.setTitle("topic");
+        topic.setModerated(true);
+        topic.setPostFirst(false);
+        topic.setPostAnonymous(false);
+        topic.setRevealIDsToRoles(false);
+        topic.setAutoMarkThreadsRead(false);
+        topic.setMutable(true);
+        topic.setSortIndex(0);
+        topic.setTypeUuid("type");
+        topic.setAvailabilityRestricted(false);
+        topic.setAvailability(true);
+        Session session = sessionFactory.openSession();
+        try {
+            session.beginTransaction();
+            Long id = (Long) session.save(topic);
+            session.getTransaction().commit();
+            return id;
+        } finally {
+            session.close();
+        }
+    }
+
+    private Long post(boolean approved) {
+        return transactionTemplate.execute(status -> {
+            MessageImpl message = new MessageImpl();
+            setCreated(message);
+            message.setTitle("message");
+            message.setAuthor(AUTHOR);
+            message.setHasAttachments(false);
+            message.setTypeUuid("type");
+            message.setDraft(false);
+            message.setDeleted(false);
+            message.setApproved(approved);
+            message.setTopic((DiscussionTopicImpl) sessionFactory.getCurrentSession().get(DiscussionTopicImpl.class, topicId));
+            messageManager.saveMessage(message, true, "sakai.forums", AUTHOR, "site", true);
+            return message.getId();
+        });
+    }
+
+    private void assertCounts(String userId, int unread, int unreadViewable) {
+        Map<String, UnreadCount> counts = transactionTemplate.execute(status ->
+                messageManager.findUnreadCountsByTopicIdForUsers(topicId, Arrays.asList(userId)));
+        Assert.assertEquals(Integer.valueOf(unread), counts.get(userId).getUnreadCount());
+        Assert.assertEquals(Integer.valueOf(unreadViewable), counts.get(userId).getUnreadViewableCount());
+    }
+
+    private void setCreated(MutableEntityImpl entity) {
+        entity.setUuid(UUID.randomUUID().toString());
+        entity.setCreated(new Date());
+        entity.setCreatedBy(AUTHOR);
+        entity.setModified(new Date());
+        entity.setModifiedBy(AUTHOR);
+    }
+}
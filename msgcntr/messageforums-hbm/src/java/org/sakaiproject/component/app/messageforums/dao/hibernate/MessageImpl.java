@@ -54,6 +54,12 @@ public class MessageImpl extends MutableEntityImpl implements Message
   private Date threadLastUpdated;
   private Long lastTreadPostId;
   private Integer numReaders;
+
+	// the flags as last loaded or saved, so a save can tell how it changes the unread counts;
+	// mapped read only onto the same columns
+	private Boolean savedDraft;
+	private Boolean savedDeleted;
+	private Boolean savedApproved;
   
 	public static Comparator ATTACHMENT_COMPARATOR;
 	public static Comparator SUBJECT_COMPARATOR;
@@ -473,6 +479,35 @@ public class MessageImpl extends MutableEntityImpl implements Message
 
 	}
 
+	/**
+	 * @return false if this message wasn't loaded from or saved to the database,
+	 *         so its saved flags are unknown
+	 */
+	public boolean isSavedStateKnown() {
+		return savedDraft != null && savedDeleted != null;
+	}
+
+	public Boolean getSavedDraft() {
+		return savedDraft;
+	}
+
+	public Boolean getSavedDeleted() {
+		return savedDeleted;
+	}
+
+	public Boolean getSavedApproved() {
+		return savedApproved;
+	}
+
+	/**
+	 * Records the current flags as the saved ones, once the message has been saved.
+	 */
+	public void markSaved() {
+		savedDraft = draft;
+		savedDeleted = deleted;
+		savedApproved = approved;
+	}
+
 
 }
 
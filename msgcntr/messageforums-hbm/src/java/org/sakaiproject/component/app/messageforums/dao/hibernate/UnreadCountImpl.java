@@ -0,0 +1,78 @@
+/**********************************************************************************
+ *
+ * Copyright (c) 2017 The Apereo Foundation
+ *
+ * Licensed under the Educational Community License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.opensource.org/licenses/ECL-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ **********************************************************************************/
+package org.sakaiproject.component.app.messageforums.dao.hibernate;
+
+import org.sakaiproject.api.app.messageforums.UnreadCount;
+
+public class UnreadCountImpl implements UnreadCount {
+
+    private Long id;
+    private Long topicId;
+    private String userId;
+    private Integer unreadCount;
+    private Integer unreadViewableCount;
+
+    public UnreadCountImpl() {
+    }
+
+    public UnreadCountImpl(Long topicId, String userId) {
+        this.topicId = topicId;
+        this.userId = userId;
+    }
+
+    public Long getId() {
+        return id;
+    }
+
+    public void setId(Long id) {
+        this.id = id;
+    }
+
+    public Long getTopicId() {
+        return topicId;
+    }
+
+    public void setTopicId(Long topicId) {
+        this.topicId = topicId;
+    }
+
+    public String getUserId() {
+        return userId;
+    }
+
+    public void setUserId(String userId) {
+        this.userId = userId;
+    }
+
+    public Integer getUnreadCount() {
+        return unreadCount;
+    }
+
+    public void setUnreadCount(Integer unreadCount) {
+        this.unreadCount = unreadCount;
+    }
+
+    public Integer getUnreadViewableCount() {
+        return unreadViewableCount;
+    }
+
+    public void setUnreadViewableCount(Integer unreadViewableCount) {
+        this.unreadViewableCount = unreadViewableCount;
+    }
+
+}
@@ -444,3 +444,29 @@ UPDATE SAKAI_EVENT SET EVENT = 'sam.assessment.submit.timer' WHERE EVENT = 'sam.
 UPDATE SAKAI_EVENT SET EVENT = 'sam.assessment.submit.timer.url' WHERE EVENT = 'sam.assessment.timer_submit.url';
 
 -- END SAM-3012 Update samigo events 
+
+-- Content quota ledger, the resource sizes kept per context for the quota checks (content.quota.ledger)
+CREATE TABLE CONTENT_QUOTA_LEDGER
+(
+    CONTEXT VARCHAR (99) NOT NULL,
+    TOTAL_SIZE BIGINT,
+    PRIMARY KEY (CONTEXT)
+);
+
+-- Optional, contexts left out are counted on their first quota check. Only run this while Sakai is down.
+-- INSERT INTO CONTENT_QUOTA_LEDGER (CONTEXT, TOTAL_SIZE) SELECT CONTEXT, SUM(FILE_SIZE) FROM CONTENT_RESOURCE WHERE CONTEXT IS NOT NULL GROUP BY CONTEXT;
+-- END Content quota ledger
+
+-- Gradebook cached course grades (gradebook.courseGradeCache.enabled), filled as the course grades are read
+create table GB_CACHED_COURSE_GRADE_T (ID bigint not null auto_increment, VERSION integer not null, GRADEBOOK_ID bigint not null, STUDENT_ID varchar(255) not null, STALE bit not null, CALCULATED_GRADE double precision, POINTS_EARNED double precision, TOTAL_POINTS_POSSIBLE double precision, CATEGORY_SCORES varchar(4000), DATE_CALCULATED datetime not null, primary key (ID), unique key GB_CACHED_COURSE_GRADE_KEY (GRADEBOOK_ID, STUDENT_ID));
+-- END Gradebook cached course grades
+
+-- Samigo grading journal, the answers autosaved since the last write of each assessment grading
+create table SAM_GRADINGJOURNAL_T (ASSESSMENTGRADINGID bigint not null, PUBLISHEDASSESSMENTID bigint not null, AGENTID varchar(255) not null, BASEDATE datetime, ITEMGRADINGS longtext, REMOVEDITEMGRADINGIDS longtext, LASTMODIFIEDDATE datetime not null, primary key (ASSESSMENTGRADINGID));
+create index SAM_GRADINGJOURNAL_I on SAM_GRADINGJOURNAL_T (PUBLISHEDASSESSMENTID, AGENTID);
+create index SAM_GRADINGJOURNAL_DATE_I on SAM_GRADINGJOURNAL_T (LASTMODIFIEDDATE);
+-- END Samigo grading journal
+
+-- Forums unread counts per user and topic, each counted on its first lookup
+create table MFR_UNREAD_COUNT_T (ID bigint not null auto_increment, TOPIC_ID bigint not null, USER_ID varchar(99) not null, UNREAD_COUNT integer not null, UNREAD_VIEWABLE_COUNT integer not null, primary key (ID), unique key MFR_UNREAD_COUNT_KEY (TOPIC_ID, USER_ID));
+-- END Forums unread counts
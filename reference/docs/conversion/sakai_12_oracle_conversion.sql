@@ -504,3 +504,31 @@ UPDATE SAKAI_EVENT SET EVENT = 'sam.assessment.submit.timer' WHERE EVENT = 'sam.
 UPDATE SAKAI_EVENT SET EVENT = 'sam.assessment.submit.timer.url' WHERE EVENT = 'sam.assessment.timer_submit.url';
 
 -- END SAM-3012
+
+-- Content quota ledger, the resource sizes kept per context for the quota checks (content.quota.ledger)
+CREATE TABLE CONTENT_QUOTA_LEDGER
+(
+    CONTEXT VARCHAR2 (99) NOT NULL,
+    TOTAL_SIZE NUMBER(18),
+    PRIMARY KEY (CONTEXT)
+);
+
+-- Optional, contexts left out are counted on their first quota check. Only run this while Sakai is down.
+-- INSERT INTO CONTENT_QUOTA_LEDGER (CONTEXT, TOTAL_SIZE) SELECT CONTEXT, SUM(FILE_SIZE) FROM CONTENT_RESOURCE WHERE CONTEXT IS NOT NULL GROUP BY CONTEXT;
+-- END Content quota ledger
+
+-- Gradebook cached course grades (gradebook.courseGradeCache.enabled), filled as the course grades are read
+create table GB_CACHED_COURSE_GRADE_T (ID number(19,0) not null, VERSION number(10,0) not null, GRADEBOOK_ID number(19,0) not null, STUDENT_ID varchar2(255 char) not null, STALE number(1,0) not null, CALCULATED_GRADE double precision, POINTS_EARNED double precision, TOTAL_POINTS_POSSIBLE double precision, CATEGORY_SCORES varchar2(4000 char), DATE_CALCULATED timestamp not null, primary key (ID), constraint GB_CACHED_COURSE_GRADE_KEY unique (GRADEBOOK_ID, STUDENT_ID));
+create sequence GB_CACHED_COURSE_GRADE_S;
+-- END Gradebook cached course grades
+
+-- Samigo grading journal, the answers autosaved since the last write of each assessment grading
+create table SAM_GRADINGJOURNAL_T (ASSESSMENTGRADINGID number(19,0) not null, PUBLISHEDASSESSMENTID number(19,0) not null, AGENTID varchar2(255 char) not null, BASEDATE timestamp, ITEMGRADINGS clob, REMOVEDITEMGRADINGIDS clob, LASTMODIFIEDDATE timestamp not null, primary key (ASSESSMENTGRADINGID));
+create index SAM_GRADINGJOURNAL_I on SAM_GRADINGJOURNAL_T (PUBLISHEDASSESSMENTID, AGENTID);
+create index SAM_GRADINGJOURNAL_DATE_I on SAM_GRADINGJOURNAL_T (LASTMODIFIEDDATE);
+-- END Samigo grading journal
+
+-- Forums unread counts per user and topic, each counted on its first lookup
+create table MFR_UNREAD_COUNT_T (ID number(19,0) not null, TOPIC_ID number(19,0) not null, USER_ID varchar2(99 char) not null, UNREAD_COUNT number(10,0) not null, UNREAD_VIEWABLE_COUNT number(10,0) not null, primary key (ID), constraint MFR_UNREAD_COUNT_KEY unique (TOPIC_ID, USER_ID));
+create sequence MFR_UNREAD_COUNT_S;
+-- END Forums unread counts
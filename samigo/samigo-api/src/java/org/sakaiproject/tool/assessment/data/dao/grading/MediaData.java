@@ -21,6 +21,11 @@
 
 package org.sakaiproject.tool.assessment.data.dao.grading;
 
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
 import java.io.Serializable;
 import java.text.DecimalFormat;
 import java.util.Arrays;
@@ -61,6 +66,10 @@ public class MediaData implements Serializable {
 	// When AssessmentGradingFacadeQueries.saveMedia is called, the byte array is written
 	// to a resource, rather than the blob column.
 	private ContentResource contentResource;
+	// Transient field to hold an uploaded file for the media. When it is set,
+	// AssessmentGradingFacadeQueries.saveMedia streams the file to the resource
+	// instead of the byte array, so the media is never held in memory.
+	private File mediaFile;
 
 	public MediaData() {
 	}
@@ -173,6 +182,38 @@ public class MediaData implements Serializable {
 		this.contentResource = contentResource;
 	}
 
+	public File getMediaFile() {
+		return mediaFile;
+	}
+
+	public void setMediaFile(File mediaFile) {
+		this.mediaFile = mediaFile;
+	}
+
+	/**
+	 * Read the media from wherever it is held without loading it all into memory
+	 * (except for media still in the blob column, which is already loaded).
+	 * Media stored at a location on the file system is not read here.
+	 *
+	 * @return the media, which the caller must close; null if there is none
+	 */
+	public InputStream streamMedia() throws IOException {
+		if (media != null) {
+			return new ByteArrayInputStream(media);
+		}
+		if (mediaFile != null) {
+			return new FileInputStream(mediaFile);
+		}
+		if (contentResource != null) {
+			try {
+				return contentResource.streamContent();
+			} catch (ServerOverloadException e) {
+				throw new IOException(e);
+			}
+		}
+		return null;
+	}
+
 	public Long getFileSize() {
 		return fileSize;
 	}
@@ -21,10 +21,7 @@ package org.sakaiproject.tool.assessment.ui.bean.delivery;
 
 
 import java.io.File;
-import java.io.FileNotFoundException;
-import java.io.IOException;
 import java.io.Serializable;
-import java.nio.file.Files;
 import java.text.SimpleDateFormat;
 import java.util.*;
 import java.util.stream.Collectors;
@@ -283,6 +280,10 @@ public class DeliveryBean
   private boolean submitFromTimeoutPopup;
   private boolean  skipFlag;
   private Date deadline;
+  // the autosave being made goes to the grading journal rather than the grading
+  private transient boolean journalAutoSave;
+  // when the autosaves started going to the grading journal, null while the grading has them all
+  private Date gradingJournalStarted;
   
   private boolean  firstTimeTaking;
   boolean timeExpired = false;
@@ -2001,7 +2002,17 @@ public class DeliveryBean
   public String auto_save()
   {
 	  skipFlag = true;
-	  return save_work();
+	  // autosave to the grading journal until it is samigo.autoSave.journal.flushSeconds old, the next autosave
+	  // (or any other save) then writes the answers to the grading
+	  journalAutoSave = ServerConfigurationService.getBoolean("samigo.autoSave.journal.enabled", false)
+			  && (gradingJournalStarted == null || new Date().getTime() - gradingJournalStarted.getTime()
+					  < ServerConfigurationService.getInt("samigo.autoSave.journal.flushSeconds", 60) * 1000L);
+	  try {
+		  return save_work();
+	  }
+	  finally {
+		  journalAutoSave = false;
+	  }
   }
   
   public String save_work()
@@ -2018,7 +2029,9 @@ public class DeliveryBean
 	  if (this.actionMode == TAKE_ASSESSMENT
 			  || this.actionMode == TAKE_ASSESSMENT_VIA_URL)
 	  {
-		  syncTimeElapsedWithServer();
+		  if (!journalAutoSave) {
+			  syncTimeElapsedWithServer();
+		  }
 		  SubmitToGradingActionListener listener =
 			  new SubmitToGradingActionListener();
 		  try {
@@ -2395,24 +2408,6 @@ public class DeliveryBean
     adata = newdata;
   }
 
-  private byte[] getMediaStream(String mediaLocation)
-  {
-    byte[] mediaByte = new byte[0];
-    try
-    {
-      mediaByte = Files.readAllBytes(new File(mediaLocation).toPath());
-    }
-    catch (FileNotFoundException ex)
-    {
-      log.error("File not found in DeliveryBean.getMediaStream(): " + ex.getMessage());
-    }
-    catch (IOException ex)
-    {
-      log.error("IO Exception in DeliveryBean.getMediaStream(): " + ex.getMessage());
-    }
-    return mediaByte;
-  }
-
   /**
    * This method is used by jsf/delivery/deliveryFileUpload.jsp
    *   <corejsf:upload
@@ -2527,7 +2522,6 @@ public class DeliveryBean
                         GradingService gradingService){
     // 1. create a media record
     File media = new File(mediaLocation);
-    byte[] mediaByte = getMediaStream(mediaLocation);
     String mimeType = MimeTypesLocator.getInstance().getContentType(media);
     boolean SAVETODB = getSaveToDb();
     log.debug("**** SAVETODB=" + SAVETODB);
@@ -2550,18 +2544,19 @@ public class DeliveryBean
 
     
     if (SAVETODB)
-    { // put the byte[] in
-      mediaData = new MediaData(itemGradingData, mediaByte,
-                                Long.valueOf(mediaByte.length + ""),
+    { // the file is streamed to the media store
+      mediaData = new MediaData(itemGradingData, null,
+                                Long.valueOf(media.length()),
                                 mimeType, "description", null,
                                 updatedFilename, false, false, 1,
                                 agent, new Date(),
                                 agent, new Date(), null);
+      mediaData.setMediaFile(media);
     }
     else
     { // put the location in
       mediaData = new MediaData(itemGradingData, null,
-    		  					Long.valueOf(mediaByte.length + ""),
+    		  					Long.valueOf(media.length()),
                                 mimeType, "description", mediaLocation,
                                 updatedFilename, false, false, 1,
                                 agent, new Date(),
@@ -4062,6 +4057,25 @@ public class DeliveryBean
 		  this.submitFromTimeoutPopup = submitFromTimeoutPopup;
 	  }
 	  
+	  public boolean isJournalAutoSave() {
+		  return journalAutoSave;
+	  }
+
+	  public Date getGradingJournalStarted() {
+		  return gradingJournalStarted;
+	  }
+
+	  public void setGradingJournalStarted(Date gradingJournalStarted) {
+		  this.gradingJournalStarted = gradingJournalStarted;
+	  }
+
+	  /**
+	   * Forget the grading journal, once its answers have been written to the grading.
+	   */
+	  public void resetGradingJournal() {
+		  this.gradingJournalStarted = null;
+	  }
+
 	  public void setSkipFlag(boolean skipFlag) {
 		  this.skipFlag = skipFlag;
 	  }
@@ -21,9 +21,14 @@
 
 package org.sakaiproject.tool.assessment.ui.bean.evaluation;
 
+import java.io.BufferedWriter;
 import java.io.IOException;
 import java.io.OutputStream;
+import java.io.OutputStreamWriter;
 import java.io.Serializable;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
 import java.text.DateFormat;
 import java.text.SimpleDateFormat;
 import java.util.ArrayList;
@@ -31,10 +36,10 @@ import java.util.Date;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
+import java.util.function.Consumer;
 
 import javax.faces.context.FacesContext;
 import javax.faces.event.ActionEvent;
-import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 
 import org.apache.commons.lang.StringUtils;
@@ -47,6 +52,7 @@ import org.apache.poi.ss.usermodel.Font;
 import org.apache.poi.ss.usermodel.Row;
 import org.apache.poi.ss.usermodel.Sheet;
 import org.apache.poi.ss.usermodel.Workbook;
+import org.apache.poi.xssf.streaming.SXSSFWorkbook;
 import org.apache.poi.xssf.usermodel.XSSFWorkbook;
 import org.sakaiproject.component.cover.ServerConfigurationService;
 import org.sakaiproject.jsf.model.PhaseAware;
@@ -169,11 +175,70 @@ public class ExportResponsesBean implements Serializable, PhaseAware {
         response.reset();	// Eliminate the added-on stuff
         response.setHeader("Pragma", "public");	// Override old-style cache control
         response.setHeader("Cache-Control", "public, must-revalidate, post-check=0, pre-check=0, max-age=0");	// New-style
-       	writeDataToResponse(getSpreadsheetData(), getDownloadFileName(), response);
+        // the number of columns isn't known until the rows are read, so it is always xlsx (SAK-16560)
+        setDownloadHeaders(response, "application/vnd.openxmlformats-officedocument.spreadsheetml.sheet", ".xlsx");
+
+        // only the last rows written are kept in memory, the rest are flushed to a temporary file
+        SXSSFWorkbook wb = new SXSSFWorkbook(100);
+        OutputStream out = null;
+        try {
+            writeSpreadsheetData(new WorkbookWriter(wb));
+            out = response.getOutputStream();
+            wb.write(out);
+            out.flush();
+        } catch (IOException e) {
+            log.error(e.getMessage(), e);
+        } finally {
+            wb.dispose();
+            try {
+                if (out != null) out.close();
+            } catch (IOException e) {
+                log.error(e.getMessage(), e);
+            }
+        }
        	faces.responseComplete();
     }
-	
-    private List<List<Object>> getSpreadsheetData() {
+
+	/**
+	 * Export the responses sheet as CSV, written to the response as the rows are read.
+	 */
+	public void exportCsv(ActionEvent event){
+        log.debug("exporting as CSV: assessment id =  " + getAssessmentId());
+        FacesContext faces = FacesContext.getCurrentInstance();
+        HttpServletResponse response = (HttpServletResponse)faces.getExternalContext().getResponse();
+        response.reset();	// Eliminate the added-on stuff
+        response.setHeader("Pragma", "public");	// Override old-style cache control
+        response.setHeader("Cache-Control", "public, must-revalidate, post-check=0, pre-check=0, max-age=0");	// New-style
+        setDownloadHeaders(response, "text/csv;charset=UTF-8", ".csv");
+
+        Writer out = null;
+        try {
+            out = new BufferedWriter(new OutputStreamWriter(response.getOutputStream(), StandardCharsets.UTF_8));
+            writeSpreadsheetData(new CsvWriter(out));
+            out.flush();
+        } catch (IOException | UncheckedIOException e) {
+            log.error(e.getMessage(), e);
+        } finally {
+            try {
+                if (out != null) out.close();
+            } catch (IOException e) {
+                log.error(e.getMessage(), e);
+            }
+        }
+       	faces.responseComplete();
+    }
+
+	private void setDownloadHeaders(HttpServletResponse response, String mimetype, String extension) {
+		response.setContentType(mimetype);
+		String escapedFilename = org.sakaiproject.util.Validator.escapeUrl(getDownloadFileName());
+		response.setHeader("Content-disposition", "attachment; filename=" + escapedFilename + extension	+ "; filename*=UTF-8''" + escapedFilename + extension);
+	}
+
+    /**
+     * Give the rows of the export to the writer as they are read: the responses sheet, then the item
+     * analysis sheet if it is shown.
+     */
+    private void writeSpreadsheetData(Consumer<List<Object>> writer) {
     	TotalScoresBean totalScores = (TotalScoresBean) ContextUtil.lookupBean("totalScores");
     	Map useridMap = totalScores.getUserIdMap(TotalScoresBean.CALLED_FROM_EXPORT_LISTENER);
     	
@@ -194,17 +259,14 @@ public class ExportResponsesBean implements Serializable, PhaseAware {
         String rationaleString = ContextUtil.getLocalizedString("org.sakaiproject.tool.assessment.bundle.EvaluationMessages","rationale");
         String itemGradingCommentsString = ContextUtil.getLocalizedString("org.sakaiproject.tool.assessment.bundle.EvaluationMessages","grader_comments");
         String responseCommentsString = ContextUtil.getLocalizedString("org.sakaiproject.tool.assessment.bundle.EvaluationMessages","student_comments");
-        
-        List exportResponsesDataList = gradingService.getExportResponsesData(assessmentId, anonymous, audioMessage, fileUploadMessage, noSubmissionMessage, 
-        		showPartAndTotalScoreSpreadsheetColumns, poolString, partString, questionString, responseString, rationaleString, itemGradingCommentsString, useridMap, responseCommentsString);
-        //SAM-1693 the returned list could be null -DH
-        List<List<Object>> list = new ArrayList<List<Object>>();
-        if (exportResponsesDataList != null) {
-        	list = (List<List<Object>>) exportResponsesDataList.get(0);
-        }
-         
 
-        // Now insert the header line
+        ArrayList<Object> newSheetList;
+        newSheetList = new ArrayList<Object>();
+        newSheetList.add(NEW_SHEET_MARKER);
+        newSheetList.add(ContextUtil.getLocalizedString("org.sakaiproject.tool.assessment.bundle.EvaluationMessages","responses"));
+        writer.accept(newSheetList);
+
+        // The header line
         ArrayList<Object> headerList = new ArrayList<Object>();
         headerList.add(HEADER_MARKER);
         if (anonymous) {
@@ -229,31 +291,26 @@ public class ExportResponsesBean implements Serializable, PhaseAware {
 	        headerList.add(ContextUtil.getLocalizedString("org.sakaiproject.tool.assessment.bundle.EvaluationMessages","tot"));
 	        headerList.add(itemGradingCommentsString);
         }
-        //SAM-1693 the returned list could be null -DH
-        if (exportResponsesDataList != null) {
-        	headerList.addAll((ArrayList) exportResponsesDataList.get(1));
-        }
-  	  	
-  	    list.add(0,headerList);
-  	  	
-  		ArrayList<Object> newSheetList;
-  	  	newSheetList = new ArrayList<Object>();
-  	  	newSheetList.add(NEW_SHEET_MARKER);
-  	  	newSheetList.add(ContextUtil.getLocalizedString("org.sakaiproject.tool.assessment.bundle.EvaluationMessages","responses"));
-  	  	list.add(0, newSheetList);
+
+        // the question headers are given before the first row
+        gradingService.exportResponsesData(assessmentId, anonymous, audioMessage, fileUploadMessage, noSubmissionMessage,
+        		showPartAndTotalScoreSpreadsheetColumns, poolString, partString, questionString, responseString, rationaleString, itemGradingCommentsString, useridMap, responseCommentsString,
+        		questionHeaders -> {
+        			headerList.addAll(questionHeaders);
+        			writer.accept(headerList);
+        		},
+        		writer);
 
   	  	if (showDetailedStatisticsSheet) {
   	  		newSheetList = new ArrayList<Object>();
   	  		newSheetList.add(NEW_SHEET_MARKER);
   	  		newSheetList.add(ContextUtil.getLocalizedString("org.sakaiproject.tool.assessment.bundle.EvaluationMessages","item_analysis"));
-  	  		list.add(newSheetList);
+  	  		writer.accept(newSheetList);
 
         	while (detailedStats.hasNext()) {
-        		list.add((List)detailedStats.next());
+        		writer.accept((List)detailedStats.next());
         	}
         }
-  	  	
-        return list;
     }
     
     /**
@@ -278,38 +335,6 @@ public class ExportResponsesBean implements Serializable, PhaseAware {
 	}
     
     
-	public void writeDataToResponse(List<List<Object>> spreadsheetData, String fileName, HttpServletResponse response) {
-		String mimetype = "application/vnd.ms-excel;charset=UTF-8";
-		String extension = ".xls";
-		int columns = findColumnSize(spreadsheetData);
-		if (columns >= 255) {
-			// allows for greater than 255 columns - SAK-16560
-			mimetype = "application/vnd.openxmlformats-officedocument.spreadsheetml.sheet";
-			extension = ".xlsx";
-			log.info("Samigo export ("+columns+" columns): Using xlsx mimetype: " + mimetype);
-		}
-		response.setContentType(mimetype);
-		
-		String escapedFilename = org.sakaiproject.util.Validator.escapeUrl(fileName);
-        HttpServletRequest request = (HttpServletRequest) FacesContext.getCurrentInstance().getExternalContext().getRequest();
-		String userAgent = request.getHeader("User-Agent"); 
-		response.setHeader("Content-disposition", "attachment; filename=" + escapedFilename + extension	+ "; filename*=UTF-8''" + escapedFilename + extension);
-		
-		OutputStream out = null;
-		try {
-			out = response.getOutputStream();
-			getAsWorkbook(spreadsheetData).write(out);
-			out.flush();
-		} catch (IOException e) {
-			log.error(e.getMessage(), e);
-		} finally {
-			try {
-				if (out != null) out.close();
-			} catch (IOException e) {
-				log.error(e.getMessage(), e);
-			}
-		}
-	}
 	
 	protected Workbook getAsWorkbookTest(List<List<Object>> spreadsheetData) {
 		Workbook wb = new HSSFWorkbook();
@@ -355,32 +380,43 @@ public class ExportResponsesBean implements Serializable, PhaseAware {
 		    wb = new XSSFWorkbook();
 		}
 
-		CellStyle boldStyle = wb.createCellStyle();
-		Font font = wb.createFont();
-		font.setBoldweight(Font.BOLDWEIGHT_BOLD);
-		String fontName = ServerConfigurationService.getString("spreadsheet.font");
-		if (fontName != null) {
-			font.setFontName(fontName);
-		}
-		boldStyle.setFont(font);
-		CellStyle headerStyle = boldStyle;
-
-		CellStyle cellStyle = null;
-		if (fontName != null) {
-			font = wb.createFont();
-			font.setFontName(fontName);
-			cellStyle = wb.createCellStyle();
-			cellStyle.setFont(font);
-		}
-		
-		Sheet sheet = null;
+		spreadsheetData.forEach(new WorkbookWriter(wb));
+		return wb;
+	}
 
-		Iterator<List<Object>> dataIter = spreadsheetData.iterator();
-		
-		short rowPos = 0;
-		while (dataIter.hasNext()) {
-			List<Object> rowData = dataIter.next();
+	/**
+	 * Writes the rows given to it to a workbook, starting a sheet at each NEW_SHEET_MARKER row.
+	 */
+	private class WorkbookWriter implements Consumer<List<Object>> {
+
+		private final Workbook wb;
+		private final CellStyle boldStyle;
+		private final CellStyle headerStyle;
+		private CellStyle cellStyle = null;
+		private Sheet sheet = null;
+		private int rowPos = 0;
+
+		WorkbookWriter(Workbook wb) {
+			this.wb = wb;
+			boldStyle = wb.createCellStyle();
+			Font font = wb.createFont();
+			font.setBoldweight(Font.BOLDWEIGHT_BOLD);
+			String fontName = ServerConfigurationService.getString("spreadsheet.font");
+			if (fontName != null) {
+				font.setFontName(fontName);
+			}
+			boldStyle.setFont(font);
+			headerStyle = boldStyle;
+
+			if (fontName != null) {
+				font = wb.createFont();
+				font.setFontName(fontName);
+				cellStyle = wb.createCellStyle();
+				cellStyle.setFont(font);
+			}
+		}
 
+		public void accept(List<Object> rowData) {
 			if (rowData.get(0).toString().equals(NEW_SHEET_MARKER)) {
 				 sheet = wb.createSheet(rowData.get(1).toString());
 				 rowPos = 0;
@@ -404,10 +440,8 @@ public class ExportResponsesBean implements Serializable, PhaseAware {
 				short colPos = 0;
 				Iterator colIter = rowData.iterator();
 				while (colIter.hasNext()) {
-				//for (short i = 0; i < rowData.size(); i++) {
 					Cell cell = null;
 					
-					//Object data = rowData.get(i);
 					Object data = colIter.next();
 					if (data != null) {
 						if (data.toString().startsWith(FORMAT)) {
@@ -423,19 +457,82 @@ public class ExportResponsesBean implements Serializable, PhaseAware {
 							if (data instanceof Double) {
 								cell.setCellValue(((Double)data).doubleValue());
 							} else {
-								AnswerSurveyConverter converter = new AnswerSurveyConverter();
-								String datac = converter.getAsString(null, null, data.toString());
-								// stripping html for export, SAK-17021
-								cell.setCellValue(FormattedText.convertFormattedTextToPlaintext(datac));
+								cell.setCellValue(toPlaintext(data));
 							}
 						}
 					}
 				}
 			}
-			
 		}
-		
-		return wb;
+	}
+
+	/**
+	 * Writes the rows of the first sheet given to it as CSV (RFC 4180), the sheets after it are left out.
+	 */
+	private static class CsvWriter implements Consumer<List<Object>> {
+
+		private final Writer out;
+		private int sheets = 0;
+
+		CsvWriter(Writer out) throws IOException {
+			this.out = out;
+			// so Excel reads the file as UTF-8
+			out.write('\uFEFF');
+		}
+
+		public void accept(List<Object> rowData) {
+			if (rowData.get(0).toString().equals(NEW_SHEET_MARKER)) {
+				sheets++;
+				return;
+			}
+			if (sheets > 1) {
+				return;
+			}
+			try {
+				boolean first = true;
+				for (Object data : rowData) {
+					if (data != null && (data.equals(HEADER_MARKER) || data.toString().startsWith(FORMAT))) {
+						continue;
+					}
+					if (!first) {
+						out.write(',');
+					}
+					first = false;
+					if (data instanceof Double) {
+						out.write(data.toString());
+					} else if (data != null) {
+						out.write(quote(neutralise(toPlaintext(data))));
+					}
+				}
+				out.write("\r\n");
+			} catch (IOException e) {
+				throw new UncheckedIOException(e);
+			}
+		}
+
+		/**
+		 * Stops spreadsheets from running answers as formulas by making cells that would start one plain text.
+		 */
+		private static String neutralise(String value) {
+			if (!value.isEmpty() && "=+-@\t\r".indexOf(value.charAt(0)) >= 0) {
+				return "'" + value;
+			}
+			return value;
+		}
+
+		private static String quote(String value) {
+			if (value.indexOf(',') < 0 && value.indexOf('"') < 0 && value.indexOf('\n') < 0 && value.indexOf('\r') < 0) {
+				return value;
+			}
+			return "\"" + value.replace("\"", "\"\"") + "\"";
+		}
+	}
+
+	private static String toPlaintext(Object data) {
+		AnswerSurveyConverter converter = new AnswerSurveyConverter();
+		String datac = converter.getAsString(null, null, data.toString());
+		// stripping html for export, SAK-17021
+		return FormattedText.convertFormattedTextToPlaintext(datac);
 	}
 
 	private int findColumnSize(List<List<Object>> spreadsheetData) {
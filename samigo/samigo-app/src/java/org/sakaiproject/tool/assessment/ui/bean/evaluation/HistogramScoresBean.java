@@ -89,6 +89,7 @@ public class HistogramScoresBean
   private boolean showObjectivesColumn;
   private List<Entry<String, Double>> objectives;
   private List<Entry<String, Double>> keywords;
+  private String statisticsKey; // what the statistics were calculated from, see HistogramListener
 
 
   /**
@@ -200,6 +201,26 @@ public void setPublishedId(String ppublishedId)
 publishedId = ppublishedId;
 }
 
+  /**
+   * what the statistics were calculated from: the submissions, the students included and a fingerprint of the grading
+   *
+   * @return the key, or null if not calculated
+   */
+  public String getStatisticsKey()
+  {
+    return statisticsKey;
+  }
+
+  /**
+   * what the statistics were calculated from
+   *
+   * @param pstatisticsKey the key
+   */
+  public void setStatisticsKey(String pstatisticsKey)
+  {
+    statisticsKey = pstatisticsKey;
+  }
+
 
   /**
    * Get item id for QuestionScores.
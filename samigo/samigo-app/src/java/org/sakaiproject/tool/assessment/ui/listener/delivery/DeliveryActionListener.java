@@ -341,6 +341,10 @@ public class DeliveryActionListener
                           }
                       }    	  
                   }
+
+                  // #4. write the answers a previous visit left in a grading journal before they are read back
+                  service.flushGradingJournals(Long.valueOf(id), agent);
+                  delivery.resetGradingJournal();
               }
 
               populateSubmissionsRemaining(pubService, publishedAssessment, delivery);
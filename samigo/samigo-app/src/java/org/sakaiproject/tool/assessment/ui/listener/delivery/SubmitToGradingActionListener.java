@@ -417,6 +417,26 @@ public class SubmitToGradingActionListener implements ActionListener {
 			adata = makeNewAssessmentGrading(publishedAssessment, delivery,
 					itemGradingHash);
 			delivery.setAssessmentGrading(adata);
+		} else if (delivery.isJournalAutoSave() && adata.getAssessmentGradingId() != null
+				&& !Boolean.TRUE.equals(adata.getForGrade())) {
+			// the page is reloaded from the grading after every save, so the adds and removes are all
+			// the answers that differ from it and the journal replaces the one the last autosave made
+			List<ItemGradingData> journal = new ArrayList<>();
+			for (ItemGradingData add : adds) {
+				journal.add(getJournalItemGrading(add));
+			}
+			List<Long> removedIds = new ArrayList<>();
+			for (ItemGradingData remove : removes) {
+				if (remove.getItemGradingId() != null && remove.getItemGradingId() > 0) {
+					removedIds.add(remove.getItemGradingId());
+				}
+			}
+			service.saveGradingJournal(adata, journal, removedIds);
+			if (delivery.getGradingJournalStarted() == null) {
+				delivery.setGradingJournalStarted(new Date());
+			}
+			log.debug("autosaved {} item gradings to the grading journal", journal.size());
+			return adata;
 		} else {
 			// 1. add all the new itemgrading for MC/Survey and discard any
 			// itemgrading for MC/Survey
@@ -504,10 +524,41 @@ public class SubmitToGradingActionListener implements ActionListener {
 			Map publishedItemTextHash = delivery.getPublishedItemTextHash();
 			Map publishedAnswerHash = delivery.getPublishedAnswerHash();
 			service.storeGrades(adata, publishedAssessment, publishedItemHash, publishedItemTextHash, publishedAnswerHash, invalidFINMap, invalidSALengthList);
+
+			// the grading now has the answers the grading journal had, unless they were invalid and not stored
+			if (delivery.getGradingJournalStarted() != null && invalidFINMap.isEmpty() && invalidSALengthList.isEmpty()) {
+				service.removeGradingJournal(adata.getAssessmentGradingId());
+				delivery.resetGradingJournal();
+			}
 		}
 		return adata;
 	}
 
+	/**
+	 * Copy an answer for the grading journal, as getUpdateItemGradingSet() would save it.
+	 */
+	private ItemGradingData getJournalItemGrading(ItemGradingData add) {
+		ItemGradingData item = new ItemGradingData(add.getItemGradingId(), add.getAssessmentGradingId());
+		item.setPublishedItemId(add.getPublishedItemId());
+		item.setPublishedItemTextId(add.getPublishedItemTextId());
+		item.setPublishedAnswerId(add.getPublishedAnswerId());
+		item.setAgentId(add.getAgentId());
+		item.setReview(add.getReview());
+		item.setAutoScore(add.getAutoScore());
+		item.setOverrideScore(add.getOverrideScore());
+		item.setSubmittedDate(add.getSubmittedDate());
+		item.setAttemptsRemaining(add.getAttemptsRemaining());
+		item.setLastDuration(add.getLastDuration());
+		if (add.getItemGradingId() != null && add.getItemGradingId() > 0) {
+			item.setAnswerText(ContextUtil.stringWYSIWYG(add.getAnswerText()));
+			item.setRationale(TextFormat.convertPlaintextToFormattedTextNoHighUnicode(log, add.getRationale()));
+		} else {
+			item.setAnswerText(add.getAnswerText());
+			item.setRationale(add.getRationale());
+		}
+		return item;
+	}
+
 	private Map<Long, ItemDataIfc> getFIBMap(PublishedAssessmentIfc publishedAssessment) {
 		return publishedAssesmentService.prepareFIBItemHash(publishedAssessment);
 	}
@@ -48,7 +48,6 @@ import org.sakaiproject.tool.assessment.data.ifc.assessment.SectionDataIfc;
 import org.sakaiproject.tool.assessment.data.ifc.shared.TypeIfc;
 import org.sakaiproject.tool.assessment.facade.AgentFacade;
 import org.sakaiproject.tool.assessment.services.GradingService;
-import org.sakaiproject.tool.assessment.services.PublishedItemService;
 import org.sakaiproject.tool.assessment.services.assessment.PublishedAssessmentService;
 import org.sakaiproject.tool.assessment.shared.api.assessment.SecureDeliveryServiceAPI;
 import org.sakaiproject.tool.assessment.shared.api.assessment.SecureDeliveryServiceAPI.Phase;
@@ -204,9 +203,6 @@ public class HistogramListener
         ResourceLoader rbEval = new ResourceLoader("org.sakaiproject.tool.assessment.bundle.EvaluationMessages");
         String assessmentName = "";
 
-		  histogramScores.clearLowerQuartileStudents();
-		  histogramScores.clearUpperQuartileStudents();
-
 		  String which = histogramScores.getAllSubmissions();
 		  if (which == null && totalScores.getAllSubmissions() != null) {
 			  // use totalscore's selection
@@ -219,12 +215,32 @@ public class HistogramListener
 
 		  delegate = new GradingService();
 		  PublishedAssessmentService pubService = new PublishedAssessmentService();
+
+		  int callerName = TotalScoresBean.CALLED_FROM_HISTOGRAM_LISTENER;
+		  String isFromStudent = (String) ContextUtil.lookupParam("isFromStudent");
+		  if (isFromStudent != null && "true".equals(isFromStudent)) {
+			  callerName = TotalScoresBean.CALLED_FROM_HISTOGRAM_LISTENER_STUDENT;
+		  }
+
+ 		  // get the Map of all users(keyed on userid) belong to the selected sections 
+		  // now we only include scores of users belong to the selected sections
+		  // only do section filter if it's published to authenticated users
+		  Map useridMap = totalScores.getReleaseToAnonymous() ? null : totalScores.getUserIdMap(callerName);
+
+		  // if the statistics in the bean were calculated from the same submissions of the same students and no grading
+		  // has changed since, show them again rather than reading all the grading (e.g. going from question to question)
+		  String statisticsKey = publishedId + "|" + which + "|" + callerName + "|"
+				  + (useridMap == null ? "anonymous" : String.valueOf(useridMap.keySet().hashCode())) + "|"
+				  + delegate.getGradingFingerprint(Long.valueOf(publishedId));
+		  if (actionString == null && statisticsKey.equals(histogramScores.getStatisticsKey())) {
+			  return true;
+		  }
+		  histogramScores.setStatisticsKey(null);
+		  histogramScores.clearLowerQuartileStudents();
+		  histogramScores.clearUpperQuartileStudents();
+
 		  List<AssessmentGradingData> allscores = delegate.getTotalScores(publishedId, which);
-          //set the ItemGradingData manually here. or we cannot
-          //retrieve it later.
-          for(AssessmentGradingData agd: allscores){
-          	agd.setItemGradingSet(delegate.getItemGradingSet(String.valueOf(agd.getAssessmentGradingId())));
-          }
+
           if (allscores.isEmpty()) {
 			// Similar case in Bug 1537, but clicking Statistics link instead of assignment title.
 			// Therefore, redirect the the same page.
@@ -234,22 +250,25 @@ public class HistogramListener
 		  }
 		  
 		  histogramScores.setPublishedId(publishedId);
-		  int callerName = TotalScoresBean.CALLED_FROM_HISTOGRAM_LISTENER;
-		  String isFromStudent = (String) ContextUtil.lookupParam("isFromStudent");
-		  if (isFromStudent != null && "true".equals(isFromStudent)) {
-			  callerName = TotalScoresBean.CALLED_FROM_HISTOGRAM_LISTENER_STUDENT;
+
+		  // one scan of the item grading of all the submissions, by question.
+		  // Also set the ItemGradingData of each submission from it here, or we cannot retrieve it later.
+		  Map<Long, List<ItemGradingData>> itemScoresMap = delegate.getItemScores(Long.valueOf(0), allscores, false);
+		  Map<Long, Set<ItemGradingData>> itemGradingSets = new HashMap<>();
+		  for (List<ItemGradingData> itemGradings : itemScoresMap.values()) {
+			  for (ItemGradingData itemGrading : itemGradings) {
+				  itemGradingSets.computeIfAbsent(itemGrading.getAssessmentGradingId(), id -> new HashSet<>()).add(itemGrading);
+			  }
 		  }
-		  
- 		  // get the Map of all users(keyed on userid) belong to the selected sections 
-		  // now we only include scores of users belong to the selected sections
-		  Map useridMap = null; 
+		  for (AssessmentGradingData agd : allscores) {
+			  agd.setItemGradingSet(itemGradingSets.getOrDefault(agd.getAssessmentGradingId(), new HashSet<>()));
+		  }
+
 		  List scores = new ArrayList();
-		  // only do section filter if it's published to authenticated users
-		  if (totalScores.getReleaseToAnonymous()) {
+		  if (useridMap == null) {
 			  scores.addAll(allscores);
 		  }
 		  else {
-			  useridMap = totalScores.getUserIdMap(callerName);
 			  Iterator allscores_iter = allscores.iterator();
 			  while (allscores_iter.hasNext())
 			  {
@@ -343,18 +362,13 @@ public class HistogramListener
 			  boolean isRandompart = false;
                           String poolName = null;
 			  
-			  Map itemScoresMap = delegate.getItemScores(Long.valueOf(publishedId), Long.valueOf(0), which);
 			  Map itemScores = new HashMap();
 			  			  
-			  if (totalScores.getReleaseToAnonymous()) {
+			  if (useridMap == null) {
 				  // skip section filter if it's published to anonymous users
 				  itemScores.putAll(itemScoresMap);
 			  }
 			  else {
-				  if (useridMap == null) {
-					  useridMap = totalScores.getUserIdMap(callerName); 
-				  }
-
 				  for (Iterator it = itemScoresMap.entrySet().iterator(); it.hasNext();) {
 					  Map.Entry entry = (Map.Entry) it.next();
 					  Long itemId = (Long) entry.getKey();
@@ -376,6 +390,11 @@ public class HistogramListener
 				  }
 			  }
 
+			  // the published items, texts and answers by id, for the answer statistics of every question
+			  Map publishedItemHash = pubService.preparePublishedItemHash(pub);
+			  Map publishedItemTextHash = pubService.preparePublishedItemTextHash(pub);
+			  Map publishedAnswerHash = pubService.preparePublishedAnswerHash(pub);
+
 			  // Iterate through the assessment parts
 			  while (partsIter.hasNext()) {
 				  SectionDataIfc section = (SectionDataIfc) partsIter.next();
@@ -458,7 +477,8 @@ public class HistogramListener
 					  //ArrayList responses = null;
 
 					  //for each question (item) in the published assessment's current part/section
-					  determineResults(pub, questionScores, (List) itemScores.get(item.getItemId()));
+					  determineResults(questionScores, (List) itemScores.get(item.getItemId()),
+							  publishedItemHash, publishedItemTextHash, publishedAnswerHash);
 					  questionScores.setTotalScore(item.getScore().toString());
 
 					  questionScores.setN(""+numSubmissions);
@@ -764,6 +784,7 @@ public class HistogramListener
 			  }
 
 			  histogramScores.setAssessmentName(assessmentName);
+			  histogramScores.setStatisticsKey(statisticsKey);
 		  } else {
 	        log.error("pub is null. publishedId = " + publishedId);
 			return false;
@@ -775,11 +796,14 @@ public class HistogramListener
    * For each question (item) in the published assessment's current part/section
    * determine the results by calculating statistics for whole question or 
    * individual answers depending on the question type
-   * @param pub
    * @param qbean
    * @param itemScores
+   * @param publishedItemHash the published items by id
+   * @param publishedItemTextHash the published item texts by id
+   * @param publishedAnswerHash the published answers by id
    */
-  private void determineResults(PublishedAssessmentIfc pub, HistogramQuestionScoresBean qbean, List<ItemGradingData> itemScores)
+  private void determineResults(HistogramQuestionScoresBean qbean, List<ItemGradingData> itemScores,
+    Map publishedItemHash, Map publishedItemTextHash, Map publishedAnswerHash)
   {
     if (itemScores == null)
       itemScores = new ArrayList<ItemGradingData>();
@@ -813,7 +837,7 @@ public class HistogramListener
         qbean.getQuestionType().equals(TypeIfc.CALCULATED_QUESTION.toString()) || // CALCULATED_QUESTION
         qbean.getQuestionType().equals(TypeIfc.IMAGEMAP_QUESTION.toString()) || // IMAGEMAP_QUESTION
     	qbean.getQuestionType().equals(TypeIfc.MATRIX_CHOICES_SURVEY.toString()))  // matrix survey 
-      doAnswerStatistics(pub, qbean, itemScores);
+      doAnswerStatistics(qbean, itemScores, publishedItemHash, publishedItemTextHash, publishedAnswerHash);
     if (qbean.getQuestionType().equals(TypeIfc.ESSAY_QUESTION.toString()) || // essay
         qbean.getQuestionType().equals(TypeIfc.FILE_UPLOAD.toString()) || // file upload
         qbean.getQuestionType().equals(TypeIfc.AUDIO_RECORDING.toString())) // audio recording
@@ -825,12 +849,14 @@ public class HistogramListener
    * For each question where statistics are required for seperate answers, 
    * this method calculates the answer statistics by calling a different
    * getXXXScores() method for each question type.
-   * @param pub
    * @param qbean
    * @param scores
+   * @param publishedItemHash the published items by id
+   * @param publishedItemTextHash the published item texts by id
+   * @param publishedAnswerHash the published answers by id
    */
-  private void doAnswerStatistics(PublishedAssessmentIfc pub, HistogramQuestionScoresBean qbean,
-    List<ItemGradingData> scores)
+  private void doAnswerStatistics(HistogramQuestionScoresBean qbean, List<ItemGradingData> scores,
+    Map publishedItemHash, Map publishedItemTextHash, Map publishedAnswerHash)
   {
 	
 //    Don't return here. This will cause questions to be displayed inconsistently on the stats page
@@ -842,14 +868,6 @@ public class HistogramListener
 //      return;
 //    }
 
-    PublishedAssessmentService pubService  =  new PublishedAssessmentService();
-    PublishedItemService pubItemService = new PublishedItemService();
-    
-    //build a hashMap (publishedItemId, publishedItem)
-    Map publishedItemHash = pubService.preparePublishedItemHash(pub);
-    Map publishedItemTextHash = pubService.preparePublishedItemTextHash(pub);
-    Map publishedAnswerHash = pubService.preparePublishedAnswerHash(pub);
-    
  // re-attach session and load all lazy loaded parent/child stuff
        
 //        Set<Long> publishedAnswerHashKeySet = publishedAnswerHash.keySet();
@@ -2328,17 +2346,15 @@ private void getCalculatedQuestionScores(List<ItemGradingData> scores, Histogram
     // or for a non-autograded question
     // depending on data's instanceof 
 
+    double[] scores = new double[Math.max(scoreList.size(), 1)];
+    int i = 0;
     Iterator iter = scoreList.iterator();
-    List<Double> doubles = new ArrayList<>();
     while (iter.hasNext())
     {
       Object data = iter.next();
       if (data instanceof AssessmentGradingData) {
     	  Double finalScore = ((AssessmentGradingData) data).getFinalScore();
-    	  if (finalScore == null) {
-    		  finalScore = Double.valueOf("0");
-    	  }
-        doubles.add(finalScore);
+        scores[i++] = finalScore == null ? 0.0 : finalScore.doubleValue();
       }
       else
       {
@@ -2349,21 +2365,17 @@ private void getCalculatedQuestionScores(List<ItemGradingData> scores, Histogram
         if (((ItemGradingData) data).getOverrideScore() != null)
           overrideScore =
             ((ItemGradingData) data).getOverrideScore().doubleValue();
-        doubles.add(Double.valueOf(autoScore + overrideScore));
+        scores[i++] = autoScore + overrideScore;
       }
     }
 
-    if (doubles.isEmpty())
-      doubles.add(new Double(0.0));
+    // an empty list has the one score of 0
+    Arrays.sort(scores);
 
-    doubles.sort(Comparator.naturalOrder());
-
-    double[] scores = new double[doubles.size()];
-    int i = 0;
-    for (Double d : doubles) {
-        BigDecimal bd = new BigDecimal(d);
+    for (i = 0; i < scores.length; i++) {
+        BigDecimal bd = new BigDecimal(scores[i]);
         bd = bd.setScale(2, RoundingMode.HALF_UP);
-        scores[i++] = bd.doubleValue();
+        scores[i] = bd.doubleValue();
     }
 
     Map statMap = new HashMap();
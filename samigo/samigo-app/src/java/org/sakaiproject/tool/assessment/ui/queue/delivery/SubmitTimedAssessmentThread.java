@@ -87,6 +87,8 @@ public class SubmitTimedAssessmentThread extends TimerTask
           timedAG.setSubmittedForGrade(true);
           // set all the properties right and persist status to DB
           GradingService service = new GradingService();
+          // the answers autosaved to the grading journal are part of the submission
+          service.flushGradingJournal(timedAG.getAssessmentGradingId());
           AssessmentGradingData ag = service.load(timedAG.getAssessmentGradingId().toString(), false);
           if (!ag.getForGrade()) {
             // Change user id for the Gradebook update (if required) and so the event is associated with the correct userid
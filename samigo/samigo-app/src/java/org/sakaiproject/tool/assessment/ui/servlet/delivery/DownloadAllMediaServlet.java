@@ -23,7 +23,6 @@
 
 package org.sakaiproject.tool.assessment.ui.servlet.delivery;
 import java.io.BufferedInputStream;
-import java.io.ByteArrayInputStream;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileNotFoundException;
@@ -332,9 +331,7 @@ public class DownloadAllMediaServlet extends HttpServlet
 	  //SAM-1468 we need to ensure the fileName is unique
 	  filename = getUniqueFilename(filename);
 	  if (mediaLocation == null || (mediaLocation.trim()).equals("")){          		  
-		  byte[] media = mediaData.getMedia();
-		  log.debug("media.length = " + media.length);
-		  bufInputStream = new BufferedInputStream(new ByteArrayInputStream(media));
+		  bufInputStream = new BufferedInputStream(mediaData.streamMedia());
 	  }
 	  else {
 		  bufInputStream = new BufferedInputStream(getFileStream(mediaLocation));
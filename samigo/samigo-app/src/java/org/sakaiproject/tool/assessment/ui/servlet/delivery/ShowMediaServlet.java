@@ -144,6 +144,7 @@ public class ShowMediaServlet extends HttpServlet
       log.debug("****"+displayType+";filename=\""+mediaData.getFilename()+"\";");
 
       res.setHeader("Content-Disposition", displayType+";filename=\""+mediaData.getFilename()+"\";");
+      res.setHeader("Accept-Ranges", "bytes");
       
       int start = 0;
       int end = fileSize - 1;
@@ -156,12 +157,22 @@ public class ShowMediaServlet extends HttpServlet
 	       
 	      if (matcher.matches()) {
 	        String startMatch = matcher.group(1);
-	        start = startMatch.isEmpty() ? start : Integer.valueOf(startMatch);
-	        start = start < 0 ? 0 : start;
-	   
 	        String endMatch = matcher.group(2);
-	        end = endMatch.isEmpty() ? end : Integer.valueOf(endMatch);
+	        if (startMatch.isEmpty() && !endMatch.isEmpty()) {
+	          // a suffix range: the last bytes of the media
+	          start = Math.max(0, fileSize - Integer.valueOf(endMatch));
+	        }
+	        else {
+	          start = startMatch.isEmpty() ? start : Integer.valueOf(startMatch);
+	          start = start < 0 ? 0 : start;
+	          end = endMatch.isEmpty() ? end : Integer.valueOf(endMatch);
+	        }
 	        end = end > fileSize - 1 ? fileSize - 1 : end;
+	        if (start > end) {
+	          res.setHeader("Content-Range", String.format("bytes */%s", fileSize));
+	          res.sendError(HttpServletResponse.SC_REQUESTED_RANGE_NOT_SATISFIABLE);
+	          return;
+	        }
 	        
 	        rangeContentLength = end - start + 1;
 	      }
@@ -181,11 +192,11 @@ public class ShowMediaServlet extends HttpServlet
       BufferedInputStream buf_inputStream = null;
       ServletOutputStream outputStream = res.getOutputStream();
       BufferedOutputStream buf_outputStream = null;
-      ByteArrayInputStream byteArrayInputStream = null;
+      InputStream mediaStream = null;
       if (mediaLocation == null || (mediaLocation.trim()).equals("")){
         try{
-          byteArrayInputStream = new ByteArrayInputStream(mediaData.getMedia());
-          buf_inputStream = new BufferedInputStream(byteArrayInputStream);
+          mediaStream = mediaData.streamMedia();
+          buf_inputStream = new BufferedInputStream(mediaStream);
         }
         catch(Exception e){
           log.error("****empty media save to DB="+e.getMessage());
@@ -208,13 +219,21 @@ public class ShowMediaServlet extends HttpServlet
         int i=0;
         if (buf_inputStream != null)  {
         	// skip to the start of the possible range request
-        	buf_inputStream.skip(start); 
+        	long toSkip = start;
+        	while (toSkip > 0) {
+        		long skipped = buf_inputStream.skip(toSkip);
+        		if (skipped <= 0) {
+        			break;
+        		}
+        		toSkip -= skipped;
+        	}
         	
         	int bytesLeft = rangeContentLength;
-        	byte[] buffer = new byte[1024];
+        	byte[] buffer = new byte[8192];
 
-        	while ( (i = buf_inputStream.read(buffer)) != -1 && bytesLeft > 0){
-        		buf_outputStream.write(buffer);
+        	// only the bytes of the range are sent
+        	while (bytesLeft > 0 && (i = buf_inputStream.read(buffer, 0, Math.min(buffer.length, bytesLeft))) != -1){
+        		buf_outputStream.write(buffer, 0, i);
         		bytesLeft -= i;
         	}
         }
@@ -258,9 +277,9 @@ public class ShowMediaServlet extends HttpServlet
 				  log.error(e.getMessage());
 			  }
           }
-          if (byteArrayInputStream != null) {
+          if (mediaStream != null) {
 			  try {
-				  byteArrayInputStream.close();
+				  mediaStream.close();
 			  }
 			  catch(IOException e) {
 				  log.error(e.getMessage());
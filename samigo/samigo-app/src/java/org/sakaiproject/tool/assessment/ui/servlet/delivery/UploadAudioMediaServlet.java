@@ -30,7 +30,6 @@ import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.PrintWriter;
-import java.nio.file.Files;
 import javax.servlet.ServletContext;
 import javax.servlet.ServletException;
 import javax.servlet.ServletInputStream;
@@ -410,14 +409,14 @@ private static Logger log = LoggerFactory.getLogger(UploadAudioMediaServlet.clas
     MediaData mediaData = null;
 
     if (SAVETODB)
-    { // put the byte[] in
-      byte[] mediaByte = getMediaStream(mediaLocation);
-      mediaData = new MediaData(itemGrading, mediaByte,
-                                Long.valueOf(mediaByte.length + ""),
+    { // the file is streamed to the media store
+      mediaData = new MediaData(itemGrading, null,
+                                Long.valueOf(media.length()),
                                 mimeType, "description", null,
                                 media.getName(), false, false, Integer.valueOf(1),
                                 agent, new Date(),
                                 agent, new Date(), duration);
+      mediaData.setMediaFile(media);
     }
     else
     { // put the location in
@@ -453,24 +452,4 @@ private static Logger log = LoggerFactory.getLogger(UploadAudioMediaServlet.clas
     return mediaId.toString();
   }
 
-  private byte[] getMediaStream(String mediaLocation)
-  {
-    byte[] mediaByte = new byte[0];
-    
-    try
-    {
-      mediaByte = Files.readAllBytes(new File(mediaLocation).toPath());
-    }
-    catch (FileNotFoundException ex)
-    {
-      log.error("File not found in UploadAudioMediaServlet.getMediaStream(): " + ex.getMessage());
-    }
-    catch (IOException ex)
-    {
-      log.error("IO Exception in UploadAudioMediaServlet.getMediaStream(): " + ex.getMessage());
-    }
-    
-    return mediaByte;
-  }
-
 }
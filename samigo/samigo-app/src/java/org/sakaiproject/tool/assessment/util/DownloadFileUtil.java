@@ -1,7 +1,6 @@
 package org.sakaiproject.tool.assessment.util;
 
 import java.io.BufferedInputStream;
-import java.io.ByteArrayInputStream;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileNotFoundException;
@@ -383,9 +382,13 @@ public class DownloadFileUtil {
 			filename = sectionFolderPath + filename;
 		}
 		if (mediaLocation == null || (mediaLocation.trim()).equals("")){          		  
-			byte[] media = mediaData.getMedia();
-			log.debug("media.length = " + media.length);
-			bufInputStream = new BufferedInputStream(new ByteArrayInputStream(media));
+			try {
+				bufInputStream = new BufferedInputStream(mediaData.streamMedia());
+			}
+			catch(IOException e){
+				log.error(e.getMessage());
+				return;
+			}
 		}
 		else {
 			bufInputStream = new BufferedInputStream(getFileStream(mediaLocation));
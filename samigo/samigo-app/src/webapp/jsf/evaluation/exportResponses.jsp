@@ -134,6 +134,7 @@
 <h:outputText value=" "/>
 <h:panelGroup>
 <h:commandButton actionListener="#{exportResponses.exportExcel}" value="#{commonMessages.export_action}" id="exportButton" />
+<h:commandButton actionListener="#{exportResponses.exportCsv}" value="#{commonMessages.export_csv_action}" id="exportCsvButton" />
 </h:panelGroup>
 </h:panelGrid>
 </div>
@@ -0,0 +1,200 @@
+/**********************************************************************************
+ * $URL$
+ * $Id$
+ ***********************************************************************************
+ *
+ * Copyright (c) 2017 The Apereo Foundation
+ *
+ * Licensed under the Educational Community License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.opensource.org/licenses/ECL-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ **********************************************************************************/
+
+package org.sakaiproject.tool.assessment.data.dao.grading;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Date;
+import java.util.List;
+import java.util.Properties;
+
+/**
+ * <p>The answers of an assessment in progress autosaved but not yet written to its
+ * grading: one row per AssessmentGradingData, replaced by each autosave.</p>
+ * <p>The answers are only written to the grading they were autosaved from: baseDate is
+ * the submittedDate of the grading then, which changes each time the grading is saved.</p>
+ * <p>The item gradings are kept field by field, as properties with the format version, so
+ * a journal left by an older release can still be read.</p>
+ */
+public class GradingJournalData
+{
+  /** The version of the item gradings format written */
+  public static final int ITEM_GRADINGS_VERSION = 1;
+
+  private Long assessmentGradingId;
+  private Long publishedAssessmentId;
+  private String agentId;
+  private Date baseDate;
+  private String itemGradings;
+  private String removedItemGradingIds;
+  private Date lastModifiedDate;
+
+  public GradingJournalData() {
+  }
+
+  public Long getAssessmentGradingId() {
+    return assessmentGradingId;
+  }
+  public void setAssessmentGradingId(Long assessmentGradingId) {
+    this.assessmentGradingId = assessmentGradingId;
+  }
+
+  public Long getPublishedAssessmentId() {
+    return publishedAssessmentId;
+  }
+  public void setPublishedAssessmentId(Long publishedAssessmentId) {
+    this.publishedAssessmentId = publishedAssessmentId;
+  }
+
+  public String getAgentId() {
+    return agentId;
+  }
+  public void setAgentId(String agentId) {
+    this.agentId = agentId;
+  }
+
+  /**
+   * @return the submittedDate of the grading the answers were autosaved from
+   */
+  public Date getBaseDate() {
+    return baseDate;
+  }
+  public void setBaseDate(Date baseDate) {
+    this.baseDate = baseDate;
+  }
+
+  /**
+   * @return the ItemGradingData added or changed, in the format of {@link #setItemGradingList(Collection)}
+   */
+  public String getItemGradings() {
+    return itemGradings;
+  }
+  public void setItemGradings(String itemGradings) {
+    this.itemGradings = itemGradings;
+  }
+
+  /**
+   * @return the ItemGradingData added or changed, with the fields an autosave sets
+   * @throws IllegalStateException if the item gradings are in a format this release can't read
+   */
+  public List<ItemGradingData> getItemGradingList() {
+    List<ItemGradingData> list = new ArrayList<ItemGradingData>();
+    if (itemGradings == null) {
+      return list;
+    }
+    Properties properties = new Properties();
+    try {
+      properties.load(new StringReader(itemGradings));
+    } catch (IOException e) {
+      throw new IllegalStateException("Could not read the grading journal of assessment grading " + assessmentGradingId, e);
+    }
+    String version = properties.getProperty("version");
+    if (!String.valueOf(ITEM_GRADINGS_VERSION).equals(version)) {
+      throw new IllegalStateException("The grading journal of assessment grading " + assessmentGradingId + " has version " + version);
+    }
+    int size = Integer.parseInt(properties.getProperty("size", "0"));
+    for (int i = 0; i < size; i++) {
+      String prefix = i + ".";
+      ItemGradingData item = new ItemGradingData();
+      item.setItemGradingId(getLong(properties, prefix + "itemGradingId"));
+      item.setPublishedItemId(getLong(properties, prefix + "publishedItemId"));
+      item.setPublishedItemTextId(getLong(properties, prefix + "publishedItemTextId"));
+      item.setPublishedAnswerId(getLong(properties, prefix + "publishedAnswerId"));
+      item.setAnswerText(properties.getProperty(prefix + "answerText"));
+      item.setRationale(properties.getProperty(prefix + "rationale"));
+      String review = properties.getProperty(prefix + "review");
+      item.setReview(review == null ? null : Boolean.valueOf(review));
+      String autoScore = properties.getProperty(prefix + "autoScore");
+      item.setAutoScore(autoScore == null ? null : Double.valueOf(autoScore));
+      String overrideScore = properties.getProperty(prefix + "overrideScore");
+      item.setOverrideScore(overrideScore == null ? null : Double.valueOf(overrideScore));
+      Long submittedDate = getLong(properties, prefix + "submittedDate");
+      item.setSubmittedDate(submittedDate == null ? null : new Date(submittedDate));
+      String attemptsRemaining = properties.getProperty(prefix + "attemptsRemaining");
+      item.setAttemptsRemaining(attemptsRemaining == null ? null : Integer.valueOf(attemptsRemaining));
+      item.setLastDuration(properties.getProperty(prefix + "lastDuration"));
+      list.add(item);
+    }
+    return list;
+  }
+
+  public void setItemGradingList(Collection<ItemGradingData> list) {
+    Properties properties = new Properties();
+    properties.setProperty("version", String.valueOf(ITEM_GRADINGS_VERSION));
+    properties.setProperty("size", String.valueOf(list.size()));
+    int i = 0;
+    for (ItemGradingData item : list) {
+      String prefix = i++ + ".";
+      setProperty(properties, prefix + "itemGradingId", item.getItemGradingId());
+      setProperty(properties, prefix + "publishedItemId", item.getPublishedItemId());
+      setProperty(properties, prefix + "publishedItemTextId", item.getPublishedItemTextId());
+      setProperty(properties, prefix + "publishedAnswerId", item.getPublishedAnswerId());
+      setProperty(properties, prefix + "answerText", item.getAnswerText());
+      setProperty(properties, prefix + "rationale", item.getRationale());
+      setProperty(properties, prefix + "review", item.getReview());
+      setProperty(properties, prefix + "autoScore", item.getAutoScore());
+      setProperty(properties, prefix + "overrideScore", item.getOverrideScore());
+      setProperty(properties, prefix + "submittedDate", item.getSubmittedDate() == null ? null : item.getSubmittedDate().getTime());
+      setProperty(properties, prefix + "attemptsRemaining", item.getAttemptsRemaining());
+      setProperty(properties, prefix + "lastDuration", item.getLastDuration());
+    }
+    StringWriter writer = new StringWriter();
+    try {
+      properties.store(writer, null);
+    } catch (IOException e) {
+      // not thrown by a StringWriter
+      throw new IllegalStateException(e);
+    }
+    this.itemGradings = writer.toString();
+  }
+
+  private static Long getLong(Properties properties, String key) {
+    String value = properties.getProperty(key);
+    return value == null ? null : Long.valueOf(value);
+  }
+
+  private static void setProperty(Properties properties, String key, Object value) {
+    if (value != null) {
+      properties.setProperty(key, value.toString());
+    }
+  }
+
+  /**
+   * @return the comma separated ids of the ItemGradingData removed
+   */
+  public String getRemovedItemGradingIds() {
+    return removedItemGradingIds;
+  }
+  public void setRemovedItemGradingIds(String removedItemGradingIds) {
+    this.removedItemGradingIds = removedItemGradingIds;
+  }
+
+  public Date getLastModifiedDate() {
+    return lastModifiedDate;
+  }
+  public void setLastModifiedDate(Date lastModifiedDate) {
+    this.lastModifiedDate = lastModifiedDate;
+  }
+}
@@ -17,12 +17,16 @@
 package org.sakaiproject.tool.assessment.facade;
 
 import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
 import java.text.Collator;
 import java.text.DecimalFormat;
 import java.text.DecimalFormatSymbols;
 import java.text.ParseException;
 import java.text.RuleBasedCollator;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.Comparator;
@@ -35,6 +39,7 @@ import java.util.Map;
 import java.util.Map.Entry;
 import java.util.Random;
 import java.util.Set;
+import java.util.function.Consumer;
 import java.util.TreeMap;
 import java.util.TreeSet;
 import java.util.stream.Collectors;
@@ -42,6 +47,8 @@ import java.util.stream.Collectors;
 import org.hibernate.Criteria;
 import org.hibernate.HibernateException;
 import org.hibernate.Query;
+import org.hibernate.ScrollMode;
+import org.hibernate.ScrollableResults;
 import org.hibernate.Session;
 import org.hibernate.criterion.Criterion;
 import org.hibernate.criterion.Disjunction;
@@ -49,6 +56,7 @@ import org.hibernate.criterion.Expression;
 import org.hibernate.criterion.Order;
 import org.hibernate.criterion.Projections;
 import org.hibernate.criterion.Restrictions;
+import org.hibernate.type.StandardBasicTypes;
 import org.sakaiproject.antivirus.api.VirusFoundException;
 import org.sakaiproject.authz.api.SecurityAdvisor;
 import org.sakaiproject.authz.api.SecurityService;
@@ -77,6 +85,7 @@ import org.sakaiproject.tool.assessment.data.dao.assessment.PublishedSectionData
 import org.sakaiproject.tool.assessment.data.dao.grading.AssessmentGradingAttachment;
 import org.sakaiproject.tool.assessment.data.dao.grading.AssessmentGradingData;
 import org.sakaiproject.tool.assessment.data.dao.grading.GradingAttachmentData;
+import org.sakaiproject.tool.assessment.data.dao.grading.GradingJournalData;
 import org.sakaiproject.tool.assessment.data.dao.grading.ItemGradingAttachment;
 import org.sakaiproject.tool.assessment.data.dao.grading.ItemGradingData;
 import org.sakaiproject.tool.assessment.data.dao.grading.MediaData;
@@ -99,6 +108,7 @@ import org.sakaiproject.tool.assessment.services.PersistenceService;
 import org.sakaiproject.tool.assessment.services.assessment.EventLogService;
 import org.sakaiproject.tool.assessment.services.assessment.PublishedAssessmentService;
 import org.sakaiproject.tool.assessment.util.ExtendedTimeDeliveryService;
+import org.sakaiproject.user.api.User;
 import org.sakaiproject.user.api.UserDirectoryService;
 import org.springframework.orm.hibernate4.HibernateCallback;
 import org.springframework.orm.hibernate4.support.HibernateDaoSupport;
@@ -108,6 +118,9 @@ import lombok.extern.slf4j.Slf4j;
 @Slf4j
 public class AssessmentGradingFacadeQueries extends HibernateDaoSupport implements AssessmentGradingFacadeQueriesAPI {
 
+    /** The students (or submissions) read at a time by the responses export */
+    private static final int EXPORT_BATCH_SIZE = 500;
+
     /**
      * Default empty Constructor
      */
@@ -592,13 +605,14 @@ public class AssessmentGradingFacadeQueries extends HibernateDaoSupport implemen
 
     /**
      * Create or update a ContentResource for the media payload of this MediaData.
+     * An uploaded media file is streamed to the resource rather than read into memory.
      *
-     * @param mediaData the complete MediaData item to save if the media byte array is not null
+     * @param mediaData the complete MediaData item to save if it has a media file or byte array
      * @return the ID in Content Hosting of the stored item; null on failure
      */
     protected String saveMediaToContent(MediaData mediaData) {
         String mediaPath = getMediaPath(mediaData);
-        if (mediaData.getMedia() != null && ensureMediaPath(mediaPath)) {
+        if ((mediaData.getMediaFile() != null || mediaData.getDbMedia() != null) && ensureMediaPath(mediaPath)) {
             log.debug("=====> Saving media: " + mediaPath);
             pushAdvisor();
             boolean newResource = true;
@@ -610,29 +624,39 @@ public class AssessmentGradingFacadeQueries extends HibernateDaoSupport implemen
                 // Just a check, no handling
             }
 
+            InputStream stream = null;
+            ContentResourceEdit edit = null;
             try {
-                ContentResource chsMedia;
+                stream = mediaData.streamMedia();
                 if (newResource) {
-                    ContentResourceEdit edit = contentHostingService.addResource(mediaPath);
-                    edit.setContentType(mediaData.getMimeType());
-                    edit.setContent(mediaData.getMedia());
+                    edit = contentHostingService.addResource(mediaPath);
                     ResourcePropertiesEdit props = edit.getPropertiesEdit();
                     props.addProperty(ResourceProperties.PROP_DISPLAY_NAME, mediaData.getFilename());
-                    contentHostingService.commitResource(edit);
-                    chsMedia = contentHostingService.getResource(mediaPath);
                 } else {
-                    chsMedia = contentHostingService.updateResource(mediaPath,
-                            mediaData.getMimeType(),
-                            mediaData.getMedia());
+                    edit = contentHostingService.editResource(mediaPath);
                 }
+                edit.setContentType(mediaData.getMimeType());
+                edit.setContent(stream);
+                contentHostingService.commitResource(edit);
                 // Free the byte array since it has been stored in content. Hold the new ContentResource
                 mediaData.setDbMedia(null);
-                mediaData.setContentResource(chsMedia);
+                mediaData.setMediaFile(null);
+                mediaData.setContentResource(contentHostingService.getResource(mediaPath));
                 return mediaPath;
-            } catch (PermissionException | IdUsedException | IdInvalidException | InconsistentException | ServerOverloadException | OverQuotaException | VirusFoundException | IdUnusedException | TypeException | InUseException e) {
+            } catch (IOException | PermissionException | IdUsedException | IdInvalidException | InconsistentException | ServerOverloadException | OverQuotaException | VirusFoundException | IdUnusedException | TypeException | InUseException e) {
                 log.warn("Exception while saving media to content: " + e.toString());
+                if (edit != null && edit.isActiveEdit()) {
+                    contentHostingService.cancelResource(edit);
+                }
             } finally {
                 popAdvisor();
+                if (stream != null) {
+                    try {
+                        stream.close();
+                    } catch (IOException e) {
+                        log.debug("Could not close media stream: " + e.toString());
+                    }
+                }
             }
         }
         return null;
@@ -693,7 +717,11 @@ public class AssessmentGradingFacadeQueries extends HibernateDaoSupport implemen
 
         while (retryCount > 0) {
             try {
-                saveMediaToContent(mediaData);
+                if (saveMediaToContent(mediaData) == null && mediaData.getMediaFile() != null) {
+                    // Content Hosting is unavailable, so fall back to keeping the file in the blob column
+                    mediaData.setDbMedia(Files.readAllBytes(mediaData.getMediaFile().toPath()));
+                    mediaData.setMediaFile(null);
+                }
                 getHibernateTemplate().saveOrUpdate(mediaData);
                 retryCount = 0;
             } catch (Exception e) {
@@ -1402,6 +1430,28 @@ public class AssessmentGradingFacadeQueries extends HibernateDaoSupport implemen
         return new HashSet<>(itemGradings);
     }
 
+    public String getGradingFingerprint(final Long publishedAssessmentId) {
+
+        final HibernateCallback<List<Object[]>> hcb = session -> {
+            List<Object[]> rows = new ArrayList<>();
+            rows.add((Object[]) session.createQuery(
+                    "select count(a), max(a.submittedDate), max(a.gradedDate), sum(a.finalScore) from AssessmentGradingData a where a.publishedAssessmentId = :id")
+                    .setLong("id", publishedAssessmentId).uniqueResult());
+            rows.add((Object[]) session.createQuery(
+                    "select count(i), max(i.submittedDate), max(i.gradedDate), sum(i.autoScore), sum(i.overrideScore) from ItemGradingData i, AssessmentGradingData a "
+                            + "where i.assessmentGradingId = a.assessmentGradingId and a.publishedAssessmentId = :id")
+                    .setLong("id", publishedAssessmentId).uniqueResult());
+            rows.add(new Object[] {session.createQuery(
+                    "select p.lastModifiedDate from PublishedAssessmentData p where p.publishedAssessmentId = :id")
+                    .setLong("id", publishedAssessmentId).uniqueResult()});
+            return rows;
+        };
+
+        return getHibernateTemplate().execute(hcb).stream()
+                .map(Arrays::toString)
+                .collect(Collectors.joining());
+    }
+
     public Map<Long, ItemGradingData> getItemGradingMap(final Long assessmentGradingId) {
 
         final HibernateCallback<List<ItemGradingData>> hcb = session -> {
@@ -1937,35 +1987,197 @@ public class AssessmentGradingFacadeQueries extends HibernateDaoSupport implemen
     public List getExportResponsesData(String publishedAssessmentId, boolean anonymous, String audioMessage, String fileUploadMessage, String noSubmissionMessage, boolean showPartAndTotalScoreSpreadsheetColumns, String poolString, String partString, String questionString, String textString, String rationaleString, String itemGradingCommentsString, Map useridMap, String responseCommentString) {
         List dataList = new ArrayList();
         List headerList = new ArrayList();
+        exportResponsesData(publishedAssessmentId, anonymous, audioMessage, fileUploadMessage, noSubmissionMessage,
+                showPartAndTotalScoreSpreadsheetColumns, poolString, partString, questionString, textString, rationaleString,
+                itemGradingCommentsString, useridMap, responseCommentString, headerList::addAll, dataList::add);
         List finalList = new ArrayList(2);
-        PublishedAssessmentService pubService = new PublishedAssessmentService();
-
-        Set publishedAssessmentSections = pubService.getSectionSetForAssessment(Long.valueOf(publishedAssessmentId));
-        Double zeroDouble = 0.0;
-        Map publishedAnswerHash = pubService.preparePublishedAnswerHash(pubService.getPublishedAssessment(
-                publishedAssessmentId));
-        Map publishedItemTextHash = pubService.preparePublishedItemTextHash(pubService.getPublishedAssessment(
-                publishedAssessmentId));
-        Map publishedItemHash = pubService.preparePublishedItemHash(pubService.getPublishedAssessment(
-                publishedAssessmentId));
-
-        //Get this sorted to add the blank gradings for the questions not answered later.
-        Set publishItemSet = new TreeSet(new ItemComparator());
-        publishItemSet.addAll(publishedItemHash.values());
-
-        int numSubmission = 1;
-        String numSubmissionText;
-        String lastAgentId = "";
-        String agentEid = "";
-        String firstName = "";
-        String lastName = "";
-        Set useridSet = new HashSet(useridMap.keySet());
-        List responseList;
-        boolean canBeExported;
-        boolean fistItemGradingData = true;
-        List list = getAllOrderedSubmissions(publishedAssessmentId);
-        Iterator assessmentGradingIter = list.iterator();
-        while (assessmentGradingIter.hasNext()) {
+        finalList.add(dataList);
+        finalList.add(headerList);
+        return finalList;
+    }
+
+    public void exportResponsesData(String publishedAssessmentId, boolean anonymous, String audioMessage, String fileUploadMessage, String noSubmissionMessage, boolean showPartAndTotalScoreSpreadsheetColumns, String poolString, String partString, String questionString, String textString, String rationaleString, String itemGradingCommentsString, Map useridMap, String responseCommentString, Consumer<List<Object>> headerConsumer, Consumer<List<Object>> rowConsumer) {
+        ResponsesExport export = new ResponsesExport(publishedAssessmentId, audioMessage, fileUploadMessage,
+                showPartAndTotalScoreSpreadsheetColumns, poolString, partString, questionString, textString, rationaleString,
+                itemGradingCommentsString, responseCommentString);
+        Session session = getHibernateTemplate().getSessionFactory().getCurrentSession();
+        Long publishedId = Long.valueOf(publishedAssessmentId);
+
+        // the question headers are made from the first submission in agent order
+        List<Object> headerList = new ArrayList<>();
+        ScrollableResults first = exportedSubmissionsQuery(session, publishedId, "", "order by a.agentId, a.submittedDate")
+                .scroll(ScrollMode.FORWARD_ONLY);
+        try {
+            while (first.next()) {
+                if (anonymous || useridMap.containsKey(first.getString(1))) {
+                    addResponses(export, first.getLong(0), new ArrayList<>(), headerList);
+                    break;
+                }
+            }
+        } finally {
+            first.close();
+        }
+        headerConsumer.accept(headerList);
+
+        if (anonymous) {
+            ScrollableResults submissions = exportedSubmissionsQuery(session, publishedId, "", "order by a.assessmentGradingId")
+                    .setFetchSize(EXPORT_BATCH_SIZE)
+                    .scroll(ScrollMode.FORWARD_ONLY);
+            try {
+                while (submissions.next()) {
+                    Long assessmentGradingId = submissions.getLong(0);
+                    List<Object> responseList = new ArrayList<>();
+                    responseList.add(assessmentGradingId);
+                    addResponses(export, assessmentGradingId, responseList, null);
+                    rowConsumer.accept(responseList);
+                }
+            } finally {
+                submissions.close();
+            }
+            return;
+        }
+
+        // the rows are sorted by name, so the students are put in that order first and their submissions
+        // read a batch of students at a time
+        List<String> agentIds = new ArrayList<>(new TreeSet<String>(useridMap.keySet()));
+        Map<String, List<Object>> names = new HashMap<>();
+        for (User user : userDirectoryService.getUsers(agentIds)) {
+            names.put(user.getId(), new ArrayList<>(Arrays.asList(user.getLastName(), user.getFirstName(), user.getEid())));
+        }
+        for (String agentId : agentIds) {
+            if (!names.containsKey(agentId)) {
+                log.error("Cannot get user {}", agentId);
+                names.put(agentId, new ArrayList<>(Arrays.asList("", "", "")));
+            }
+        }
+        ResponsesComparator comparator = new ResponsesComparator(false);
+        agentIds.sort((a, b) -> comparator.compare(names.get(a), names.get(b)));
+
+        for (int i = 0; i < agentIds.size(); i += EXPORT_BATCH_SIZE) {
+            List<String> batch = agentIds.subList(i, Math.min(i + EXPORT_BATCH_SIZE, agentIds.size()));
+            List<Object[]> rows = exportedSubmissionsQuery(session, publishedId, "and a.agentId in (:agents) ",
+                    "order by a.agentId, a.submittedDate")
+                    .setParameterList("agents", batch)
+                    .list();
+            Map<String, List<Object[]>> submissions = new HashMap<>();
+            for (Object[] row : rows) {
+                submissions.computeIfAbsent((String) row[1], k -> new ArrayList<>()).add(row);
+            }
+
+            for (String agentId : batch) {
+                List<Object[]> agentSubmissions = submissions.get(agentId);
+                if (agentSubmissions == null) {
+                    List<Object> responseList = new ArrayList<>(names.get(agentId));
+                    responseList.add(noSubmissionMessage);
+                    rowConsumer.accept(responseList);
+                    continue;
+                }
+                int numSubmission = 0;
+                for (Object[] submission : agentSubmissions) {
+                    List<Object> responseList = new ArrayList<>(names.get(agentId));
+                    if (Boolean.TRUE.equals(submission[2])) {
+                        numSubmission++;
+                    } else {
+                        numSubmission = 0;
+                    }
+                    responseList.add(numSubmission == 0 ? noSubmissionMessage : String.valueOf(numSubmission));
+                    addResponses(export, (Long) submission[0], responseList, null);
+                    rowConsumer.accept(responseList);
+                }
+            }
+        }
+    }
+
+    /**
+     * The submissions in the responses export: the ones submitted for grade, and the unsubmitted ones which were scored.
+     * Selects the assessmentGradingId, agentId and forGrade.
+     */
+    private Query exportedSubmissionsQuery(Session session, Long publishedId, String agentClause, String order) {
+        return session.createQuery(
+                "select a.assessmentGradingId, a.agentId, a.forGrade from AssessmentGradingData a " +
+                        "where a.publishedAssessmentId = :id and (a.forGrade = :forgrade1 or (a.forGrade = :forgrade2 and a.status = :status and a.finalScore <> 0)) " +
+                        agentClause + order)
+                .setLong("id", publishedId)
+                .setBoolean("forgrade1", true)
+                .setBoolean("forgrade2", false)
+                .setInteger("status", AssessmentGradingData.NO_SUBMISSION);
+    }
+
+    /**
+     * What is the same for every row of a responses export, worked out once.
+     */
+    private static class ResponsesExport {
+
+        final Set publishedAssessmentSections;
+        final Map publishedAnswerHash;
+        final Map publishedItemTextHash;
+        final Map publishedItemHash;
+        final Set publishItemSet;
+        final Double zeroDouble = 0.0;
+        final String audioMessage;
+        final String fileUploadMessage;
+        final boolean showPartAndTotalScoreSpreadsheetColumns;
+        final String poolString;
+        final String partString;
+        final String questionString;
+        final String textString;
+        final String rationaleString;
+        final String itemGradingCommentsString;
+        final String responseCommentString;
+
+        ResponsesExport(String publishedAssessmentId, String audioMessage, String fileUploadMessage, boolean showPartAndTotalScoreSpreadsheetColumns, String poolString, String partString, String questionString, String textString, String rationaleString, String itemGradingCommentsString, String responseCommentString) {
+            PublishedAssessmentService pubService = new PublishedAssessmentService();
+            PublishedAssessmentFacade publishedAssessment = pubService.getPublishedAssessment(publishedAssessmentId);
+            publishedAssessmentSections = pubService.getSectionSetForAssessment(Long.valueOf(publishedAssessmentId));
+            publishedAnswerHash = pubService.preparePublishedAnswerHash(publishedAssessment);
+            publishedItemTextHash = pubService.preparePublishedItemTextHash(publishedAssessment);
+            publishedItemHash = pubService.preparePublishedItemHash(publishedAssessment);
+
+            //Get this sorted to add the blank gradings for the questions not answered later.
+            publishItemSet = new TreeSet(new ItemComparator());
+            publishItemSet.addAll(publishedItemHash.values());
+
+            this.audioMessage = audioMessage;
+            this.fileUploadMessage = fileUploadMessage;
+            this.showPartAndTotalScoreSpreadsheetColumns = showPartAndTotalScoreSpreadsheetColumns;
+            this.poolString = poolString;
+            this.partString = partString;
+            this.questionString = questionString;
+            this.textString = textString;
+            this.rationaleString = rationaleString;
+            this.itemGradingCommentsString = itemGradingCommentsString;
+            this.responseCommentString = responseCommentString;
+        }
+    }
+
+    /**
+     * Add the scores and responses of a submission to its row.
+     *
+     * @param export what is the same for every row
+     * @param id the submission
+     * @param responseList the row, with the columns identifying the student
+     * @param headerList the list to add the question headers to, or null
+     */
+    private void addResponses(ResponsesExport export, Long id, List responseList, List headerList) {
+        Set publishedAssessmentSections = export.publishedAssessmentSections;
+        Map publishedAnswerHash = export.publishedAnswerHash;
+        Map publishedItemTextHash = export.publishedItemTextHash;
+        Map publishedItemHash = export.publishedItemHash;
+        Set publishItemSet = export.publishItemSet;
+        Double zeroDouble = export.zeroDouble;
+        String audioMessage = export.audioMessage;
+        String fileUploadMessage = export.fileUploadMessage;
+        boolean showPartAndTotalScoreSpreadsheetColumns = export.showPartAndTotalScoreSpreadsheetColumns;
+        String poolString = export.poolString;
+        String partString = export.partString;
+        String questionString = export.questionString;
+        String textString = export.textString;
+        String rationaleString = export.rationaleString;
+        String itemGradingCommentsString = export.itemGradingCommentsString;
+        String responseCommentString = export.responseCommentString;
+        AssessmentGradingData assessmentGradingData = getHibernateTemplate().get(AssessmentGradingData.class, id);
+        List grades = new ArrayList();
+        try {
 
             // create new section-item-scores structure for this assessmentGrading
             Iterator sectionsIter = publishedAssessmentSections.iterator();
@@ -1985,48 +2197,8 @@ public class AssessmentGradingFacadeQueries extends HibernateDaoSupport implemen
                 sectionScores.put(publishedSection.getSequence(), zeroDouble);
             }
 
-            AssessmentGradingData assessmentGradingData = (AssessmentGradingData) assessmentGradingIter.next();
-            String agentId = assessmentGradingData.getAgentId();
-            responseList = new ArrayList();
-            canBeExported = false;
-            if (anonymous) {
-                canBeExported = true;
-                responseList.add(assessmentGradingData.getAssessmentGradingId());
-            } else {
-                if (useridMap.containsKey(assessmentGradingData.getAgentId())) {
-                    useridSet.remove(assessmentGradingData.getAgentId());
-                    canBeExported = true;
-                    try {
-                        agentEid = userDirectoryService.getUser(assessmentGradingData.getAgentId()).getEid();
-                        firstName = userDirectoryService.getUser(assessmentGradingData.getAgentId()).getFirstName();
-                        lastName = userDirectoryService.getUser(assessmentGradingData.getAgentId()).getLastName();
-                    } catch (Exception e) {
-                        log.error("Cannot get user");
-                    }
-                    responseList.add(lastName);
-                    responseList.add(firstName);
-                    responseList.add(agentEid);
-                    if (assessmentGradingData.getForGrade()) {
-                        if (lastAgentId.equals(agentId)) {
-                            numSubmission++;
-                        } else {
-                            numSubmission = 1;
-                            lastAgentId = agentId;
-                        }
-                    } else {
-                        numSubmission = 0;
-                        lastAgentId = agentId;
-                    }
-                    if (numSubmission == 0) {
-                        numSubmissionText = noSubmissionMessage;
-                    } else {
-                        numSubmissionText = String.valueOf(numSubmission);
-                    }
-                    responseList.add(numSubmissionText);
-                }
-            }
-
-            if (canBeExported) {
+            // the submission may have been removed since it was listed
+            if (assessmentGradingData != null) {
                 int sectionScoreColumnStart = responseList.size();
                 if (showPartAndTotalScoreSpreadsheetColumns) {
                     Double finalScore = assessmentGradingData.getFinalScore();
@@ -2048,7 +2220,6 @@ public class AssessmentGradingFacadeQueries extends HibernateDaoSupport implemen
 
                 Map studentGradingMap = getStudentGradingData(assessmentGradingData.getAssessmentGradingId().toString(),
                         false);
-                List grades = new ArrayList();
                 grades.addAll(studentGradingMap.values());
 
                 Collections.sort(grades, new QuestionComparator(publishedItemHash));
@@ -2425,8 +2596,8 @@ public class AssessmentGradingFacadeQueries extends HibernateDaoSupport implemen
                         responseList.add(responseComment);
                     }
 
-                    // Only set header based on the first item grading data
-                    if (fistItemGradingData) {
+                    // the headers are made from the questions of the submission asked for
+                    if (headerList != null) {
                         //get the pool name
                         String poolName = null;
                         for (Iterator i = publishedAssessmentSections.iterator(); i.hasNext(); ) {
@@ -2521,38 +2692,20 @@ public class AssessmentGradingFacadeQueries extends HibernateDaoSupport implemen
                         }
                     }
                 }
-
-                dataList.add(responseList);
-
-                if (fistItemGradingData) {
-                    fistItemGradingData = false;
-                }
             }
-        } // while
-
-        if (!anonymous && !useridSet.isEmpty()) {
-            Iterator iter = useridSet.iterator();
-            while (iter.hasNext()) {
-                String id = (String) iter.next();
-                try {
-                    agentEid = userDirectoryService.getUser(id).getEid();
-                    firstName = userDirectoryService.getUser(id).getFirstName();
-                    lastName = userDirectoryService.getUser(id).getLastName();
-                } catch (Exception e) {
-                    log.error("Cannot get user");
+        } finally {
+            // the export reads every submission, so they aren't kept in the session once their row is made
+            for (Object oo : grades) {
+                for (Object grade : (List) oo) {
+                    if (!EmptyItemGrading.class.isInstance(grade)) {
+                        getHibernateTemplate().evict(grade);
+                    }
                 }
-                responseList = new ArrayList();
-                responseList.add(lastName);
-                responseList.add(firstName);
-                responseList.add(agentEid);
-                responseList.add(noSubmissionMessage);
-                dataList.add(responseList);
+            }
+            if (assessmentGradingData != null) {
+                getHibernateTemplate().evict(assessmentGradingData);
             }
         }
-        Collections.sort(dataList, new ResponsesComparator(anonymous));
-        finalList.add(dataList);
-        finalList.add(headerList);
-        return finalList;
     }
 
 
@@ -2794,6 +2947,86 @@ public class AssessmentGradingFacadeQueries extends HibernateDaoSupport implemen
         }
     }
 
+    public void saveGradingJournal(final GradingJournalData journal) {
+        // the row is replaced by every autosave but the first, so try the update first
+        final HibernateCallback<Integer> hcb = session -> session.createQuery(
+                "update GradingJournalData set baseDate = :baseDate, itemGradings = :itemGradings, " +
+                        "removedItemGradingIds = :removedIds, lastModifiedDate = :lastModifiedDate " +
+                        "where assessmentGradingId = :id")
+                .setParameter("baseDate", journal.getBaseDate(), StandardBasicTypes.TIMESTAMP)
+                .setParameter("itemGradings", journal.getItemGradings(), StandardBasicTypes.MATERIALIZED_CLOB)
+                .setParameter("removedIds", journal.getRemovedItemGradingIds(), StandardBasicTypes.MATERIALIZED_CLOB)
+                .setTimestamp("lastModifiedDate", journal.getLastModifiedDate())
+                .setLong("id", journal.getAssessmentGradingId())
+                .executeUpdate();
+
+        int retryCount = persistenceHelper.getRetryCount();
+        while (retryCount > 0) {
+            try {
+                if (getHibernateTemplate().execute(hcb) == 0) {
+                    getHibernateTemplate().save(journal);
+                }
+                retryCount = 0;
+            } catch (Exception e) {
+                log.warn("problem saving the grading journal of assessment grading {}: {}", journal.getAssessmentGradingId(), e.getMessage());
+                retryCount = persistenceHelper.retryDeadlock(e, retryCount);
+            }
+        }
+    }
+
+    public GradingJournalData getGradingJournal(final Long assessmentGradingId) {
+        return getHibernateTemplate().get(GradingJournalData.class, assessmentGradingId);
+    }
+
+    public List<Long> getGradingJournalIds(final Long publishedAssessmentId, final String agentId) {
+        final HibernateCallback<List<Long>> hcb = session -> session.createQuery(
+                "select j.assessmentGradingId from GradingJournalData j " +
+                        "where j.publishedAssessmentId = :id and j.agentId = :agent")
+                .setLong("id", publishedAssessmentId)
+                .setString("agent", agentId)
+                .list();
+        return getHibernateTemplate().execute(hcb);
+    }
+
+    public List<Long> getIdleGradingJournalIds(final Date lastModifiedBefore) {
+        final HibernateCallback<List<Long>> hcb = session -> session.createQuery(
+                "select j.assessmentGradingId from GradingJournalData j where j.lastModifiedDate < :date")
+                .setTimestamp("date", lastModifiedBefore)
+                .list();
+        return getHibernateTemplate().execute(hcb);
+    }
+
+    public void removeGradingJournal(final Long assessmentGradingId) {
+        final HibernateCallback<Integer> hcb = session -> session.createQuery(
+                "delete from GradingJournalData where assessmentGradingId = :id")
+                .setLong("id", assessmentGradingId)
+                .executeUpdate();
+
+        int retryCount = persistenceHelper.getRetryCount();
+        while (retryCount > 0) {
+            try {
+                getHibernateTemplate().execute(hcb);
+                retryCount = 0;
+            } catch (Exception e) {
+                log.warn("problem removing the grading journal of assessment grading {}: {}", assessmentGradingId, e.getMessage());
+                retryCount = persistenceHelper.retryDeadlock(e, retryCount);
+            }
+        }
+    }
+
+    public void flushGradingJournal(final GradingJournalData journal, final Runnable write) {
+        write.run();
+        final HibernateCallback<Integer> hcb = session -> session.createQuery(
+                "delete from GradingJournalData where assessmentGradingId = :id and lastModifiedDate = :lastModifiedDate")
+                .setLong("id", journal.getAssessmentGradingId())
+                .setTimestamp("lastModifiedDate", journal.getLastModifiedDate())
+                .executeUpdate();
+        if (getHibernateTemplate().execute(hcb) == 0) {
+            throw new IllegalStateException("The grading journal of assessment grading " + journal.getAssessmentGradingId()
+                    + " was saved again while being flushed");
+        }
+    }
+
     public boolean getHasGradingData(final Long publishedAssessmentId) {
         final HibernateCallback<List<AssessmentGradingData>> hcb = session -> {
             Query q = session.createQuery(
@@ -2986,10 +3219,12 @@ public class AssessmentGradingFacadeQueries extends HibernateDaoSupport implemen
         return list;
     }
 
-    @Override
-    public int autoSubmitAssessments() {
-        java.util.Date currentTime = new java.util.Date();
-
+    /**
+     * @return the assessment gradings to auto submit, in the order autoSubmitAssessments() goes through them. The ones
+     *         in progress with answers still in a grading journal are left out, they are submitted by a later run once
+     *         the journal has been flushed (see GradingService.flushIdleGradingJournals)
+     */
+    public List<AssessmentGradingData> getAutoSubmitCandidates(Date currentTime) {
         Session session = getHibernateTemplate().getSessionFactory().getCurrentSession();
 
 		Query query = session.createQuery("select new AssessmentGradingData(a.assessmentGradingId, a.publishedAssessmentId, " +
@@ -3003,12 +3238,21 @@ public class AssessmentGradingFacadeQueries extends HibernateDaoSupport implemen
 						" and (a.attemptDate <= c.retractDate " +
 							" or (c.dueDate <= :dueDate and c.lateHandling = 2) " +
 						"     ) " +
+						" and (a.forGrade = 1 or not exists (select j.assessmentGradingId from GradingJournalData j " +
+						"      where j.assessmentGradingId = a.assessmentGradingId)) " +
 						" order by a.publishedAssessmentId, a.agentId, a.forGrade desc, a.assessmentGradingId");
 	    
 		query.setTimestamp("dueDate",currentTime);
 		query.setTimestamp("retractDate",currentTime);
 		
-		List<AssessmentGradingData> list = query.list();
+		return query.list();
+    }
+
+    @Override
+    public int autoSubmitAssessments() {
+        java.util.Date currentTime = new java.util.Date();
+
+		List<AssessmentGradingData> list = getAutoSubmitCandidates(currentTime);
 
         Iterator iter = list.iterator();
         String lastAgentId = "";
@@ -27,10 +27,12 @@ import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.function.Consumer;
 
 import org.sakaiproject.tool.assessment.data.dao.assessment.PublishedItemData;
 import org.sakaiproject.tool.assessment.data.dao.grading.AssessmentGradingAttachment;
 import org.sakaiproject.tool.assessment.data.dao.grading.AssessmentGradingData;
+import org.sakaiproject.tool.assessment.data.dao.grading.GradingJournalData;
 import org.sakaiproject.tool.assessment.data.dao.grading.ItemGradingAttachment;
 import org.sakaiproject.tool.assessment.data.dao.grading.ItemGradingData;
 import org.sakaiproject.tool.assessment.data.dao.grading.MediaData;
@@ -199,6 +201,12 @@ public interface AssessmentGradingFacadeQueriesAPI
   
   public Set getItemGradingSet(Long assessmentGradingId);
 
+  /**
+   * A fingerprint of the grading of a published assessment: it changes whenever a submission or score is saved,
+   * or the assessment is republished, so results calculated from the grading can be reused until then.
+   */
+  public String getGradingFingerprint(Long publishedAssessmentId);
+
   public Map<Long, AssessmentGradingData> getAssessmentGradingByItemGradingId(Long publishedAssessmentId);
 
   public void deleteAll(Collection c);
@@ -244,10 +252,48 @@ public interface AssessmentGradingFacadeQueriesAPI
   public int getLateSubmissionsNumberByAgentId(Long publishedAssessmentId, String agentIdString, Date dueDate);
   
   public List getExportResponsesData(String publishedAssessmentId, boolean anonymous, String audioMessage, String fileUploadMessage, String noSubmissionMessage, boolean showPartAndTotalScoreSpreadsheetColumns, String poolString, String sectionString, String questionString, String textString, String rationaleString, String itemGradingCommentsString, Map useridMap, String responseCommentString);
+
+  /**
+   * Export the responses as getExportResponsesData does, a row at a time.
+   *
+   * @param headerConsumer is given the question headers, before any row
+   * @param rowConsumer is given each row, in order
+   */
+  public void exportResponsesData(String publishedAssessmentId, boolean anonymous, String audioMessage, String fileUploadMessage, String noSubmissionMessage, boolean showPartAndTotalScoreSpreadsheetColumns, String poolString, String sectionString, String questionString, String textString, String rationaleString, String itemGradingCommentsString, Map useridMap, String responseCommentString, Consumer<List<Object>> headerConsumer, Consumer<List<Object>> rowConsumer);
   
   public boolean getHasGradingData(Long publishedAssessmentId);
 
   public void removeUnsubmittedAssessmentGradingData(AssessmentGradingData data);
+
+  /**
+   * Save the grading journal of an assessment grading, replacing the one it had.
+   */
+  public void saveGradingJournal(GradingJournalData journal);
+
+  public GradingJournalData getGradingJournal(Long assessmentGradingId);
+
+  /**
+   * @return the ids of the assessment gradings of the agent for the published assessment which have a grading journal
+   */
+  public List<Long> getGradingJournalIds(Long publishedAssessmentId, String agentId);
+
+  /**
+   * @return the ids of the assessment gradings whose grading journal hasn't been saved since the date
+   */
+  public List<Long> getIdleGradingJournalIds(Date lastModifiedBefore);
+
+  public void removeGradingJournal(Long assessmentGradingId);
+
+  /**
+   * Write the answers of a grading journal to its grading and remove the journal, in one transaction:
+   * if the write fails the journal is kept, to be flushed again.
+   *
+   * @param journal the journal, as it was read
+   * @param write writes the answers to the grading, joining the transaction
+   * @throws IllegalStateException if the journal was saved again since it was read, the write is rolled back
+   *         and the journal kept, the answers are in the new one as well
+   */
+  public void flushGradingJournal(GradingJournalData journal, Runnable write);
     
   public List<Boolean> getHasGradingDataAndHasSubmission(Long publishedAssessmentId);
   
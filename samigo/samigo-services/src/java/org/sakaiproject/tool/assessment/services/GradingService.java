@@ -45,6 +45,7 @@ import java.util.Random;
 import java.util.Set;
 import java.util.StringTokenizer;
 import java.util.TreeSet;
+import java.util.function.Consumer;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
@@ -57,12 +58,14 @@ import org.sakaiproject.tool.assessment.data.dao.assessment.PublishedItemData;
 import org.sakaiproject.tool.assessment.data.dao.grading.StudentGradingSummaryData;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.sakaiproject.component.cover.ServerConfigurationService;
 import org.sakaiproject.event.cover.EventTrackingService;
 import org.sakaiproject.samigo.util.SamigoConstants;
 import org.sakaiproject.service.gradebook.shared.GradebookExternalAssessmentService;
 import org.sakaiproject.spring.SpringBeanLocator;
 import org.sakaiproject.tool.assessment.data.dao.grading.AssessmentGradingAttachment;
 import org.sakaiproject.tool.assessment.data.dao.grading.AssessmentGradingData;
+import org.sakaiproject.tool.assessment.data.dao.grading.GradingJournalData;
 import org.sakaiproject.tool.assessment.data.dao.grading.ItemGradingAttachment;
 import org.sakaiproject.tool.assessment.data.dao.grading.ItemGradingData;
 import org.sakaiproject.tool.assessment.data.dao.grading.MediaData;
@@ -76,6 +79,7 @@ import org.sakaiproject.tool.assessment.data.ifc.assessment.PublishedAssessmentI
 import org.sakaiproject.tool.assessment.data.ifc.grading.StudentGradingSummaryIfc;
 import org.sakaiproject.tool.assessment.data.ifc.shared.TypeIfc;
 import org.sakaiproject.tool.assessment.facade.AgentFacade;
+import org.sakaiproject.tool.assessment.facade.AssessmentGradingFacadeQueriesAPI;
 import org.sakaiproject.tool.assessment.facade.GradebookFacade;
 import org.sakaiproject.tool.assessment.facade.TypeFacade;
 import org.sakaiproject.tool.assessment.facade.TypeFacadeQueriesAPI;
@@ -776,6 +780,17 @@ public class GradingService
     }
   }
 
+  public String getGradingFingerprint(Long publishedAssessmentId){
+    try{
+      return PersistenceService.getInstance().getAssessmentGradingFacadeQueries().
+               getGradingFingerprint(publishedAssessmentId);
+    }
+    catch(Exception e){
+        log.error(e.getMessage(), e);
+        throw new RuntimeException(e);
+    }
+  }
+
   public Map<Long, AssessmentGradingData> getAssessmentGradingByItemGradingId(String publishedAssessmentId){
     try{
       return PersistenceService.getInstance().getAssessmentGradingFacadeQueries().
@@ -2588,6 +2603,22 @@ Here are the definition and 12 cases I came up with (lydia, 01/2006):
 	    }
 	    return list;
   }
+
+  /**
+   * Export the responses a row at a time, as getExportResponsesData would return them, so the rows
+   * are written out as they are read rather than collected first.
+   *
+   * @param headerConsumer is given the question headers, before any row
+   * @param rowConsumer is given each row, in order
+   */
+  public void exportResponsesData(String publishedAssessmentId, boolean anonymous, String audioMessage, String fileUploadMessage, String noSubmissionMessage, boolean showPartAndTotalScoreSpreadsheetColumns, String poolString, String partString, String questionString, String textString, String rationaleString, String itemGradingCommentsString, Map useridMap, String responseCommentString, Consumer<List<Object>> headerConsumer, Consumer<List<Object>> rowConsumer) {
+    try {
+      PersistenceService.getInstance().getAssessmentGradingFacadeQueries().exportResponsesData(publishedAssessmentId, anonymous, audioMessage, fileUploadMessage, noSubmissionMessage, showPartAndTotalScoreSpreadsheetColumns, poolString, partString, questionString, textString, rationaleString, itemGradingCommentsString, useridMap, responseCommentString, headerConsumer, rowConsumer);
+    } catch (Exception e) {
+      log.error(e.getMessage(), e);
+      throw new RuntimeException(e);
+    }
+  }
   
   private void removeUnsubmittedAssessmentGradingData(AssessmentGradingData data){
 	  try {
@@ -3336,6 +3367,8 @@ Here are the definition and 12 cases I came up with (lydia, 01/2006):
   
   public int autoSubmitAssessments() {
 	  try {
+		  // the attempts with answers still in a grading journal are skipped until it is flushed
+		  flushIdleGradingJournals();
 		  return PersistenceService.getInstance().
 		  getAssessmentGradingFacadeQueries().autoSubmitAssessments();
 	  } catch (Exception e) {
@@ -3343,6 +3376,182 @@ Here are the definition and 12 cases I came up with (lydia, 01/2006):
 		  return 1;
 	  }
   }
+
+  /**
+   * Save the answers of an autosave to the grading journal of the assessment grading rather than to the
+   * grading itself. The journal replaces the one the grading had, so it has to hold all the answers autosaved
+   * since the grading was last saved.
+   *
+   * @param adata the assessment grading, as it was last saved
+   * @param itemGradings the item gradings added or changed, with a null id for the ones not saved yet
+   * @param removedIds the ids of the item gradings removed
+   */
+  public void saveGradingJournal(AssessmentGradingData adata, Collection<ItemGradingData> itemGradings, Collection<Long> removedIds) {
+    GradingJournalData journal = new GradingJournalData();
+    journal.setAssessmentGradingId(adata.getAssessmentGradingId());
+    journal.setPublishedAssessmentId(adata.getPublishedAssessmentId());
+    journal.setAgentId(adata.getAgentId());
+    journal.setBaseDate(adata.getSubmittedDate());
+    journal.setItemGradingList(itemGradings);
+    journal.setRemovedItemGradingIds(StringUtils.join(removedIds, ","));
+    journal.setLastModifiedDate(new Date());
+    try {
+      PersistenceService.getInstance().getAssessmentGradingFacadeQueries().saveGradingJournal(journal);
+    } catch (Exception e) {
+      log.error(e.getMessage(), e);
+      throw new RuntimeException(e);
+    }
+  }
+
+  /**
+   * Drop the grading journal of an assessment grading, once its answers have been saved to the grading.
+   */
+  public void removeGradingJournal(Long assessmentGradingId) {
+    try {
+      PersistenceService.getInstance().getAssessmentGradingFacadeQueries().removeGradingJournal(assessmentGradingId);
+    } catch (Exception e) {
+      log.error(e.getMessage(), e);
+    }
+  }
+
+  /**
+   * Write the answers in the grading journal of an assessment grading to the grading, as the autosaves would
+   * have, and drop the journal. The answers are dropped without being written if the grading has been saved
+   * since they were autosaved, or submitted. The answers are written and the journal dropped in one
+   * transaction, so a journal that could not be written is kept and flushed again later.
+   *
+   * @return the assessment grading the answers were written to, or null if there was nothing to write
+   */
+  public AssessmentGradingData flushGradingJournal(final Long assessmentGradingId) {
+    final AssessmentGradingFacadeQueriesAPI queries = PersistenceService.getInstance().getAssessmentGradingFacadeQueries();
+    final GradingJournalData journal;
+    try {
+      journal = queries.getGradingJournal(assessmentGradingId);
+    } catch (Exception e) {
+      log.error(e.getMessage(), e);
+      return null;
+    }
+    if (journal == null) {
+      return null;
+    }
+
+    final AssessmentGradingData[] flushed = new AssessmentGradingData[1];
+    try {
+      queries.flushGradingJournal(journal, () -> flushed[0] = writeGradingJournal(journal));
+    } catch (Exception e) {
+      log.error("Could not flush the grading journal of assessment grading " + assessmentGradingId + ", it is kept to be flushed again", e);
+      return null;
+    }
+    return flushed[0];
+  }
+
+  /**
+   * Write the answers in a grading journal to its grading, in the transaction flushing it.
+   *
+   * @return the assessment grading the answers were written to, or null if they are to be dropped
+   */
+  private AssessmentGradingData writeGradingJournal(GradingJournalData journal) {
+    Long assessmentGradingId = journal.getAssessmentGradingId();
+    AssessmentGradingData adata = load(assessmentGradingId.toString(), false);
+    Date savedDate = adata == null ? null : adata.getSubmittedDate();
+    // the dates are compared to the second as not every database keeps the milliseconds
+    boolean savedSince = savedDate == null ? journal.getBaseDate() != null
+        : journal.getBaseDate() == null || savedDate.getTime() / 1000 != journal.getBaseDate().getTime() / 1000;
+    if (adata == null || Boolean.TRUE.equals(adata.getForGrade()) || savedSince) {
+      log.info("Dropping the grading journal of assessment grading {}, the grading has been saved since", assessmentGradingId);
+      return null;
+    }
+    List<ItemGradingData> itemGradings = journal.getItemGradingList();
+
+    Map<Long, ItemGradingData> itemGradingMap = new HashMap<Long, ItemGradingData>();
+    for (Object o : getItemGradingSet(assessmentGradingId.toString())) {
+      ItemGradingData itemGrading = (ItemGradingData) o;
+      itemGradingMap.put(itemGrading.getItemGradingId(), itemGrading);
+    }
+
+    List<ItemGradingData> removes = new ArrayList<ItemGradingData>();
+    if (StringUtils.isNotBlank(journal.getRemovedItemGradingIds())) {
+      for (String id : journal.getRemovedItemGradingIds().split(",")) {
+        ItemGradingData removed = itemGradingMap.remove(Long.valueOf(id));
+        if (removed != null) {
+          removes.add(removed);
+        }
+      }
+    }
+    deleteAll(removes);
+
+    // the same updates the autosaves would have made, see SubmitToGradingActionListener
+    Set<ItemGradingData> updates = new HashSet<ItemGradingData>();
+    for (ItemGradingData itemGrading : itemGradings) {
+      ItemGradingData old = itemGrading.getItemGradingId() == null ? null : itemGradingMap.get(itemGrading.getItemGradingId());
+      if (old != null) {
+        old.setReview(itemGrading.getReview());
+        old.setPublishedAnswerId(itemGrading.getPublishedAnswerId());
+        old.setRationale(itemGrading.getRationale());
+        old.setAnswerText(itemGrading.getAnswerText());
+        old.setSubmittedDate(new Date());
+        old.setAutoScore(itemGrading.getAutoScore());
+        old.setOverrideScore(itemGrading.getOverrideScore());
+        updates.add(old);
+      } else {
+        itemGrading.setItemGradingId(null);
+        itemGrading.setAssessmentGradingId(assessmentGradingId);
+        itemGrading.setAgentId(adata.getAgentId());
+        updates.add(itemGrading);
+      }
+    }
+    adata.setItemGradingSet(updates);
+
+    PublishedAssessmentService publishedAssessmentService = new PublishedAssessmentService();
+    PublishedAssessmentIfc pub = publishedAssessmentService.getPublishedAssessment(adata.getPublishedAssessmentId().toString());
+    storeGrades(adata, pub, publishedAssessmentService.preparePublishedItemHash(pub),
+        publishedAssessmentService.preparePublishedItemTextHash(pub), publishedAssessmentService.preparePublishedAnswerHash(pub),
+        new HashMap(), new ArrayList());
+
+    // the answers were given when they were autosaved, not now
+    Date dueDate = pub.getAssessmentAccessControl() == null ? null : pub.getAssessmentAccessControl().getDueDate();
+    adata.setSubmittedDate(journal.getLastModifiedDate());
+    adata.setIsLate(dueDate != null && dueDate.before(journal.getLastModifiedDate()));
+    saveOrUpdateAssessmentGradingOnly(adata);
+    log.debug("Flushed the grading journal of assessment grading {}: {} item gradings, {} removed",
+        assessmentGradingId, updates.size(), removes.size());
+    return adata;
+  }
+
+  /**
+   * Flush the grading journals of the agent for the published assessment, before their attempt is resumed.
+   */
+  public void flushGradingJournals(Long publishedAssessmentId, String agentId) {
+    try {
+      for (Long assessmentGradingId : PersistenceService.getInstance().getAssessmentGradingFacadeQueries()
+          .getGradingJournalIds(publishedAssessmentId, agentId)) {
+        flushGradingJournal(assessmentGradingId);
+      }
+    } catch (Exception e) {
+      log.error(e.getMessage(), e);
+    }
+  }
+
+  /**
+   * Flush the grading journals no autosave has changed for samigo.autoSave.journal.idleMinutes: the student
+   * has left without saving the answers.
+   */
+  public void flushIdleGradingJournals() {
+    int idleMinutes = ServerConfigurationService.getInt("samigo.autoSave.journal.idleMinutes", 30);
+    Date idleSince = new Date(System.currentTimeMillis() - idleMinutes * 60000L);
+    try {
+      List<Long> assessmentGradingIds = PersistenceService.getInstance().getAssessmentGradingFacadeQueries()
+          .getIdleGradingJournalIds(idleSince);
+      for (Long assessmentGradingId : assessmentGradingIds) {
+        flushGradingJournal(assessmentGradingId);
+      }
+      if (!assessmentGradingIds.isEmpty()) {
+        log.info("Flushed {} idle grading journals", assessmentGradingIds.size());
+      }
+    } catch (Exception e) {
+      log.error(e.getMessage(), e);
+    }
+  }
   
   public ItemGradingAttachment createItemGradingAttachment(
 		  ItemGradingData itemGrading, String resourceId, String filename,
@@ -0,0 +1,61 @@
+/**********************************************************************************
+ *
+ * Copyright (c) 2017 The Apereo Foundation
+ *
+ * Licensed under the Educational Community License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.opensource.org/licenses/ECL-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ **********************************************************************************/
+
+package org.sakaiproject.tool.assessment.services;
+
+import org.quartz.JobExecutionContext;
+import org.quartz.JobExecutionException;
+import org.quartz.StatefulJob;
+import org.sakaiproject.tool.api.Session;
+import org.sakaiproject.tool.cover.SessionManager;
+import org.sakaiproject.tool.assessment.util.MediaContentConverter;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Quartz job to move the media answers still held in the SAM_MEDIA_T blob column
+ * to Content Hosting, in the batches of MediaContentConverter. It can be run while
+ * the server is in use, and again to pick up anything a previous run left.
+ */
+public class MediaConversionJob implements StatefulJob {
+
+	private static final Logger LOG = LoggerFactory.getLogger(MediaConversionJob.class);
+
+	private MediaContentConverter mediaContentConverter;
+
+	public void setMediaContentConverter(MediaContentConverter mediaContentConverter) {
+		this.mediaContentConverter = mediaContentConverter;
+	}
+
+	public void execute(JobExecutionContext jobInfo) throws JobExecutionException {
+		LOG.info("Start Job: " + jobInfo.getJobDetail().getKey().getName());
+		Session sakaiSession = SessionManager.getCurrentSession();
+		sakaiSession.setUserId("admin");
+		sakaiSession.setUserEid("admin");
+		try {
+			mediaContentConverter.convert();
+		} catch (RuntimeException e) {
+			// Quartz doesn't log the exceptions of jobs
+			LOG.error("Samigo Media Conversion failed", e);
+			throw new JobExecutionException(e);
+		} finally {
+			sakaiSession.invalidate();
+		}
+		LOG.info("End Job: " + jobInfo.getJobDetail().getKey().getName());
+	}
+}
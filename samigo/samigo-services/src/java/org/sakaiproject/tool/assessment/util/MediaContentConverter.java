@@ -32,10 +32,11 @@ import org.sakaiproject.tool.assessment.services.PersistenceService;
  * A utility service to convert media blobs from database storage to using
  * Content Hosting.
  *
- * This conversion is run at startup if the samigo.mediaConvert property is set
- * to true. It uses batching and marking to be rather safe in its operation. If
- * there are errors, they are reported in the usual log (catalina.out unless
- * configured otherwise).
+ * This conversion is started in the background at startup if the
+ * samigo.convertMedia property is set to true, and can be run at any time with
+ * the Samigo Media Conversion job. It uses batching and marking to be rather
+ * safe in its operation. If there are errors, they are reported in the usual log
+ * (catalina.out unless configured otherwise).
  */
 public class MediaContentConverter {
 
@@ -50,11 +51,14 @@ public class MediaContentConverter {
  Logger log = LoggerFactory.getLogger(MediaContentConverter.class);
 
 	public void init() {
+		gq = persistenceService.getAssessmentGradingFacadeQueries();
 		boolean convertMedia = ServerConfigurationService.getBoolean(CONVERT_MEDIA_PROP, false);
 
 		if (convertMedia) {
-			gq = persistenceService.getAssessmentGradingFacadeQueries();
-			convert();
+			// the media is converted a batch at a time, so startup doesn't have to wait for it
+			Thread conversion = new Thread(this::convert, "SamigoMediaConversion");
+			conversion.setDaemon(true);
+			conversion.start();
 		}
 	}
 
@@ -62,7 +66,10 @@ public class MediaContentConverter {
 	 * Convert MediaData objects with blobs in the database to use Content
 	 * Hosting.
 	 */
-	public void convert() {
+	public synchronized void convert() {
+		recordsConverted = 0;
+		recordsNotMarked = 0;
+		recordsInError = 0;
 		log.info("Starting Samigo Media Conversion...");
 		List<Long> ids = gq.getMediaConversionBatch();
 		if (ids.isEmpty()) {
@@ -90,10 +97,17 @@ public class MediaContentConverter {
 		try {
 			MediaData mediaData = gq.getMedia(mediaId);
 			if ("CONVERTING".equals(mediaData.getLocation())) {
-				mediaData.setLocation(null);
 				gq.saveMedia(mediaData);
-				log.debug("MediaData converted with ID: " + mediaId);
-				recordsConverted++;
+				if (mediaData.getDbMedia() == null) {
+					mediaData.setLocation(null);
+					gq.saveMedia(mediaData);
+					log.debug("MediaData converted with ID: " + mediaId);
+					recordsConverted++;
+				} else {
+					// Left marked as in progress, otherwise the next batch would pick it up again
+					log.warn("MediaData could not be stored in Content Hosting, ID: " + mediaId);
+					recordsInError++;
+				}
 			} else {
 				log.debug("MediaData could not be marked as in progress, ID: " + mediaId);
 				recordsNotMarked++;
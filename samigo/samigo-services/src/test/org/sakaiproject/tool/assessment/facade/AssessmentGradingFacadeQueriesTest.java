@@ -22,13 +22,21 @@
 
 package org.sakaiproject.tool.assessment.facade;
 
+import java.util.Collections;
+import java.util.Date;
 import java.util.List;
 import java.util.Set;
 
+import org.hibernate.Session;
+import org.hibernate.SessionFactory;
+
 import org.junit.Assert;
 import org.junit.Before;
 import org.junit.Test;
+import org.sakaiproject.tool.assessment.data.dao.assessment.PublishedAccessControl;
+import org.sakaiproject.tool.assessment.data.dao.assessment.PublishedAssessmentData;
 import org.sakaiproject.tool.assessment.data.dao.grading.AssessmentGradingData;
+import org.sakaiproject.tool.assessment.data.dao.grading.GradingJournalData;
 import org.sakaiproject.tool.assessment.data.dao.grading.ItemGradingData;
 import org.sakaiproject.tool.assessment.facade.AssessmentGradingFacadeQueries;
 import org.sakaiproject.tool.assessment.services.PersistenceHelper;
@@ -234,4 +242,141 @@ public class AssessmentGradingFacadeQueriesTest extends AbstractJUnit4SpringCont
 		Assert.assertNotNull(vals);
 		Assert.assertEquals(1, vals.size());
 	}
+
+	@Test
+	public void testFlushGradingJournal() {
+		AssessmentGradingData data = saveGrading(2L, "journal-agent", null);
+		GradingJournalData journal = saveJournal(data);
+
+		// the answers are read back from the journal as they were saved
+		List<ItemGradingData> journaled = queries.getGradingJournal(data.getAssessmentGradingId()).getItemGradingList();
+		Assert.assertEquals(1, journaled.size());
+		Assert.assertEquals(Long.valueOf(3L), journaled.get(0).getPublishedItemId());
+		Assert.assertEquals("answer", journaled.get(0).getAnswerText());
+		Assert.assertNull(journaled.get(0).getItemGradingId());
+
+		ItemGradingData item = newItemGrading(data);
+		queries.flushGradingJournal(queries.getGradingJournal(data.getAssessmentGradingId()), () -> queries.saveItemGrading(item));
+		Assert.assertNull(queries.getGradingJournal(journal.getAssessmentGradingId()));
+		Assert.assertEquals(1, queries.getAllItemGradingDataForItemInGrading(data.getAssessmentGradingId(), 3L).size());
+	}
+
+	@Test
+	public void testGradingJournalOfAnotherVersion() {
+		GradingJournalData journal = new GradingJournalData();
+		journal.setItemGradings("version=" + (GradingJournalData.ITEM_GRADINGS_VERSION + 1) + "\nsize=0\n");
+		try {
+			journal.getItemGradingList();
+			Assert.fail();
+		} catch (IllegalStateException e) {
+			//we expect this
+		}
+	}
+
+	@Test
+	public void testFailedFlushKeepsGradingJournal() {
+		AssessmentGradingData data = saveGrading(2L, "journal-agent2", null);
+		saveJournal(data);
+
+		// the write and the removal of the journal are rolled back together
+		try {
+			queries.flushGradingJournal(queries.getGradingJournal(data.getAssessmentGradingId()), () -> {
+				queries.saveItemGrading(newItemGrading(data));
+				throw new IllegalStateException("test");
+			});
+			Assert.fail();
+		} catch (IllegalStateException e) {
+			//we expect this
+		}
+		Assert.assertNotNull(queries.getGradingJournal(data.getAssessmentGradingId()));
+		Assert.assertEquals(0, queries.getAllItemGradingDataForItemInGrading(data.getAssessmentGradingId(), 3L).size());
+
+		// a journal saved again while it is flushed is kept for the next flush
+		GradingJournalData stale = queries.getGradingJournal(data.getAssessmentGradingId());
+		GradingJournalData newer = saveJournal(data);
+		newer.setLastModifiedDate(new Date(stale.getLastModifiedDate().getTime() + 1000));
+		queries.saveGradingJournal(newer);
+		try {
+			queries.flushGradingJournal(stale, () -> queries.saveItemGrading(newItemGrading(data)));
+			Assert.fail();
+		} catch (IllegalStateException e) {
+			//we expect this
+		}
+		Assert.assertEquals(newer.getLastModifiedDate().getTime(), queries.getGradingJournal(data.getAssessmentGradingId()).getLastModifiedDate().getTime());
+		Assert.assertEquals(0, queries.getAllItemGradingDataForItemInGrading(data.getAssessmentGradingId(), 3L).size());
+	}
+
+	@Test
+	public void testAutoSubmitSkipsJournaledAttempts() {
+		Date past = new Date(System.currentTimeMillis() - 3600000L);
+		SessionFactory sessionFactory = (SessionFactory) applicationContext.getBean("sessionFactory");
+		Session session = sessionFactory.openSession();
+		PublishedAssessmentData published = new PublishedAssessmentData();
+		try {
+			session.beginTransaction();
+			published.setTitle("auto submit");
+			published.setStatus(1);
+			published.setCreatedBy("admin");
+			published.setCreatedDate(past);
+			published.setLastModifiedBy("admin");
+			published.setLastModifiedDate(past);
+			session.save(published);
+			PublishedAccessControl control = new PublishedAccessControl();
+			control.setAssessment(published);
+			control.setRetractDate(past);
+			control.setAutoSubmit(1);
+			session.save(control);
+			session.getTransaction().commit();
+		} finally {
+			session.close();
+		}
+
+		Date attempted = new Date(past.getTime() - 60000L);
+		AssessmentGradingData unsaved = saveGrading(published.getPublishedAssessmentId(), "auto-agent", attempted);
+		AssessmentGradingData journaled = saveGrading(published.getPublishedAssessmentId(), "auto-agent2", attempted);
+		saveJournal(journaled);
+
+		// the journaled attempt waits until its journal is flushed
+		int candidates = 0;
+		for (AssessmentGradingData candidate : queries.getAutoSubmitCandidates(new Date())) {
+			if (published.getPublishedAssessmentId().equals(candidate.getPublishedAssessmentId())) {
+				Assert.assertEquals(unsaved.getAssessmentGradingId(), candidate.getAssessmentGradingId());
+				candidates++;
+			}
+		}
+		Assert.assertEquals(1, candidates);
+	}
+
+	private AssessmentGradingData saveGrading(Long publishedAssessmentId, String agentId, Date attemptDate) {
+		AssessmentGradingData data = new AssessmentGradingData();
+		data.setPublishedAssessmentId(publishedAssessmentId);
+		data.setAgentId(agentId);
+		data.setIsLate(false);
+		data.setForGrade(false);
+		data.setStatus(0);
+		data.setAttemptDate(attemptDate);
+		queries.saveOrUpdateAssessmentGrading(data);
+		return data;
+	}
+
+	private GradingJournalData saveJournal(AssessmentGradingData data) {
+		GradingJournalData journal = new GradingJournalData();
+		journal.setAssessmentGradingId(data.getAssessmentGradingId());
+		journal.setPublishedAssessmentId(data.getPublishedAssessmentId());
+		journal.setAgentId(data.getAgentId());
+		journal.setItemGradingList(Collections.singletonList(newItemGrading(data)));
+		journal.setLastModifiedDate(new Date());
+		queries.saveGradingJournal(journal);
+		return journal;
+	}
+
+	private ItemGradingData newItemGrading(AssessmentGradingData data) {
+		ItemGradingData item = new ItemGradingData();
+		item.setAgentId(data.getAgentId());
+		item.setAssessmentGradingId(data.getAssessmentGradingId());
+		item.setPublishedItemId(3L);
+		item.setPublishedItemTextId(3L);
+		item.setAnswerText("answer");
+		return item;
+	}
 }
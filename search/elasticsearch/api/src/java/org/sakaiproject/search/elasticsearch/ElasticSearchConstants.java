@@ -2,5 +2,7 @@ package org.sakaiproject.search.elasticsearch;
 
 public interface ElasticSearchConstants {
     public static final String CONFIG_PROPERTY_PREFIX = "elasticsearch.";
+    /** site and group realms that grant access to a document, only indexed when indexRealms is enabled */
+    public static final String FIELD_REALMS = "realms";
 }
 
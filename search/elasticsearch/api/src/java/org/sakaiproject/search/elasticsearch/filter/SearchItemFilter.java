@@ -21,6 +21,8 @@
 
 package org.sakaiproject.search.elasticsearch.filter;
 
+import java.util.List;
+
 import org.sakaiproject.search.api.SearchResult;
 
 /**
@@ -41,4 +43,13 @@ public interface SearchItemFilter
 	 */
 	SearchResult filter(SearchResult result);
 
+	/**
+	 * performs the filter operation on a page of results, returning the filtered results
+	 * in the same order, this lets a filter share work between results
+	 * 
+	 * @param results
+	 * @return
+	 */
+	List<SearchResult> filter(List<SearchResult> results);
+
 }
@@ -43,6 +43,7 @@ public class ElasticSearchList extends ForwardingList<SearchResult> implements S
             return;
         }
 
+        List<SearchResult> hits = new ArrayList<SearchResult>();
         int i=0;
         for (SearchHit hit : highlightedResponse.getHits()) {
             InternalTermsFacet facet = null;
@@ -51,8 +52,9 @@ public class ElasticSearchList extends ForwardingList<SearchResult> implements S
             }
             ElasticSearchResult result = new ElasticSearchResult(hit, facet, searchIndexBuilder, searchTerms);
             result.setIndex(i++);
-            results.add(filter.filter(result));
+            hits.add(result);
         }
+        results.addAll(filter.filter(hits));
     }
 
 
@@ -8,12 +8,16 @@ import org.junit.runner.RunWith;
 import org.mockito.Answers;
 import org.mockito.Mock;
 import org.mockito.runners.MockitoJUnitRunner;
+import org.sakaiproject.authz.api.AuthzGroupService;
 import org.sakaiproject.authz.api.SecurityService;
 import org.sakaiproject.component.api.ServerConfigurationService;
+import org.sakaiproject.entity.api.EntityManager;
 import org.sakaiproject.event.api.*;
+import org.sakaiproject.search.api.BatchReadContentProducer;
 import org.sakaiproject.search.api.EntityContentProducer;
 import org.sakaiproject.search.api.InvalidSearchQueryException;
 import org.sakaiproject.search.api.SearchList;
+import org.sakaiproject.search.api.SearchIndexBuilder;
 import org.sakaiproject.search.api.SearchResult;
 import org.sakaiproject.search.elasticsearch.filter.impl.SearchSecurityFilter;
 import org.sakaiproject.search.model.SearchBuilderItem;
@@ -22,6 +26,7 @@ import org.sakaiproject.site.api.SiteService;
 import org.sakaiproject.thread_local.api.ThreadLocalManager;
 //import org.sakaiproject.thread_local.impl.ThreadLocalComponent;
 import org.sakaiproject.tool.api.SessionManager;
+import org.sakaiproject.user.api.User;
 import org.sakaiproject.user.api.UserDirectoryService;
 
 import java.util.*;
@@ -68,6 +73,12 @@ public class ElasticSearchTest {
     @Mock
     SecurityService securityService;
 
+    @Mock
+    AuthzGroupService authzGroupService;
+
+    @Mock(answer = Answers.RETURNS_DEEP_STUBS)
+    EntityManager entityManager;
+
     @Mock
     ThreadLocalManager threadLocalManager;// = new ThreadLocalComponent();
 
@@ -185,6 +196,8 @@ public class ElasticSearchTest {
         elasticSearchIndexBuilder.setEventTrackingService(eventTrackingService);
         elasticSearchIndexBuilder.setUserDirectoryService(userDirectoryService);
         elasticSearchIndexBuilder.setSiteService(siteService);
+        elasticSearchIndexBuilder.setAuthzGroupService(authzGroupService);
+        elasticSearchIndexBuilder.setEntityManager(entityManager);
         elasticSearchIndexBuilder.setFilter(filter);
         elasticSearchIndexBuilder.setIgnoredSites("!admin,~admin");
         elasticSearchIndexBuilder.setOnlyIndexSearchToolSites(false);
@@ -204,6 +217,10 @@ public class ElasticSearchTest {
                 "                \"index\": \"not_analyzed\",\n" +
                 "                \"store\": \"yes\"\n" +
                 "            },\n" +
+                "            \"realms\": {\n" +
+                "                \"type\": \"string\",\n" +
+                "                \"index\": \"not_analyzed\"\n" +
+                "            },\n" +
                 "            \"title\": {\n" +
                 "                \"type\": \"string\",\n" +
                 "                \"store\": \"yes\",\n" +
@@ -411,6 +428,76 @@ public class ElasticSearchTest {
         }
     }
 
+    @Test
+    public void testSearchRealms() throws Exception {
+        String groupRealm = "/site/" + siteId + "/group/group1";
+        User user = mock(User.class);
+        when(user.getId()).thenReturn("user1");
+        when(userDirectoryService.getCurrentUser()).thenReturn(user);
+        when(siteService.siteReference(siteId)).thenReturn("/site/" + siteId);
+        when(entityManager.newReference(resourceName).getAuthzGroups()).thenReturn(Arrays.asList("/site/" + siteId, groupRealm));
+        when(authzGroupService.getAuthzGroupsIsAllowed(eq("user1"), any(String.class), isNull(Collection.class)))
+                .thenReturn(new HashSet<String>());
+        elasticSearchIndexBuilder.setIndexRealms(true);
+        elasticSearchIndexBuilder.addResource(notification, event);
+        elasticSearchIndexBuilder.refreshIndex();
+
+        // open to the whole site
+        assertEquals(1, elasticSearchService.search("asdf", siteIds, 0, 10).size());
+
+        // only open to a group the user isn't in
+        when(entityManager.newReference(resourceName).getAuthzGroups()).thenReturn(Arrays.asList(groupRealm));
+        elasticSearchIndexBuilder.addResource(notification, event);
+        elasticSearchIndexBuilder.refreshIndex();
+        assertEquals(0, elasticSearchService.search("asdf", siteIds, 0, 10).size());
+
+        // a member of the group
+        when(authzGroupService.getAuthzGroupsIsAllowed("user1", "*", null)).thenReturn(new HashSet<String>(Arrays.asList(groupRealm)));
+        assertEquals(1, elasticSearchService.search("asdf", siteIds, 0, 10).size());
+
+        // can see all groups in the site
+        when(authzGroupService.getAuthzGroupsIsAllowed("user1", "*", null)).thenReturn(new HashSet<String>());
+        when(authzGroupService.getAuthzGroupsIsAllowed("user1", "content.all.groups", null))
+                .thenReturn(new HashSet<String>(Arrays.asList("/site/" + siteId)));
+        assertEquals(1, elasticSearchService.search("asdf", siteIds, 0, 10).size());
+    }
+
+    @Test
+    public void testBatchFilter() {
+        EntityContentProducer batchProducer = mock(EntityContentProducer.class, withSettings().extraInterfaces(BatchReadContentProducer.class));
+        SearchIndexBuilder searchIndexBuilder = mock(SearchIndexBuilder.class);
+        when(searchIndexBuilder.newEntityContentProducer(startsWith("/batch"))).thenReturn(batchProducer);
+        when(searchIndexBuilder.newEntityContentProducer(startsWith("/single"))).thenReturn(entityContentProducer);
+        when(entityContentProducer.canRead("/single/2")).thenReturn(false);
+        when(((BatchReadContentProducer) batchProducer).canRead(eq("site1"), any(Collection.class)))
+                .thenReturn(new HashSet<String>(Arrays.asList("/batch/1")));
+        when(((BatchReadContentProducer) batchProducer).canRead(eq("site2"), any(Collection.class)))
+                .thenReturn(new HashSet<String>());
+
+        List<SearchResult> results = new ArrayList<SearchResult>();
+        for (String reference : Arrays.asList("/batch/1", "/batch/2", "/single/1", "/batch/3", "/single/2", "/batch/1")) {
+            SearchResult result = mock(SearchResult.class);
+            when(result.getReference()).thenReturn(reference);
+            when(result.getSiteId()).thenReturn(reference.equals("/batch/3") ? "site2" : "site1");
+            results.add(result);
+        }
+
+        SearchSecurityFilter batchFilter = new SearchSecurityFilter();
+        batchFilter.setSearchIndexBuilder(searchIndexBuilder);
+        List<SearchResult> filtered = batchFilter.filter(results);
+
+        assertEquals(results.size(), filtered.size());
+        assertSame(results.get(0), filtered.get(0));
+        assertTrue(filtered.get(1).isCensored());
+        assertSame(results.get(2), filtered.get(2));
+        assertTrue(filtered.get(3).isCensored());
+        assertTrue(filtered.get(4).isCensored());
+        assertSame(results.get(5), filtered.get(5));
+        verify((BatchReadContentProducer) batchProducer).canRead(eq("site1"), any(Collection.class));
+        verify((BatchReadContentProducer) batchProducer).canRead(eq("site2"), any(Collection.class));
+        verify(batchProducer, never()).canRead(any(String.class));
+    }
+
     @Test
     public void testRebuildSiteIndex() {
         elasticSearchIndexBuilder.addResource(notification, event);
@@ -39,6 +39,9 @@ import org.elasticsearch.index.query.BoolQueryBuilder;
 import org.elasticsearch.index.query.OrFilterBuilder;
 import org.elasticsearch.index.query.QueryBuilder;
 import org.elasticsearch.search.SearchHit;
+import org.sakaiproject.authz.api.AuthzGroupService;
+import org.sakaiproject.entity.api.Entity;
+import org.sakaiproject.entity.api.EntityManager;
 import org.sakaiproject.event.api.Event;
 import org.sakaiproject.exception.IdUnusedException;
 import org.sakaiproject.search.api.EntityContentProducer;
@@ -56,14 +59,18 @@ import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.TimerTask;
 import java.util.stream.Collectors;
 
+import static org.elasticsearch.index.query.FilterBuilders.missingFilter;
 import static org.elasticsearch.index.query.FilterBuilders.orFilter;
 import static org.elasticsearch.index.query.FilterBuilders.termsFilter;
+import static org.elasticsearch.index.query.QueryBuilders.constantScoreQuery;
 import static org.elasticsearch.index.query.QueryBuilders.termQuery;
 import static org.elasticsearch.index.query.QueryBuilders.termsQuery;
 
@@ -80,9 +87,26 @@ public class SiteElasticSearchIndexBuilder extends BaseElasticSearchIndexBuilder
 
     private SiteService siteService;
     private UserDirectoryService userDirectoryService;
+    private AuthzGroupService authzGroupService;
+    private EntityManager entityManager;
 
     private boolean useSiteFilters = false;
 
+    /**
+     * set to true to store the site and group realms of each document in the index and only return
+     * documents in realms the user belongs to. The index must be rebuilt after turning this on.
+     * Results are still checked by the producers afterwards, this just stops hits the user can't
+     * read from using up a page of results.
+     */
+    private boolean indexRealms = false;
+
+    /**
+     * functions that give access to every group in a site, if a user has one of these in the site realm
+     * they see documents restricted to any group of that site
+     */
+    private List<String> allGroupsFunctions = Arrays.asList("content.all.groups", "annc.all.groups",
+            "calendar.all.groups", "asn.all.groups");
+
     /**
      * set to false if you want to index all content, not just sites that have the search tool placed
      */
@@ -210,8 +234,57 @@ public class SiteElasticSearchIndexBuilder extends BaseElasticSearchIndexBuilder
                 //.field(SearchService.FIELD_ID, ecp.getId(resourceName))
                 .field(SearchService.FIELD_TOOL, ecp.getTool())
                 .field(SearchService.FIELD_CONTAINER, ecp.getContainer(resourceName))
-                .field(SearchService.FIELD_TYPE, ecp.getType(resourceName));
+                .field(SearchService.FIELD_TYPE, ecp.getType(resourceName))
                 //.field(SearchService.FIELD_SUBTYPE, ecp.getSubType(resourceName));
+                .array(ElasticSearchConstants.FIELD_REALMS, getRealms(resourceName));
+    }
+
+    /**
+     * The site and group realms of the entity, plus a /site/SITE/group/* token for each group so users
+     * with access to all groups can be matched without listing every group. Realms of other kinds are
+     * dropped as they can grant access to users who aren't members, with none left the field is empty
+     * and the document isn't restricted.
+     */
+    protected String[] getRealms(String resourceName) {
+        if (!indexRealms) {
+            return new String[0];
+        }
+        Set<String> realms = new HashSet<>();
+        try {
+            for (Object realm : entityManager.newReference(resourceName).getAuthzGroups()) {
+                String id = (String) realm;
+                if (!id.startsWith(SiteService.REFERENCE_ROOT + Entity.SEPARATOR)) {
+                    continue;
+                }
+                realms.add(id);
+                int group = id.indexOf(Entity.SEPARATOR + SiteService.GROUP_SUBTYPE + Entity.SEPARATOR);
+                if (group > 0) {
+                    realms.add(id.substring(0, group) + Entity.SEPARATOR + SiteService.GROUP_SUBTYPE + Entity.SEPARATOR + "*");
+                }
+            }
+        } catch (Exception e) {
+            getLog().debug("Failed to find realms for " + resourceName, e);
+            return new String[0];
+        }
+        return realms.toArray(new String[realms.size()]);
+    }
+
+    /**
+     * Realm tokens which the current user can match, see {@link #getRealms(String)}. A site being searched
+     * is included so that documents open to the whole site, eg in a public site, aren't hidden.
+     */
+    protected String[] getAllowedRealms(List<String> siteIds) {
+        String userId = userDirectoryService.getCurrentUser().getId();
+        Set<String> realms = new HashSet<>(authzGroupService.getAuthzGroupsIsAllowed(userId, "*", null));
+        for (String function : allGroupsFunctions) {
+            for (String realm : authzGroupService.getAuthzGroupsIsAllowed(userId, function, null)) {
+                realms.add(realm + Entity.SEPARATOR + SiteService.GROUP_SUBTYPE + Entity.SEPARATOR + "*");
+            }
+        }
+        for (String siteId : siteIds) {
+            realms.add(siteService.siteReference(siteId));
+        }
+        return realms.toArray(new String[realms.size()]);
     }
 
     @Override
@@ -477,7 +550,15 @@ public class SiteElasticSearchIndexBuilder extends BaseElasticSearchIndexBuilder
                                                                                     String searchTerms,
                                                                                     List<String> references,
                                                                                     List<String> siteIds) {
-        return builders;
+        // a search by reference only fetches hits a previous search returned, eg to highlight them
+        if (!indexRealms || !references.isEmpty() || securityService.isSuperUser()) {
+            return builders;
+        }
+        // a filter on the query rather than a post filter, addSearchSiteIds() may already have set that
+        BoolQueryBuilder queryBuilder = ((BoolQueryBuilder) builders.getRight()).must(constantScoreQuery(orFilter(
+                missingFilter(ElasticSearchConstants.FIELD_REALMS),
+                termsFilter(ElasticSearchConstants.FIELD_REALMS, getAllowedRealms(siteIds)).execution("bool"))));
+        return pairOf(builders.getLeft(), queryBuilder);
     }
 
     @Override
@@ -580,6 +661,22 @@ public class SiteElasticSearchIndexBuilder extends BaseElasticSearchIndexBuilder
         this.userDirectoryService = userDirectoryService;
     }
 
+    public void setAuthzGroupService(AuthzGroupService authzGroupService) {
+        this.authzGroupService = authzGroupService;
+    }
+
+    public void setEntityManager(EntityManager entityManager) {
+        this.entityManager = entityManager;
+    }
+
+    public void setIndexRealms(boolean indexRealms) {
+        this.indexRealms = indexRealms;
+    }
+
+    public void setAllGroupsFunctions(List<String> allGroupsFunctions) {
+        this.allGroupsFunctions = allGroupsFunctions;
+    }
+
     @Override
     public String getEventResourceFilter() {
         return "/";
@@ -25,6 +25,7 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.sakaiproject.component.api.ComponentManager;
 import org.sakaiproject.entity.api.EntityManager;
+import org.sakaiproject.search.api.BatchReadContentProducer;
 import org.sakaiproject.search.api.EntityContentProducer;
 import org.sakaiproject.search.api.SearchIndexBuilder;
 import org.sakaiproject.search.api.SearchResult;
@@ -33,8 +34,14 @@ import org.sakaiproject.search.elasticsearch.Messages;
 import org.sakaiproject.search.elasticsearch.filter.SearchItemFilter;
 
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
 import java.util.Map;
+import java.util.Set;
 
 
 /**
@@ -116,6 +123,80 @@ public class SearchSecurityFilter implements SearchItemFilter
 		return nextFilter.filter(result);
 	}
 
+	/**
+	 * Checks a page of results. Results from producers that implement BatchReadContentProducer
+	 * are grouped by producer and site and checked together, everything else is checked one
+	 * reference at a time. A reference that appears more than once is only checked once.
+	 */
+	public List<SearchResult> filter(List<SearchResult> results)
+	{
+		Map<String, Boolean> readable = new HashMap<String, Boolean>();
+		Map<BatchReadContentProducer, Map<String, Set<String>>> batches = new LinkedHashMap<BatchReadContentProducer, Map<String, Set<String>>>();
+		for (SearchResult result : results)
+		{
+			String reference = result.getReference();
+			if (readable.containsKey(reference))
+			{
+				continue;
+			}
+			EntityContentProducer ecp = searchIndexBuilder.newEntityContentProducer(reference);
+			if (ecp instanceof BatchReadContentProducer && result.getSiteId() != null)
+			{
+				Map<String, Set<String>> sites = batches.get(ecp);
+				if (sites == null)
+				{
+					sites = new LinkedHashMap<String, Set<String>>();
+					batches.put((BatchReadContentProducer) ecp, sites);
+				}
+				Set<String> references = sites.get(result.getSiteId());
+				if (references == null)
+				{
+					references = new LinkedHashSet<String>();
+					sites.put(result.getSiteId(), references);
+				}
+				references.add(reference);
+				readable.put(reference, Boolean.FALSE);
+			}
+			else
+			{
+				readable.put(reference, ecp != null && ecp.canRead(reference));
+			}
+		}
+		for (Map.Entry<BatchReadContentProducer, Map<String, Set<String>>> batch : batches.entrySet())
+		{
+			for (Map.Entry<String, Set<String>> site : batch.getValue().entrySet())
+			{
+				Set<String> allowed = batch.getKey().canRead(site.getKey(), site.getValue());
+				if (allowed == null)
+				{
+					allowed = Collections.emptySet();
+				}
+				for (String reference : site.getValue())
+				{
+					readable.put(reference, allowed.contains(reference));
+				}
+			}
+		}
+
+		List<SearchResult> filtered = new ArrayList<SearchResult>(results.size());
+		for (SearchResult result : results)
+		{
+			if (readable.get(result.getReference()))
+			{
+				filtered.add(result);
+			}
+			else
+			{
+				filtered.add(new CensoredSearchResult());
+			}
+		}
+		if (nextFilter == null)
+		{
+			return filtered;
+		}
+		return nextFilter.filter(filtered);
+	}
+
 	public class CensoredSearchResult implements SearchResult
 	{
 
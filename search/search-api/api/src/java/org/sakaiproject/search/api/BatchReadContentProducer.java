@@ -0,0 +1,45 @@
+/**********************************************************************************
+ * $URL$
+ * $Id$
+ ***********************************************************************************
+ *
+ * Copyright (c) 2003, 2004, 2005, 2006, 2007, 2008 The Sakai Foundation
+ *
+ * Licensed under the Educational Community License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.opensource.org/licenses/ECL-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ **********************************************************************************/
+
+package org.sakaiproject.search.api;
+
+import java.util.Collection;
+import java.util.Set;
+
+/**
+ * Optional interface to extend EntityContentProducer if the producer can check read access
+ * for several references in one site at once, eg when the permission is held on the site
+ * rather than on each entity. Search results are post filtered a page at a time, so this
+ * saves one permission check per hit.
+ */
+public interface BatchReadContentProducer {
+
+	/**
+	 * Check whether the current user can read the references, all of which belong to one site.
+	 * The answer for each reference must be the same as EntityContentProducer.canRead(String).
+	 * 
+	 * @param siteId the site the references were indexed against
+	 * @param references the references to check
+	 * @return the references that can be read
+	 */
+	Set<String> canRead(String siteId, Collection<String> references);
+
+}
@@ -18,4 +18,19 @@ public interface StatsUpdateManagerMXBean {
     double getNumberOfEventsGeneratedPerSec();
 
     long getAverageTimeInEventProcessingPerEvent();
+
+    int getQueueSize();
+
+    /** Age (ms) of the oldest event waiting in the ingest queue. */
+    long getQueueLag();
+
+    long getMaxQueueLag();
+
+    long getNumberOfFlushes();
+
+    long getLastFlushTime();
+
+    long getMaxFlushTime();
+
+    long getAverageFlushTime();
 }
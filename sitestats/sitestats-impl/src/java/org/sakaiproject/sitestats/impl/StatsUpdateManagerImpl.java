@@ -30,16 +30,33 @@ import java.util.List;
 import java.util.Map;
 import java.util.Observable;
 import java.util.Observer;
-import java.util.concurrent.locks.ReentrantLock;
+import java.util.Queue;
+import java.util.TimeZone;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BiConsumer;
+import java.util.function.BiFunction;
+import java.util.function.Function;
+import java.util.function.Predicate;
 
 import org.apache.commons.lang.StringUtils;
+import org.apache.commons.lang.math.NumberUtils;
 import org.hibernate.Criteria;
 import org.hibernate.HibernateException;
 import org.hibernate.Query;
 import org.hibernate.Session;
 import org.hibernate.Transaction;
+import org.hibernate.criterion.Conjunction;
+import org.hibernate.criterion.Disjunction;
 import org.hibernate.criterion.Expression;
 import org.hibernate.criterion.Order;
+import org.hibernate.metadata.ClassMetadata;
 import org.sakaiproject.alias.api.AliasService;
 import org.sakaiproject.component.cover.ComponentManager;
 import org.sakaiproject.entity.api.EntityManager;
@@ -80,6 +97,12 @@ public class StatsUpdateManagerImpl extends HibernateDaoSupport implements Runna
 	private Logger								LOG									= LoggerFactory.getLogger(StatsUpdateManagerImpl.class);
 	private final static String				PRESENCE_SUFFIX						= "-presence";
 	private final static int				PRESENCE_SUFFIX_LENGTH				= PRESENCE_SUFFIX.length();
+	/** Most events the collect thread consolidates before flushing them, so a backlog is written in steps */
+	private final static int				MAX_EVENTS_PER_FLUSH				= 10000;
+	/** Rows looked up (and written) together when upserting consolidated stats, each adds its key columns as parameters */
+	private final static int				UPSERT_BATCH_SIZE					= 100;
+	/** How long (ms) a caller waits for another thread to write its events before trying to write them itself */
+	private final static long				FLUSH_WAIT_INTERVAL					= 50;
 
 	/** Spring bean members */
 	private boolean							collectThreadEnabled				= true;
@@ -96,34 +119,31 @@ public class StatsUpdateManagerImpl extends HibernateDaoSupport implements Runna
 	private UsageSessionService				M_uss;
 	private EventTrackingService			M_ets;
 
-	/** Collect Thread and Semaphore */
+	/** Collect Thread and Semaphore (the queue is lock free: any thread can add, only the collect thread takes) */
 	private Thread							collectThread;
-	private List<Event>						collectThreadQueue					= new ArrayList<Event>();
+	private Queue<Event>					collectThreadQueue					= new ConcurrentLinkedQueue<Event>();
+	private final AtomicInteger				collectThreadQueueSize				= new AtomicInteger();
 	private Object							collectThreadSemaphore				= new Object();
 	private boolean							collectThreadRunning				= false;
 
-	/** Collect thread queue maps */
-	private Map<String, EventStat>					eventStatMap			= Collections.synchronizedMap(new HashMap<String, EventStat>());
-	private Map<String, ResourceStat>				resourceStatMap			= Collections.synchronizedMap(new HashMap<String, ResourceStat>());
-	private Map<String, LessonBuilderStat>			lessonBuilderStatMap	= Collections.synchronizedMap(new HashMap<String, LessonBuilderStat>());
-	private Map<String, SiteActivity>				activityMap				= Collections.synchronizedMap(new HashMap<String, SiteActivity>());
-	private Map<String, SiteVisits>					visitsMap				= Collections.synchronizedMap(new HashMap<String, SiteVisits>());
-	private Map<String, SitePresenceConsolidation>	presencesMap			= Collections.synchronizedMap(new HashMap<String, SitePresenceConsolidation>());
-	private Map<UniqueVisitsKey, Integer>			uniqueVisitsMap			= Collections.synchronizedMap(new HashMap<UniqueVisitsKey, Integer>());
-	private Map<String, ServerStat>					serverStatMap			= Collections.synchronizedMap(new HashMap<String, ServerStat>());
-	private Map<String, UserStat>					userStatMap				= Collections.synchronizedMap(new HashMap<String, UserStat>());
+	/** Consolidations waiting to be written to the db, and whether a thread is writing them */
+	private final Queue<PendingFlush>		pendingFlushes						= new ConcurrentLinkedQueue<PendingFlush>();
+	private final AtomicBoolean				flushing							= new AtomicBoolean();
 
-	private Map<String, String>				lessonPageCreateEventMap		=  new HashMap<String, String>();
+	private Map<String, String>				lessonPageCreateEventMap		=  new ConcurrentHashMap<String, String>();
 
 	private boolean							initialized							= false;
 	
-	private final ReentrantLock				lock								= new ReentrantLock();
-	
 	/** Metrics */
 	private boolean							isIdle								= true;
 	private long							totalEventsProcessed				= 0;
 	private long							totalTimeInEventProcessing			= 0;
 	private long							resetTime					= System.currentTimeMillis();
+	private volatile long					maxQueueLag							= 0;
+	private volatile long					totalFlushes						= 0;
+	private volatile long					totalTimeInFlushes					= 0;
+	private volatile long					lastFlushTime						= 0;
+	private volatile long					maxFlushTime						= 0;
 
 	
 	// ################################################################
@@ -250,10 +270,11 @@ public class StatsUpdateManagerImpl extends HibernateDaoSupport implements Runna
 		if(e != null) {
 			long startTime = System.currentTimeMillis();
 			isIdle = false;
-			preProcessEvent(e);
+			Consolidation consolidation = new Consolidation();
+			preProcessEvent(e, consolidation);
 			//long endTime = System.currentTimeMillis();
 			//LOG.debug("Time spent pre-processing 1 event: " + (endTime-startTime) + " ms");
-			boolean success = doUpdateConsolidatedEvents();
+			boolean success = doUpdateConsolidatedEvents(consolidation);
 			isIdle = true;
 			totalTimeInEventProcessing += (System.currentTimeMillis() - startTime);
 			return success;
@@ -283,14 +304,15 @@ public class StatsUpdateManagerImpl extends HibernateDaoSupport implements Runna
 			if(eventCount > 0) {
 				long startTime = System.currentTimeMillis();
 				isIdle = false;
+				Consolidation consolidation = new Consolidation();
 				for(int i=0; i<events.length; i++){
 					if(events[i] != null) {
-						preProcessEvent(events[i]);
+						preProcessEvent(events[i], consolidation);
 					}
 				}
 				//long endTime = System.currentTimeMillis();
 				//LOG.debug("Time spent pre-processing " + eventCount + " event(s): " + (endTime-startTime) + " ms");
-				boolean success = doUpdateConsolidatedEvents();
+				boolean success = doUpdateConsolidatedEvents(consolidation);
 				isIdle = true;
 				totalTimeInEventProcessing += (System.currentTimeMillis() - startTime);
 				return success;
@@ -371,8 +393,9 @@ public class StatsUpdateManagerImpl extends HibernateDaoSupport implements Runna
 	// ################################################################
 	// Metrics related methods
 	// ################################################################	
+	@Override
 	public int getQueueSize() {
-		return collectThreadQueue.size();
+		return collectThreadQueueSize.get();
 	}
 	
 	public boolean isIdle() {
@@ -383,6 +406,11 @@ public class StatsUpdateManagerImpl extends HibernateDaoSupport implements Runna
 		totalEventsProcessed = 0;
 		totalTimeInEventProcessing = 0;
 		resetTime = System.currentTimeMillis();
+		maxQueueLag = 0;
+		totalFlushes = 0;
+		totalTimeInFlushes = 0;
+		lastFlushTime = 0;
+		maxFlushTime = 0;
 	}
 	
 	@Override
@@ -432,6 +460,44 @@ public class StatsUpdateManagerImpl extends HibernateDaoSupport implements Runna
 			return 0;
 		}
 	}
+
+	@Override
+	public long getQueueLag() {
+		Event oldest = collectThreadQueue.peek();
+		if(oldest instanceof CustomEventImpl) {
+			return Math.max(0, System.currentTimeMillis() - ((CustomEventImpl) oldest).getDate().getTime());
+		}
+		return 0;
+	}
+
+	@Override
+	public long getMaxQueueLag() {
+		return maxQueueLag;
+	}
+
+	@Override
+	public long getNumberOfFlushes() {
+		return totalFlushes;
+	}
+
+	@Override
+	public long getLastFlushTime() {
+		return lastFlushTime;
+	}
+
+	@Override
+	public long getMaxFlushTime() {
+		return maxFlushTime;
+	}
+
+	@Override
+	public long getAverageFlushTime() {
+		if(totalFlushes > 0) {
+			return totalTimeInFlushes / totalFlushes;
+		}else{
+			return 0;
+		}
+	}
 	
 	public String getMetricsSummary(boolean compact) {
 		StringBuilder sb = new StringBuilder();
@@ -445,6 +511,8 @@ public class StatsUpdateManagerImpl extends HibernateDaoSupport implements Runna
 			sb.append("\t\tNumber of events genereated in Sakai per sec: ").append(getNumberOfEventsGeneratedPerSec()).append("\n");
 			sb.append("\t\tAverage time spent in event processing per event: ").append(getAverageTimeInEventProcessingPerEvent()).append(" ms\n");
 			sb.append("\t\tEvent queue size: ").append(getQueueSize()).append("\n");
+			sb.append("\t\tEvent queue lag (current/max): ").append(getQueueLag()).append("/").append(getMaxQueueLag()).append(" ms\n");
+			sb.append("\t\tDb flush time (last/avg/max): ").append(getLastFlushTime()).append("/").append(getAverageFlushTime()).append("/").append(getMaxFlushTime()).append(" ms\n");
 			sb.append("\t\tIdle: ").append(isIdle());
 		}else{
 			sb.append("#Events processed: ").append(getNumberOfEventsProcessed()).append(", ");
@@ -453,6 +521,8 @@ public class StatsUpdateManagerImpl extends HibernateDaoSupport implements Runna
 			sb.append("#Events processed/sec: ").append(getNumberOfEventsProcessedPerSec()).append(", ");
 			sb.append("Avg. Time/event: ").append(getAverageTimeInEventProcessingPerEvent()).append(" ms, ");
 			sb.append("Event queue size: ").append(getQueueSize()).append(", ");
+			sb.append("Queue lag: ").append(getQueueLag()).append(" ms, ");
+			sb.append("Avg. Db flush: ").append(getAverageFlushTime()).append(" ms, ");
 			sb.append("Idle: ").append(isIdle());
 		}
 		return sb.toString();
@@ -464,12 +534,12 @@ public class StatsUpdateManagerImpl extends HibernateDaoSupport implements Runna
 	// ################################################################	
 	/** Method called whenever an new event is generated from EventTrackingService: do not call this method! */
 	public void update(Observable obs, Object o) {
-		// At the moment this isn't threadsafe, but as sakai event handling is single threaded this shoudn't be a problem,
-		// but it's not a formal contract.
+		// Safe to call from any number of threads, the queue is only consumed by the collect thread.
 		if(o instanceof Event){
 			Event e = (Event) o;
 			Event eventWithPreciseDate = buildEvent(getToday(), e.getEvent(), e.getResource(), e.getContext(), e.getUserId(), e.getSessionId());
-			collectThreadQueue.add(eventWithPreciseDate);
+			collectThreadQueue.offer(eventWithPreciseDate);
+			collectThreadQueueSize.incrementAndGet();
 		}
 	}
 	
@@ -481,21 +551,24 @@ public class StatsUpdateManagerImpl extends HibernateDaoSupport implements Runna
 				// do update job
 				isIdle = false;
 				long startTime = System.currentTimeMillis();
-				int eventCount = collectThreadQueue.size();
-				if(eventCount > 0) {
-					//long startTime2 = System.currentTimeMillis();
-					while(collectThreadQueue.size() > 0){
-						preProcessEvent(collectThreadQueue.remove(0));
-					}
-					//long endTime2 = System.currentTimeMillis();
-					//LOG.debug("Time spent pre-processing " + eventCount + " event(s): " + (endTime2-startTime2) + " ms");
+				Consolidation consolidation = new Consolidation();
+				Event event = collectThreadQueue.poll();
+				if(event instanceof CustomEventImpl) {
+					maxQueueLag = Math.max(maxQueueLag, startTime - ((CustomEventImpl) event).getDate().getTime());
+				}
+				int eventCount = 0;
+				while(event != null){
+					collectThreadQueueSize.decrementAndGet();
+					preProcessEvent(event, consolidation);
+					event = ++eventCount < MAX_EVENTS_PER_FLUSH ? collectThreadQueue.poll() : null;
 				}
-				doUpdateConsolidatedEvents();
+				doUpdateConsolidatedEvents(consolidation);
 				isIdle = true;
 				totalTimeInEventProcessing += (System.currentTimeMillis() - startTime);
 
 				// sleep if no work to do
 				if(!collectThreadRunning) break;
+				if(eventCount >= MAX_EVENTS_PER_FLUSH) continue;
 				try{
 					synchronized (collectThreadSemaphore){
 						collectThreadSemaphore.wait(collectThreadUpdateInterval);
@@ -536,7 +609,7 @@ public class StatsUpdateManagerImpl extends HibernateDaoSupport implements Runna
 	// ################################################################
 	// Event process methods
 	// ################################################################	
-	private void preProcessEvent(Event event) {
+	private void preProcessEvent(Event event, Consolidation consolidation) {
 		totalEventsProcessed++;
 		String userId = event.getUserId();
 		Event e = fixMalFormedEvents(event);
@@ -583,7 +656,7 @@ public class StatsUpdateManagerImpl extends HibernateDaoSupport implements Runna
 			
 			if(userId == null || eventId == null || resourceRef == null)
 				return;
-			consolidateEvent(date, eventId, resourceRef, userId, siteId);
+			consolidateEvent(consolidation, date, eventId, resourceRef, userId, siteId);
 		} else if(getServerEvents().contains(e.getEvent()) && !isMyWorkspaceEvent(e)){
 			
 			//it's a server event
@@ -598,7 +671,7 @@ public class StatsUpdateManagerImpl extends HibernateDaoSupport implements Runna
 			}
 			Date date = new Date();
 			
-			consolidateServerEvent(date, eventId);
+			consolidateServerEvent(consolidation, date, eventId);
 		} 
 		
 		//we do this separately as we want individual login stats as well as totals from the server stats section
@@ -622,7 +695,7 @@ public class StatsUpdateManagerImpl extends HibernateDaoSupport implements Runna
 			}
 			
 			Date date = new Date();
-			consolidateUserEvent(date, userId);
+			consolidateUserEvent(consolidation, date, userId);
 		}
 		
 		
@@ -630,42 +703,20 @@ public class StatsUpdateManagerImpl extends HibernateDaoSupport implements Runna
 		//else LOG.debug("EventInfo ignored:  '"+e.toString()+"' ("+e.toString()+") USER_ID: "+userId);
 	}
 	
-	private void consolidateEvent(Date dateTime, String eventId, String resourceRef, String userId, String siteId) {
+	private void consolidateEvent(Consolidation consolidation, Date dateTime, String eventId, String resourceRef, String userId, String siteId) {
 		if(eventId == null)
 			return;
 
 		Date date = getTruncatedDate(dateTime);
+		int day = StatKey.toDay(dateTime);
 		// update		
 		if(isRegisteredEvent(eventId) && !StatsManager.SITEVISITEND_EVENTID.equals(eventId)){
-			// add to eventStatMap
-			String key = userId+siteId+eventId+date;
-			synchronized(eventStatMap){
-				EventStat e1 = eventStatMap.get(key);
-				if(e1 == null){
-					e1 = new EventStatImpl();
-					e1.setUserId(userId);
-					e1.setSiteId(siteId);
-					e1.setEventId(eventId);
-					e1.setDate(date);
-				}
-				e1.setCount(e1.getCount() + 1);
-				eventStatMap.put(key, e1);
-			}
+			// add to eventStats
+			consolidation.eventStats.increment(day, userId, siteId, eventId, null);
 			
 			if(!StatsManager.SITEVISIT_EVENTID.equals(eventId)){
-				// add to activityMap
-				String key2 = siteId+date+eventId;
-				synchronized(activityMap){
-					SiteActivity e2 = activityMap.get(key2);
-					if(e2 == null){
-						e2 = new SiteActivityImpl();
-						e2.setSiteId(siteId);
-						e2.setDate(date);
-						e2.setEventId(eventId);
-					}
-					e2.setCount(e2.getCount() + 1);
-					activityMap.put(key2, e2);
-				}
+				// add to activities
+				consolidation.activities.increment(day, siteId, eventId, null, null);
 			}
 		}	
 
@@ -677,24 +728,11 @@ public class StatsUpdateManagerImpl extends HibernateDaoSupport implements Runna
 			}catch(ArrayIndexOutOfBoundsException ex){
 				resourceAction = eventId;
 			}
-			String key = userId+siteId+resourceRef+resourceAction+date;
-			synchronized(resourceStatMap){
-				ResourceStat e1 = resourceStatMap.get(key);
-				if(e1 == null){
-					e1 = new ResourceStatImpl();
-					e1.setUserId(userId);
-					e1.setSiteId(siteId);
-					e1.setResourceRef(resourceRef);
-					e1.setResourceAction(resourceAction);
-					e1.setDate(date);
-				}
-				e1.setCount(e1.getCount() + 1);
-				resourceStatMap.put(key, e1);
-			}
+			consolidation.resourceStats.increment(day, userId, siteId, resourceRef, resourceAction);
 		} else if (eventId.startsWith(StatsManager.LESSONS_EVENTID_PREFIX)) {
 			String[] resourceParts = resourceRef.split("/");
-			if (resourceParts.length > 3 && "page".equals(resourceParts[2])) {
-				long pageId = Long.parseLong(resourceParts[3]);
+			// the page id is read back from the page reference when the stats are written
+			if (resourceParts.length > 3 && "page".equals(resourceParts[2]) && NumberUtils.isDigits(resourceParts[3])) {
 				String lessonBuilderAction = null;
 				try {
 					lessonBuilderAction = eventId.split("\\.")[1];
@@ -702,8 +740,6 @@ public class StatsUpdateManagerImpl extends HibernateDaoSupport implements Runna
 					lessonBuilderAction = eventId;
 				}
 
-				String key = userId + siteId + lessonBuilderAction + pageId + date;
-
 				if ("create".equals(lessonBuilderAction)) {
 					// We cache create events so we can ignore read events from page creators
 					lessonPageCreateEventMap.put(resourceRef, userId);
@@ -747,143 +783,77 @@ public class StatsUpdateManagerImpl extends HibernateDaoSupport implements Runna
 					}
 
 					if (creatorUserId == null || !creatorUserId.equals(userId)) {
-						addToLessonBuilderStatMap(key, userId, siteId, resourceRef, pageId, lessonBuilderAction, date);
+						consolidation.lessonBuilderStats.increment(day, userId, siteId, resourceRef, lessonBuilderAction);
 					}
 				} else {
-					addToLessonBuilderStatMap(key, userId, siteId, resourceRef, pageId, lessonBuilderAction, date);
+					consolidation.lessonBuilderStats.increment(day, userId, siteId, resourceRef, lessonBuilderAction);
 				}
 			}
 		} else if(StatsManager.SITEVISIT_EVENTID.equals(eventId)){
-			// add to visitsMap
-			String key = siteId+date;
-			lock.lock();
-			try{
-				SiteVisits e1 = visitsMap.get(key);
-				if(e1 == null){
-					e1 = new SiteVisitsImpl();
-					e1.setSiteId(siteId);
-					e1.setDate(date);
-				}
-				e1.setTotalVisits(e1.getTotalVisits() + 1);
-				// unique visits are determined when updating to db:
-				//	 --> e1.setTotalUnique(totalUnique);
-				visitsMap.put(key, e1);
-				// place entry on map so we can update unique visits later
-				UniqueVisitsKey keyUniqueVisits = new UniqueVisitsKey(siteId, date);
-				uniqueVisitsMap.put(keyUniqueVisits, Integer.valueOf(1));
-				
-				// site presence started
-				if(M_sm.isEnableSitePresences()) {
-					String pKey = siteId+userId+date;
-					SitePresenceConsolidation spc = presencesMap.get(pKey);
-					if(spc == null) {
-						SitePresence sp = new SitePresenceImpl();
-						sp.setSiteId(siteId);
-						sp.setUserId(userId);
-						sp.setDate(date);
-						spc = new SitePresenceConsolidation(sp);
-					}
-					spc.sitePresence.setLastVisitStartTime(dateTime);
-					presencesMap.put(pKey, spc);					
+			// add to visits
+			// unique visits are determined, for every site and day visited, when updating to db
+			consolidation.visits.increment(day, siteId, null, null, null);
+
+			// site presence started
+			if(M_sm.isEnableSitePresences()) {
+				SitePresenceConsolidation spc = consolidation.getPresence(day, siteId, userId);
+				if(spc == null) {
+					SitePresence sp = new SitePresenceImpl();
+					sp.setSiteId(siteId);
+					sp.setUserId(userId);
+					sp.setDate(date);
+					spc = new SitePresenceConsolidation(sp);
+					consolidation.putPresence(day, siteId, userId, spc);
 				}
-			}finally{
-				lock.unlock();
+				spc.sitePresence.setLastVisitStartTime(dateTime);
 			}
 			
 		}else if(StatsManager.SITEVISITEND_EVENTID.equals(eventId)){
 			// site presence ended
 			if(M_sm.isEnableSitePresences()) {
-				String pKey = siteId+userId+date;
-				lock.lock();
-				try{
-					SitePresenceConsolidation spc = presencesMap.get(pKey);
-					if(spc == null) {
-						SitePresence sp = new SitePresenceImpl();
-						sp.setSiteId(siteId);
-						sp.setUserId(userId);
-						sp.setDate(date);
-						sp.setLastVisitStartTime(null);
-						spc = new SitePresenceConsolidation(sp, dateTime);
-					}
-					if(spc.sitePresence.getLastVisitStartTime() != null) {
-						long existingDuration = spc.sitePresence.getDuration();
-						long start = spc.sitePresence.getLastVisitStartTime().getTime();
-						long thisEventTime = dateTime.getTime();
-						long additionalDuration = thisEventTime - start;
-						if(additionalDuration > 4*60*60*1000) {
-							LOG.warn("A site presence is longer than 4h!: duration="+(additionalDuration/1000/60)+" min (SITE:"+siteId+", USER:"+userId+", DATE:"+date+")");
-						}
-						spc.sitePresence.setDuration(existingDuration + additionalDuration);						
-						spc.sitePresence.setLastVisitStartTime(null);	
+				SitePresenceConsolidation spc = consolidation.getPresence(day, siteId, userId);
+				if(spc == null) {
+					SitePresence sp = new SitePresenceImpl();
+					sp.setSiteId(siteId);
+					sp.setUserId(userId);
+					sp.setDate(date);
+					sp.setLastVisitStartTime(null);
+					spc = new SitePresenceConsolidation(sp, dateTime);
+					consolidation.putPresence(day, siteId, userId, spc);
+				}
+				if(spc.sitePresence.getLastVisitStartTime() != null) {
+					long existingDuration = spc.sitePresence.getDuration();
+					long start = spc.sitePresence.getLastVisitStartTime().getTime();
+					long thisEventTime = dateTime.getTime();
+					long additionalDuration = thisEventTime - start;
+					if(additionalDuration > 4*60*60*1000) {
+						LOG.warn("A site presence is longer than 4h!: duration="+(additionalDuration/1000/60)+" min (SITE:"+siteId+", USER:"+userId+", DATE:"+date+")");
 					}
-					presencesMap.put(pKey, spc);
-				}finally{
-					lock.unlock();
+					spc.sitePresence.setDuration(existingDuration + additionalDuration);						
+					spc.sitePresence.setLastVisitStartTime(null);	
 				}
 			}
 		} 
 		
 	}
 
-	private void addToLessonBuilderStatMap(String key, String userId, String siteId, String pageRef, long pageId, String action, Date date) {
-
-		synchronized (lessonBuilderStatMap) {
-			LessonBuilderStat e1 = lessonBuilderStatMap.get(key);
-			if (e1 == null) {
-				e1 = new LessonBuilderStatImpl();
-				e1.setUserId(userId);
-				e1.setSiteId(siteId);
-				e1.setPageRef(pageRef);
-				e1.setPageId(pageId);
-				e1.setPageAction(action);
-				e1.setDate(date);
-			}
-			e1.setCount(e1.getCount() + 1);
-			lessonBuilderStatMap.put(key, e1);
-		}
-	}
-
 	protected boolean isRegisteredEvent(String eventId) {
 		return M_ers.isRegisteredEvent(eventId);
 	}
 	
 	//STAT-299 consolidate a server event
-	private void consolidateServerEvent(Date dateTime, String eventId) {
+	private void consolidateServerEvent(Consolidation consolidation, Date dateTime, String eventId) {
 		
-		Date date = getTruncatedDate(dateTime);
-				
-		// add to serverStatMap
-		String key = eventId+date;
-		synchronized(serverStatMap){
-			ServerStat s = serverStatMap.get(key);
-			if(s == null){
-				s = new ServerStatImpl();
-				s.setEventId(eventId);
-				s.setDate(date);
-			}
-			s.setCount(s.getCount() + 1);
-			serverStatMap.put(key, s);
-		}
+		// add to serverStats
+		consolidation.serverStats.increment(StatKey.toDay(dateTime), eventId, null, null, null);
 		
 	}
 	
 	//STAT-299 consolidate a user event
-	private void consolidateUserEvent(Date dateTime, String userId) {
+	private void consolidateUserEvent(Consolidation consolidation, Date dateTime, String userId) {
 		
-		Date date = getTruncatedDate(dateTime);
-				
-		// add to userStatMap
-		String key = userId+date;
-		synchronized(userStatMap){
-			UserStat s = userStatMap.get(key);
-			if(s == null){
-				s = new UserStatImpl();
-				s.setUserId(userId);
-				s.setDate(date);
-			}
-			s.setCount(s.getCount() + 1);
-			userStatMap.put(key, s);
-		}
+		// add to userStats
+		consolidation.userStats.increment(StatKey.toDay(dateTime), userId, null, null, null);
 		
 	}
 	
@@ -891,107 +861,175 @@ public class StatsUpdateManagerImpl extends HibernateDaoSupport implements Runna
 	// ################################################################
 	// Db update methods
 	// ################################################################	
-	@SuppressWarnings("unchecked")
-	private synchronized boolean doUpdateConsolidatedEvents() {
+	/**
+	 * Writes a consolidation to the db without holding a lock while events are aggregated or written:
+	 * the consolidation is queued and whichever caller finds no flush running writes all queued
+	 * consolidations in turn, so there is a single writer and the other callers wait for their result.
+	 */
+	private boolean doUpdateConsolidatedEvents(final Consolidation consolidation) {
+		if(consolidation.isEmpty()) {
+			return true;
+		}
+		PendingFlush flush = new PendingFlush(consolidation);
+		pendingFlushes.offer(flush);
+		while(true) {
+			if(flushing.compareAndSet(false, true)) {
+				try{
+					PendingFlush next;
+					while((next = pendingFlushes.poll()) != null) {
+						try{
+							next.result.complete(doFlushConsolidatedEvents(next.consolidation));
+						}catch(Throwable t){
+							next.result.completeExceptionally(t);
+						}
+					}
+				}finally{
+					flushing.set(false);
+				}
+			}
+			try{
+				return flush.result.get(FLUSH_WAIT_INTERVAL, TimeUnit.MILLISECONDS);
+			}catch(TimeoutException e){
+				// the writer may have stopped before our consolidation was queued, try writing it ourselves
+			}catch(InterruptedException e){
+				Thread.currentThread().interrupt();
+				LOG.warn("Interrupted while waiting for consolidated events to be written");
+				return false;
+			}catch(ExecutionException e){
+				if(e.getCause() instanceof Error) {
+					throw (Error) e.getCause();
+				}
+				throw (RuntimeException) e.getCause();
+			}
+		}
+	}
+
+	private boolean doFlushConsolidatedEvents(final Consolidation consolidation) {
 		long startTime = System.currentTimeMillis();
-		if(eventStatMap.size() > 0 || resourceStatMap.size() > 0
-				|| activityMap.size() > 0 || uniqueVisitsMap.size() > 0 
-				|| visitsMap.size() > 0 || presencesMap.size() > 0
-				|| serverStatMap.size() > 0 || userStatMap.size() > 0) {
+		if(!consolidation.isEmpty()) {
 			Boolean r = getHibernateTemplate().execute(session -> {
                 Transaction tx = null;
                 try{
                     tx = session.beginTransaction();
                     // do: EventStat
-                    if(eventStatMap.size() > 0) {
-                        Collection<EventStat> tmp1 = null;
-                        synchronized(eventStatMap){
-                            tmp1 = eventStatMap.values();
-                            eventStatMap = Collections.synchronizedMap(new HashMap<String, EventStat>());
-                        }
-                        doUpdateEventStatObjects(session, tmp1);
-                    }
+                    doUpsertObjects(session, EventStatImpl.class, consolidation.eventStats.toObjects((key, count) -> {
+                            EventStat e = new EventStatImpl();
+                            e.setUserId(key.id1);
+                            e.setSiteId(key.id2);
+                            e.setEventId(key.id3);
+                            e.setDate(StatKey.toDate(key.day));
+                            e.setCount(count);
+                            return e;
+                        }),
+                        e -> new StatKey(StatKey.toDay(e.getDate()), e.getUserId(), e.getSiteId(), e.getEventId(), null),
+                        (existing, update) -> existing.setCount(existing.getCount() + update.getCount()),
+                        e -> StringUtils.isNotBlank(e.getSiteId()),
+                        "userId", "siteId", "eventId", "date");
 
                     // do: ResourceStat
-                    if(resourceStatMap.size() > 0) {
-                        Collection<ResourceStat> tmp2 = null;
-                        synchronized(resourceStatMap){
-                            tmp2 = resourceStatMap.values();
-                            resourceStatMap = Collections.synchronizedMap(new HashMap<String, ResourceStat>());
-                        }
-                        doUpdateResourceStatObjects(session, tmp2);
-                    }
+                    doUpsertObjects(session, ResourceStatImpl.class, consolidation.resourceStats.toObjects((key, count) -> {
+                            ResourceStat e = new ResourceStatImpl();
+                            e.setUserId(key.id1);
+                            e.setSiteId(key.id2);
+                            e.setResourceRef(key.id3);
+                            e.setResourceAction(key.id4);
+                            e.setDate(StatKey.toDate(key.day));
+                            e.setCount(count);
+                            return e;
+                        }),
+                        e -> new StatKey(StatKey.toDay(e.getDate()), e.getUserId(), e.getSiteId(), e.getResourceRef(), e.getResourceAction()),
+                        (existing, update) -> existing.setCount(existing.getCount() + update.getCount()),
+                        e -> StringUtils.isNotBlank(e.getSiteId()),
+                        "userId", "siteId", "resourceRef", "resourceAction", "date");
 
                     // do: Lessons ResourceStat
-                    if (lessonBuilderStatMap.size() > 0) {
-                        Collection<LessonBuilderStat> tmp3 = null;
-                        synchronized (lessonBuilderStatMap) {
-                            tmp3 = lessonBuilderStatMap.values();
-                            lessonBuilderStatMap = Collections.synchronizedMap(new HashMap<String, LessonBuilderStat>());
-                        }
-                        doUpdateLessonBuilderStatObjects(session, tmp3);
-                    }
+                    doUpsertObjects(session, LessonBuilderStatImpl.class, consolidation.lessonBuilderStats.toObjects((key, count) -> {
+                            LessonBuilderStat e = new LessonBuilderStatImpl();
+                            e.setUserId(key.id1);
+                            e.setSiteId(key.id2);
+                            e.setPageRef(key.id3);
+                            e.setPageId(Long.parseLong(key.id3.split("/")[3]));
+                            e.setPageAction(key.id4);
+                            e.setDate(StatKey.toDate(key.day));
+                            e.setCount(count);
+                            return e;
+                        }),
+                        e -> new StatKey(StatKey.toDay(e.getDate()), e.getUserId(), e.getSiteId(), e.getPageRef(), e.getPageAction()),
+                        (existing, update) -> existing.setCount(existing.getCount() + update.getCount()),
+                        e -> StringUtils.isNotBlank(e.getSiteId()),
+                        "userId", "siteId", "pageRef", "pageAction", "date");
 
                     // do: SiteActivity
-                    if(activityMap.size() > 0) {
-                        Collection<SiteActivity> tmp3 = null;
-                        synchronized(activityMap){
-                            tmp3 = activityMap.values();
-                            activityMap = Collections.synchronizedMap(new HashMap<String, SiteActivity>());
-                        }
-                        doUpdateSiteActivityObjects(session, tmp3);
-                    }
+                    doUpsertObjects(session, SiteActivityImpl.class, consolidation.activities.toObjects((key, count) -> {
+                            SiteActivity e = new SiteActivityImpl();
+                            e.setSiteId(key.id1);
+                            e.setEventId(key.id2);
+                            e.setDate(StatKey.toDate(key.day));
+                            e.setCount(count);
+                            return e;
+                        }),
+                        e -> new StatKey(StatKey.toDay(e.getDate()), e.getSiteId(), e.getEventId(), null, null),
+                        (existing, update) -> existing.setCount(existing.getCount() + update.getCount()),
+                        e -> StringUtils.isNotBlank(e.getSiteId()),
+                        "siteId", "eventId", "date");
 
                     // do: SiteVisits
-                    if(uniqueVisitsMap.size() > 0 || visitsMap.size() > 0) {
+                    if(!consolidation.visits.isEmpty()) {
                         // determine unique visits for event related sites
-                        Map<UniqueVisitsKey, Integer> tmp4;
-                        synchronized(uniqueVisitsMap){
-                            tmp4 = uniqueVisitsMap;
-                            uniqueVisitsMap = Collections.synchronizedMap(new HashMap<UniqueVisitsKey, Integer>());
+                        Map<UniqueVisitsKey, Integer> uniqueVisits = new HashMap<UniqueVisitsKey, Integer>();
+                        for(StatKey key : consolidation.visits.keys()) {
+                            uniqueVisits.put(new UniqueVisitsKey(key.id1, StatKey.toDate(key.day)), Integer.valueOf(1));
                         }
-                        tmp4 = doGetSiteUniqueVisits(session, tmp4);
+                        final Map<UniqueVisitsKey, Integer> tmp4 = doGetSiteUniqueVisits(session, uniqueVisits);
 
                         // do: SiteVisits
-                        if(visitsMap.size() > 0) {
-                            Collection<SiteVisits> tmp5 = null;
-                            synchronized(visitsMap){
-                                tmp5 = visitsMap.values();
-                                visitsMap = Collections.synchronizedMap(new HashMap<String, SiteVisits>());
-                            }
-                            doUpdateSiteVisitsObjects(session, tmp5, tmp4);
-                        }
+                        doUpsertObjects(session, SiteVisitsImpl.class, consolidation.visits.toObjects((key, count) -> {
+                                SiteVisits e = new SiteVisitsImpl();
+                                e.setSiteId(key.id1);
+                                e.setDate(StatKey.toDate(key.day));
+                                e.setTotalVisits(count);
+                                e.setTotalUnique(tmp4.get(new UniqueVisitsKey(e.getSiteId(), e.getDate())).longValue());
+                                return e;
+                            }),
+                            e -> new StatKey(StatKey.toDay(e.getDate()), e.getSiteId(), null, null, null),
+                            (existing, update) -> {
+                                existing.setTotalVisits(existing.getTotalVisits() + update.getTotalVisits());
+                                existing.setTotalUnique(update.getTotalUnique());
+                            },
+                            e -> StringUtils.isNotBlank(e.getSiteId()),
+                            "siteId", "date");
                     }
 
                     // do: SitePresences
-                    if(presencesMap.size() > 0) {
-                        Collection<SitePresenceConsolidation> tmp6 = null;
-                        synchronized(presencesMap){
-                            tmp6 = presencesMap.values();
-                            presencesMap = Collections.synchronizedMap(new HashMap<String, SitePresenceConsolidation>());
-                        }
-                        doUpdateSitePresencesObjects(session, tmp6);
+                    if(!consolidation.presences.isEmpty()) {
+                        doUpdateSitePresencesObjects(session, consolidation.presences.values());
                     }
 
                     // do: ServerStats
-                    if(serverStatMap.size() > 0) {
-                        Collection<ServerStat> tmp7 = null;
-                        synchronized(serverStatMap){
-                            tmp7 = serverStatMap.values();
-                            serverStatMap = Collections.synchronizedMap(new HashMap<String, ServerStat>());
-                        }
-                        doUpdateServerStatObjects(session, tmp7);
-                    }
+                    doUpsertObjects(session, ServerStatImpl.class, consolidation.serverStats.toObjects((key, count) -> {
+                            ServerStat s = new ServerStatImpl();
+                            s.setEventId(key.id1);
+                            s.setDate(StatKey.toDate(key.day));
+                            s.setCount(count);
+                            return s;
+                        }),
+                        s -> new StatKey(StatKey.toDay(s.getDate()), s.getEventId(), null, null, null),
+                        (existing, update) -> existing.setCount(existing.getCount() + update.getCount()),
+                        s -> true,
+                        "eventId", "date");
 
                     // do: UserStats
-                    if(userStatMap.size() > 0) {
-                        Collection<UserStat> tmp8 = null;
-                        synchronized(userStatMap){
-                            tmp8 = userStatMap.values();
-                            userStatMap = Collections.synchronizedMap(new HashMap<String, UserStat>());
-                        }
-                        doUpdateUserStatObjects(session, tmp8);
-                    }
+                    doUpsertObjects(session, UserStatImpl.class, consolidation.userStats.toObjects((key, count) -> {
+                            UserStat s = new UserStatImpl();
+                            s.setUserId(key.id1);
+                            s.setDate(StatKey.toDate(key.day));
+                            s.setCount(count);
+                            return s;
+                        }),
+                        s -> new StatKey(StatKey.toDay(s.getDate()), s.getUserId(), null, null, null),
+                        (existing, update) -> existing.setCount(existing.getCount() + update.getCount()),
+                        s -> StringUtils.isNotBlank(s.getUserId()),
+                        "userId", "date");
 
                     // commit ALL
                     tx.commit();
@@ -1004,252 +1042,91 @@ public class StatsUpdateManagerImpl extends HibernateDaoSupport implements Runna
             });
 			long endTime = System.currentTimeMillis();
 			LOG.debug("Time spent in doUpdateConsolidatedEvents(): " + (endTime-startTime) + " ms");
+			lastFlushTime = endTime - startTime;
+			maxFlushTime = Math.max(maxFlushTime, lastFlushTime);
+			totalTimeInFlushes += lastFlushTime;
+			totalFlushes++;
 			return r;
 		}else{
 			return true;
 		}
 	}
-	
-	private void doUpdateEventStatObjects(Session session, Collection<EventStat> o) {
-		if(o == null) return;
-		List<EventStat> objects = new ArrayList<EventStat>(o);
-		Collections.sort(objects);
-		Iterator<EventStat> i = objects.iterator();
-		
-		while(i.hasNext()){
-			EventStat eUpdate = i.next();
-			String eExistingSiteId = null;
-			EventStat eExisting = null;
-			try{
-				Criteria c = session.createCriteria(EventStatImpl.class);
-				c.add(Expression.eq("siteId", eUpdate.getSiteId()));
-				c.add(Expression.eq("eventId", eUpdate.getEventId()));
-				c.add(Expression.eq("userId", eUpdate.getUserId()));
-				c.add(Expression.eq("date", eUpdate.getDate()));
-				try{
-					eExisting = (EventStat) c.uniqueResult();
-				}catch(HibernateException ex){
-					try{
-						List events = c.list();
-						if ((events!=null) && (events.size()>0)){
-							LOG.debug("More than 1 result when unique result expected.", ex);
-							eExisting = (EventStat) c.list().get(0);
-						}else{
-							LOG.debug("No result found", ex);
-							eExisting = null;
-						}
-					}catch(Exception ex3){
-						eExisting = null;
-					}
-				}catch(Exception ex2){
-					LOG.warn("Probably ddbb error when loading data at java object", ex2);
-				}
-				if(eExisting == null) 
-					eExisting = eUpdate;
-				else
-					eExisting.setCount(eExisting.getCount() + eUpdate.getCount());
-	
-				eExistingSiteId = eExisting.getSiteId();
-			}catch(Exception ex){
-				//If something happens, skip the event processing
-				LOG.warn("Failed to event:"+ eUpdate.getEventId(), ex);
-			}
-			if ((eExistingSiteId!=null) && (eExistingSiteId.trim().length()>0))
-					session.saveOrUpdate(eExisting);
-		}
-	}
 
-	private void doUpdateResourceStatObjects(Session session, Collection<ResourceStat> o) {
-		if(o == null) return;
-		List<ResourceStat> objects = new ArrayList<ResourceStat>(o);
+	/**
+	 * Merges consolidated stat objects into the database. Objects are processed in
+	 * chunks of {@link #UPSERT_BATCH_SIZE}: the existing rows for a whole chunk are
+	 * loaded with a single query on their natural keys and matched in memory, instead
+	 * of issuing one lookup per object.
+	 * @param clazz The mapped stat class.
+	 * @param o The consolidated objects to persist.
+	 * @param keyOf Computes the natural key of an object (must match the key properties).
+	 * @param merge Adds the counters of the second object into the first (existing) one.
+	 * @param isValid Objects failing this test are not saved.
+	 * @param properties The mapped properties making up the natural key.
+	 */
+	private <T extends Comparable<T>> void doUpsertObjects(Session session, Class<? extends T> clazz, Collection<T> o,
+			Function<T, StatKey> keyOf, BiConsumer<T, T> merge, Predicate<T> isValid, String... properties) {
+		if(o == null || o.isEmpty()) return;
+		List<T> objects = new ArrayList<T>(o);
 		Collections.sort(objects);
-		Iterator<ResourceStat> i = objects.iterator();
-		while(i.hasNext()){
-			ResourceStat eUpdate = i.next();
-			ResourceStat eExisting = null;
-			String eExistingSiteId = null;
-			try{
-				Criteria c = session.createCriteria(ResourceStatImpl.class);
-				c.add(Expression.eq("siteId", eUpdate.getSiteId()));
-				c.add(Expression.eq("resourceRef", eUpdate.getResourceRef()));
-				c.add(Expression.eq("resourceAction", eUpdate.getResourceAction()));
-				c.add(Expression.eq("userId", eUpdate.getUserId()));
-				c.add(Expression.eq("date", eUpdate.getDate()));
+		ClassMetadata metadata = session.getSessionFactory().getClassMetadata(clazz);
+		for(int from = 0; from < objects.size(); from += UPSERT_BATCH_SIZE) {
+			List<T> chunk = objects.subList(from, Math.min(from + UPSERT_BATCH_SIZE, objects.size()));
+			Map<StatKey, T> existing = doGetExistingObjects(session, clazz, chunk, metadata, keyOf, properties);
+			for(T eUpdate : chunk) {
+				T eExisting = null;
 				try{
-					eExisting = (ResourceStat) c.uniqueResult();
-				}catch(HibernateException ex){
-					try{
-						List events = c.list();
-						if ((events!=null) && (events.size()>0)){
-							LOG.debug("More than 1 result when unique result expected.", ex);
-							eExisting = (ResourceStat) c.list().get(0);
-						}else{
-							LOG.debug("No result found", ex);
-							eExisting = null;
-						}
-					}catch(Exception ex3){
-						eExisting = null;
+					eExisting = existing.get(keyOf.apply(eUpdate));
+					if(eExisting == null) {
+						eExisting = eUpdate;
+					}else{
+						merge.accept(eExisting, eUpdate);
 					}
-				}catch(Exception ex2){
-					LOG.warn("Probably ddbb error when loading data at java object", ex2);
+				}catch(Exception ex){
+					//If something happens, skip the event processing
+					LOG.warn("Failed to event:"+ eUpdate, ex);
+					continue;
 				}
-				if(eExisting == null) 
-					eExisting = eUpdate;
-				else
-					eExisting.setCount(eExisting.getCount() + eUpdate.getCount());
-				
-				eExistingSiteId = eExisting.getSiteId();
-			}catch(Exception ex){
-				LOG.warn("Failed to event:"+ eUpdate.getId(), ex);
-			}
-			if ((eExistingSiteId!=null) && (eExistingSiteId.trim().length()>0))
+				if(isValid.test(eExisting)) {
 					session.saveOrUpdate(eExisting);
-		}
-	}
-
-	private void doUpdateLessonBuilderStatObjects(Session session, Collection<LessonBuilderStat> o) {
-
-		if (o == null) return;
-		List<LessonBuilderStat> objects = new ArrayList<LessonBuilderStat>(o);
-		Collections.sort(objects);
-		Iterator<LessonBuilderStat> i = objects.iterator();
-		while (i.hasNext()) {
-			LessonBuilderStat eUpdate = i.next();
-			LessonBuilderStat eExisting = null;
-			String eExistingSiteId = null;
-			try {
-				Criteria c = session.createCriteria(LessonBuilderStatImpl.class);
-				c.add(Expression.eq("siteId", eUpdate.getSiteId()));
-				c.add(Expression.eq("pageRef", eUpdate.getPageRef()));
-				c.add(Expression.eq("pageAction", eUpdate.getPageAction()));
-				c.add(Expression.eq("userId", eUpdate.getUserId()));
-				c.add(Expression.eq("date", eUpdate.getDate()));
-				try {
-					eExisting = (LessonBuilderStat) c.uniqueResult();
-				} catch (HibernateException ex){
-					try {
-						List events = c.list();
-						if ((events!=null) && (events.size()>0)){
-							LOG.debug("More than 1 result when unique result expected.", ex);
-							eExisting = (LessonBuilderStat) c.list().get(0);
-						} else{
-							LOG.debug("No result found", ex);
-							eExisting = null;
-						}
-					} catch (Exception ex3) {
-						eExisting = null;
-					}
-				} catch(Exception ex2) {
-					LOG.warn("Probably ddbb error when loading data at java object", ex2);
-				}
-				if (eExisting == null) {
-					eExisting = eUpdate;
-				} else {
-					eExisting.setCount(eExisting.getCount() + eUpdate.getCount());
 				}
-
-				eExistingSiteId = eExisting.getSiteId();
-			} catch (Exception ex) {
-				LOG.warn("Failed to event:"+ eUpdate.getId(), ex);
 			}
-			if ((eExistingSiteId!=null) && (eExistingSiteId.trim().length()>0))
-				session.saveOrUpdate(eExisting);
+			session.flush();
 		}
 	}
-	
-	private void doUpdateSiteActivityObjects(Session session, Collection<SiteActivity> o) {
-		if(o == null) return;
-		List<SiteActivity> objects = new ArrayList<SiteActivity>(o);
-		Collections.sort(objects);
-		Iterator<SiteActivity> i = objects.iterator();
-		while(i.hasNext()){
-			SiteActivity eUpdate = i.next();
-			SiteActivity eExisting = null;
-			String eExistingSiteId = null;
-			try{
-				Criteria c = session.createCriteria(SiteActivityImpl.class);
-				c.add(Expression.eq("siteId", eUpdate.getSiteId()));
-				c.add(Expression.eq("eventId", eUpdate.getEventId()));
-				c.add(Expression.eq("date", eUpdate.getDate()));
-				try{
-					eExisting = (SiteActivity) c.uniqueResult();
-				}catch(HibernateException ex){
-					try{
-						List events = c.list();
-						if ((events!=null) && (events.size()>0)){
-							LOG.debug("More than 1 result when unique result expected.", ex);
-							eExisting = (SiteActivity) c.list().get(0);
-						}else{
-							LOG.debug("No result found", ex);
-							eExisting = null;
-						}
-					}catch(Exception ex3){
-						eExisting = null;
-					}
-				}catch(Exception ex2){
-					LOG.warn("Probably ddbb error when loading data at java object", ex2);
+
+	/**
+	 * Loads the rows matching the natural keys of a chunk of objects, as one
+	 * (key1 = ? and key2 = ? ...) or (...) query over the composite keys.
+	 */
+	@SuppressWarnings("unchecked")
+	private <T> Map<StatKey, T> doGetExistingObjects(Session session, Class<? extends T> clazz, List<T> chunk,
+			ClassMetadata metadata, Function<T, StatKey> keyOf, String... properties) {
+		Map<StatKey, T> existing = new HashMap<StatKey, T>();
+		try{
+			Disjunction keys = Expression.disjunction();
+			for(T obj : chunk) {
+				Conjunction key = Expression.conjunction();
+				for(String property : properties) {
+					Object value = metadata.getPropertyValue(obj, property);
+					key.add(value == null ? Expression.isNull(property) : Expression.eq(property, value));
 				}
-				if(eExisting == null) 
-					eExisting = eUpdate;
-				else
-					eExisting.setCount(eExisting.getCount() + eUpdate.getCount());
-	
-				eExistingSiteId = eExisting.getSiteId();
-			}catch(Exception ex){
-				LOG.warn("Failed to event:"+ eUpdate.getEventId(), ex);
+				keys.add(key);
 			}
-			
-			if ((eExistingSiteId!=null) && (eExistingSiteId.trim().length()>0))
-					session.saveOrUpdate(eExisting);
-		}
-	}
-	
-	private void doUpdateSiteVisitsObjects(Session session, Collection<SiteVisits> o, Map<UniqueVisitsKey, Integer> map) {
-		if(o == null) return;
-		List<SiteVisits> objects = new ArrayList<SiteVisits>(o);
-		Collections.sort(objects);
-		Iterator<SiteVisits> i = objects.iterator();
-		while(i.hasNext()){
-			SiteVisits eUpdate = i.next();
-			SiteVisits eExisting = null;
-			String eExistingSiteId = null;
-			try{
-				Criteria c = session.createCriteria(SiteVisitsImpl.class);
-				c.add(Expression.eq("siteId", eUpdate.getSiteId()));
-				c.add(Expression.eq("date", eUpdate.getDate()));
-				try{
-					eExisting = (SiteVisits) c.uniqueResult();
-				}catch(HibernateException ex){
-					try{
-						List events = c.list();
-						if ((events!=null) && (events.size()>0)){
-							LOG.debug("More than 1 result when unique result expected.", ex);
-							eExisting = (SiteVisits) c.list().get(0);
-						}else{
-							LOG.debug("No result found", ex);
-							eExisting = null;
-						}
-					}catch(Exception ex3){
-						eExisting = null;
-					}
-				}catch(Exception ex2){
-					LOG.warn("Probably ddbb error when loading data at java object", ex2);
-				}
-				if(eExisting == null){
-					eExisting = eUpdate;
+			Criteria c = session.createCriteria(clazz);
+			c.add(keys);
+			for(T obj : (List<T>) c.list()) {
+				StatKey key = keyOf.apply(obj);
+				if(existing.containsKey(key)) {
+					LOG.debug("More than 1 result when unique result expected: " + key);
 				}else{
-					eExisting.setTotalVisits(eExisting.getTotalVisits() + eUpdate.getTotalVisits());
+					existing.put(key, obj);
 				}
-				Integer mapUV = map.get(new UniqueVisitsKey(eExisting.getSiteId(), eExisting.getDate()));
-				eExisting.setTotalUnique(mapUV == null? 1 : mapUV.longValue());
-	
-				eExistingSiteId = eExisting.getSiteId();
-			}catch(Exception ex){
-				LOG.warn("Failed to event:"+ eUpdate.getId(), ex);
 			}
-			if ((eExistingSiteId!=null) && (eExistingSiteId.trim().length()>0))
-					session.saveOrUpdate(eExisting);
+		}catch(Exception ex){
+			LOG.warn("Probably ddbb error when loading data at java object", ex);
 		}
+		return existing;
 	}
 	
 	private void doUpdateSiteVisitTimeObjects(Session session, Collection<SitePresence> o) {
@@ -1298,134 +1175,39 @@ public class StatsUpdateManagerImpl extends HibernateDaoSupport implements Runna
 		}
 	}
 	
-	private void doUpdateServerStatObjects(Session session, Collection<ServerStat> o) {
-		if(o == null) return;
-		List<ServerStat> objects = new ArrayList<ServerStat>(o);
-		Collections.sort(objects);
-		Iterator<ServerStat> i = objects.iterator();
-		while(i.hasNext()){
-			ServerStat eUpdate = i.next();
-			ServerStat eExisting = null;
-			try{
-				Criteria c = session.createCriteria(ServerStatImpl.class);
-				c.add(Expression.eq("eventId", eUpdate.getEventId()));
-				c.add(Expression.eq("date", eUpdate.getDate()));
-				try{
-					eExisting = (ServerStat) c.uniqueResult();
-				}catch(HibernateException ex){
-					try{
-						List events = c.list();
-						if ((events!=null) && (events.size()>0)){
-							LOG.debug("More than 1 result when unique result expected.", ex);
-							eExisting = (ServerStat) c.list().get(0);
-						}else{
-							LOG.debug("No result found", ex);
-							eExisting = null;
-						}
-					}catch(Exception ex3){
-						eExisting = null;
-					}
-				}catch(Exception ex2){
-					LOG.warn("Probably ddbb error when loading data at java object", ex2);
-				}
-				if(eExisting == null) {
-					eExisting = eUpdate;
-				}else{
-					eExisting.setCount(eExisting.getCount() + eUpdate.getCount());
-				}
-				
-			}catch(Exception ex){
-				LOG.warn("Failed to event:"+ eUpdate.getEventId(), ex);
-			}
-			session.saveOrUpdate(eExisting);
-		}
-	}
-	
-	private void doUpdateUserStatObjects(Session session, Collection<UserStat> o) {
-		if(o == null) return;
-		List<UserStat> objects = new ArrayList<UserStat>(o);
-		Collections.sort(objects);
-		Iterator<UserStat> i = objects.iterator();
-		while(i.hasNext()){
-			UserStat eUpdate = i.next();
-			UserStat eExisting = null;
-			String eExistingUserId = null;
-			try{
-				Criteria c = session.createCriteria(UserStatImpl.class);
-				c.add(Expression.eq("userId", eUpdate.getUserId()));
-				c.add(Expression.eq("date", eUpdate.getDate()));
-				try{
-					eExisting = (UserStat) c.uniqueResult();
-				}catch(HibernateException ex){
-					try{
-						List events = c.list();
-						if ((events!=null) && (events.size()>0)){
-							LOG.debug("More than 1 result when unique result expected.", ex);
-							eExisting = (UserStat) c.list().get(0);
-						}else{
-							LOG.debug("No result found", ex);
-							eExisting = null;
-						}
-					}catch(Exception ex3){
-						eExisting = null;
-					}
-				}catch(Exception ex2){
-					LOG.warn("Probably ddbb error when loading data at java object", ex2);
-				}
-				if(eExisting == null) {
-					eExisting = eUpdate;
-				}else{
-					eExisting.setCount(eExisting.getCount() + eUpdate.getCount());
-				}
-				
-				eExistingUserId = eExisting.getUserId();
-				
-			}catch(Exception ex){
-				LOG.warn("Failed to event:"+ eUpdate.getId(), ex);
-			}
-			
-			if(StringUtils.isNotBlank(eExistingUserId)) {
-				session.saveOrUpdate(eExisting);
+	private Map<UniqueVisitsKey, Integer> doGetSiteUniqueVisits(Session session, Map<UniqueVisitsKey, Integer> map) {
+		// group sites by day so unique visitors are counted with one query per day (and chunk)
+		Map<Date, List<String>> sitesByDate = new HashMap<Date, List<String>>();
+		for(UniqueVisitsKey key : map.keySet()) {
+			List<String> siteIds = sitesByDate.get(key.date);
+			if(siteIds == null) {
+				siteIds = new ArrayList<String>();
+				sitesByDate.put(key.date, siteIds);
 			}
-			
+			siteIds.add(key.siteId);
 		}
-	}
-	
-	private Map<UniqueVisitsKey, Integer> doGetSiteUniqueVisits(Session session, Map<UniqueVisitsKey, Integer> map) {
-		Iterator<UniqueVisitsKey> i = map.keySet().iterator();
-		while(i.hasNext()){
-			UniqueVisitsKey key = i.next();
-			Query q = session.createQuery("select count(distinct s.userId) " + 
-					"from EventStatImpl as s " +
-					"where s.siteId = :siteid " +
-					"and s.eventId = 'pres.begin' " +
-					"and s.date = :idate");
-			q.setString("siteid", key.siteId);
-			q.setDate("idate", key.date);
-			Integer uv = 1;
-			try{
-				uv = (Integer) q.uniqueResult();
-			}catch(ClassCastException ex){
-				uv = (int) ((Long) q.uniqueResult()).longValue();
-			}catch(HibernateException ex){
+		for(Map.Entry<Date, List<String>> entry : sitesByDate.entrySet()) {
+			List<String> siteIds = entry.getValue();
+			for(int from = 0; from < siteIds.size(); from += UPSERT_BATCH_SIZE) {
+				List<String> chunk = siteIds.subList(from, Math.min(from + UPSERT_BATCH_SIZE, siteIds.size()));
 				try{
-					List visits = q.list();
-					if ((visits!=null) && (visits.size()>0)){
-						LOG.debug("More than 1 result when unique result expected.", ex);
-						uv = (Integer) q.list().get(0);
-					}else{
-						LOG.debug("No result found", ex);
-						uv = 1;
+					Query q = session.createQuery("select s.siteId, count(distinct s.userId) " + 
+							"from EventStatImpl as s " +
+							"where s.siteId in (:siteids) " +
+							"and s.eventId = 'pres.begin' " +
+							"and s.date = :idate " +
+							"group by s.siteId");
+					q.setParameterList("siteids", chunk);
+					q.setDate("idate", entry.getKey());
+					for(Object row : q.list()) {
+						Object[] cols = (Object[]) row;
+						int uniqueVisits = cols[1] == null? 1 : ((Number) cols[1]).intValue();
+						map.put(new UniqueVisitsKey((String) cols[0], entry.getKey()), Integer.valueOf(uniqueVisits));
 					}
-				}catch (Exception e3){
-					uv = 1;
+				}catch(Exception ex){
+					LOG.debug("Probably ddbb error when loading data at java object", ex);
 				}
-				
-			}catch(Exception ex2){
-				LOG.debug("Probably ddbb error when loading data at java object", ex2);
 			}
-			int uniqueVisits = uv == null? 1 : uv.intValue();
-			map.put(key, Integer.valueOf((int)uniqueVisits));			
 		}
 		return map;
 	}
@@ -1725,6 +1507,160 @@ public class StatsUpdateManagerImpl extends HibernateDaoSupport implements Runna
 		return c.getTime();
 	}
 
+	/**
+	 * Events consolidated by a single caller (the collect thread or a direct
+	 * collectEvents() call). Each caller owns its own instance, so no locking
+	 * is needed while aggregating.
+	 */
+	private static class Consolidation {
+		/** userId, siteId, eventId */
+		public final StatCounters eventStats = new StatCounters();
+		/** userId, siteId, resourceRef, resourceAction */
+		public final StatCounters resourceStats = new StatCounters();
+		/** userId, siteId, pageRef, pageAction */
+		public final StatCounters lessonBuilderStats = new StatCounters();
+		/** siteId, eventId */
+		public final StatCounters activities = new StatCounters();
+		/** siteId */
+		public final StatCounters visits = new StatCounters();
+		/** eventId */
+		public final StatCounters serverStats = new StatCounters();
+		/** userId */
+		public final StatCounters userStats = new StatCounters();
+		/** siteId, userId */
+		public final Map<StatKey, SitePresenceConsolidation> presences = new HashMap<StatKey, SitePresenceConsolidation>();
+		private final StatKey presenceProbe = new StatKey();
+
+		public SitePresenceConsolidation getPresence(int day, String siteId, String userId) {
+			return presences.get(presenceProbe.set(day, siteId, userId, null, null));
+		}
+
+		public void putPresence(int day, String siteId, String userId, SitePresenceConsolidation spc) {
+			presences.put(new StatKey(day, siteId, userId, null, null), spc);
+		}
+
+		public boolean isEmpty() {
+			return eventStats.isEmpty() && resourceStats.isEmpty() && lessonBuilderStats.isEmpty()
+				&& activities.isEmpty() && visits.isEmpty() && presences.isEmpty()
+				&& serverStats.isEmpty() && userStats.isEmpty();
+		}
+	}
+
+	/**
+	 * Event counts of one stat table, keyed by day and identifying columns. Counting an event
+	 * looks its row up with a reused probe key, so only the first event of a row allocates.
+	 */
+	private static final class StatCounters {
+		private final Map<StatKey, long[]> counts = new HashMap<StatKey, long[]>();
+		private final StatKey probe = new StatKey();
+
+		public void increment(int day, String id1, String id2, String id3, String id4) {
+			long[] count = counts.get(probe.set(day, id1, id2, id3, id4));
+			if(count == null) {
+				count = new long[1];
+				counts.put(new StatKey(day, id1, id2, id3, id4), count);
+			}
+			count[0]++;
+		}
+
+		public boolean isEmpty() {
+			return counts.isEmpty();
+		}
+
+		public Collection<StatKey> keys() {
+			return counts.keySet();
+		}
+
+		/** Builds the stat objects to write from the counts */
+		public <T> List<T> toObjects(BiFunction<StatKey, Long, T> factory) {
+			List<T> objects = new ArrayList<T>(counts.size());
+			for(Map.Entry<StatKey, long[]> entry : counts.entrySet()) {
+				objects.add(factory.apply(entry.getKey(), entry.getValue()[0]));
+			}
+			return objects;
+		}
+	}
+
+	/**
+	 * Natural key of a consolidated stat row: the day (counted from the epoch, in the
+	 * server time zone) plus up to four identifying columns. Replaces string concatenation keys.
+	 */
+	private static final class StatKey {
+		private static final long DAY_MILLIS = 24 * 60 * 60 * 1000L;
+
+		public int day;
+		public String id1, id2, id3, id4;
+		private int hash;
+
+		/** A probe key, only for lookups */
+		public StatKey() {
+		}
+
+		public StatKey(int day, String id1, String id2, String id3, String id4) {
+			set(day, id1, id2, id3, id4);
+		}
+
+		public StatKey set(int day, String id1, String id2, String id3, String id4) {
+			this.day = day;
+			this.id1 = id1;
+			this.id2 = id2;
+			this.id3 = id3;
+			this.id4 = id4;
+			int h = day;
+			h = 31 * h + (id1 == null ? 0 : id1.hashCode());
+			h = 31 * h + (id2 == null ? 0 : id2.hashCode());
+			h = 31 * h + (id3 == null ? 0 : id3.hashCode());
+			h = 31 * h + (id4 == null ? 0 : id4.hashCode());
+			this.hash = h;
+			return this;
+		}
+
+		public static int toDay(Date date) {
+			long time = date.getTime();
+			return (int) Math.floorDiv(time + TimeZone.getDefault().getOffset(time), DAY_MILLIS);
+		}
+
+		/** The start of a day, as getTruncatedDate() would give it */
+		public static Date toDate(int day) {
+			Calendar utc = Calendar.getInstance(TimeZone.getTimeZone("UTC"));
+			utc.setTimeInMillis(day * DAY_MILLIS);
+			Calendar c = Calendar.getInstance();
+			c.clear();
+			c.set(utc.get(Calendar.YEAR), utc.get(Calendar.MONTH), utc.get(Calendar.DAY_OF_MONTH));
+			return c.getTime();
+		}
+
+		@Override
+		public boolean equals(Object o) {
+			if(o instanceof StatKey) {
+				StatKey k = (StatKey) o;
+				return day == k.day && StringUtils.equals(id1, k.id1) && StringUtils.equals(id2, k.id2)
+					&& StringUtils.equals(id3, k.id3) && StringUtils.equals(id4, k.id4);
+			}
+			return false;
+		}
+
+		@Override
+		public int hashCode() {
+			return hash;
+		}
+
+		@Override
+		public String toString() {
+			return day + "[" + id1 + ", " + id2 + ", " + id3 + ", " + id4 + "]";
+		}
+	}
+
+	/** A consolidation waiting to be written by the thread currently writing to the db */
+	private static class PendingFlush {
+		public final Consolidation consolidation;
+		public final CompletableFuture<Boolean> result = new CompletableFuture<Boolean>();
+
+		public PendingFlush(Consolidation consolidation) {
+			this.consolidation = consolidation;
+		}
+	}
+
 	private static class UniqueVisitsKey {
 		public String siteId;
 		public Date date;
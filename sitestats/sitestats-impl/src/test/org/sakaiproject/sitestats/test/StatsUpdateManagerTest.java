@@ -339,6 +339,36 @@ public class StatsUpdateManagerTest extends AbstractTransactionalJUnit4SpringCon
 		Assert.assertEquals(0, r4.size());	
 	}
 	
+	// Batched upsert tests (more rows than a single upsert batch)
+	@SuppressWarnings("unchecked")
+	@Test
+	public void testActivityEventBatches() {
+		List<Event> events = new ArrayList<Event>();
+		for(int i=0; i<1200; i++) {
+			events.add(M_sum.buildEvent(new Date(), FakeData.EVENT_CHATNEW, "/chat/msg/"+FakeData.SITE_A_ID, FakeData.SITE_A_ID, "user-"+i, "session-id-"+i));
+		}
+		// #1 Test: insert
+		Assert.assertTrue(M_sum.collectEvents(events));
+		List<EventStat> r1 = (List<EventStat>) db.getResultsForClass(EventStatImpl.class);
+		Assert.assertEquals(1200, r1.size());
+		for(EventStat es : r1) {
+			Assert.assertEquals(1, es.getCount());
+		}
+		// #2 Test: update existing rows
+		Assert.assertTrue(M_sum.collectEvents(events));
+		r1 = (List<EventStat>) db.getResultsForClass(EventStatImpl.class);
+		Assert.assertEquals(1200, r1.size());
+		for(EventStat es : r1) {
+			Assert.assertEquals(2, es.getCount());
+		}
+		List<SiteActivity> r3 = (List<SiteActivity>) db.getResultsForClass(SiteActivityImpl.class);
+		Assert.assertEquals(1, r3.size());
+		Assert.assertEquals(2400, r3.get(0).getCount());
+		// direct collection does not use the queue
+		Assert.assertEquals(0, ((StatsUpdateManagerImpl) M_sum).getQueueSize());
+		Assert.assertEquals(0, ((StatsUpdateManagerImpl) M_sum).getQueueLag());
+	}
+	
 	// Resource tests
 	@SuppressWarnings("unchecked")
 	@Test